@@ -0,0 +1,112 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.ws.commons.util.Base64;
+
+/**
+ * {@link InputStream} decoding base64 encoded content of the wrapped stream while it is read, so that neither the encoded
+ * nor the decoded content has to be kept in memory as a whole. Line breaks and other whitespace are ignored.
+ */
+class Base64DecodingInputStream extends FilterInputStream {
+    private byte[] encoded = DvkCodec.takeBuffer();
+    private char[] chars = DvkCodec.takeCharBuffer();
+    private byte[] decoded = DvkCodec.takeBuffer();
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private final Base64.Decoder decoder = new Base64.Decoder(DvkCodec.BUFFER_SIZE) {
+        @Override
+        protected void writeBuffer(byte[] buffer, int offset, int length) {
+            if (limit + length > decoded.length) {
+                byte[] grown = new byte[Math.max(decoded.length * 2, limit + length)];
+                System.arraycopy(decoded, 0, grown, 0, limit);
+                decoded = grown;
+            }
+            System.arraycopy(buffer, offset, decoded, limit, length);
+            limit += length;
+        }
+    };
+
+    Base64DecodingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (encoded == null) {
+            throw new IOException("Stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(decoded, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    private void fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int count = in.read(encoded);
+        if (count == -1) {
+            eof = true;
+            decoder.flush(); // decodes the last (padded) quantum
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            chars[i] = (char) (encoded[i] & 0xff);
+        }
+        decoder.write(chars, 0, count);
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, DvkCodec.BUFFER_SIZE)];
+        int count = read(buffer, 0, buffer.length);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (encoded == null) {
+            return;
+        }
+        try {
+            super.close();
+        } finally {
+            DvkCodec.releaseBuffer(encoded);
+            DvkCodec.releaseCharBuffer(chars);
+            DvkCodec.releaseBuffer(decoded);
+            encoded = null;
+            chars = null;
+            decoded = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.ws.commons.util.Base64;
+
+/**
+ * {@link InputStream} returning base64 encoded form of the content of the wrapped stream, without line breaks. The content is encoded while it is read,
+ * unlike with {@link Base64EncodingOutputStream} the reader of the encoded content drives the encoding.
+ */
+class Base64EncodingInputStream extends FilterInputStream {
+    private static final int CHUNK_SIZE = DvkCodec.BUFFER_SIZE / 4 * 3;
+
+    private byte[] plain = DvkCodec.takeBuffer();
+    private char[] chars = DvkCodec.takeCharBuffer();
+    private byte[] encoded = DvkCodec.takeBuffer();
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private final Base64.Encoder encoder = new Base64.Encoder(chars, 0, null) {
+        @Override
+        protected void writeBuffer(char[] buffer, int offset, int length) {
+            if (limit + length > encoded.length) {
+                byte[] grown = new byte[Math.max(encoded.length * 2, limit + length)];
+                System.arraycopy(encoded, 0, grown, 0, limit);
+                encoded = grown;
+            }
+            for (int i = 0; i < length; i++) {
+                encoded[limit++] = (byte) buffer[offset + i];
+            }
+        }
+    };
+
+    Base64EncodingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (plain == null) {
+            throw new IOException("Stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (eof) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(encoded, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    private void fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int count = in.read(plain, 0, CHUNK_SIZE);
+        if (count == -1) {
+            eof = true;
+            encoder.flush(); // encodes the last (padded) quantum
+            return;
+        }
+        encoder.write(plain, 0, count);
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, DvkCodec.BUFFER_SIZE)];
+        int count = read(buffer, 0, buffer.length);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (plain == null) {
+            return;
+        }
+        try {
+            super.close();
+        } finally {
+            DvkCodec.releaseBuffer(plain);
+            DvkCodec.releaseCharBuffer(chars);
+            DvkCodec.releaseBuffer(encoded);
+            plain = null;
+            chars = null;
+            encoded = null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.ws.commons.util.Base64;
+
+/**
+ * {@link OutputStream} writing base64 encoded form of the content written to it into the wrapped stream, without line breaks. Counterpart of
+ * {@link Base64DecodingInputStream}. Encoding is completed when the stream is closed.
+ */
+class Base64EncodingOutputStream extends FilterOutputStream {
+    private char[] chars = DvkCodec.takeCharBuffer();
+    private byte[] encoded = DvkCodec.takeBuffer();
+    private boolean closed;
+
+    private final Base64.Encoder encoder = new Base64.Encoder(chars, 0, null) {
+        @Override
+        protected void writeBuffer(char[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, encoded.length);
+                for (int i = 0; i < count; i++) {
+                    encoded[i] = (byte) buffer[offset + i];
+                }
+                out.write(encoded, 0, count);
+                offset += count;
+                length -= count;
+            }
+        }
+    };
+
+    Base64EncodingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        encoder.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            encoder.flush(); // encodes the last (padded) quantum
+            out.close();
+        } finally {
+            DvkCodec.releaseCharBuffer(chars);
+            DvkCodec.releaseBuffer(encoded);
+            chars = null;
+            encoded = null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.ContentToSend;
+
+/**
+ * Content of a &lt;DataFile/&gt; element of a document being sent, that is read only when the document is written to the attachment. <br>
+ * As size of the file is written before its content, content of unknown size is copied to a temporary file in advance.
+ */
+class DataFileContent {
+    private static Log log = LogFactory.getLog(DataFileContent.class);
+
+    private final String fileName;
+    private final long size;
+    private InputStream inputStream;
+    private File file;
+
+    private DataFileContent(String fileName, long size, InputStream inputStream, File file) {
+        this.fileName = fileName;
+        this.size = size;
+        this.inputStream = inputStream;
+        this.file = file;
+    }
+
+    static DataFileContent of(ContentToSend contentToSend) throws IOException {
+        final InputStream is = contentToSend.getInputStream();
+        if (contentToSend.getSize() >= 0) {
+            return new DataFileContent(contentToSend.getFileName(), contentToSend.getSize(), is, null);
+        }
+        File file = File.createTempFile("dvk", ".dat");
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            long size = IOUtils.copyLarge(is, os);
+            os.close();
+            return new DataFileContent(contentToSend.getFileName(), size, null, file);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(os);
+            delete(file);
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return content of the file, that can be read only once unless it was copied to a temporary file
+     */
+    public synchronized InputStream open() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        if (inputStream == null) {
+            throw new IllegalStateException("Content of '" + fileName + "' has already been read");
+        }
+        InputStream result = new SizeCheckingInputStream(inputStream);
+        inputStream = null;
+        return result;
+    }
+
+    /**
+     * Closes the input stream if it wasn't read and deletes the temporary file if one was created
+     */
+    public synchronized void dispose() {
+        IOUtils.closeQuietly(inputStream);
+        inputStream = null;
+        if (file != null) {
+            delete(file);
+            file = null;
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            log.warn("failed to delete file " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Fails if the wrapped stream doesn't contain as many bytes as was given as the size of the content
+     */
+    private class SizeCheckingInputStream extends FilterInputStream {
+        private long remaining = size;
+
+        SizeCheckingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            check(b == -1 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return check(super.read(b, off, len));
+        }
+
+        private int check(int count) throws IOException {
+            if (count == -1 ? remaining != 0 : (remaining -= count) < 0) {
+                throw new IOException("Size of '" + fileName + "' differs from the given size " + size);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Passes on everything but the content of base64 encoded &lt;DataFile/&gt; elements, which is collected to {@link ReceivedDataFile}s instead, so that parsed
+ * documents contain only metadata of the files. Content larger than <code>spillThreshold</code> bytes is written to a temporary file.
+ */
+class DataFileExtractingStreamReader extends StreamReaderDelegate {
+    private static Log log = LogFactory.getLog(DataFileExtractingStreamReader.class);
+    private static final String DATA_FILE = "DataFile";
+    private static final String EMBEDDED_BASE64 = "EMBEDDED_BASE64";
+
+    private final int spillThreshold;
+    private final List<ReceivedDataFile> dataFiles = new ArrayList<ReceivedDataFile>();
+    private DataFileCollector collector;
+
+    DataFileExtractingStreamReader(XMLStreamReader reader, int spillThreshold) {
+        super(reader);
+        this.spillThreshold = spillThreshold;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        while (true) {
+            int event = super.next();
+            if (collector == null) {
+                if (event == XMLStreamConstants.START_ELEMENT && DATA_FILE.equals(getLocalName())
+                        && EMBEDDED_BASE64.equals(getAttributeValue(null, "ContentType"))) {
+                    collector = new DataFileCollector(getAttributeValue(null, "Id"), getAttributeValue(null, "Filename"), //
+                            getAttributeValue(null, "MimeType"), getAttributeValue(null, "Size"));
+                }
+                return event;
+            }
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                collector.write(getTextCharacters(), getTextStart(), getTextLength());
+                break; // not passed on
+            case XMLStreamConstants.END_ELEMENT:
+                dataFiles.add(collector.close());
+                collector = null;
+                return event;
+            default:
+                return event;
+            }
+        }
+    }
+
+    /**
+     * Implemented with {@link #next()}, so that content of &lt;DataFile/&gt; elements is extracted also when skipped this way
+     */
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while (event == XMLStreamConstants.CHARACTERS && isWhiteSpace() || event == XMLStreamConstants.CDATA && isWhiteSpace()
+                || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.PROCESSING_INSTRUCTION || event == XMLStreamConstants.COMMENT) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("Expected start or end tag", getLocation());
+        }
+        return event;
+    }
+
+    /**
+     * Implemented with {@link #next()}, so that text of a &lt;DataFile/&gt; element whose content is extracted is returned empty
+     */
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("Current event is not a start tag", getLocation());
+        }
+        StringBuilder text = new StringBuilder();
+        int event = next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                text.append(getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            case XMLStreamConstants.COMMENT:
+                break;
+            default:
+                throw new XMLStreamException("Element text expected, got event " + event, getLocation());
+            }
+            event = next();
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return data files extracted since the previous call
+     */
+    List<ReceivedDataFile> takeDataFiles() {
+        List<ReceivedDataFile> result = new ArrayList<ReceivedDataFile>(dataFiles);
+        dataFiles.clear();
+        return result;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        try {
+            if (collector != null) {
+                collector.discard();
+                collector = null;
+            }
+            for (ReceivedDataFile dataFile : takeDataFiles()) {
+                dataFile.dispose(); // not returned to anyone
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Collects base64 encoded content of a &lt;DataFile/&gt; element
+     */
+    private class DataFileCollector {
+        private final String id;
+        private final String filename;
+        private final String mimeType;
+        private final String size;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream fileOutput;
+        private File file;
+        private byte[] bytes = DvkCodec.takeBuffer();
+
+        DataFileCollector(String id, String filename, String mimeType, String size) {
+            this.id = id;
+            this.filename = filename;
+            this.mimeType = mimeType;
+            this.size = size;
+        }
+
+        void write(char[] chars, int start, int length) throws XMLStreamException {
+            try {
+                for (int offset = 0; offset < length; offset += bytes.length) {
+                    int count = Math.min(length - offset, bytes.length);
+                    for (int i = 0; i < count; i++) {
+                        bytes[i] = (byte) chars[start + offset + i]; // base64 is ASCII
+                    }
+                    getOutput(count).write(bytes, 0, count);
+                }
+            } catch (IOException e) {
+                discard();
+                throw new XMLStreamException("Failed to write content of DataFile '" + filename + "' to temporary file", e);
+            }
+        }
+
+        private OutputStream getOutput(int count) throws IOException {
+            if (fileOutput == null && buffer.size() + count > spillThreshold) {
+                file = File.createTempFile("dvk", ".b64");
+                fileOutput = new FileOutputStream(file);
+                buffer.writeTo(fileOutput);
+                buffer = null;
+            }
+            return fileOutput != null ? fileOutput : buffer;
+        }
+
+        ReceivedDataFile close() throws XMLStreamException {
+            DvkCodec.releaseBuffer(bytes);
+            bytes = null;
+            try {
+                if (fileOutput != null) {
+                    fileOutput.close();
+                }
+            } catch (IOException e) {
+                discard();
+                throw new XMLStreamException("Failed to write content of DataFile '" + filename + "' to temporary file", e);
+            }
+            return new ReceivedDataFile(id, filename, mimeType, size == null ? -1 : Long.parseLong(size.trim()), //
+                    buffer == null ? null : buffer.toByteArray(), file);
+        }
+
+        void discard() {
+            DvkCodec.releaseBuffer(bytes);
+            bytes = null;
+            IOUtils.closeQuietly(fileOutput);
+            if (file != null && !file.delete()) {
+                log.warn("failed to delete file " + file.getAbsolutePath());
+            }
+            file = null;
+        }
+    }
+}
@@ -99,7 +99,8 @@ public interface DhlXTeeService {
      * @param recipients
      * @param sender
      * @param callback - optional callBack implementation to be called by the service method when the document is composed, allowing to change content of
-     *            <i>"dokument"</i> as desired.
+     *            <i>"dokument"</i> as desired. When a callback is given, content of all files is read into the document before the callback is
+     *            called.
      * @return dhl_Id's of the sent document
      */
     Set<String> sendDocuments(Collection<ContentToSend> contentsToSend, AadressType[] recipients, AadressType sender, SendDocumentsDokumentCallback callback,
@@ -117,6 +118,17 @@ public interface DhlXTeeService {
      */
     ReceivedDocumentsWrapper receiveDocuments(int maxNrOfDocuments);
 
+    /**
+     * Receives documents like {@link #receiveDocuments(int)}, but passes them to the callback one at a time while the response attachment is being
+     * decoded, unzipped and parsed, so that memory usage doesn't grow with the number of received documents.<br>
+     * If <code>receivedDocumentsFolder</code> is set, response is saved there the same way.
+     * 
+     * @param maxNrOfDocuments maximum number of documents that will be returned with the service call
+     * @param callback - called for each received document, in the order of the response
+     * @return dhl_Id's of the received documents (to be marked received with {@link #markDocumentsReceived(Collection)})
+     */
+    Set<String> receiveDocuments(int maxNrOfDocuments, ReceivedDocumentCallback callback);
+
     /**
      * @param receivedDocumentIds -
      */
@@ -149,6 +161,13 @@ public interface DhlXTeeService {
         void doWithRequest(SendDocumentsV2RequestType request);
     }
 
+    /**
+     * Callback interface, that is called with each document received by {@link DhlXTeeService#receiveDocuments(int, ReceivedDocumentCallback)}
+     */
+    interface ReceivedDocumentCallback {
+        void doWithDocument(ReceivedDocumentsWrapper.ReceivedDocument receivedDocument);
+    }
+
     interface GetDvkOrganizationsHelper {
 
         String getOrganizationName(String regnr);
@@ -207,7 +226,7 @@ public interface DhlXTeeService {
         private static org.apache.commons.logging.Log log //
         = org.apache.commons.logging.LogFactory.getLog(DhlXTeeService.DvkOrganizationsCacheingUpdateStrategy.class);
 
-        private Calendar lastUpdated;
+        private volatile Calendar lastUpdated;
         private int maxUpdateInterval = 24 * 60; // 24h
         private int timeUnit = Calendar.HOUR;
 
@@ -275,6 +294,13 @@ public interface DhlXTeeService {
 
             public MetainfoHelper getMetaInfoHelper();
 
+            /**
+             * @return files of the &lt;SignedDoc/&gt; container, whose content is decoded while it is read. If the service is configured with
+             *         <code>lazyDataFiles</code>, this is the only way to get the content and temporary files are kept until
+             *         {@link ReceivedDataFile#dispose()} is called.
+             */
+            public List<ReceivedDataFile> getDataFiles();
+
         }
 
         /**
@@ -288,6 +314,7 @@ public interface DhlXTeeService {
         private String fileName;
         private String mimeType;
         private InputStream inputStream;
+        private long size = -1;
 
         public String getFileName() {
             return fileName;
@@ -313,6 +340,19 @@ public interface DhlXTeeService {
             this.inputStream = inputStream;
         }
 
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @param size - number of bytes in the input stream, if known in advance. Then the input stream is read only when the document is being sent,
+         *            otherwise it is copied to a temporary file first (size of the file is needed before its content). When a
+         *            {@link SendDocumentsDokumentCallback} is given, content is read into the document in memory regardless of the size.
+         */
+        public void setSize(long size) {
+            this.size = size;
+        }
+
     }
 
     /**
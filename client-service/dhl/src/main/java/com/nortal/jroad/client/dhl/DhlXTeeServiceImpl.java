@@ -1,40 +1,39 @@
 package com.nortal.jroad.client.dhl;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.TreeMap;
+import java.util.UUID;
 
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -48,12 +47,11 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.ws.commons.util.Base64;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
@@ -72,7 +70,6 @@ import ee.sk.digidoc.SignedDoc;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.AadressType;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.DhlDokumentType;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.DokumentDocument;
-import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.MetainfoDocument.Metainfo;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.TagasisideType;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.TransportDocument.Transport;
 import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl_meta_automatic.DhlDokIDType;
@@ -99,6 +96,7 @@ import com.nortal.jroad.client.dhl.types.ee.sk.digiDoc.v13.SignedDocType;
 import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
 import com.nortal.jroad.client.service.XRoadDatabaseService;
 import com.nortal.jroad.client.service.extractor.CustomExtractor;
+import com.nortal.jroad.jaxb.ByteArrayDataSource;
 import com.nortal.jroad.model.XRoadAttachment;
 import com.nortal.jroad.model.XRoadMessage;
 import com.nortal.jroad.model.XmlBeansXRoadMessage;
@@ -133,6 +131,7 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
     // END: XTEE DVK service names and versions
 
     protected static final String DVK_MESSAGE_CHARSET = "UTF-8";
+    private static final String ATTACHMENT_CONTENT_TYPE = "{http://www.w3.org/2001/XMLSchema}base64Binary";
 
     private GetDvkOrganizationsHelper dvkOrganizationsHelper;
 
@@ -141,13 +140,27 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
     private String receivedDocumentsResponseRootElemName = "dokumendid";
     private String receivedDocumentsFolder;
     private String sentDocumentsFolder;
+    private boolean spillSentDocuments = true;
+    private String dvkOrganizationsCacheFile;
+    private boolean lazyDataFiles;
+    private int dataFileSpillThreshold = 1024 * 1024;
 
     public DhlXTeeServiceImpl() {
         this(null);
     }
 
     public DhlXTeeServiceImpl(DvkOrganizationsUpdateStrategy updateStrategy) {
-        this.dvkOrganizationsHelper = new GetDvkOrganizationsHelperImpl();
+        this.dvkOrganizationsHelper = new GetDvkOrganizationsHelperImpl() {
+            @Override
+            protected Map<String, String> getSendingOptions() {
+                return DhlXTeeServiceImpl.this.getSendingOptions();
+            }
+
+            @Override
+            protected String getCacheFile() {
+                return dvkOrganizationsCacheFile;
+            }
+        };
         if (updateStrategy != null) {
             dvkOrganizationsHelper.setUpdateStrategy(updateStrategy);
         }
@@ -223,224 +236,221 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
     }
 
     public ReceivedDocumentsWrapper receiveDocuments(int maxNrOfDocuments) {
+        return new ReceivedDocumentsWrapperImpl(sendReceiveDocuments(maxNrOfDocuments), maxNrOfDocuments);
+    }
+
+    public Set<String> receiveDocuments(int maxNrOfDocuments, final ReceivedDocumentCallback callback) {
+        final Set<String> receivedDhlIds = new LinkedHashSet<String>();
+        readReceivedDocuments(sendReceiveDocuments(maxNrOfDocuments), maxNrOfDocuments, new ReceivedDokumentHandler() {
+            public void doWithDocument(DhlDokumentType dhlDokument, String dhlId, MetainfoHelper metaInfoHelper, List<ReceivedDataFile> dataFiles) {
+                callback.doWithDocument(new StreamedReceivedDocument(dhlDokument, metaInfoHelper, dataFiles));
+                receivedDhlIds.add(dhlId);
+            }
+        });
+        return receivedDhlIds;
+    }
+
+    private XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> sendReceiveDocuments(int maxNrOfDocuments) {
         String queryMethod = getDatabase() + "." + RECEIVE_DOCUMENTS + "." + RECEIVE_DOCUMENTS_VERSION;
         ReceiveDocumentsRequestType request = ReceiveDocumentsRequestType.Factory.newInstance();
         request.setArv(BigInteger.valueOf(maxNrOfDocuments));
         log.debug("executing " + queryMethod);
         try {
-            XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> response //
-            = send(new XmlBeansXRoadMessage<ReceiveDocumentsRequestType>(request), RECEIVE_DOCUMENTS, RECEIVE_DOCUMENTS_VERSION);
-            return new ReceivedDocumentsWrapperImpl(response, maxNrOfDocuments);
+            return send(new XmlBeansXRoadMessage<ReceiveDocumentsRequestType>(request), RECEIVE_DOCUMENTS, RECEIVE_DOCUMENTS_VERSION);
         } catch (XRoadServiceConsumptionException e) {
             throw new WrappedXRoadServiceConsumptionException(e);
         }
     }
 
-    static class UnzipThreadVO {
-        private final File file;
-        private OutputStream outputStream;
-        private Thread unzipThread;
-        private InputStreamWithOutputProxy wrappedInputStream;
-        private List<Throwable> ungzipThreadThrowableList = new LinkedList<Throwable>();
-
-        public UnzipThreadVO(File file) {
-            this.file = file;
-        }
-
-        public File getFile() {
-            return file;
-        }
-
-        public OutputStream getOutputStream() {
-            return outputStream;
-        }
+    /**
+     * Document received by {@link DhlXTeeServiceImpl#receiveDocuments(int, ReceivedDocumentCallback)}
+     */
+    static class StreamedReceivedDocument implements ReceivedDocumentsWrapper.ReceivedDocument {
+        private final DhlDokumentType dhlDocument;
+        private final MetainfoHelper metaInfoHelper;
+        private final List<ReceivedDataFile> extractedDataFiles;
+        private List<ReceivedDataFile> dataFiles;
 
-        public void setOutputStream(OutputStream outputStream) {
-            this.outputStream = outputStream;
+        public StreamedReceivedDocument(DhlDokumentType dhlDocument, MetainfoHelper metaInfoHelper, List<ReceivedDataFile> dataFiles) {
+            this.dhlDocument = dhlDocument;
+            this.metaInfoHelper = metaInfoHelper;
+            this.extractedDataFiles = dataFiles;
+            this.dataFiles = dataFiles;
         }
 
-        public Thread getUnzipThread() {
-            return unzipThread;
+        public DhlDokumentType getDhlDocument() {
+            return dhlDocument;
         }
 
-        public void setUnzipThread(Thread unzipThread) {
-            this.unzipThread = unzipThread;
+        public SignedDocType getSignedDoc() {
+            return dhlDocument.getSignedDoc();
         }
 
-        public List<Throwable> getUngzipThreadThrowableList() {
-            return ungzipThreadThrowableList;
+        public MetainfoHelper getMetaInfoHelper() {
+            return metaInfoHelper;
         }
 
-        public void setUngzipThreadThrowableList(List<Throwable> ungzipThreadThrowableList) {
-            this.ungzipThreadThrowableList = ungzipThreadThrowableList;
+        public synchronized List<ReceivedDataFile> getDataFiles() {
+            if (dataFiles == null) {
+                dataFiles = getDataFiles(dhlDocument);
+            }
+            return dataFiles;
         }
 
-        public void setWrappedInputStream(InputStreamWithOutputProxy wrappedInputStream) {
-            this.wrappedInputStream = wrappedInputStream;
+        /**
+         * @return data files whose content was extracted while parsing, null if content was left in the document
+         */
+        List<ReceivedDataFile> getExtractedDataFiles() {
+            return extractedDataFiles;
         }
+    }
 
-        public InputStreamWithOutputProxy getWrappedInputStream() {
-            return wrappedInputStream;
+    /**
+     * @return data files with contents from &lt;DataFile/&gt; elements of the document (when contents were not extracted while parsing)
+     */
+    private static List<ReceivedDataFile> getDataFiles(DhlDokumentType dhlDocument) {
+        final List<ReceivedDataFile> dataFiles = new ArrayList<ReceivedDataFile>();
+        if (dhlDocument.getSignedDoc() != null) {
+            for (DataFileType dataFile : dhlDocument.getSignedDoc().getDataFileArray()) {
+                dataFiles.add(ReceivedDataFile.of(dataFile));
+            }
         }
-
+        return dataFiles;
     }
 
-    public class ReceivedDocumentsWrapperImpl extends AbstractMap<String, ReceivedDocumentsWrapper.ReceivedDocument> implements ReceivedDocumentsWrapper {
-        private final List<DhlDokumentType> receivedDocuments;
-        private final Map<String /* dhlId */, ReceivedDocument> dhlDocumentsMap;
-        private UnzipThreadVO unzipThreadVO;
-        private File responseXml;
-        private int maxNrOfDocuments;
-
-        public ReceivedDocumentsWrapperImpl(XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> response, int maxNrOfDocuments) {
-            List<DokumentDocument> dokumentDocuments;
-            try {
-                this.maxNrOfDocuments = maxNrOfDocuments;
-                dokumentDocuments = getTypeFromGzippedAndEncodedSoapArray(getInputStream(response), DokumentDocument.class);
-            } catch (IOException e) {
-                handleResponseFile();
-                throw new RuntimeException("Failed to get input of attachment ", e);
-            }
-            this.receivedDocuments = new ArrayList<DhlDokumentType>();
-            for (DokumentDocument dokumentDocument : dokumentDocuments) {
-                receivedDocuments.add(dokumentDocument.getDokument());
+    /**
+     * Reads received documents from the response attachment one at a time, while it is being decoded and unzipped.<br>
+     * If <code>receivedDocumentsFolder</code> is set, decoded response is written to a file at the same time.
+     * 
+     * @return file containing the response or null if <code>receivedDocumentsFolder</code> is not set
+     */
+    private File readReceivedDocuments(XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> response, int maxNrOfDocuments, ReceivedDokumentHandler handler) {
+        ReceivedDocumentsFile responseFile = null;
+        GzippedAndEncodedArrayReader<DokumentDocument> reader = null;
+        Set<String> dhlIds = new LinkedHashSet<String>();
+        File responseXml = null;
+        try {
+            if (StringUtils.isNotBlank(receivedDocumentsFolder)) {
+                responseFile = new ReceivedDocumentsFile(maxNrOfDocuments);
             }
-            this.dhlDocumentsMap = new HashMap<String, ReceivedDocument>();
-            log.debug("received " + receivedDocuments.size() + " documents");
-            for (DhlDokumentType dhlDokument : receivedDocuments) {
-                Metainfo metainfo = dhlDokument.getMetainfo();
-                MetainfoHelper metaInfoHelper = new MetainfoHelper(metainfo);
+            reader = new GzippedAndEncodedArrayReader<DokumentDocument>(response.getAttachments().get(0).getInputStream(), DokumentDocument.class,
+                    responseFile == null ? null : responseFile.getChannel(), lazyDataFiles ? dataFileSpillThreshold : -1);
+            while (reader.hasNext()) {
+                DhlDokumentType dhlDokument = reader.next().getDokument();
+                MetainfoHelper metaInfoHelper = new MetainfoHelper(dhlDokument.getMetainfo());
                 String dhlId = metaInfoHelper.getDhlId();
-                dhlDocumentsMap.put(dhlId, new ReceivedDocumentImpl(dhlDokument, dhlId, metaInfoHelper));
+                handler.doWithDocument(dhlDokument, dhlId, metaInfoHelper, reader.getDataFiles());
+                dhlIds.add(dhlId);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get input of attachment ", e);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            if (responseFile != null) {
+                responseXml = responseFile.close(dhlIds);
             }
-            handleResponseFile();
         }
+        log.debug("received " + dhlIds.size() + " documents");
+        return responseXml;
+    }
 
+    /**
+     * Called by {@link DhlXTeeServiceImpl#readReceivedDocuments(XRoadMessage, int, ReceivedDokumentHandler)} for each received document
+     */
+    private interface ReceivedDokumentHandler {
         /**
-         * @param response
-         * @return returns originalInputStream of the response if <code>receivedDocumentsFolder</code> is not set, <br>
-         *         otherwise return wrappedInputStream that will write response into file under <code>receivedDocumentsFolder</code>
-         * @throws IOException
+         * @param dataFiles - data files extracted from the document or null if <code>lazyDataFiles</code> is not set
          */
-        private InputStream getInputStream(XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> response) throws IOException {
-            final InputStream originalInputStream = response.getAttachments().get(0).getInputStream();
-            if (StringUtils.isBlank(receivedDocumentsFolder)) {
-                return originalInputStream;
+        void doWithDocument(DhlDokumentType dhlDokument, String dhlId, MetainfoHelper metaInfoHelper, List<ReceivedDataFile> dataFiles);
+    }
+
+    /**
+     * File under <code>receivedDocumentsFolder</code>, that decoded response is written to (through NIO channel) while the response is being parsed
+     */
+    private class ReceivedDocumentsFile {
+        private final File file;
+        private final FileChannel channel;
+
+        ReceivedDocumentsFile(int maxNrOfDocuments) throws IOException {
+            if (StringUtils.isBlank(receivedDocumentsResponseRootElemName) && maxNrOfDocuments > 1) {
+                throw new RuntimeException(
+                        "Logging response is turned on and response could potentially contain more than 1 document, but receivedDocumentsResponseRootElemName is empty '"
+                                + receivedDocumentsResponseRootElemName
+                                + "'. To avoid creating invalid xml please set the name for received documents root element (receivedDocumentsResponseRootElemName)!");
             }
-            final InputStreamWithOutputProxy wrappedInputStream = new InputStreamWithOutputProxy(originalInputStream);
             log.info("receivedDocumentsFolder=" + receivedDocumentsFolder);
             final File directory = new File(receivedDocumentsFolder);
             if (!directory.exists()) {
                 throw new FileNotFoundException("receivedDocumentsFolder '" + receivedDocumentsFolder + "' doesn't exist!");
             }
-            this.unzipThreadVO = new UnzipThreadVO(File.createTempFile("dvk", ".xml", directory));
-            prepareFileOutputStream(wrappedInputStream, unzipThreadVO);
-            return wrappedInputStream;
-        }
-
-        private void prepareFileOutputStream(final InputStreamWithOutputProxy wrappedInputStream, UnzipThreadVO threadVO) throws FileNotFoundException {
-            final File outputFile = threadVO.getFile();
-            final FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
+            file = File.createTempFile("dvk", ".xml", directory);
+            channel = new FileOutputStream(file).getChannel();
             if (StringUtils.isNotBlank(receivedDocumentsResponseRootElemName)) {
                 try { // add root element - response could contain more than one <dhl:document/>
-                    fileOutputStream.write(("<" + receivedDocumentsResponseRootElemName + ">").getBytes());
+                    DvkCodec.writeFully(channel, ByteBuffer.wrap(("<" + receivedDocumentsResponseRootElemName + ">").getBytes()));
                 } catch (IOException e) {
-                    IOUtils.closeQuietly(wrappedInputStream);
-                    IOUtils.closeQuietly(fileOutputStream);
-                    if (!outputFile.delete()) {
-                        log.warn("failed to delete file " + outputFile.getAbsolutePath());
+                    IOUtils.closeQuietly(channel);
+                    if (!file.delete()) {
+                        log.warn("failed to delete file " + file.getAbsolutePath());
                     }
-                    throw new RuntimeException("failed to write start of root xml element to " + outputFile.getAbsolutePath(), e);
+                    throw new RuntimeException("failed to write start of root xml element to " + file.getAbsolutePath(), e);
                 }
-            } else if (maxNrOfDocuments > 1) {
-                throw new RuntimeException(
-                        "Logging response is turned on and response could potentially contain more than 1 document, but receivedDocumentsResponseRootElemName is empty '"
-                                + receivedDocumentsResponseRootElemName
-                                + "'. To avoid creating invalid xml please set the name for received documents root element (receivedDocumentsResponseRootElemName)!");
             }
-            // get's written each time smth is read from wrappedInputStream
-            final PipedOutputStream pipedOutputStreamProxy = new PipedOutputStream();
-            // kui wrappedInputStream'ist loetakse, siis kogu info edastatakse ka pipedOutputStream'ile
-            wrappedInputStream.setOutputStream(pipedOutputStreamProxy);
+        }
 
-            final List<Throwable> ungzipThreadThrowableList = threadVO.getUngzipThreadThrowableList();
-            final PipedInputStream pipedInputStream;
-            try {
-                pipedInputStream = new PipedInputStream(pipedOutputStreamProxy);
-            } catch (IOException e1) {
-                IOUtils.closeQuietly(pipedOutputStreamProxy);
-                throw new RuntimeException("failed to unzip input(connecting pipeStream failed)", e1);
-            }
-            Thread ungzipThread = new Thread(new Runnable() {
-                public void run() {
-                    try {
-                        getUnzipAndDecodeOutputStream(pipedInputStream, fileOutputStream);
-                        if (StringUtils.isNotBlank(receivedDocumentsResponseRootElemName)) {
-                            try {
-                                fileOutputStream.write(("</" + receivedDocumentsResponseRootElemName + ">").getBytes());
-                            } catch (IOException e) {
-                                throw new RuntimeException("failed to write end of root xml element to " + outputFile.getAbsolutePath(), e);
-                            }
-                        }
-                    } catch (Throwable t) {
-                        log.error("error within unzipthread!", t);
-                        ungzipThreadThrowableList.add(t);
-                    } finally {
-                        IOUtils.closeQuietly(pipedInputStream);
-                        IOUtils.closeQuietly(fileOutputStream);
-                    }
-                }
-            });
-            ungzipThread.start();
-            threadVO.setWrappedInputStream(wrappedInputStream);
-            threadVO.setUnzipThread(ungzipThread);
+        public FileChannel getChannel() {
+            return channel;
         }
 
         /**
-         * If <code>receivedDocumentsFolder</code> was set then renames created file based on dhl'ids that were received, <br>
-         * otherwise does nothing
+         * Closes the file and renames it based on dhl'ids that were received
+         * 
+         * @return renamed file
          */
-        private void handleResponseFile() {
-            if (unzipThreadVO == null) {
-                return;
+        public File close(Set<String> dhlIds) {
+            try {
+                if (StringUtils.isNotBlank(receivedDocumentsResponseRootElemName)) {
+                    DvkCodec.writeFully(channel, ByteBuffer.wrap(("</" + receivedDocumentsResponseRootElemName + ">").getBytes()));
+                }
+            } catch (IOException e) {
+                log.error("failed to write end of root xml element to " + file.getAbsolutePath(), e);
+            } finally {
+                IOUtils.closeQuietly(channel);
             }
-            File xmlFile = unzipThreadVO.getFile();
-            syncWithUnzipThread();
-            final Set<String> keySet = dhlDocumentsMap.keySet();
             String newFilePrefix = "dvk_" + (new SimpleDateFormat("yyyy.MM.dd-kk.mm.ss,SSS").format(new Date())) + "_";
-            if (keySet.size() > 0) {
-                final String dvkIds = keySet.toString().replaceAll("\\s", "");
+            if (dhlIds.size() > 0) {
+                final String dvkIds = dhlIds.toString().replaceAll("\\s", "");
                 newFilePrefix = newFilePrefix + dvkIds.substring(1, dvkIds.length() - 1);
                 if (dvkIds.length() > 200) {
                     newFilePrefix = newFilePrefix.substring(0, 200) + "..";// limit length just in case receiving a lot of documents
                 }
             }
-            responseXml = new File(receivedDocumentsFolder, newFilePrefix + ".xml");
-            final boolean success = xmlFile.renameTo(responseXml);
+            File responseXml = new File(receivedDocumentsFolder, newFilePrefix + ".xml");
+            final boolean success = file.renameTo(responseXml);
             if (!success) {
                 log.error("renaming file " + responseXml.getAbsolutePath() + " failed. New name would have been '" + responseXml.getAbsolutePath() + "'");
-                responseXml = xmlFile;
+                responseXml = file;
             }
+            return responseXml;
         }
+    }
 
-        private void syncWithUnzipThread() {
-            final Thread unzipThread = unzipThreadVO.getUnzipThread();
-            if (unzipThread != null) {
-                try {
-                    final OutputStream outputStream = unzipThreadVO.getWrappedInputStream().getOutputStream();
-                    outputStream.flush();
-                    outputStream.close();
-                    unzipThread.join();
-                } catch (InterruptedException ie) {
-                    throw new RuntimeException("unzip thread was interrupted", ie);
-                } catch (IOException e) {
-                    throw new RuntimeException("flushing proxy output stream failed", e);
-                }
-                final List<Throwable> ungzipThreadThrowableList = unzipThreadVO.getUngzipThreadThrowableList();
-                if (!ungzipThreadThrowableList.isEmpty()) {
-                    throw new RuntimeException("ungzip failed", ungzipThreadThrowableList.get(0));
+    public class ReceivedDocumentsWrapperImpl extends AbstractMap<String, ReceivedDocumentsWrapper.ReceivedDocument> implements ReceivedDocumentsWrapper {
+        private final List<DhlDokumentType> receivedDocuments;
+        private final Map<String /* dhlId */, ReceivedDocument> dhlDocumentsMap;
+        private final File responseXml;
+
+        public ReceivedDocumentsWrapperImpl(XRoadMessage<ReceiveDocumentsResponseTypeUnencoded> response, int maxNrOfDocuments) {
+            this.receivedDocuments = new ArrayList<DhlDokumentType>();
+            this.dhlDocumentsMap = new HashMap<String, ReceivedDocument>();
+            this.responseXml = readReceivedDocuments(response, maxNrOfDocuments, new ReceivedDokumentHandler() {
+                public void doWithDocument(DhlDokumentType dhlDokument, String dhlId, MetainfoHelper metaInfoHelper, List<ReceivedDataFile> dataFiles) {
+                    receivedDocuments.add(dhlDokument);
+                    dhlDocumentsMap.put(dhlId, new ReceivedDocumentImpl(dhlDokument, dhlId, metaInfoHelper, dataFiles));
                 }
-            }
+            });
         }
 
         public Iterator<String> iterator() {
@@ -470,11 +480,17 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
             private final String dhlId;
             private final MetainfoHelper metaInfoHelper;
             private final DhlDokumentType dhlDocument;
+            private List<ReceivedDataFile> dataFiles;
 
             public ReceivedDocumentImpl(DhlDokumentType dhlDocument, String dhlId, MetainfoHelper metaInfoHelper) {
+                this(dhlDocument, dhlId, metaInfoHelper, null);
+            }
+
+            public ReceivedDocumentImpl(DhlDokumentType dhlDocument, String dhlId, MetainfoHelper metaInfoHelper, List<ReceivedDataFile> dataFiles) {
                 this.dhlDocument = dhlDocument;
                 this.dhlId = dhlId;
                 this.metaInfoHelper = metaInfoHelper;
+                this.dataFiles = dataFiles;
             }
 
             public DhlDokumentType getDhlDocument() {
@@ -493,6 +509,13 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
             public MetainfoHelper getMetaInfoHelper() {
                 return metaInfoHelper;
             }
+
+            public synchronized List<ReceivedDataFile> getDataFiles() {
+                if (dataFiles == null) {
+                    dataFiles = DhlXTeeServiceImpl.getDataFiles(dhlDocument);
+                }
+                return dataFiles;
+            }
             // END: getters/setters
 
         }
@@ -508,25 +531,30 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
 
         String queryMethod = getDatabase() + "." + SEND_DOCUMENTS + "." + SEND_DOCUMENTS_VERSION;
 
-        DokumentDocument dokumentDocument = sendDocumentsHelper.constructDokumentDocument(contentsToSend, sender, recipients);
+        Map<String /* placeholder */, DataFileContent> dataFileContents = new HashMap<String, DataFileContent>();
+        // The callback must see actual contents of the files instead of placeholders
+        boolean embedContents = dokumentCallback != null;
+        GzippedAndEncodedDataSource dataSource = null;
+        try {
+            DokumentDocument dokumentDocument = sendDocumentsHelper.constructDokumentDocument(contentsToSend, sender, recipients, //
+                    embedContents ? null : dataFileContents);
 
-        if (dokumentCallback != null) {
-            dokumentCallback.doWithDocument(dokumentDocument);
-        }
+            if (dokumentCallback != null) {
+                dokumentCallback.doWithDocument(dokumentDocument);
+            }
 
-        byte[] base64Doc = gzipAndEncodeXmlObject(dokumentDocument);
+            dataSource = sendDocumentsHelper.createDataSource(dokumentDocument, dataFileContents);
 
-        SendDocumentsV2RequestType request = SendDocumentsV2RequestType.Factory.newInstance();
+            SendDocumentsV2RequestType request = SendDocumentsV2RequestType.Factory.newInstance();
 
-        request.setDokumendid(null);
-        final XRoadAttachment attachment = setDokumendidHrefToAttachment(base64Doc, request);
+            request.setDokumendid(null);
+            final XRoadAttachment attachment = setDokumendidHrefToAttachment(dataSource, request);
 
-        if (requestCallback != null) {
-            requestCallback.doWithRequest(request);
-        }
+            if (requestCallback != null) {
+                requestCallback.doWithRequest(request);
+            }
 
-        log.debug("executing " + queryMethod);
-        try {
+            log.debug("executing " + queryMethod);
             XRoadMessage<SendDocumentsResponseType> response = send(new XmlBeansXRoadMessage<SendDocumentsV2RequestType>(request, Collections
                     .singletonList(attachment)), SEND_DOCUMENTS, SEND_DOCUMENTS_VERSION);
 
@@ -541,6 +569,13 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
             throw new WrappedXRoadServiceConsumptionException(e);
         } catch (IOException e) {
             throw new RuntimeException("Failed to extract response " + queryMethod, e);
+        } finally {
+            if (dataSource != null) {
+                dataSource.dispose();
+            }
+            for (DataFileContent dataFileContent : dataFileContents.values()) {
+                dataFileContent.dispose();
+            }
         }
     }
 
@@ -624,7 +659,7 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
 
         public XRoadMessage<GetSendStatusResponseTypeUnencoded> extractData(WebServiceMessage message) throws IOException, TransformerException {
             Attachment attachment = (Attachment) ((SaajSoapMessage) message).getAttachments().next();
-            String xml = new String(unzipAndDecode(attachment.getInputStream()), DVK_MESSAGE_CHARSET);
+            String xml = new String(DvkCodec.decode(attachment.getInputStream()), DVK_MESSAGE_CHARSET);
             final GetSendStatusResponseTypeUnencoded content = getTypeFromXml(addCorrectNamespaces(xml), GetSendStatusResponseTypeUnencoded.class);
             return new XmlBeansXRoadMessage<GetSendStatusResponseTypeUnencoded>(content);
         }
@@ -713,61 +748,6 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
 
     }
 
-    /**
-     * @author ats.uiboupin
-     *         Since the list of DVK capable organisations grows/changes very rarely (maybe one in a month or even more rarely)
-     *         it might be feasible to keep the list cached in memory and for example <br>
-     *         updated onece a day by some job, <br>
-     *         or use strategy pattern ant set strategy when creating instance of the service class in the top-level class.
-     */
-    private class GetDvkOrganizationsHelperImpl implements GetDvkOrganizationsHelper {
-        private Map<String/* regNr */, String/* name */> dvkCapableOrganizations;
-
-        private DvkOrganizationsUpdateStrategy updateStrategy;
-
-        public Map<String/* regNr */, String/* name */> getDvkOrganizationsCache() {
-            if (getUpdateStrategy().update4getDvkOrganizationsCache(dvkCapableOrganizations)) {
-                updateDvkCapableOrganisationsCache();
-            }
-            return dvkCapableOrganizations;
-        }
-
-        public String getOrganizationName(String regnr) {
-            String orgName = getDvkOrganizationsCache().get(regnr);
-            if (getUpdateStrategy().update4getOrganizationName(orgName)) {
-                updateDvkCapableOrganisationsCache();
-                orgName = getDvkOrganizationsCache().get(regnr);
-            }
-            return orgName;
-        }
-
-        public void updateDvkCapableOrganisationsCache() {
-            log.info("starting to update dvkCapableOrganisationsCache");
-            setDvkOrganizationsCache(getSendingOptions());
-            log.info("updated dvkCapableOrganisationsCache");
-        }
-
-        public void setDvkOrganizationsCache(Map<String, String> cache) {
-            this.dvkCapableOrganizations = cache;
-            getUpdateStrategy().setLastUpdated(Calendar.getInstance());
-        }
-
-        // START: getters/setters
-        public DvkOrganizationsUpdateStrategy getUpdateStrategy() {
-            if (updateStrategy == null) {
-                log.debug("-- using default cache update strategy--");
-                updateStrategy = new DhlXTeeService.DvkOrganizationsCacheingUpdateStrategy().setMaxUpdateInterval(24 * 60);// 24h
-            }
-            return updateStrategy;
-        }
-
-        public void setUpdateStrategy(DvkOrganizationsUpdateStrategy updateStrategy) {
-            this.updateStrategy = updateStrategy;
-        }
-        // END: getters/setters
-
-    }
-
     /**
      * @author ats.uiboupin
      *         Contains methods used by sendDocuments service. <br>
@@ -782,9 +762,12 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
          * @param contentsToSend
          * @param sender
          * @param recipients
+         * @param dataFileContents - map to add contents of the files to, by placeholders that are used instead of the contents, null to embed the
+         *            contents
          * @return (Dhl)&lt;Dokument/&gt; XmlObject
          */
-        private DokumentDocument constructDokumentDocument(Collection<ContentToSend> contentsToSend, AadressType sender, AadressType[] recipients) {
+        private DokumentDocument constructDokumentDocument(Collection<ContentToSend> contentsToSend, AadressType sender, AadressType[] recipients,
+                Map<String, DataFileContent> dataFileContents) {
             DokumentDocument dokumentDocument = DokumentDocument.Factory.newInstance();
             DhlDokumentType dokumentContainer = dokumentDocument.addNewDokument();
 
@@ -810,7 +793,7 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
                 recipient.setAsutuseNimi(recipientName);
             }
             transport.setSaajaArray(recipients);
-            final DataFileType[] dataFiles = addSignedDocToDokument(contentsToSend, dokumentContainer);
+            final DataFileType[] dataFiles = addSignedDocToDokument(contentsToSend, dokumentContainer, dataFileContents);
 
             if (log.isDebugEnabled()) {
                 StringBuilder sb = new StringBuilder("Constructed dokument from: ")//
@@ -834,10 +817,12 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
          * @param contentsToSend - Object with InputStream and name of the file to be used for output and corresponding mimeType
          * @param dokumentContainer - (Dhl)&lt;Dokument/&gt; element to which &lt;SignedDoc/&gt; should be added as a child
          *            node
-         * @return {@link #getDataFiles(Map)} based on input files
+         * @param dataFileContents - map to add contents of the files to, null to embed the contents
+         * @return {@link #getDataFiles(Collection, Map)} based on input files
          */
-        private DataFileType[] addSignedDocToDokument(Collection<ContentToSend> contentsToSend, DhlDokumentType dokumentContainer) {
-            final DataFileType[] dataFiles = getDataFiles(contentsToSend);
+        private DataFileType[] addSignedDocToDokument(Collection<ContentToSend> contentsToSend, DhlDokumentType dokumentContainer,
+                Map<String, DataFileContent> dataFileContents) {
+            final DataFileType[] dataFiles = getDataFiles(contentsToSend, dataFileContents);
             SignedDocType signedDoc = dokumentContainer.addNewSignedDoc();
             signedDoc.setFormat(SignedDoc.FORMAT_DIGIDOC_XML);
             signedDoc.setVersion(SignedDoc.VERSION_1_3);
@@ -847,10 +832,13 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
 
         /**
          * @param contentsToSend - Object with InputStream and name of the file to be used for output and corresponding mimeType
+         * @param dataFileContents - map to add contents of the files to, by placeholders that are used as values of &lt;DataFile &gt; elements until
+         *            the document is written, null to embed base64 encoded contents as values of the elements
          * @return array of &lt;DataFile &gt; elements to be included inside the digiDoc envelope called &lt;SignedDoc /&gt;
          */
-        private DataFileType[] getDataFiles(Collection<ContentToSend> contentsToSend) {
+        private DataFileType[] getDataFiles(Collection<ContentToSend> contentsToSend, Map<String, DataFileContent> dataFileContents) {
             DataFileType[] files = new DataFileType[contentsToSend.size()];
+            final String placeholderPrefix = "DVK-DATAFILE-" + UUID.randomUUID() + "-";
             int fileIndex = 0;
             for (ContentToSend contentToSend : contentsToSend) {
                 DataFileType dataFile = DataFileType.Factory.newInstance();
@@ -859,29 +847,115 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
                 dataFile.setMimeType(contentToSend.getMimeType());
                 dataFile.setContentType(DataFileType.ContentType.EMBEDDED_BASE_64);
 
-                final StringWriter stringWriter = new StringWriter();
-                final OutputStream encodeStream = Base64.newEncoder(stringWriter, 0, null);
-                final InputStream is = contentToSend.getInputStream();
-                try {
-                    long sizeCopied = IOUtils.copyLarge(is, encodeStream);
-                    dataFile.setSize(BigDecimal.valueOf(sizeCopied));
-                } catch (IOException e) {
-                    throw new RuntimeException("Failed to get input to the file to be sent", e);
-                } finally {
-                    IOUtils.closeQuietly(encodeStream);
-                    IOUtils.closeQuietly(is);
+                if (dataFileContents == null) {
+                    embedContent(contentToSend, dataFile);
+                } else {
+                    final DataFileContent content;
+                    try {
+                        content = DataFileContent.of(contentToSend);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to get input to the file to be sent", e);
+                    }
+                    final String placeholder = placeholderPrefix + fileIndex;
+                    dataFileContents.put(placeholder, content);
+                    dataFile.setSize(BigDecimal.valueOf(content.getSize()));
+                    dataFile.setStringValue(placeholder);
                 }
-                dataFile.setStringValue(stringWriter.toString());
                 files[fileIndex++] = dataFile;
             }
             return files;
         }
 
+        private void embedContent(ContentToSend contentToSend, DataFileType dataFile) {
+            final CountingInputStream is = new CountingInputStream(contentToSend.getInputStream());
+            final InputStream encoded = new Base64EncodingInputStream(is);
+            try {
+                dataFile.setStringValue(IOUtils.toString(encoded, "US-ASCII"));
+                dataFile.setSize(BigDecimal.valueOf(is.getByteCount()));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to get input to the file to be sent", e);
+            } finally {
+                IOUtils.closeQuietly(encoded);
+            }
+        }
+
+        /**
+         * @return attachment data source, that writes the document (with contents of the files in place of placeholders) only when the attachment is
+         *         being sent
+         */
+        private GzippedAndEncodedDataSource createDataSource(final XmlObject xmlObject, final Map<String, DataFileContent> dataFileContents) {
+            return new GzippedAndEncodedDataSource(ATTACHMENT_CONTENT_TYPE, spillSentDocuments) {
+                @Override
+                protected InputStream openContent() throws IOException {
+                    InputStream content = openXmlObject(xmlObject, dataFileContents);
+                    File sentFile = getSentDocumentsFile();
+                    return sentFile == null ? content : DvkCodec.tee(content, sentFile);
+                }
+            };
+        }
+
+        /**
+         * Writes the document without contents of the files into memory and returns it as a stream, where contents of the files are read (and encoded
+         * to base64) in place of their placeholders as the stream is being read
+         */
+        private InputStream openXmlObject(XmlObject xmlObject, Map<String, DataFileContent> dataFileContents) throws IOException {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            xmlObject.save(outputStream, getSaveOptions());
+            final byte[] xml = outputStream.toByteArray();
+
+            final TreeMap<Integer, String> placeholders = new TreeMap<Integer, String>();
+            for (String placeholder : dataFileContents.keySet()) {
+                int index = indexOf(xml, placeholder.getBytes(DVK_MESSAGE_CHARSET));
+                if (index >= 0) {
+                    placeholders.put(index, placeholder);
+                }
+            }
+            final List<Object> parts = new ArrayList<Object>(); // xml fragments and contents of files in between
+            int start = 0;
+            for (Map.Entry<Integer, String> entry : placeholders.entrySet()) {
+                parts.add(new ByteArrayInputStream(xml, start, entry.getKey() - start));
+                parts.add(dataFileContents.get(entry.getValue()));
+                start = entry.getKey() + entry.getValue().length();
+            }
+            parts.add(new ByteArrayInputStream(xml, start, xml.length - start));
+
+            final Iterator<Object> partsIterator = parts.iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                public boolean hasMoreElements() {
+                    return partsIterator.hasNext();
+                }
+
+                public InputStream nextElement() {
+                    final Object part = partsIterator.next();
+                    if (!(part instanceof DataFileContent)) {
+                        return (InputStream) part;
+                    }
+                    try {
+                        return new Base64EncodingInputStream(((DataFileContent) part).open());
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to get input to the file to be sent", e);
+                    }
+                }
+            });
+        }
+
+        private int indexOf(byte[] array, byte[] target) {
+            outer: for (int i = 0; i <= array.length - target.length; i++) {
+                for (int j = 0; j < target.length; j++) {
+                    if (array[i + j] != target[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
         /**
-         * Writes the document into given stream. Removes namespace usage from SignedDoc element (Digidoc container) Amphora test
+         * Options for writing the document. Removes namespace usage from SignedDoc element (Digidoc container) Amphora test
          * environment is not capable of receiving such xml
          */
-        private void writeXmlObject(XmlObject xmlObject, OutputStream outputStream) {
+        private XmlOptions getSaveOptions() {
             XmlOptions options = new XmlOptions();
             options.setCharacterEncoding(DVK_MESSAGE_CHARSET);
             { // fix DigiDoc client bug (also present with PostiPoiss doc-management-system)
@@ -892,31 +966,22 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
                 // suggestedPrefixes.put("http://www.sk.ee/DigiDoc/v1.4.0#", "");
                 options.setSaveSuggestedPrefixes(suggestedPrefixes);
             }
-            try {
-                xmlObject.save(outputStream, options);
-                writeXmlObjectToSentDocumentsFolder(xmlObject, options);
-            } catch (IOException e) {
-                log.error("Writing document failed", e);
-                throw new java.lang.RuntimeException(e);
-            }
+            return options;
         }
 
-        private void writeXmlObjectToSentDocumentsFolder(XmlObject xmlObject, XmlOptions options) throws FileNotFoundException, IOException {
-            OutputStream dvkSentMsgOS = null;
-            try {
-                if (StringUtils.isNotBlank(sentDocumentsFolder)) {
-                    final File directory = new File(sentDocumentsFolder);
-                    if (!directory.exists()) {
-                        throw new FileNotFoundException("receivedDocumentsFolder '" + sentDocumentsFolder + "' doesn't exist!");
-                    }
-                    String newFilePrefix = "dvk_" + (new SimpleDateFormat("yyyy.MM.dd-kk.mm.ss,SSS").format(new Date()));
-                    File sentFile = new File(directory, "sent_" + newFilePrefix + ".xml");
-                    dvkSentMsgOS = new FileOutputStream(sentFile);
-                    xmlObject.save(dvkSentMsgOS, options);
-                }
-            } finally {
-                IOUtils.closeQuietly(dvkSentMsgOS);
+        /**
+         * @return file under <code>sentDocumentsFolder</code> to write the sent document to, null if <code>sentDocumentsFolder</code> is not set
+         */
+        private File getSentDocumentsFile() throws FileNotFoundException {
+            if (StringUtils.isBlank(sentDocumentsFolder)) {
+                return null;
+            }
+            final File directory = new File(sentDocumentsFolder);
+            if (!directory.exists()) {
+                throw new FileNotFoundException("receivedDocumentsFolder '" + sentDocumentsFolder + "' doesn't exist!");
             }
+            String newFilePrefix = "dvk_" + (new SimpleDateFormat("yyyy.MM.dd-kk.mm.ss,SSS").format(new Date()));
+            return new File(directory, "sent_" + newFilePrefix + ".xml");
         }
     }
 
@@ -959,8 +1024,12 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
     }
 
     private XRoadAttachment setDokumendidHrefToAttachment(byte[] base64Attachment, XmlObject request) {
+        return setDokumendidHrefToAttachment(new ByteArrayDataSource(ATTACHMENT_CONTENT_TYPE, base64Attachment), request);
+    }
+
+    private XRoadAttachment setDokumendidHrefToAttachment(DataSource dataSource, XmlObject request) {
         final String cid = AttachmentUtil.getUniqueCid();
-        final XRoadAttachment attachment = new XRoadAttachment(cid, "{http://www.w3.org/2001/XMLSchema}base64Binary", base64Attachment);
+        final XRoadAttachment attachment = new XRoadAttachment(cid, new DataHandler(dataSource));
 
         XmlCursor cursor = request.newCursor();
         cursor.toNextToken();
@@ -997,168 +1066,25 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
         }
     }
 
-    private static <T> List<T> getTypeFromGzippedAndEncodedSoapArray(InputStream inputStream, Class<T> responseClass) {
-        SchemaType unencodedType = null;
-        try {
-            unencodedType = (SchemaType) responseClass.getField("type").get(null);
-            log.debug("unencodedType=" + unencodedType);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to get value of '" + responseClass.getCanonicalName() + ".type' to get corresponding SchemaType object: ", e);
-        }
-        String responseString;
+    private static <T extends XmlObject> List<T> getTypeFromGzippedAndEncodedSoapArray(InputStream inputStream, Class<T> responseClass) {
+        GzippedAndEncodedArrayReader<T> reader = new GzippedAndEncodedArrayReader<T>(inputStream, responseClass);
         try {
-            responseString = new String(unzipAndDecode(inputStream), DVK_MESSAGE_CHARSET);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Failed to encode responseString to " + DVK_MESSAGE_CHARSET, e);
-        }
-        if (StringUtils.isBlank(responseString)) {
-            return Collections.emptyList();
-        }
-        ArrayList<T> result = null;
-        try {
-            responseString = "<root>" + responseString + "</root>";
-            XmlOptions options = new XmlOptions();
-            if (log.isTraceEnabled()) {
-                log.trace("Starting to parse '" + responseString + "' to class: " + responseClass.getCanonicalName() + "\n\n");
+            List<T> result = new ArrayList<T>();
+            while (reader.hasNext()) {
+                result.add(reader.next());
             }
-            // XXX: potential optimization idea that could allow us to receive twice as big files as we can receive now:
-            // use following line to create xmlObject,
-            // but to avoid failure we must prepend to original inputStream some xml start element and append corresponding end element
-            // but since rest of the inputStream is zipped and encoded to base64, then prepended and appended root element must also be zipped and encoded
-            // XmlObject xmlObject = XmlObject.Factory.parse(unzip(decodeFromBase64(inputStream)), options);
-            XmlObject xmlObject = XmlObject.Factory.parse(responseString, options);
-            XmlCursor cursor = xmlObject.newCursor();
-            cursor.toFirstChild();
-            cursor.toFirstChild();
-            options.setDocumentType(unencodedType);
-
-            result = new ArrayList<T>();
-            int i = 0;
-            do {
-                if (log.isTraceEnabled()) {
-                    cursor.getObject();
-                    log.trace("Type of token " + (i++) + ": '" + cursor.currentTokenType() + "'");
-                }
-                @SuppressWarnings("unchecked")
-                T resultItem = (T) XmlObject.Factory.parse(cursor.getDomNode(), options);
-                result.add(resultItem);
-            } while (cursor.toNextSibling());
-            cursor.dispose();
-        } catch (XmlException e) {
-            throw new RuntimeException("Failed to parse '" + responseString + "' to class: " + responseClass.getCanonicalName(), e);
-        }
-        return result;
-    }
-
-    private byte[] gzipAndEncodeXmlObject(XmlObject xmlObject) {
-        OutputStream gzipBase64OutputStream = null;
-        ByteArrayOutputStream gzippedAndEncodedOutputStream = new ByteArrayOutputStream();
-        Writer writer = null;
-        try {
-            writer = createOutputStreamWriter(gzippedAndEncodedOutputStream);
-            gzipBase64OutputStream = createGzipBase64OutputStream(writer);
-            sendDocumentsHelper.writeXmlObject(xmlObject, gzipBase64OutputStream);
-        } catch (IOException e1) {
-            throw new RuntimeException("Failed to encode input", e1);
+            return result;
         } finally {
-            IOUtils.closeQuietly(gzipBase64OutputStream);
-            IOUtils.closeQuietly(writer);
+            reader.close();
         }
-        return gzippedAndEncodedOutputStream.toByteArray();
     }
 
     private byte[] gzipAndEncodeString(String inputString) {
-        OutputStream gzipBase64OutputStream = null;
-        ByteArrayOutputStream gzippedAndEncodedOutputStream = new ByteArrayOutputStream();
-        Writer writer = null;
         try {
-            writer = createOutputStreamWriter(gzippedAndEncodedOutputStream);
-            gzipBase64OutputStream = createGzipBase64OutputStream(writer);
-            IOUtils.write(inputString, gzipBase64OutputStream, DVK_MESSAGE_CHARSET);
+            return DvkCodec.encode(inputString.getBytes(DVK_MESSAGE_CHARSET));
         } catch (IOException e1) {
             throw new RuntimeException("Failed to encode input", e1);
-        } finally {
-            IOUtils.closeQuietly(gzipBase64OutputStream);
-            IOUtils.closeQuietly(writer);
         }
-        return gzippedAndEncodedOutputStream.toByteArray();
-    }
-
-    private OutputStream createGzipBase64OutputStream(
-            Writer writer)
-            throws UnsupportedEncodingException, IOException {
-        OutputStream base64OutputStream = Base64.newEncoder(writer, 0, null);
-        OutputStream gzipOutputStream = new GZIPOutputStream(base64OutputStream);
-        return gzipOutputStream;
-    }
-
-    private Writer createOutputStreamWriter(ByteArrayOutputStream gzippedAndEncodedOutputStream)
-            throws UnsupportedEncodingException {
-        return new BufferedWriter(new OutputStreamWriter(gzippedAndEncodedOutputStream, DVK_MESSAGE_CHARSET));
-    }
-
-    /**
-     * @param inputStream
-     * @return plain content from transformed content: <code>base64Encode(gzip(content))</code>
-     */
-    private static byte[] unzipAndDecode(InputStream inputStream) {
-        return getUnzipAndDecodeOutputStream(inputStream, new ByteArrayOutputStream()).toByteArray();
-    }
-
-    /**
-     * @param <OS> OutputStream that is used as an output for <code>content</code> from the inputStream that was transformed
-     *            <code>base64Encode(gzip(content))</code>
-     * @param attachments input to parse
-     * @param responseClass destination class of the type to parse input
-     * @param hasRootElement - if attachment bodies contain xml-fragments witout single root element set it to false so that root element would be created to be
-     *            able to parse document correctly
-     * @return list of attachments parsed to given type
-     */
-    private static <OS extends OutputStream> OS getUnzipAndDecodeOutputStream(InputStream inputStream, final OS outputStream) {
-        final PipedOutputStream pipedOutputStream = new PipedOutputStream();
-        final List<Throwable> ungzipThreadThrowableList = new LinkedList<Throwable>();
-        Writer decoderWriter = null;
-        Thread ungzipThread = null;
-        try {
-            final PipedInputStream pipedInputStream = new PipedInputStream(pipedOutputStream);
-            ungzipThread = new Thread(new Runnable() {
-                public void run() {
-                    GZIPInputStream gzipInputStream = null;
-                    try {
-                        // (3) pipedInputStream'i käsitletakse zip'itud voona, mida gzipInputStream unzip'ib
-                        gzipInputStream = new GZIPInputStream(pipedInputStream);
-                        // (4) gzipInputStream edastab temasse kirjutatud zip'itud andmed byteArrayOutputStream'i, unzippides
-                        IOUtils.copy(gzipInputStream, outputStream);
-                    } catch (Throwable t) {
-                        ungzipThreadThrowableList.add(t);
-                    } finally {
-                        IOUtils.closeQuietly(gzipInputStream);
-                        IOUtils.closeQuietly(pipedInputStream);
-                    }
-                }
-            });
-            decoderWriter = Base64.newDecoder(pipedOutputStream);// (2) decoderWriter edastab temasse kirjutatu pipedInputStream'i, eemaldades base64 kodeeringu
-            ungzipThread.start();
-            IOUtils.copy(inputStream, decoderWriter, DVK_MESSAGE_CHARSET); // (1) - inputStream'ist base64 decoderWriter'isse kirjutamine,
-            decoderWriter.flush();
-            pipedOutputStream.flush();
-        } catch (IOException e) {
-            throw new RuntimeException("failed to unzip and decode input", e);
-        } finally {
-            IOUtils.closeQuietly(decoderWriter);
-            IOUtils.closeQuietly(pipedOutputStream);
-            if (ungzipThread != null) {
-                try {
-                    ungzipThread.join();
-                } catch (InterruptedException ie) {
-                    throw new RuntimeException("thread interrupted while for ungzip thread to finish", ie);
-                }
-            }
-        }
-        if (!ungzipThreadThrowableList.isEmpty()) {
-            throw new RuntimeException("ungzip failed", ungzipThreadThrowableList.get(0));
-        }
-        return outputStream;
     }
 
     // START: getters/setters
@@ -1182,102 +1108,40 @@ public class DhlXTeeServiceImpl extends XRoadDatabaseService implements DhlXTeeS
         this.sentDocumentsFolder = sentDocumentsFolder;
     }
 
-    // END: getters/setters
-
     /**
-     * Subclass of {@link InputStream} that will write everything read from wrapped inputStream to outputStream if outputStream is set - otherwise does nothing
-     * more than delegates all method invocations to wrapped input stream. <br>
-     * <br>
-     * <b> NB! note that {@link #reset()} throws {@link UnsupportedOperationException} if outputStream is set and smth is already written there by this class
-     * </b>(since write operation can't be taken back)
-     * 
-     * @author Ats Uiboupin
+     * @param dvkOrganizationsCacheFile - file where DVK capable organizations are saved after each update, to be used after restart instead of
+     *            making a service call
      */
-    static class InputStreamWithOutputProxy extends ProxyInputStream {
-
-        private OutputStream outputStream;
-        private boolean smthWrittenToOut;
-
-        public InputStreamWithOutputProxy(InputStream proxy) {
-            super(proxy);
-        }
-
-        /**
-         * @param outputStream - stream that will get written when proxied inputStream gets read
-         */
-        public void setOutputStream(OutputStream outputStream) {
-            this.outputStream = outputStream;
-        }
-
-        public OutputStream getOutputStream() {
-            return outputStream;
-        }
-
-        @Override
-        public void close() throws IOException {
-            super.close();
-            if (outputStream != null) {
-                outputStream.close();
-            }
-        }
-
-        @Override
-        public int read() throws IOException {
-            final int byteRead = super.read();
-            if (outputStream != null && byteRead != -1) {
-                outputStream.write(byteRead);
-                smthWrittenToOut = true;
-            }
-            return byteRead;
-        }
-
-        @Override
-        public int read(byte[] bts, int st, int end) throws IOException {
-            final int len = super.read(bts, st, end);
-            if (outputStream != null && len != -1) {
-                outputStream.write(bts, 0, len);
-                smthWrittenToOut = true;
-            }
-            return len;
-        }
-
-        @Override
-        public int read(byte[] bts) throws IOException {
-            final int len = super.read(bts);
-            if (outputStream != null && len != -1) {
-                outputStream.write(bts, 0, len);
-                // outputStream.write(bts);
-                smthWrittenToOut = true;
-            }
-            return len;
-        }
+    public void setDvkOrganizationsCacheFile(String dvkOrganizationsCacheFile) {
+        this.dvkOrganizationsCacheFile = dvkOrganizationsCacheFile;
+    }
 
-        /**
-         * XXX Calling mark() is supported if wrapped inputstream supports it, <br>
-         * however reseting is not supported if outputstream is set (and smth is
-         * already written to ouput stream by this class because of read method) <br>
-         * <i>Inherited documentation:</i> <br>{@inheritDoc}
-         */
-        @Override
-        public boolean markSupported() {
-            return super.markSupported() && (outputStream == null || !smthWrittenToOut);
-        }
+    /**
+     * @param lazyDataFiles - if true, content of base64 encoded &lt;DataFile/&gt; elements of received documents is left out of
+     *            {@link ReceivedDocumentsWrapper.ReceivedDocument#getSignedDoc()} while parsing and can be read only through {@link ReceivedDocumentsWrapper.ReceivedDocument#getDataFiles()}, so that
+     *            memory used by received documents doesn't depend on the size of the files (default false)
+     */
+    public void setLazyDataFiles(boolean lazyDataFiles) {
+        this.lazyDataFiles = lazyDataFiles;
+    }
 
-        /**
-         * <b>NB! note that this method throws {@link UnsupportedOperationException} if outputStream is set and smth is already written there by this class
-         * </b>(since write operation can't be taken back),<br>
-         * otherwise just resets wrapped inputStream as described bellow (in the documentation of superclass): <br>
-         * <br>
-         * <i>Inherited documentation:</i> <br>{@inheritDoc}
-         */
-        @Override
-        public synchronized void reset() throws IOException, UnsupportedOperationException {
-            super.reset();
-            if (outputStream != null && smthWrittenToOut) {
-                throw new UnsupportedOperationException("reseting inputstream is not supported w");
-            }
-        }
+    /**
+     * @param dataFileSpillThreshold - when <code>lazyDataFiles</code> is set, encoded content of a &lt;DataFile/&gt; larger than that many bytes is
+     *            kept in a temporary file instead of memory (default 1MB)
+     */
+    public void setDataFileSpillThreshold(int dataFileSpillThreshold) {
+        this.dataFileSpillThreshold = dataFileSpillThreshold;
+    }
 
+    /**
+     * @param spillSentDocuments - whether encoded attachment of sendDocuments request should be written to a temporary file while it is sent, so
+     *            that it could be read again (default true). If false, attachment can be read only once and contents of the files are never
+     *            kept in memory or on disk (unless their size is unknown).
+     */
+    public void setSpillSentDocuments(boolean spillSentDocuments) {
+        this.spillSentDocuments = spillSentDocuments;
     }
 
+    // END: getters/setters
+
 }
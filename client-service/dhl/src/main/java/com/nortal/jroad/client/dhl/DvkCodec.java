@@ -0,0 +1,209 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Encodes and decodes DVK attachment content, which is transferred as <code>base64Encode(gzip(content))</code>. All streams work on the thread of the
+ * caller, the buffers they use are pooled.
+ */
+public final class DvkCodec {
+    static final int BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<byte[]>();
+    private static final Queue<char[]> CHAR_BUFFERS = new ConcurrentLinkedQueue<char[]>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+    private static final AtomicInteger POOLED_CHAR_BUFFERS = new AtomicInteger();
+
+    private DvkCodec() {
+        // static methods only
+    }
+
+    /**
+     * @param encoded - <code>base64Encode(gzip(content))</code>, may be empty
+     * @return stream of plain content, decoded and unzipped while being read
+     */
+    public static InputStream newDecodingInputStream(InputStream encoded) throws IOException {
+        PushbackInputStream decoded = new PushbackInputStream(new Base64DecodingInputStream(encoded));
+        int first = decoded.read();
+        if (first == -1) { // nothing to unzip
+            decoded.close();
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        decoded.unread(first);
+        return new GZIPInputStream(decoded, BUFFER_SIZE);
+    }
+
+    /**
+     * @param out - stream to write <code>base64Encode(gzip(content))</code> to
+     * @return stream to write plain content to, that must be closed to complete the output (closes <code>out</code> as well)
+     */
+    public static OutputStream newEncodingOutputStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(new Base64EncodingOutputStream(out), BUFFER_SIZE);
+    }
+
+    /**
+     * @return plain content from transformed content: <code>base64Encode(gzip(content))</code>
+     */
+    public static byte[] decode(InputStream encoded) throws IOException {
+        InputStream inputStream = newDecodingInputStream(encoded);
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return <code>base64Encode(gzip(content))</code>
+     */
+    public static byte[] encode(byte[] content) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length / 2 + 64);
+        OutputStream outputStream = newEncodingOutputStream(encoded);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * @param plain - content to encode
+     * @return stream of <code>base64Encode(gzip(content))</code>, zipped and encoded while being read
+     */
+    public static InputStream newEncodingInputStream(InputStream plain) {
+        return new Base64EncodingInputStream(new GzipCompressingInputStream(plain));
+    }
+
+    /**
+     * @return stream that writes everything read from <code>inputStream</code> also to the given channel, which is not closed by the stream
+     */
+    public static InputStream tee(InputStream inputStream, WritableByteChannel channel) {
+        return new ChannelTeeInputStream(inputStream, channel, false);
+    }
+
+    /**
+     * @return stream that writes everything read from <code>inputStream</code> also to the given file, which is closed together with the stream
+     */
+    public static InputStream tee(InputStream inputStream, File file) throws IOException {
+        return new ChannelTeeInputStream(inputStream, new FileOutputStream(file).getChannel(), true);
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static byte[] takeBuffer() {
+        byte[] buffer = take(BUFFERS, POOLED_BUFFERS);
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    static void releaseBuffer(byte[] buffer) {
+        // grown buffers are left to the garbage collector
+        if (buffer != null && buffer.length == BUFFER_SIZE) {
+            release(BUFFERS, POOLED_BUFFERS, buffer);
+        }
+    }
+
+    static char[] takeCharBuffer() {
+        char[] buffer = take(CHAR_BUFFERS, POOLED_CHAR_BUFFERS);
+        return buffer != null ? buffer : new char[BUFFER_SIZE];
+    }
+
+    static void releaseCharBuffer(char[] buffer) {
+        if (buffer != null) {
+            release(CHAR_BUFFERS, POOLED_CHAR_BUFFERS, buffer);
+        }
+    }
+
+    private static <T> T take(Queue<T> pool, AtomicInteger size) {
+        T buffer = pool.poll();
+        if (buffer != null) {
+            size.decrementAndGet();
+        }
+        return buffer;
+    }
+
+    private static <T> void release(Queue<T> pool, AtomicInteger size, T buffer) {
+        if (size.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            pool.offer(buffer);
+        } else {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes everything read from the wrapped stream to a channel as well
+     */
+    private static class ChannelTeeInputStream extends FilterInputStream {
+        private final WritableByteChannel channel;
+        private final boolean closeChannel;
+
+        ChannelTeeInputStream(InputStream in, WritableByteChannel channel, boolean closeChannel) {
+            super(in);
+            this.channel = channel;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                writeFully(channel, ByteBuffer.wrap(new byte[] { (byte) b }));
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                writeFully(channel, ByteBuffer.wrap(b, off, count));
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (closeChannel) {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.nortal.jroad.client.dhl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.ReceivedDocumentCallback;
+import com.nortal.jroad.client.dhl.DhlXTeeService.ReceivedDocumentsWrapper.ReceivedDocument;
+import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.TagasisideType;
+
+/**
+ * Continuously receives documents from DVK and passes them to the <code>handler</code>, instead of receiving, processing and marking documents
+ * received one batch after another:
+ * <ul>
+ * <li>poller thread calls {@link DhlXTeeService#receiveDocuments(int, ReceivedDocumentCallback)} and puts documents to a bounded queue as they are
+ * parsed, so the next batch is received while previous documents are being handled and receiving waits when handlers can't keep up</li>
+ * <li>worker threads take documents from the queue and call the <code>handler</code></li>
+ * <li>acknowledger thread marks successfully handled documents received with one
+ * {@link DhlXTeeService#markDocumentsReceivedV2(java.util.Collection)} call per <code>ackInterval</code> or <code>ackBatchSize</code> documents</li>
+ * </ul>
+ * Documents the handler fails on are not marked received, so DVK delivers them again. Documents that are delivered again while they are still being
+ * handled or waiting to be marked received are skipped.
+ */
+public class DvkReceivePipeline {
+    private static Log log = LogFactory.getLog(DvkReceivePipeline.class);
+
+    /** Tells a worker to stop */
+    private static final ReceivedDocument STOP = new DhlXTeeServiceImpl.StreamedReceivedDocument(null, null, null);
+
+    private DhlXTeeService dhlXTeeService;
+    private ReceivedDocumentCallback handler;
+    private int maxNrOfDocuments = 100;
+    private int queueCapacity = 100;
+    private int workers = 4;
+    private long pollInterval = 10000;
+    private long ackInterval = 1000;
+    private int ackBatchSize = 100;
+    private boolean disposeDataFiles = true;
+
+    private final Set<String> inFlightDhlIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final BlockingQueue<String> handledDhlIds = new LinkedBlockingQueue<String>();
+    private BlockingQueue<ReceivedDocument> documents;
+    private volatile boolean running;
+    private Thread poller;
+    private ExecutorService workerPool;
+    private Thread acknowledger;
+
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Pipeline is already running");
+        }
+        if (dhlXTeeService == null || handler == null) {
+            throw new IllegalStateException("dhlXTeeService and handler must be set");
+        }
+        running = true;
+        documents = new LinkedBlockingQueue<ReceivedDocument>(queueCapacity);
+        workerPool = Executors.newFixedThreadPool(workers, new NamedThreadFactory("dvkReceiveWorker"));
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(new Worker());
+        }
+        acknowledger = new NamedThreadFactory("dvkReceiveAcknowledger").newThread(new Acknowledger());
+        acknowledger.start();
+        poller = new NamedThreadFactory("dvkReceivePoller").newThread(new Poller());
+        poller.start();
+        log.info("started receiving DVK documents with " + workers + " workers");
+    }
+
+    /**
+     * Stops receiving documents, waits until received documents are handled and marks them received
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        poller.interrupt();
+        poller.join();
+        for (int i = 0; i < workers; i++) {
+            documents.put(STOP);
+        }
+        workerPool.shutdown();
+        workerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        acknowledger.interrupt();
+        acknowledger.join();
+        log.info("stopped receiving DVK documents");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private class Poller implements Runnable {
+        public void run() {
+            while (running) {
+                final AtomicInteger enqueued = new AtomicInteger();
+                try {
+                    dhlXTeeService.receiveDocuments(maxNrOfDocuments, new ReceivedDocumentCallback() {
+                        public void doWithDocument(ReceivedDocument receivedDocument) {
+                            if (!inFlightDhlIds.add(receivedDocument.getMetaInfoHelper().getDhlId())) {
+                                return; // delivered again before being marked received
+                            }
+                            try {
+                                documents.put(receivedDocument);
+                                enqueued.incrementAndGet();
+                            } catch (InterruptedException e) {
+                                inFlightDhlIds.remove(receivedDocument.getMetaInfoHelper().getDhlId());
+                                Thread.currentThread().interrupt();
+                                throw new IllegalStateException("Interrupted while waiting for free space in the queue", e);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    if (!running) {
+                        break;
+                    }
+                    log.error("failed to receive DVK documents", e);
+                    enqueued.set(0);
+                }
+                // Fewer new documents than requested: no more documents at the moment, or the rest were delivered again because
+                // workers or acknowledger are behind and receiving right away would only fetch them again
+                if (enqueued.get() < maxNrOfDocuments && !sleep(pollInterval)) {
+                    break;
+                }
+            }
+        }
+
+        private boolean sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+                return running;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                final ReceivedDocument document;
+                try {
+                    document = documents.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (document == STOP) {
+                    return;
+                }
+                handle(document);
+            }
+        }
+
+        /**
+         * Passes the document to the handler and releases it whatever the handler throws, so that the worker keeps running
+         */
+        private void handle(ReceivedDocument document) {
+            final String dhlId = document.getMetaInfoHelper().getDhlId();
+            boolean handled = false;
+            try {
+                handler.doWithDocument(document);
+                handled = true;
+            } catch (Throwable e) {
+                log.error("failed to handle DVK document " + dhlId + ", leaving it to be received again", e);
+            } finally {
+                if (handled) {
+                    handledDhlIds.add(dhlId);
+                } else {
+                    inFlightDhlIds.remove(dhlId);
+                }
+                if (disposeDataFiles) {
+                    dispose(document);
+                }
+            }
+        }
+    }
+
+    /**
+     * Disposes data files extracted while parsing, without building data files from the content left in the document
+     */
+    private static void dispose(ReceivedDocument document) {
+        if (!(document instanceof DhlXTeeServiceImpl.StreamedReceivedDocument)) {
+            return;
+        }
+        List<ReceivedDataFile> dataFiles = ((DhlXTeeServiceImpl.StreamedReceivedDocument) document).getExtractedDataFiles();
+        if (dataFiles != null) {
+            for (ReceivedDataFile dataFile : dataFiles) {
+                dataFile.dispose();
+            }
+        }
+    }
+
+    private class Acknowledger implements Runnable {
+        private final List<String> batch = new ArrayList<String>();
+
+        public void run() {
+            boolean stopping = false;
+            boolean marked = true;
+            while (!stopping) {
+                final long deadline = System.currentTimeMillis() + ackInterval;
+                try {
+                    if (!marked) {
+                        Thread.sleep(ackInterval); // don't retry failed call right away
+                    }
+                    while (batch.size() < ackBatchSize) {
+                        String dhlId = handledDhlIds.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                        if (dhlId == null) {
+                            break;
+                        }
+                        batch.add(dhlId);
+                    }
+                } catch (InterruptedException e) {
+                    stopping = true;
+                    handledDhlIds.drainTo(batch);
+                }
+                marked = markReceived();
+            }
+        }
+
+        private boolean markReceived() {
+            if (batch.isEmpty()) {
+                return true;
+            }
+            List<TagasisideType> receivedDocsInfos = new ArrayList<TagasisideType>(batch.size());
+            for (String dhlId : batch) {
+                TagasisideType receivedDocInfo = TagasisideType.Factory.newInstance();
+                receivedDocInfo.setDhlId(new BigInteger(dhlId));
+                receivedDocsInfos.add(receivedDocInfo);
+            }
+            try {
+                dhlXTeeService.markDocumentsReceivedV2(receivedDocsInfos);
+                log.debug("marked " + batch.size() + " documents received");
+                inFlightDhlIds.removeAll(batch);
+                batch.clear();
+                return true;
+            } catch (RuntimeException e) {
+                log.error("failed to mark " + batch.size() + " documents received, trying again later", e);
+                return false;
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, name + "-" + count.incrementAndGet());
+        }
+    }
+
+    // START: getters/setters
+    public void setDhlXTeeService(DhlXTeeService dhlXTeeService) {
+        this.dhlXTeeService = dhlXTeeService;
+    }
+
+    /**
+     * @param handler - called for each received document from worker threads, document is marked received if it doesn't throw an exception
+     */
+    public void setHandler(ReceivedDocumentCallback handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @param maxNrOfDocuments - maximum number of documents to receive with one service call
+     */
+    public void setMaxNrOfDocuments(int maxNrOfDocuments) {
+        this.maxNrOfDocuments = maxNrOfDocuments;
+    }
+
+    /**
+     * @param queueCapacity - maximum number of received documents waiting for a worker
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @param pollInterval - milliseconds to wait before receiving again, when less than <code>maxNrOfDocuments</code> were received
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @param ackInterval - maximum milliseconds a handled document waits before being marked received
+     */
+    public void setAckInterval(long ackInterval) {
+        this.ackInterval = ackInterval;
+    }
+
+    /**
+     * @param ackBatchSize - maximum number of documents to mark received with one service call
+     */
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+    /**
+     * @param disposeDataFiles - whether {@link ReceivedDataFile}s extracted while parsing a document (see
+     *            {@link DhlXTeeServiceImpl#setLazyDataFiles(boolean)}) are disposed after the handler returns (default true), set to false if the
+     *            handler passes the files on to be read later
+     */
+    public void setDisposeDataFiles(boolean disposeDataFiles) {
+        this.disposeDataFiles = disposeDataFiles;
+    }
+    // END: getters/setters
+}
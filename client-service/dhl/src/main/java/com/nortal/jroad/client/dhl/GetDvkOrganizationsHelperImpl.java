@@ -0,0 +1,255 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.DvkOrganizationsUpdateStrategy;
+import com.nortal.jroad.client.dhl.DhlXTeeService.GetDvkOrganizationsHelper;
+
+/**
+ * Refresh-ahead cache of DVK capable organizations. Since the list of DVK capable organisations changes very rarely, it is kept in memory and
+ * updated when {@link DvkOrganizationsUpdateStrategy} asks to. Outdated organizations are still returned while a single background refresh is
+ * running. Callers wait for the service call only when there is nothing cached yet or when the strategy asks to update because of a missing
+ * organization name - then concurrent callers share the same refresh. <br>
+ * Organizations are replaced as an unmodifiable snapshot and, if {@link #getCacheFile()} is set, also written to that file to be used after restart.
+ */
+abstract class GetDvkOrganizationsHelperImpl implements GetDvkOrganizationsHelper {
+    private static Log log = LogFactory.getLog(GetDvkOrganizationsHelperImpl.class);
+
+    /** Written at the start of the cache file, changed when the format changes */
+    private static final int CACHE_FILE_VERSION = 1;
+
+    private final AtomicReference<Map<String/* regNr */, String/* name */>> dvkCapableOrganizations = new AtomicReference<Map<String, String>>();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private final Object refreshLock = new Object();
+    private ExecutorService refreshExecutor;
+    private boolean cacheFileRead;
+
+    private volatile DvkOrganizationsUpdateStrategy updateStrategy;
+
+    /**
+     * @return up-to-date organizations from the service
+     */
+    protected abstract Map<String/* regNr */, String/* name */> getSendingOptions();
+
+    /**
+     * @return file where organizations are saved after each update, or blank if they are kept only in memory
+     */
+    protected abstract String getCacheFile();
+
+    public Map<String/* regNr */, String/* name */> getDvkOrganizationsCache() {
+        Map<String, String> organizations = getCachedOrganizations();
+        if (getUpdateStrategy().update4getDvkOrganizationsCache(organizations)) {
+            if (organizations == null || organizations.isEmpty()) {
+                organizations = refresh(organizations);
+            } else {
+                scheduleRefresh();
+            }
+        }
+        return organizations;
+    }
+
+    public String getOrganizationName(String regnr) {
+        Map<String, String> organizations = getDvkOrganizationsCache();
+        String orgName = organizations.get(regnr);
+        if (getUpdateStrategy().update4getOrganizationName(orgName)) {
+            orgName = refresh(organizations).get(regnr);
+        }
+        return orgName;
+    }
+
+    public void updateDvkCapableOrganisationsCache() {
+        synchronized (refreshLock) {
+            log.info("starting to update dvkCapableOrganisationsCache");
+            setDvkOrganizationsCache(getSendingOptions());
+            log.info("updated dvkCapableOrganisationsCache");
+        }
+    }
+
+    public void setDvkOrganizationsCache(Map<String, String> cache) {
+        final Calendar updated = Calendar.getInstance();
+        final Map<String, String> snapshot = cache == null ? null : Collections.unmodifiableMap(new HashMap<String, String>(cache));
+        dvkCapableOrganizations.set(snapshot);
+        getUpdateStrategy().setLastUpdated(updated);
+        if (snapshot != null) {
+            writeCacheFile(snapshot, updated);
+        }
+    }
+
+    /**
+     * Updates the cache unless it was already updated after <code>organizations</code> were read from it
+     *
+     * @return organizations after the update
+     */
+    private Map<String, String> refresh(Map<String, String> organizations) {
+        synchronized (refreshLock) {
+            if (dvkCapableOrganizations.get() == organizations) {
+                updateDvkCapableOrganisationsCache();
+            }
+            return dvkCapableOrganizations.get();
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return; // already refreshing
+        }
+        final Map<String, String> organizations = dvkCapableOrganizations.get();
+        try {
+            getRefreshExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh(organizations);
+                    } catch (RuntimeException e) {
+                        log.error("failed to update dvkCapableOrganisationsCache, using previous organizations", e);
+                    } finally {
+                        refreshScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshScheduled.set(false);
+            throw e;
+        }
+    }
+
+    private synchronized ExecutorService getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "dvkOrganizationsCacheRefresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return refreshExecutor;
+    }
+
+    private Map<String, String> getCachedOrganizations() {
+        Map<String, String> organizations = dvkCapableOrganizations.get();
+        if (organizations == null) {
+            readCacheFile();
+            organizations = dvkCapableOrganizations.get();
+        }
+        return organizations;
+    }
+
+    /**
+     * Reads organizations saved by previous update (possibly before restart) from the cache file, once. <br>
+     * The file contains only strings and a timestamp, so that no objects are deserialized from it.
+     */
+    private void readCacheFile() {
+        synchronized (refreshLock) {
+            if (cacheFileRead || dvkCapableOrganizations.get() != null) {
+                return;
+            }
+            cacheFileRead = true;
+            final String cacheFile = getCacheFile();
+            if (StringUtils.isBlank(cacheFile) || !new File(cacheFile).exists()) {
+                return;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+                if (in.readInt() != CACHE_FILE_VERSION) {
+                    throw new IOException("unknown format of the file");
+                }
+                Calendar updated = Calendar.getInstance();
+                updated.setTimeInMillis(in.readLong());
+                Map<String, String> organizations = new HashMap<String, String>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    organizations.put(readString(in), readString(in));
+                }
+                dvkCapableOrganizations.compareAndSet(null, Collections.unmodifiableMap(organizations));
+                getUpdateStrategy().setLastUpdated(updated);
+                log.info("read " + organizations.size() + " organizations updated at " + updated.getTime() + " from " + cacheFile);
+            } catch (IOException e) {
+                log.warn("failed to read dvkCapableOrganisationsCache from " + cacheFile, e);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Writes organizations to the cache file through a temporary file, so that the file would always contain complete list
+     */
+    private void writeCacheFile(Map<String, String> organizations, Calendar updated) {
+        if (StringUtils.isBlank(getCacheFile())) {
+            return;
+        }
+        final File cacheFile = new File(getCacheFile());
+        DataOutputStream out = null;
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(CACHE_FILE_VERSION);
+            out.writeLong(updated.getTimeInMillis());
+            out.writeInt(organizations.size());
+            for (Map.Entry<String, String> entry : organizations.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            out.close();
+            if (!tmpFile.renameTo(cacheFile) && !(cacheFile.delete() && tmpFile.renameTo(cacheFile))) {
+                throw new IOException("failed to rename " + tmpFile + " to " + cacheFile);
+            }
+            tmpFile = null;
+        } catch (IOException e) {
+            log.warn("failed to write dvkCapableOrganisationsCache to " + cacheFile, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (tmpFile != null && !tmpFile.delete()) {
+                log.warn("failed to delete file " + tmpFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // START: getters/setters
+    public DvkOrganizationsUpdateStrategy getUpdateStrategy() {
+        if (updateStrategy == null) {
+            log.debug("-- using default cache update strategy--");
+            updateStrategy = new DhlXTeeService.DvkOrganizationsCacheingUpdateStrategy().setMaxUpdateInterval(24 * 60);// 24h
+        }
+        return updateStrategy;
+    }
+
+    public void setUpdateStrategy(DvkOrganizationsUpdateStrategy updateStrategy) {
+        this.updateStrategy = updateStrategy;
+    }
+    // END: getters/setters
+
+}
@@ -0,0 +1,93 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * {@link InputStream} returning the content of the wrapped stream in GZIP format, compressed while it is read. Produces the same format as
+ * {@link java.util.zip.GZIPOutputStream}, without the need to push the content through an output stream.
+ */
+class GzipCompressingInputStream extends InputStream {
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final InputStream deflating;
+    private byte[] pending = HEADER;
+    private int position;
+    private boolean deflated;
+    private boolean closed;
+
+    GzipCompressingInputStream(InputStream in) {
+        deflating = new DeflaterInputStream(new CheckedInputStream(in, crc), deflater, DvkCodec.BUFFER_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pending == null) {
+            int count = deflating.read(b, off, len);
+            if (count != -1) {
+                return count;
+            }
+            pending = trailer();
+            position = 0;
+            deflated = true;
+        }
+        if (position == pending.length) {
+            if (deflated) {
+                return -1;
+            }
+            pending = null; // header has been read
+            return read(b, off, len);
+        }
+        int count = Math.min(len, pending.length - position);
+        System.arraycopy(pending, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * @return CRC-32 and size of the uncompressed content, in little endian byte order
+     */
+    private byte[] trailer() {
+        byte[] trailer = new byte[8];
+        writeInt(trailer, 0, crc.getValue());
+        writeInt(trailer, 4, deflater.getBytesRead());
+        return trailer;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            deflating.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import com.nortal.jroad.client.util.XmlBeansUtil;
+
+/**
+ * Reads the elements of a DVK array attachment one at a time. The attachment holds <code>base64Encode(gzip(content))</code>, where content is a sequence
+ * of elements without a common root element. The attachment is decoded, unzipped and parsed while the elements are iterated, wrapped in a synthetic root
+ * element, so only the current element is kept in memory regardless of the number of elements.
+ */
+final class GzippedAndEncodedArrayReader<T extends XmlObject> implements Iterator<T>, Closeable {
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final byte[] ROOT_START = "<root>".getBytes();
+    private static final byte[] ROOT_END = "</root>".getBytes();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+    private final DataFileExtractingStreamReader dataFileExtractor;
+    private final Class<T> elementClass;
+    private final SchemaType elementType;
+    private final XmlOptions options = new XmlOptions();
+    private Boolean hasNext;
+
+    GzippedAndEncodedArrayReader(InputStream inputStream, Class<T> elementClass) {
+        this(inputStream, elementClass, null, -1);
+    }
+
+    /**
+     * @param inputStream encoded attachment content, closed by {@link #close()}
+     * @param elementClass generated XmlBeans class of the elements
+     * @param tee optional channel to write the decoded content to while it is read, not closed by this reader
+     * @param dataFileSpillThreshold if not negative, content of base64 encoded &lt;DataFile/&gt; elements is left out of the parsed elements and
+     *            returned by {@link #getDataFiles()} instead, content larger than that many bytes is kept in temporary files
+     */
+    GzippedAndEncodedArrayReader(InputStream inputStream, Class<T> elementClass, WritableByteChannel tee, int dataFileSpillThreshold) {
+        this.elementClass = elementClass;
+        try {
+            this.elementType = (SchemaType) elementClass.getField("type").get(null);
+        } catch (Exception e) {
+            IOUtils.closeQuietly(inputStream);
+            throw new IllegalArgumentException("Failed to get value of '" + elementClass.getCanonicalName()
+                    + ".type' to get corresponding SchemaType object: ", e);
+        }
+        try {
+            InputStream decoded = DvkCodec.newDecodingInputStream(inputStream);
+            if (tee != null) {
+                decoded = DvkCodec.tee(decoded, tee);
+            }
+            this.inputStream = new SequenceInputStream(Collections.enumeration(Arrays.asList( //
+                    new ByteArrayInputStream(ROOT_START), decoded, new ByteArrayInputStream(ROOT_END))));
+            XMLStreamReader xmlReader = INPUT_FACTORY.createXMLStreamReader(this.inputStream, DhlXTeeServiceImpl.DVK_MESSAGE_CHARSET);
+            if (dataFileSpillThreshold >= 0) {
+                this.dataFileExtractor = new DataFileExtractingStreamReader(xmlReader, dataFileSpillThreshold);
+                xmlReader = dataFileExtractor;
+            } else {
+                this.dataFileExtractor = null;
+            }
+            this.reader = xmlReader;
+            reader.nextTag();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(inputStream);
+            throw new RuntimeException("failed to unzip and decode input", e);
+        } catch (XMLStreamException e) {
+            IOUtils.closeQuietly(inputStream);
+            throw new RuntimeException("Failed to parse input to class: " + elementClass.getCanonicalName(), e);
+        }
+    }
+
+    public boolean hasNext() {
+        if (hasNext == null) {
+            try {
+                hasNext = reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Failed to parse input to class: " + elementClass.getCanonicalName(), e);
+            }
+        }
+        return hasNext;
+    }
+
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNext = null;
+        try {
+            options.setDocumentType(elementType);
+            @SuppressWarnings("unchecked")
+            T result = (T) XmlBeansUtil.parse(reader, elementType, options, false);
+            return result;
+        } catch (XmlException e) {
+            throw new RuntimeException("Failed to parse input to class: " + elementClass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * @return data files extracted from the element returned by the last call to {@link #next()}, null if data files are not extracted
+     */
+    public List<ReceivedDataFile> getDataFiles() {
+        return dataFileExtractor == null ? null : dataFileExtractor.takeDataFiles();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // the input stream is closed anyway
+        }
+        IOUtils.closeQuietly(inputStream);
+    }
+}
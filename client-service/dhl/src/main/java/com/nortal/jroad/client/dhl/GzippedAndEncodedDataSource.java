@@ -0,0 +1,109 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link DataSource} of a DVK attachment, that produces <code>base64Encode(gzip(content))</code> only while the attachment is being read, so that neither
+ * the content nor its encoded form is kept in memory. <br>
+ * Content can be read only once, unless spilling is enabled: then the encoded content is also written to a temporary file when it is read for the first
+ * time and read from there later, for example when the request is written again or its length has to be known in advance.
+ */
+abstract class GzippedAndEncodedDataSource implements DataSource {
+    private static Log log = LogFactory.getLog(GzippedAndEncodedDataSource.class);
+
+    private final String contentType;
+    private final boolean spill;
+    private boolean opened;
+    private File spillFile;
+    private boolean spilled;
+
+    /**
+     * @param spill - whether the encoded content should be written to a temporary file, so that it could be read more than once
+     */
+    GzippedAndEncodedDataSource(String contentType, boolean spill) {
+        this.contentType = contentType;
+        this.spill = spill;
+    }
+
+    /**
+     * @return plain content to be encoded
+     */
+    protected abstract InputStream openContent() throws IOException;
+
+    public synchronized InputStream getInputStream() throws IOException {
+        if (spilled) {
+            return new FileInputStream(spillFile);
+        }
+        if (opened) {
+            throw new IllegalStateException(spill ? "Attachment content was not read to the end, so it can't be read again"
+                    : "Attachment content has already been read, spilling must be enabled to read it again");
+        }
+        opened = true;
+        final InputStream encoded = DvkCodec.newEncodingInputStream(openContent());
+        if (!spill) {
+            return encoded;
+        }
+        spillFile = File.createTempFile("dvk", ".b64");
+        return new FilterInputStream(DvkCodec.tee(encoded, spillFile)) {
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                return ended ? -1 : completeOnEnd(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return ended ? -1 : completeOnEnd(super.read(b, off, len));
+            }
+
+            private int completeOnEnd(int result) throws IOException {
+                if (result == -1) {
+                    ended = true;
+                    close(); // flushes the spill file
+                    spillCompleted();
+                }
+                return result;
+            }
+        };
+    }
+
+    private synchronized void spillCompleted() {
+        spilled = spillFile != null;
+    }
+
+    /**
+     * Deletes the temporary file, if one was created
+     */
+    public synchronized void dispose() {
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                log.warn("failed to delete file " + spillFile.getAbsolutePath());
+            }
+            spillFile = null;
+            spilled = false;
+        }
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getName() {
+        return "GzippedAndEncodedDataSource";
+    }
+}
@@ -0,0 +1,94 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nortal.jroad.client.dhl.types.ee.sk.digiDoc.v13.DataFileType;
+
+/**
+ * &lt;DataFile/&gt; of a received &lt;SignedDoc/&gt; container, whose content is kept base64 encoded (in memory or in a temporary file) and decoded
+ * only while it is read through {@link #getInputStream()}.
+ */
+public class ReceivedDataFile {
+    private static Log log = LogFactory.getLog(ReceivedDataFile.class);
+
+    private final String id;
+    private final String filename;
+    private final String mimeType;
+    private final long size;
+    private byte[] encodedContent;
+    private File encodedContentFile;
+
+    ReceivedDataFile(String id, String filename, String mimeType, long size, byte[] encodedContent, File encodedContentFile) {
+        this.id = id;
+        this.filename = filename;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.encodedContent = encodedContent;
+        this.encodedContentFile = encodedContentFile;
+    }
+
+    /**
+     * @return data file whose content is taken from the value of the element
+     */
+    static ReceivedDataFile of(DataFileType dataFile) {
+        try {
+            return new ReceivedDataFile(dataFile.getId(), dataFile.getFilename(), dataFile.getMimeType(), dataFile.getSize() == null ? -1 : dataFile
+                    .getSize().longValue(), dataFile.getStringValue().getBytes("US-ASCII"), null);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return size of the decoded content given in the container, -1 if it wasn't given
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return decoded content, can be called more than once until {@link #dispose()} is called
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+        if (encodedContentFile != null) {
+            return new Base64DecodingInputStream(new FileInputStream(encodedContentFile));
+        }
+        if (encodedContent == null) {
+            throw new IllegalStateException("Content of '" + filename + "' has been disposed");
+        }
+        return new Base64DecodingInputStream(new ByteArrayInputStream(encodedContent));
+    }
+
+    /**
+     * Releases the content, deleting the temporary file if content was written to one
+     */
+    public synchronized void dispose() {
+        encodedContent = null;
+        if (encodedContentFile != null) {
+            if (!encodedContentFile.delete()) {
+                log.warn("failed to delete file " + encodedContentFile.getAbsolutePath());
+            }
+            encodedContentFile = null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.ContentToSend;
+
+public class DataFileContentTest extends TestCase {
+
+    public void testContentOfKnownSizeIsReadOnce() throws IOException {
+        DataFileContent content = DataFileContent.of(contentToSend(new byte[] { 1, 2, 3 }, 3));
+        assertEquals(3, content.getSize());
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, read(content)));
+        try {
+            content.open();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testContentOfWrongSizeFailsWhenRead() throws IOException {
+        DataFileContent content = DataFileContent.of(contentToSend(new byte[] { 1, 2, 3 }, 2));
+        try {
+            read(content);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("differs from the given size"));
+        }
+    }
+
+    public void testContentOfUnknownSizeIsCopiedToTemporaryFile() throws IOException {
+        byte[] bytes = new byte[DvkCodec.BUFFER_SIZE * 3 + 5];
+        Arrays.fill(bytes, (byte) 'x');
+        ClosingInputStream input = new ClosingInputStream(bytes);
+        ContentToSend contentToSend = contentToSend(bytes, -1);
+        contentToSend.setInputStream(input);
+        int tempFiles = tempFiles();
+
+        DataFileContent content = DataFileContent.of(contentToSend);
+        assertTrue("input is closed once copied", input.closed);
+        assertEquals(bytes.length, content.getSize());
+        assertEquals(tempFiles + 1, tempFiles());
+        // The file can be read as many times as the attachment is written
+        assertTrue(Arrays.equals(bytes, read(content)));
+        assertTrue(Arrays.equals(bytes, read(content)));
+
+        content.dispose();
+        assertEquals(tempFiles, tempFiles());
+    }
+
+    private static int tempFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("dvk") && name.endsWith(".dat");
+            }
+        });
+        return names.length;
+    }
+
+    private static byte[] read(DataFileContent content) throws IOException {
+        InputStream is = content.open();
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static ContentToSend contentToSend(byte[] bytes, long size) {
+        ContentToSend contentToSend = new ContentToSend();
+        contentToSend.setFileName("test.txt");
+        contentToSend.setInputStream(new ByteArrayInputStream(bytes));
+        contentToSend.setSize(size);
+        return contentToSend;
+    }
+
+    private static class ClosingInputStream extends ByteArrayInputStream {
+        private boolean closed;
+
+        ClosingInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
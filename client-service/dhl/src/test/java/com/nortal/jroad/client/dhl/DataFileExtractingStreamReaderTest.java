@@ -0,0 +1,147 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.impl.util.Base64;
+
+public class DataFileExtractingStreamReaderTest extends TestCase {
+    private static final byte[] CONTENT = content(10000);
+
+    public void testContentIsRemovedFromParsedDocument() throws Exception {
+        DataFileExtractingStreamReader reader = newReader(Integer.MAX_VALUE);
+        XmlObject signedDoc = XmlObject.Factory.parse(reader);
+
+        assertEquals("", getDataFileText(signedDoc, "D0"));
+        assertEquals("aGFzaA==", getDataFileText(signedDoc, "D1")); // not EMBEDDED_BASE64
+
+        List<ReceivedDataFile> dataFiles = reader.takeDataFiles();
+        assertEquals(1, dataFiles.size());
+        ReceivedDataFile dataFile = dataFiles.get(0);
+        assertEquals("D0", dataFile.getId());
+        assertEquals("file.bin", dataFile.getFilename());
+        assertEquals("application/octet-stream", dataFile.getMimeType());
+        assertEquals(CONTENT.length, dataFile.getSize());
+        assertTrue(Arrays.equals(CONTENT, read(dataFile)));
+        assertTrue("can be read again", Arrays.equals(CONTENT, read(dataFile)));
+        assertTrue(reader.takeDataFiles().isEmpty());
+
+        dataFile.dispose();
+        try {
+            dataFile.getInputStream();
+            fail("content kept in memory should be released");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testContentAboveThresholdIsWrittenToFile() throws Exception {
+        int tempFiles = countTempFiles();
+        DataFileExtractingStreamReader reader = newReader(100);
+        XmlObject.Factory.parse(reader);
+        assertEquals(tempFiles + 1, countTempFiles());
+
+        ReceivedDataFile dataFile = reader.takeDataFiles().get(0);
+        assertTrue(Arrays.equals(CONTENT, read(dataFile)));
+
+        dataFile.dispose();
+        assertEquals(tempFiles, countTempFiles());
+    }
+
+    public void testNextTagAndGetElementTextExtractContent() throws Exception {
+        DataFileExtractingStreamReader reader = newReader(Integer.MAX_VALUE);
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("SignedDoc", reader.getLocalName());
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("D0", reader.getAttributeValue(null, "Id"));
+
+        assertEquals("", reader.getElementText());
+        assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+        List<ReceivedDataFile> dataFiles = reader.takeDataFiles();
+        assertEquals(1, dataFiles.size());
+        assertTrue(Arrays.equals(CONTENT, read(dataFiles.get(0))));
+
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("aGFzaA==", reader.getElementText());
+        assertEquals(XMLStreamConstants.END_ELEMENT, reader.nextTag());
+        assertEquals("SignedDoc", reader.getLocalName());
+    }
+
+    public void testCloseDisposesDataFilesNotTaken() throws Exception {
+        DataFileExtractingStreamReader reader = newReader(100);
+        reader.nextTag();
+        reader.nextTag();
+        int tempFiles = countTempFiles();
+        reader.getElementText();
+        assertEquals(tempFiles + 1, countTempFiles());
+        reader.close();
+        assertEquals(tempFiles, countTempFiles());
+        assertTrue(reader.takeDataFiles().isEmpty());
+    }
+
+    private static DataFileExtractingStreamReader newReader(int spillThreshold) throws XMLStreamException {
+        // Base64.encode() breaks lines, so the content arrives in several text events
+        String xml = "<SignedDoc xmlns=\"http://www.sk.ee/DigiDoc/v1.3.0#\">" //
+                + "<DataFile ContentType=\"EMBEDDED_BASE64\" Id=\"D0\" Filename=\"file.bin\" MimeType=\"application/octet-stream\" Size=\"" + CONTENT.length
+                + "\">" + new String(Base64.encode(CONTENT)) + "</DataFile>" //
+                + "<DataFile ContentType=\"HASHCODE\" Id=\"D1\" Filename=\"hash.bin\">aGFzaA==</DataFile>" //
+                + "</SignedDoc>";
+        return new DataFileExtractingStreamReader(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)), spillThreshold);
+    }
+
+    private static String getDataFileText(XmlObject document, String id) {
+        for (XmlObject dataFile : document.selectPath("declare namespace d='http://www.sk.ee/DigiDoc/v1.3.0#' $this//d:DataFile")) {
+            XmlCursor cursor = dataFile.newCursor();
+            try {
+                if (id.equals(cursor.getAttributeText(new QName("Id")))) {
+                    return cursor.getTextValue();
+                }
+            } finally {
+                cursor.dispose();
+            }
+        }
+        throw new AssertionFailedError("No DataFile " + id);
+    }
+
+    private static int countTempFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("dvk") && name.endsWith(".b64");
+            }
+        });
+        return names == null ? 0 : names.length;
+    }
+
+    private static byte[] read(ReceivedDataFile dataFile) throws IOException {
+        InputStream inputStream = dataFile.getInputStream();
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+}
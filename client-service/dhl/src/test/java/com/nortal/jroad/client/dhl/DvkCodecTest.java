@@ -0,0 +1,105 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.xmlbeans.impl.util.Base64;
+
+public class DvkCodecTest extends TestCase {
+    private static final int[] SIZES = { 1, 2, 3, 4, 5, 57, 58, 59, DvkCodec.BUFFER_SIZE - 1, DvkCodec.BUFFER_SIZE, DvkCodec.BUFFER_SIZE + 1,
+            DvkCodec.BUFFER_SIZE * 3 + 2, 100000 };
+
+    public void testDecodesReferenceEncoding() throws IOException {
+        for (int size : SIZES) {
+            byte[] content = content(size);
+            assertTrue("size " + size, Arrays.equals(content, DvkCodec.decode(new ByteArrayInputStream(referenceEncode(content)))));
+        }
+    }
+
+    public void testEncodingIsDecodedByReference() throws IOException {
+        for (int size : SIZES) {
+            byte[] content = content(size);
+            assertTrue("size " + size, Arrays.equals(content, referenceDecode(DvkCodec.encode(content))));
+            assertTrue("size " + size, Arrays.equals(content, referenceDecode(read(DvkCodec.newEncodingInputStream(new ByteArrayInputStream(content))))));
+        }
+    }
+
+    public void testEmptyContent() throws IOException {
+        assertEquals(0, DvkCodec.decode(new ByteArrayInputStream(new byte[0])).length);
+        assertEquals(0, DvkCodec.decode(new ByteArrayInputStream(DvkCodec.encode(new byte[0]))).length);
+        assertEquals(0, DvkCodec.decode(new ByteArrayInputStream(read(DvkCodec.newEncodingInputStream(new ByteArrayInputStream(new byte[0]))))).length);
+    }
+
+    public void testWhitespaceInEncodedContentIsIgnored() throws IOException {
+        byte[] content = content(1000);
+        String encoded = new String(referenceEncode(content), "US-ASCII").replaceAll("\\s", "");
+        StringBuilder formatted = new StringBuilder("\r\n ");
+        for (int i = 0; i < encoded.length(); i += 50) {
+            formatted.append(encoded.substring(i, Math.min(i + 50, encoded.length()))).append(i % 100 == 0 ? "\r\n" : "\n\t ");
+        }
+        assertTrue(Arrays.equals(content, DvkCodec.decode(new ByteArrayInputStream(formatted.toString().getBytes("US-ASCII")))));
+    }
+
+    public void testSingleByteReads() throws IOException {
+        byte[] content = content(DvkCodec.BUFFER_SIZE + 7);
+
+        InputStream encoding = DvkCodec.newEncodingInputStream(new ByteArrayInputStream(content));
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            for (int b = encoding.read(); b != -1; b = encoding.read()) {
+                encoded.write(b);
+            }
+        } finally {
+            encoding.close();
+        }
+
+        InputStream decoding = DvkCodec.newDecodingInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try {
+            for (int b = decoding.read(); b != -1; b = decoding.read()) {
+                decoded.write(b);
+            }
+        } finally {
+            decoding.close();
+        }
+        assertTrue(Arrays.equals(content, decoded.toByteArray()));
+    }
+
+    private static byte[] referenceEncode(byte[] content) throws IOException {
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(zipped);
+        gzip.write(content);
+        gzip.close();
+        return Base64.encode(zipped.toByteArray());
+    }
+
+    private static byte[] referenceDecode(byte[] encoded) throws IOException {
+        byte[] zipped = Base64.decode(encoded);
+        assertNotNull("invalid base64", zipped);
+        return read(new GZIPInputStream(new ByteArrayInputStream(zipped)));
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+}
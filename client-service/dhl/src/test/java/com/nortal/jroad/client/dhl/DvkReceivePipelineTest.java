@@ -0,0 +1,288 @@
+package com.nortal.jroad.client.dhl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.xmlbeans.XmlObject;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.MetainfoHelper;
+import com.nortal.jroad.client.dhl.DhlXTeeService.ReceivedDocumentCallback;
+import com.nortal.jroad.client.dhl.DhlXTeeService.ReceivedDocumentsWrapper;
+import com.nortal.jroad.client.dhl.DhlXTeeService.ReceivedDocumentsWrapper.ReceivedDocument;
+import com.nortal.jroad.client.dhl.DhlXTeeService.SendDocumentsDokumentCallback;
+import com.nortal.jroad.client.dhl.DhlXTeeService.SendDocumentsRequestCallback;
+import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.AadressType;
+import com.nortal.jroad.client.dhl.types.ee.riik.schemas.dhl.TagasisideType;
+import com.nortal.jroad.client.dhl.types.ee.riik.xtee.dhl.producers.producer.dhl.GetSendStatusResponseTypeUnencoded.Item;
+import com.nortal.jroad.client.dhl.types.ee.riik.xtee.dhl.producers.producer.dhl.OccupationType;
+
+public class DvkReceivePipelineTest extends TestCase {
+    private final StubDhlXTeeService service = new StubDhlXTeeService();
+    private final TestHandler handler = new TestHandler();
+    private final DvkReceivePipeline pipeline = new DvkReceivePipeline();
+
+    @Override
+    protected void setUp() throws Exception {
+        pipeline.setDhlXTeeService(service);
+        pipeline.setHandler(handler);
+        pipeline.setWorkers(2);
+        pipeline.setPollInterval(20);
+        pipeline.setAckInterval(10000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        handler.release.countDown();
+        pipeline.stop();
+    }
+
+    public void testDocumentsAreMarkedReceivedInBatchesOfAckBatchSize() throws Exception {
+        pipeline.setAckBatchSize(2);
+        service.deliver("1", "2", "3", "4");
+        pipeline.start();
+
+        service.awaitMarked(4);
+        assertEquals(2, service.marks.size());
+        for (List<String> mark : service.marks) {
+            assertEquals(2, mark.size());
+        }
+    }
+
+    public void testDocumentsAreMarkedReceivedAfterAckInterval() throws Exception {
+        pipeline.setAckInterval(50);
+        service.deliver("1", "2", "3");
+        pipeline.start();
+
+        service.awaitMarked(3);
+        assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")), service.getMarked());
+        assertTrue(pipeline.isRunning());
+    }
+
+    public void testFailedDocumentsAreNotMarkedReceived() throws Exception {
+        pipeline.setWorkers(1);
+        pipeline.setAckInterval(50);
+        handler.failures.put("2", new IllegalStateException("failed"));
+        handler.failures.put("3", new Error("failed"));
+        service.deliver("1", "2", "3", "4");
+        pipeline.start();
+
+        // Failed documents are received again, also after the handler throws an Error
+        handler.awaitAttempts("2", 2);
+        handler.awaitAttempts("3", 2);
+        service.awaitMarked(2);
+        pipeline.stop();
+
+        assertEquals(new HashSet<String>(Arrays.asList("1", "4")), service.getMarked());
+    }
+
+    public void testDocumentsDeliveredAgainWhileInFlightAreSkipped() throws Exception {
+        handler.blocked.add("1");
+        service.deliver("1");
+        pipeline.start();
+
+        assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+        service.awaitReceives(service.receives.get() + 3);
+        handler.release.countDown();
+        pipeline.stop();
+
+        assertEquals(1, handler.getAttempts("1"));
+        assertEquals(Arrays.asList(Arrays.asList("1")), service.marks);
+    }
+
+    public void testStopHandlesQueuedDocumentsAndMarksThemReceived() throws Exception {
+        pipeline.setWorkers(1);
+        handler.blocked.add("1");
+        service.deliver("1", "2", "3", "4", "5");
+        pipeline.start();
+
+        assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+        service.awaitReceives(2);
+        assertTrue(service.getMarked().isEmpty());
+        Thread stopper = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    pipeline.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        stopper.start();
+        Thread.sleep(50);
+        handler.release.countDown();
+        stopper.join(5000);
+
+        assertFalse(stopper.isAlive());
+        assertFalse(pipeline.isRunning());
+        assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3", "4", "5")), service.getMarked());
+        int receives = service.receives.get();
+        Thread.sleep(50);
+        assertEquals(receives, service.receives.get());
+    }
+
+    private static ReceivedDocument document(String dhlId) {
+        return new DhlXTeeServiceImpl.StreamedReceivedDocument(null, new TestMetainfoHelper(dhlId), null);
+    }
+
+    private static class TestMetainfoHelper extends MetainfoHelper {
+        private final String dhlId;
+
+        TestMetainfoHelper(String dhlId) {
+            super(null);
+            this.dhlId = dhlId;
+        }
+
+        @Override
+        protected Map<Class<? extends XmlObject>, List<? extends XmlObject>> parse(XmlObject xmlObject) {
+            return new HashMap<Class<? extends XmlObject>, List<? extends XmlObject>>();
+        }
+
+        @Override
+        public String getDhlId() {
+            return dhlId;
+        }
+    }
+
+    private static class TestHandler implements ReceivedDocumentCallback {
+        final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+        final Set<String> blocked = new HashSet<String>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        public void doWithDocument(ReceivedDocument receivedDocument) {
+            String dhlId = receivedDocument.getMetaInfoHelper().getDhlId();
+            attempts.putIfAbsent(dhlId, new AtomicInteger());
+            attempts.get(dhlId).incrementAndGet();
+            if (blocked.contains(dhlId)) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Throwable failure = failures.get(dhlId);
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+
+        int getAttempts(String dhlId) {
+            AtomicInteger count = attempts.get(dhlId);
+            return count == null ? 0 : count.get();
+        }
+
+        void awaitAttempts(String dhlId, int expected) throws InterruptedException {
+            for (int i = 0; i < 500 && getAttempts(dhlId) < expected; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue("document " + dhlId + " was handled " + getAttempts(dhlId) + " times", getAttempts(dhlId) >= expected);
+        }
+    }
+
+    /**
+     * Delivers documents until they are marked received, like DVK does
+     */
+    private static class StubDhlXTeeService implements DhlXTeeService {
+        final List<List<String>> marks = new ArrayList<List<String>>();
+        final AtomicInteger receives = new AtomicInteger();
+        private final Set<String> pending = new LinkedHashSet<String>();
+
+        synchronized void deliver(String... dhlIds) {
+            pending.addAll(Arrays.asList(dhlIds));
+        }
+
+        public Set<String> receiveDocuments(int maxNrOfDocuments, ReceivedDocumentCallback callback) {
+            List<String> dhlIds;
+            synchronized (this) {
+                dhlIds = new ArrayList<String>(pending);
+            }
+            dhlIds = dhlIds.subList(0, Math.min(maxNrOfDocuments, dhlIds.size()));
+            for (String dhlId : dhlIds) {
+                callback.doWithDocument(document(dhlId));
+            }
+            receives.incrementAndGet();
+            return new HashSet<String>(dhlIds);
+        }
+
+        public synchronized void markDocumentsReceivedV2(Collection<TagasisideType> receivedDocsInfos) {
+            List<String> dhlIds = new ArrayList<String>();
+            for (TagasisideType receivedDocInfo : receivedDocsInfos) {
+                dhlIds.add(receivedDocInfo.getDhlId().toString());
+            }
+            pending.removeAll(dhlIds);
+            marks.add(dhlIds);
+            notifyAll();
+        }
+
+        synchronized Set<String> getMarked() {
+            Set<String> marked = new HashSet<String>();
+            for (List<String> mark : marks) {
+                marked.addAll(mark);
+            }
+            return marked;
+        }
+
+        synchronized void awaitMarked(int expected) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (getMarked().size() < expected && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertEquals(expected, getMarked().size());
+        }
+
+        void awaitReceives(int expected) throws InterruptedException {
+            for (int i = 0; i < 500 && receives.get() < expected; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(receives.get() >= expected);
+        }
+
+        public Map<String, String> getSendingOptions() {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<String> sendDocuments(Collection<ContentToSend> contentsToSend, AadressType[] recipients, AadressType sender) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Set<String> sendDocuments(Collection<ContentToSend> contentsToSend, AadressType[] recipients, AadressType sender,
+                SendDocumentsDokumentCallback callback, SendDocumentsRequestCallback requestCallback) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Item> getSendStatuses(Set<String> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ReceivedDocumentsWrapper receiveDocuments(int maxNrOfDocuments) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void markDocumentsReceived(Collection<String> receivedDocumentIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<OccupationType> getOccupationList(List<String> institutionRegNrs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
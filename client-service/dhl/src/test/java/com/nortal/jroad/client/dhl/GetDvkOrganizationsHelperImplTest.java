@@ -0,0 +1,213 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.nortal.jroad.client.dhl.DhlXTeeService.DvkOrganizationsUpdateStrategy;
+
+public class GetDvkOrganizationsHelperImplTest extends TestCase {
+    private File cacheFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        cacheFile = File.createTempFile("dvkOrganizations", ".cache");
+        assertTrue(cacheFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cacheFile.delete();
+    }
+
+    public void testFirstCallWaitsForOrganizations() {
+        TestHelper helper = new TestHelper(null, new TestStrategy(true));
+        helper.responses.put("1", "first");
+
+        assertEquals("first", helper.getDvkOrganizationsCache().get("1"));
+        assertEquals(1, helper.calls.get());
+    }
+
+    public void testOutdatedOrganizationsAreReturnedWhileRefreshing() throws Exception {
+        TestHelper helper = new TestHelper(null, new TestStrategy(true));
+        helper.responses.put("1", "first");
+        Map<String, String> first = helper.getDvkOrganizationsCache();
+
+        helper.entered = new CountDownLatch(1);
+        helper.block = new CountDownLatch(1);
+        helper.responses.put("1", "second");
+        // Only one refresh runs in the background, callers get the previous organizations meanwhile
+        for (int i = 0; i < 3; i++) {
+            assertSame(first, helper.getDvkOrganizationsCache());
+        }
+        assertTrue(helper.entered.await(5, TimeUnit.SECONDS));
+        assertEquals(2, helper.calls.get());
+
+        helper.block.countDown();
+        helper.block = null;
+        assertEquals("second", awaitOrganization(helper, "1"));
+    }
+
+    public void testFailedRefreshKeepsOrganizations() throws Exception {
+        TestHelper helper = new TestHelper(null, new TestStrategy(true));
+        helper.responses.put("1", "first");
+        Map<String, String> first = helper.getDvkOrganizationsCache();
+
+        helper.entered = new CountDownLatch(1);
+        helper.block = new CountDownLatch(1);
+        helper.failure = new IllegalStateException("service is down");
+        assertSame(first, helper.getDvkOrganizationsCache());
+        assertTrue(helper.entered.await(5, TimeUnit.SECONDS));
+        helper.block.countDown();
+        helper.block = null;
+        // Another refresh is scheduled only after the failed one has finished
+        while (helper.calls.get() < 3) {
+            assertSame(first, helper.getDvkOrganizationsCache());
+            Thread.sleep(10);
+        }
+
+        helper.failure = null;
+        helper.responses.put("1", "second");
+        assertEquals("second", awaitOrganization(helper, "1"));
+    }
+
+    public void testMissingOrganizationNameIsRefreshedImmediately() {
+        TestHelper helper = new TestHelper(null, new TestStrategy(false));
+        helper.responses.put("1", "first");
+        helper.setDvkOrganizationsCache(Collections.singletonMap("2", "other"));
+
+        assertEquals("first", helper.getOrganizationName("1"));
+        assertEquals(1, helper.calls.get());
+    }
+
+    public void testOrganizationsAreReplacedAsUnmodifiableSnapshot() {
+        TestHelper helper = new TestHelper(null, new TestStrategy(false));
+        Map<String, String> organizations = new HashMap<String, String>();
+        organizations.put("1", "first");
+        helper.setDvkOrganizationsCache(organizations);
+        organizations.put("2", "second");
+
+        Map<String, String> cached = helper.getDvkOrganizationsCache();
+        assertEquals(Collections.singletonMap("1", "first"), cached);
+        try {
+            cached.put("3", "third");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testSnapshotIsReadFromFileAfterRestart() {
+        Map<String, String> organizations = new HashMap<String, String>();
+        organizations.put("1", "first");
+        organizations.put("2", "\u00f5un ja \u00e4\u00e4dikas");
+        organizations.put("3", null);
+        TestStrategy strategy = new TestStrategy(false);
+        new TestHelper(cacheFile, strategy).setDvkOrganizationsCache(organizations);
+        assertTrue(cacheFile.exists());
+
+        TestStrategy restartedStrategy = new TestStrategy(false);
+        TestHelper restarted = new TestHelper(cacheFile, restartedStrategy);
+        assertEquals(organizations, restarted.getDvkOrganizationsCache());
+        assertEquals(0, restarted.calls.get());
+        assertEquals(strategy.lastUpdated.getTimeInMillis(), restartedStrategy.lastUpdated.getTimeInMillis());
+    }
+
+    public void testSerializedFileIsNotRead() throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(cacheFile));
+        try {
+            out.writeObject(Calendar.getInstance());
+            out.writeObject(new HashMap<String, String>(Collections.singletonMap("1", "stale")));
+        } finally {
+            out.close();
+        }
+        TestHelper helper = new TestHelper(cacheFile, new TestStrategy(true));
+        helper.responses.put("1", "fresh");
+
+        assertEquals("fresh", helper.getDvkOrganizationsCache().get("1"));
+        assertEquals(1, helper.calls.get());
+        // Replaced by the fresh organizations
+        assertEquals("fresh", new TestHelper(cacheFile, new TestStrategy(false)).getDvkOrganizationsCache().get("1"));
+    }
+
+    private static String awaitOrganization(TestHelper helper, String regNr) throws InterruptedException {
+        String expected = helper.responses.get(regNr);
+        for (int i = 0; i < 500; i++) {
+            String name = helper.getDvkOrganizationsCache().get(regNr);
+            if (expected.equals(name)) {
+                return name;
+            }
+            Thread.sleep(10);
+        }
+        return helper.getDvkOrganizationsCache().get(regNr);
+    }
+
+    private static class TestHelper extends GetDvkOrganizationsHelperImpl {
+        final Map<String, String> responses = Collections.synchronizedMap(new HashMap<String, String>());
+        final AtomicInteger calls = new AtomicInteger();
+        volatile CountDownLatch entered = new CountDownLatch(1);
+        final File cacheFile;
+        volatile CountDownLatch block;
+        volatile RuntimeException failure;
+
+        TestHelper(File cacheFile, DvkOrganizationsUpdateStrategy strategy) {
+            this.cacheFile = cacheFile;
+            setUpdateStrategy(strategy);
+        }
+
+        @Override
+        protected Map<String, String> getSendingOptions() {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                if (block != null) {
+                    block.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            synchronized (responses) {
+                return new HashMap<String, String>(responses);
+            }
+        }
+
+        @Override
+        protected String getCacheFile() {
+            return cacheFile == null ? null : cacheFile.getPath();
+        }
+    }
+
+    private static class TestStrategy implements DvkOrganizationsUpdateStrategy {
+        private final boolean outdated;
+        private volatile Calendar lastUpdated;
+
+        TestStrategy(boolean outdated) {
+            this.outdated = outdated;
+        }
+
+        public boolean update4getOrganizationName(String cachedOrganisationName) {
+            return cachedOrganisationName == null;
+        }
+
+        public boolean update4getDvkOrganizationsCache(Map<String, String> dvkCapableOrganizations) {
+            return dvkCapableOrganizations == null || outdated;
+        }
+
+        public void setLastUpdated(Calendar date) {
+            lastUpdated = date;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.nortal.jroad.client.dhl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+public class GzipCompressingInputStreamTest extends TestCase {
+
+    public void testEmptyContent() throws IOException {
+        assertRoundTrip(new byte[0]);
+    }
+
+    public void testContentOfSeveralBuffers() throws IOException {
+        assertRoundTrip(content(DvkCodec.BUFFER_SIZE * 5 + 17));
+    }
+
+    public void testIncompressibleContent() throws IOException {
+        byte[] content = new byte[DvkCodec.BUFFER_SIZE * 3];
+        new Random(1).nextBytes(content);
+        assertRoundTrip(content);
+    }
+
+    public void testSingleByteReads() throws IOException {
+        byte[] content = content(DvkCodec.BUFFER_SIZE + 1);
+        InputStream compressing = new GzipCompressingInputStream(new ByteArrayInputStream(content));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            for (int b = compressing.read(); b != -1; b = compressing.read()) {
+                compressed.write(b);
+            }
+            assertEquals(-1, compressing.read());
+        } finally {
+            compressing.close();
+        }
+        assertTrue(Arrays.equals(content, gunzip(compressed.toByteArray())));
+    }
+
+    public void testReadAfterCloseFails() throws IOException {
+        InputStream compressing = new GzipCompressingInputStream(new ByteArrayInputStream(content(10)));
+        compressing.close();
+        compressing.close();
+        try {
+            compressing.read();
+            fail("closed stream should not be readable");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertRoundTrip(byte[] content) throws IOException {
+        InputStream compressing = new GzipCompressingInputStream(new ByteArrayInputStream(content));
+        byte[] compressed;
+        try {
+            compressed = IOUtils.toByteArray(compressing);
+        } finally {
+            compressing.close();
+        }
+        assertTrue(Arrays.equals(content, gunzip(compressed)));
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+}
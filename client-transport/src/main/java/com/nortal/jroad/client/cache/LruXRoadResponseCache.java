@@ -0,0 +1,214 @@
+package com.nortal.jroad.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+/**
+ * Default {@link XRoadResponseCache}, bounded by the total size of the cached responses and evicting the least recently
+ * used entries first. Responses are kept in serialized form, which keeps their footprint several times smaller than
+ * that of the XmlBeans objects and gives every hit its own copy. Responses larger than
+ * {@link #setOffHeapThreshold(int)} bytes are kept in direct buffers outside of the Java heap.
+ */
+public class LruXRoadResponseCache implements XRoadResponseCache {
+  private static final Logger log = Logger.getLogger(LruXRoadResponseCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+  private final LinkedHashMap<XRoadCacheKey, Entry> entries = new LinkedHashMap<XRoadCacheKey, Entry>(16, 0.75f, true);
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private int offHeapThreshold = 0;
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  @Override
+  public XmlObject get(XRoadCacheKey key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+        remove(key);
+        expirations.incrementAndGet();
+        entry = null;
+      }
+    }
+
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    try {
+      XmlObject result = XmlObject.Factory.parse(entry.getInputStream(), new XmlOptions().setDocumentType(entry.type));
+      hits.incrementAndGet();
+      return result;
+    } catch (Exception e) {
+      log.warn("Discarding unreadable cache entry " + key, e);
+      synchronized (this) {
+        if (entries.get(key) == entry) {
+          remove(key);
+        }
+      }
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  @Override
+  public void put(XRoadCacheKey key, XmlObject response, long ttl) {
+    if (ttl <= 0 || response == null) {
+      return;
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      response.save(out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    Entry entry = new Entry(response.schemaType(),
+                            out.toByteArray(),
+                            offHeapThreshold > 0 && out.size() > offHeapThreshold,
+                            System.currentTimeMillis() + ttl,
+                            key.getSize());
+    if (entry.size > maxBytes) {
+      return;
+    }
+
+    synchronized (this) {
+      remove(key);
+      entries.put(key, entry);
+      bytes += entry.size;
+
+      long now = System.currentTimeMillis();
+      for (Iterator<Map.Entry<XRoadCacheKey, Entry>> i = entries.entrySet().iterator(); bytes > maxBytes
+          && i.hasNext();) {
+        Entry eldest = i.next().getValue();
+        i.remove();
+        bytes -= eldest.size;
+        if (eldest.isExpired(now)) {
+          expirations.incrementAndGet();
+        } else {
+          evictions.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private void remove(XRoadCacheKey key) {
+    Entry removed = entries.remove(key);
+    if (removed != null) {
+      bytes -= removed.size;
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  @Override
+  public XRoadCacheStatistics getStatistics() {
+    long entryCount;
+    long byteCount;
+    synchronized (this) {
+      entryCount = entries.size();
+      byteCount = bytes;
+    }
+    return new XRoadCacheStatistics(hits.get(),
+                                    misses.get(),
+                                    evictions.get(),
+                                    expirations.get(),
+                                    entryCount,
+                                    byteCount);
+  }
+
+  /**
+   * Sets the maximum total size of cached responses in bytes.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the response size in bytes above which responses are stored off-heap, 0 (the default) keeps everything on
+   * the heap.
+   */
+  public void setOffHeapThreshold(int offHeapThreshold) {
+    this.offHeapThreshold = offHeapThreshold;
+  }
+
+  private static class Entry {
+    private final SchemaType type;
+    private final byte[] data;
+    private final ByteBuffer offHeapData;
+    private final long expires;
+    private final long size;
+
+    Entry(SchemaType type, byte[] data, boolean offHeap, long expires, int keySize) {
+      this.type = type;
+      if (offHeap) {
+        this.offHeapData = ByteBuffer.allocateDirect(data.length);
+        this.offHeapData.put(data).flip();
+        this.data = null;
+      } else {
+        this.data = data;
+        this.offHeapData = null;
+      }
+      this.expires = expires;
+      this.size = data.length + keySize;
+    }
+
+    boolean isExpired(long now) {
+      return now >= expires;
+    }
+
+    InputStream getInputStream() {
+      return data != null ? new ByteArrayInputStream(data) : new ByteBufferInputStream(offHeapData.duplicate());
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
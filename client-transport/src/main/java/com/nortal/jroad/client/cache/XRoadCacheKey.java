@@ -0,0 +1,103 @@
+package com.nortal.jroad.client.cache;
+
+import java.io.Serializable;
+
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+
+/**
+ * Identifies an X-Road query by database, method, version, canonical request body and the invoking user.
+ */
+public final class XRoadCacheKey implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final XmlOptions CANONICAL_OPTIONS = new XmlOptions().setSaveAggressiveNamespaces();
+
+  private final String database;
+  private final String method;
+  private final String version;
+  private final String body;
+  private final String userId;
+  private final int hash;
+
+  public XRoadCacheKey(String database, String method, String version, String body, String userId) {
+    this.database = database;
+    this.method = method;
+    this.version = version;
+    this.body = body;
+    this.userId = userId;
+
+    int result = 1;
+    for (String value : new String[] { database, method, version, body, userId }) {
+      result = 31 * result + (value == null ? 0 : value.hashCode());
+    }
+    this.hash = result;
+  }
+
+  public static XRoadCacheKey create(XRoadServiceConfiguration configuration, XmlObject request) {
+    return new XRoadCacheKey(configuration.getDatabase(),
+                             configuration.getMethod(),
+                             configuration.getVersion(),
+                             request == null ? null : request.xmlText(CANONICAL_OPTIONS),
+                             configuration.getIdCode());
+  }
+
+  public String getDatabase() {
+    return database;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  /**
+   * Rough number of bytes held by this key.
+   */
+  public int getSize() {
+    int size = 0;
+    for (String value : new String[] { database, method, version, body, userId }) {
+      size += value == null ? 0 : value.length() * 2;
+    }
+    return size;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof XRoadCacheKey)) {
+      return false;
+    }
+    XRoadCacheKey other = (XRoadCacheKey) obj;
+    return hash == other.hash && equal(database, other.database) && equal(method, other.method)
+        && equal(version, other.version) && equal(userId, other.userId) && equal(body, other.body);
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public String toString() {
+    return database + "." + method + "." + version + "[" + userId + "]";
+  }
+}
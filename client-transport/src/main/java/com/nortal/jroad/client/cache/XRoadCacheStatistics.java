@@ -0,0 +1,67 @@
+package com.nortal.jroad.client.cache;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of response cache counters.
+ */
+public class XRoadCacheStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+  private final long expirations;
+  private final long entries;
+  private final long bytes;
+
+  public XRoadCacheStatistics(long hits, long misses, long evictions, long expirations, long entries, long bytes) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    this.entries = entries;
+    this.bytes = bytes;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public double getHitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  /**
+   * Number of entries removed to stay within the size limit.
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Number of entries removed because their time to live had passed.
+   */
+  public long getExpirations() {
+    return expirations;
+  }
+
+  public long getEntries() {
+    return entries;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "XRoadCacheStatistics[hits = " + hits + " misses = " + misses + " evictions = " + evictions
+        + " expirations = " + expirations + " entries = " + entries + " bytes = " + bytes + "]";
+  }
+}
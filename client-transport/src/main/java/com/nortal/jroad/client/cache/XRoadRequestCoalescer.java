@@ -0,0 +1,93 @@
+package com.nortal.jroad.client.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.lang.exception.NestableRuntimeException;
+import org.apache.xmlbeans.XmlObject;
+
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.model.XRoadMessage;
+import com.nortal.jroad.model.XmlBeansXRoadMessage;
+
+/**
+ * Lets concurrent identical queries share a single exchange with the security server. The first caller for a key
+ * performs the exchange, callers arriving while it is in progress wait for it and receive their own copy of the
+ * response, or the same exception. Nothing is kept once the exchange is over.
+ * <p>
+ * Responses with attachments are not shared, waiting callers perform their own exchange in that case.
+ */
+public class XRoadRequestCoalescer {
+  private final ConcurrentMap<XRoadCacheKey, Flight> flights = new ConcurrentHashMap<XRoadCacheKey, Flight>();
+
+  /**
+   * A single exchange with the security server.
+   */
+  public interface Exchange<O> {
+    XRoadMessage<O> send() throws XRoadServiceConsumptionException;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <O> XRoadMessage<O> execute(XRoadCacheKey key, Exchange<O> exchange) throws XRoadServiceConsumptionException {
+    Flight flight = new Flight();
+    Flight existing = flights.putIfAbsent(key, flight);
+    if (existing == null) {
+      return lead(key, flight, exchange);
+    }
+
+    try {
+      existing.latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NestableRuntimeException(e);
+    }
+
+    if (existing.consumptionFailure != null) {
+      throw existing.consumptionFailure;
+    }
+    if (existing.failure != null) {
+      throw existing.failure;
+    }
+    if (existing.content == null) {
+      return exchange.send();
+    }
+    return (XRoadMessage<O>) new XmlBeansXRoadMessage<XmlObject>(existing.content.copy());
+  }
+
+  private <O> XRoadMessage<O> lead(XRoadCacheKey key, Flight flight, Exchange<O> exchange)
+      throws XRoadServiceConsumptionException {
+    try {
+      XRoadMessage<O> response = exchange.send();
+      if (response != null && response.getContent() instanceof XmlObject && response.getAttachments().isEmpty()) {
+        // Copy before handing the response out, the caller may start modifying it right away
+        flight.content = ((XmlObject) response.getContent()).copy();
+      }
+      return response;
+    } catch (XRoadServiceConsumptionException e) {
+      flight.consumptionFailure = e;
+      throw e;
+    } catch (RuntimeException e) {
+      flight.failure = e;
+      throw e;
+    } finally {
+      flights.remove(key, flight);
+      flight.latch.countDown();
+    }
+  }
+
+  /**
+   * Returns the number of exchanges currently in progress.
+   */
+  public int getInFlightCount() {
+    return flights.size();
+  }
+
+  private static class Flight {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    // Written before the latch is released and read after awaiting it
+    private XmlObject content;
+    private XRoadServiceConsumptionException consumptionFailure;
+    private RuntimeException failure;
+  }
+}
@@ -0,0 +1,32 @@
+package com.nortal.jroad.client.cache;
+
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Cache of X-Road query responses used by {@link com.nortal.jroad.client.service.consumer.CachingXRoadConsumer}.
+ * Implementations must be thread-safe and must return a copy of the cached response on every hit, as callers are free
+ * to modify the objects they receive.
+ */
+public interface XRoadResponseCache {
+
+  /**
+   * Returns a copy of the cached response, or <code>null</code> if there is no live entry for the given key.
+   */
+  XmlObject get(XRoadCacheKey key);
+
+  /**
+   * Caches a response for the given time.
+   *
+   * @param key cache key
+   * @param response response content, it is not modified or retained by the cache
+   * @param ttl time to live in milliseconds
+   */
+  void put(XRoadCacheKey key, XmlObject response, long ttl);
+
+  /**
+   * Removes all entries.
+   */
+  void clear();
+
+  XRoadCacheStatistics getStatistics();
+}
@@ -0,0 +1,60 @@
+package com.nortal.jroad.client.capture;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A request, response or fault message captured by {@link MessageCaptureInterceptor}.
+ */
+public class CapturedMessage {
+  public enum Type {
+    REQUEST, RESPONSE, FAULT
+  }
+
+  private final Type type;
+  private final String database;
+  private final long timestamp;
+  private final byte[] content;
+  private final boolean truncated;
+
+  public CapturedMessage(Type type, String database, long timestamp, byte[] content, boolean truncated) {
+    this.type = type;
+    this.database = database;
+    this.timestamp = timestamp;
+    this.content = content;
+    this.truncated = truncated;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Returns the database the message was exchanged with, <code>null</code> if it could not be determined.
+   */
+  public String getDatabase() {
+    return database;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Returns the captured bytes, at most the configured maximum.
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public String getContentAsString() {
+    try {
+      return new String(content, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
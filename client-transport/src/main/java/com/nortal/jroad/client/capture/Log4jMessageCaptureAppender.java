@@ -0,0 +1,19 @@
+package com.nortal.jroad.client.capture;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes captured messages to the <code>com.nortal.jroad.client.capture</code> log4j logger at info level, so that
+ * they can be routed to a separate file.
+ */
+public class Log4jMessageCaptureAppender implements MessageCaptureAppender {
+  private static final Logger log = Logger.getLogger("com.nortal.jroad.client.capture");
+
+  @Override
+  public void append(CapturedMessage message) {
+    if (log.isInfoEnabled()) {
+      log.info(message.getType() + " " + message.getDatabase() + (message.isTruncated() ? " (truncated)" : "")
+          + " message follows:\n" + message.getContentAsString());
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package com.nortal.jroad.client.capture;
+
+/**
+ * Destination of captured messages. Called from a single background thread only.
+ */
+public interface MessageCaptureAppender {
+
+  void append(CapturedMessage message);
+
+}
@@ -0,0 +1,402 @@
+package com.nortal.jroad.client.capture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPHeader;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.client.WebServiceClientException;
+import org.springframework.ws.client.support.interceptor.ClientInterceptor;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.w3c.dom.Node;
+
+import com.nortal.jroad.client.capture.CapturedMessage.Type;
+import com.nortal.jroad.client.message.StreamingXRoadMessage;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.util.XRoadProperties;
+
+/**
+ * Captures a sample of the exchanged messages for auditing without slowing down the calling threads much. A replacement
+ * for {@link com.nortal.jroad.client.util.WSConsumptionLoggingInterceptor} that can stay switched on in production:
+ * <ul>
+ * <li>only a share of the exchanges is captured, the rate can be set per database with
+ * <code>&lt;database&gt;-capture-sample-rate</code> (0..1) in <code>xroad.properties</code> or
+ * <code>xroad-&lt;database&gt;.properties</code>;</li>
+ * <li>at most <code>maxBytes</code> of every message are kept, serialization stops as soon as the limit is reached;</li>
+ * <li>attachments are left out unless {@link #setIncludeAttachments(boolean)} is set;</li>
+ * <li>captured messages are handed over through a bounded queue to a background thread which passes them to
+ * the {@link MessageCaptureAppender}. When the queue is full, messages are dropped rather than making callers wait.</li>
+ * </ul>
+ * The database of an exchange is taken from the subsystem code (or, lacking that, the member code) of the service in
+ * the X-Road header of the request. Of {@link StreamingXRoadMessage}s only requests are captured, streamed responses
+ * can be read just once.
+ */
+public class MessageCaptureInterceptor implements ClientInterceptor, DisposableBean {
+  private static final Logger log = Logger.getLogger(MessageCaptureInterceptor.class);
+
+  public static final String SAMPLE_RATE = "capture-sample-rate";
+
+  private static final String DATABASE_PROPERTY = MessageCaptureInterceptor.class.getName() + ".database";
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+  private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+  private static final ThreadLocal<Transformer> TRANSFORMER = new ThreadLocal<Transformer>() {
+    @Override
+    protected Transformer initialValue() {
+      try {
+        synchronized (TRANSFORMER_FACTORY) {
+          return TRANSFORMER_FACTORY.newTransformer();
+        }
+      } catch (TransformerConfigurationException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  // Reaching the capture limit aborts the transformation, which is not to be reported on the console
+  private static final ErrorListener QUIET_ERRORS = new ErrorListener() {
+    @Override
+    public void warning(TransformerException exception) {}
+
+    @Override
+    public void error(TransformerException exception) throws TransformerException {
+      throw exception;
+    }
+
+    @Override
+    public void fatalError(TransformerException exception) throws TransformerException {
+      throw exception;
+    }
+  };
+
+  private final AtomicLong dropped = new AtomicLong();
+  // Configured sample rates by their text, NaN for values that are not numbers
+  private final ConcurrentMap<String, Double> parsedRates = new ConcurrentHashMap<String, Double>();
+
+  private XRoadProperties properties = new XRoadProperties();
+  private MessageCaptureAppender appender = new Log4jMessageCaptureAppender();
+  private double sampleRate = 1;
+  private int maxBytes = 64 * 1024;
+  private int bufferSize = 1024;
+  private boolean includeAttachments;
+
+  private volatile boolean running = true;
+  private volatile BlockingQueue<CapturedMessage> queue;
+  private volatile Thread worker;
+
+  @Override
+  public boolean handleRequest(MessageContext messageContext) throws WebServiceClientException {
+    WebServiceMessage request = messageContext.getRequest();
+    String database = getDatabase(request);
+    if (isSampled(database)) {
+      messageContext.setProperty(DATABASE_PROPERTY, database == null ? "" : database);
+      capture(request, Type.REQUEST, database);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean handleResponse(MessageContext messageContext) throws WebServiceClientException {
+    return captureResponse(messageContext, Type.RESPONSE);
+  }
+
+  @Override
+  public boolean handleFault(MessageContext messageContext) throws WebServiceClientException {
+    return captureResponse(messageContext, Type.FAULT);
+  }
+
+  private boolean captureResponse(MessageContext messageContext, Type type) {
+    String database = (String) messageContext.getProperty(DATABASE_PROPERTY);
+    if (database != null && messageContext.hasResponse()) {
+      capture(messageContext.getResponse(), type, database.length() == 0 ? null : database);
+    }
+    return true;
+  }
+
+  public void afterCompletion(MessageContext messageContext, Exception ex) throws WebServiceClientException {}
+
+  private boolean isSampled(String database) {
+    double rate = sampleRate;
+    if (database != null) {
+      String value = properties.getProperty(database, null, SAMPLE_RATE);
+      if (value != null) {
+        double configured = parseRate(database, value);
+        if (!Double.isNaN(configured)) {
+          rate = configured;
+        }
+      }
+    }
+    return rate >= 1 || rate > 0 && RANDOM.get().nextDouble() < rate;
+  }
+
+  private double parseRate(String database, String value) {
+    Double rate = parsedRates.get(value);
+    if (rate == null) {
+      try {
+        rate = Double.valueOf(value);
+      } catch (NumberFormatException e) {
+        log.warn("Invalid " + database + "-" + SAMPLE_RATE + " '" + value + "', using the default sample rate");
+        rate = Double.NaN;
+      }
+      parsedRates.put(value, rate);
+    }
+    return rate.doubleValue();
+  }
+
+  private void capture(WebServiceMessage message, Type type, String database) {
+    boolean streamedRequest =
+        message instanceof StreamingXRoadMessage && !((StreamingXRoadMessage) message).isResponse();
+    if (!(message instanceof SaajSoapMessage) && !streamedRequest) {
+      return;
+    }
+    BlockingQueue<CapturedMessage> current = queue;
+    if (!running || current != null && current.remainingCapacity() == 0) {
+      dropped.incrementAndGet();
+      return;
+    }
+
+    CappedOutputStream out = new CappedOutputStream(maxBytes);
+    try {
+      if (streamedRequest) {
+        message.writeTo(out);
+      } else if (includeAttachments) {
+        ((SaajSoapMessage) message).writeTo(out);
+      } else {
+        Transformer transformer = TRANSFORMER.get();
+        transformer.reset();
+        transformer.setErrorListener(QUIET_ERRORS);
+        transformer.transform(((SaajSoapMessage) message).getEnvelope().getSource(), new StreamResult(out));
+      }
+    } catch (IOException e) {
+      if (!out.isTruncated()) {
+        log.warn("Capturing message failed", e);
+        return;
+      }
+    } catch (TransformerException e) {
+      if (!out.isTruncated()) {
+        log.warn("Capturing message failed", e);
+        return;
+      }
+    }
+
+    enqueue(new CapturedMessage(type, database, System.currentTimeMillis(), out.toByteArray(), out.isTruncated()));
+  }
+
+  private void enqueue(CapturedMessage message) {
+    BlockingQueue<CapturedMessage> current = ensureWorker();
+    if (current == null || !current.offer(message)) {
+      dropped.incrementAndGet();
+    } else if (!running && current.remove(message)) {
+      // Destroyed meanwhile, the worker may have stopped draining already
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Starts the worker on first use, so that the buffer size set after construction applies. Returns the queue of the
+   * worker, <code>null</code> once the interceptor has been destroyed.
+   */
+  private BlockingQueue<CapturedMessage> ensureWorker() {
+    if (!running) {
+      return null;
+    }
+    BlockingQueue<CapturedMessage> current = queue;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (queue == null && running) {
+        final BlockingQueue<CapturedMessage> created = new ArrayBlockingQueue<CapturedMessage>(Math.max(bufferSize, 1));
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            drain(created);
+          }
+        }, "xroad-message-capture-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+        worker = thread;
+        queue = created;
+      }
+      return queue;
+    }
+  }
+
+  private void drain(BlockingQueue<CapturedMessage> queue) {
+    try {
+      while (running) {
+        append(queue.take());
+      }
+    } catch (InterruptedException e) {
+      // Interrupted by destroy()
+    }
+    for (CapturedMessage message = queue.poll(); message != null; message = queue.poll()) {
+      append(message);
+    }
+  }
+
+  private void append(CapturedMessage message) {
+    try {
+      appender.append(message);
+    } catch (RuntimeException e) {
+      log.warn("Appending captured message failed", e);
+    }
+  }
+
+  private static String getDatabase(WebServiceMessage message) {
+    if (message instanceof StreamingXRoadMessage) {
+      XRoadServiceConfiguration configuration = ((StreamingXRoadMessage) message).getServiceConfiguration();
+      if (configuration == null) {
+        return null;
+      }
+      return configuration.getServiceSubsystemCode() != null ? configuration.getServiceSubsystemCode()
+                                                             : configuration.getServiceMemberCode();
+    }
+    if (!(message instanceof SaajSoapMessage)) {
+      return null;
+    }
+    try {
+      SOAPHeader header = ((SaajSoapMessage) message).getSaajMessage().getSOAPHeader();
+      Node service = findChild(header, "service");
+      if (service == null) {
+        return null;
+      }
+      Node code = findChild(service, "subsystemCode");
+      if (code == null) {
+        code = findChild(service, "memberCode");
+      }
+      return code == null ? null : code.getTextContent().trim();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Node findChild(Node parent, String localName) {
+    if (parent == null) {
+      return null;
+    }
+    for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof SOAPElement && localName.equals(child.getLocalName())) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = worker;
+    }
+    if (thread != null) {
+      thread.interrupt();
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped because the queue was full or the interceptor had been destroyed.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  public void setProperties(XRoadProperties properties) {
+    this.properties = properties;
+  }
+
+  public void setAppender(MessageCaptureAppender appender) {
+    this.appender = appender;
+  }
+
+  /**
+   * Sets the share of exchanges (0..1) to capture for databases without a sample rate of their own, 1 by default.
+   */
+  public void setSampleRate(double sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Sets the maximum number of bytes kept of a single message, 64 KiB by default.
+   */
+  public void setMaxBytes(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the maximum number of messages waiting for the appender, 1024 by default. Takes effect only before the first
+   * message is captured.
+   */
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public void setIncludeAttachments(boolean includeAttachments) {
+    this.includeAttachments = includeAttachments;
+  }
+
+  /**
+   * Keeps the first bytes written to it and aborts writing once the limit is exceeded.
+   */
+  private static class CappedOutputStream extends OutputStream {
+    private final ByteArrayOutputStream buffer;
+    private final int limit;
+    private boolean truncated;
+
+    CappedOutputStream(int limit) {
+      this.limit = limit;
+      this.buffer = new ByteArrayOutputStream(Math.min(limit, 8192));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int room = limit - buffer.size();
+      if (len > room) {
+        buffer.write(b, off, room);
+        truncated = true;
+        throw new IOException("Capture limit reached");
+      }
+      buffer.write(b, off, len);
+    }
+
+    boolean isTruncated() {
+      return truncated;
+    }
+
+    byte[] toByteArray() {
+      return buffer.toByteArray();
+    }
+  }
+}
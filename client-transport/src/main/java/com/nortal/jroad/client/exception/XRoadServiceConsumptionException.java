@@ -53,6 +53,17 @@ public class XRoadServiceConsumptionException extends IOException {
     this.nonTechnicalFaultException = nonTechnicalFaultException;
   }
 
+  /**
+   * For subclasses reporting failures detected on the client side, without a transport error or fault to wrap.
+   */
+  protected XRoadServiceConsumptionException(String message, String database, String method, String version) {
+    super(message);
+
+    this.database = database;
+    this.method = method;
+    this.version = version;
+  }
+
   private XRoadServiceConsumptionException(Exception cause, String database, String method, String version) {
     if (cause == null) {
       throw new IllegalArgumentException("Cause can not be null!");
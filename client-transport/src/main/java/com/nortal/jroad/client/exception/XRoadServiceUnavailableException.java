@@ -0,0 +1,43 @@
+package com.nortal.jroad.client.exception;
+
+/**
+ * Thrown without contacting the security server when calls to a database are currently being refused on the client
+ * side: its circuit breaker is open, all of its bulkhead slots and wait queue places are taken or its adaptive
+ * concurrency limit has been reached.
+ */
+public class XRoadServiceUnavailableException extends XRoadServiceConsumptionException {
+
+  private static final long serialVersionUID = 1L;
+
+  public enum Reason {
+    CIRCUIT_OPEN, BULKHEAD_FULL, LIMIT_EXCEEDED
+  }
+
+  private final Reason reason;
+
+  public XRoadServiceUnavailableException(Reason reason, String database, String method, String version) {
+    super(reason == Reason.CIRCUIT_OPEN ? "Circuit breaker is open for " + database
+                                        : "Too many concurrent calls to " + database + " (" + reason + ")",
+          database,
+          method,
+          version);
+    this.reason = reason;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  public boolean isCircuitOpen() {
+    return reason == Reason.CIRCUIT_OPEN;
+  }
+
+  public boolean isBulkheadFull() {
+    return reason == Reason.BULKHEAD_FULL;
+  }
+
+  public boolean isLimitExceeded() {
+    return reason == Reason.LIMIT_EXCEEDED;
+  }
+
+}
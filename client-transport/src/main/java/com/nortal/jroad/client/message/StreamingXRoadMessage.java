@@ -0,0 +1,229 @@
+package com.nortal.jroad.client.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
+
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.springframework.ws.FaultAwareWebServiceMessage;
+import org.springframework.ws.transport.TransportConstants;
+import org.springframework.ws.transport.TransportOutputStream;
+
+import com.nortal.jroad.client.service.callback.MessageCallbackNamespaceStrategy;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+
+/**
+ * X-Road SOAP message without a DOM tree, created by {@link StreamingXRoadMessageFactory}.
+ * <p>
+ * A request holds the header elements, rendered once when set, and the XmlBeans body, which is serialized straight to
+ * the transport when the message is written. A response holds a pull parser positioned at the first element of the
+ * SOAP body, to be read exactly once. Faults and messages with attachments are never represented by this class.
+ */
+public class StreamingXRoadMessage implements FaultAwareWebServiceMessage {
+  static final String SOAP_ENV_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+  private static final String SOAP_ENV_PREFIX = "SOAP-ENV";
+  private static final String CONTENT_TYPE = "text/xml; charset=UTF-8";
+  private static final String ENCODING = "UTF-8";
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+  private static final XmlOptions PAYLOAD_OPTIONS = new XmlOptions().setSaveNoXmlDecl().setCharacterEncoding(ENCODING);
+
+  private final XMLStreamReader reader;
+  private boolean read;
+
+  private MessageCallbackNamespaceStrategy strategy;
+  private XRoadServiceConfiguration serviceConfiguration;
+  private byte[] header;
+  private XmlObject body;
+  private XmlOptions bodyOptions;
+  private DOMResult payloadResult;
+
+  StreamingXRoadMessage() {
+    this.reader = null;
+  }
+
+  StreamingXRoadMessage(XMLStreamReader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Renders the X-Road header elements of a request. The message id is generated here, so the message is the same
+   * every time it is written.
+   */
+  public void setHeader(MessageCallbackNamespaceStrategy strategy, XRoadServiceConfiguration serviceConfiguration)
+      throws XMLStreamException {
+    checkRequest();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+    strategy.writeXTeeHeaderElements(writer, serviceConfiguration);
+    writer.flush();
+    writer.close();
+
+    this.strategy = strategy;
+    this.serviceConfiguration = serviceConfiguration;
+    this.header = out.toByteArray();
+  }
+
+  /**
+   * Sets the body of a request.
+   *
+   * @param options XmlBeans save options, which must leave out the XML declaration and use UTF-8 as the body is
+   *          written in the middle of the envelope, see
+   *          {@link com.nortal.jroad.client.service.callback.XRoadRequestMarshaller#getStreamOptions()}
+   */
+  public void setBody(XmlObject body, XmlOptions options) {
+    checkRequest();
+    this.body = body;
+    this.bodyOptions = options;
+    this.payloadResult = null;
+  }
+
+  /**
+   * Returns the configuration the header of a request was rendered for, <code>null</code> for responses.
+   */
+  public XRoadServiceConfiguration getServiceConfiguration() {
+    return serviceConfiguration;
+  }
+
+  public boolean isResponse() {
+    return reader != null;
+  }
+
+  /**
+   * Returns the parser of a response, positioned at the start of the first element in the SOAP body, or at the end of
+   * the body if it is empty. May only be called once.
+   */
+  public XMLStreamReader getBodyReader() {
+    if (reader == null) {
+      throw new IllegalStateException("Request messages cannot be read");
+    }
+    if (read) {
+      throw new IllegalStateException("Response has already been read");
+    }
+    read = true;
+    return reader;
+  }
+
+  @Override
+  public Source getPayloadSource() {
+    if (reader == null) {
+      if (payloadResult != null) {
+        return payloadResult.getNode() == null ? null : new DOMSource(payloadResult.getNode());
+      }
+      return body == null ? null : new DOMSource(body.getDomNode());
+    }
+    return reader.getEventType() == XMLStreamConstants.START_ELEMENT ? new StAXSource(getBodyReader()) : null;
+  }
+
+  /**
+   * Returns a result the body of a request can be transformed or marshalled to, replacing the body set before.
+   * {@link #setBody(XmlObject, XmlOptions)} avoids building the tree of the body.
+   */
+  @Override
+  public Result getPayloadResult() {
+    checkRequest();
+    setBody(null, null);
+    payloadResult = new DOMResult();
+    return payloadResult;
+  }
+
+  /**
+   * Returns the body set, or the tree the payload result was filled with as an XmlBeans object.
+   */
+  private XmlObject getPayload() throws XmlException {
+    if (payloadResult != null) {
+      return payloadResult.getNode() == null ? null : XmlObject.Factory.parse(payloadResult.getNode());
+    }
+    return body;
+  }
+
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    checkRequest();
+    if (outputStream instanceof TransportOutputStream) {
+      TransportOutputStream transportOutputStream = (TransportOutputStream) outputStream;
+      transportOutputStream.addHeader(TransportConstants.HEADER_CONTENT_TYPE, CONTENT_TYPE);
+      transportOutputStream.addHeader(TransportConstants.HEADER_SOAP_ACTION, "\"\"");
+    }
+
+    try {
+      XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(outputStream, ENCODING);
+      writer.writeStartDocument(ENCODING, "1.0");
+      writer.writeStartElement(SOAP_ENV_PREFIX, "Envelope", SOAP_ENV_NS);
+      writer.writeNamespace(SOAP_ENV_PREFIX, SOAP_ENV_NS);
+      if (strategy != null) {
+        strategy.writeNamespaces(writer);
+      }
+
+      writer.writeStartElement(SOAP_ENV_PREFIX, "Header", SOAP_ENV_NS);
+      if (header != null) {
+        writeRaw(writer, outputStream, header);
+      }
+      writer.writeEndElement();
+
+      writer.writeStartElement(SOAP_ENV_PREFIX, "Body", SOAP_ENV_NS);
+      XmlObject payload = getPayload();
+      if (payload != null) {
+        // Closes the start tag, so that XmlBeans can write its output right after it
+        writer.writeCharacters("");
+        writer.flush();
+        payload.save(outputStream, payloadResult != null ? PAYLOAD_OPTIONS : bodyOptions);
+      }
+      writer.writeEndElement();
+
+      writer.writeEndElement();
+      writer.writeEndDocument();
+      writer.flush();
+    } catch (XMLStreamException e) {
+      throw new IOException(e);
+    } catch (XmlException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void writeRaw(XMLStreamWriter writer, OutputStream outputStream, byte[] content)
+      throws XMLStreamException, IOException {
+    writer.writeCharacters("");
+    writer.flush();
+    outputStream.write(content);
+  }
+
+  /**
+   * Faults are always handed over to the fallback factory, so a streamed message never is one.
+   */
+  @Override
+  public boolean hasFault() {
+    return false;
+  }
+
+  @Override
+  public String getFaultReason() {
+    return null;
+  }
+
+  /**
+   * Always <code>null</code>, see {@link #hasFault()}.
+   */
+  public QName getFaultCode() {
+    return null;
+  }
+
+  private void checkRequest() {
+    if (reader != null) {
+      throw new UnsupportedOperationException("Streamed responses cannot be modified or written");
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.nortal.jroad.client.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Collections;
+import java.util.Iterator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.WebServiceMessageFactory;
+import org.springframework.ws.transport.TransportConstants;
+import org.springframework.ws.transport.TransportInputStream;
+
+/**
+ * {@link WebServiceMessageFactory} creating {@link StreamingXRoadMessage}s, which skip the SAAJ DOM tree: requests are
+ * written straight to the transport and responses are read with a StAX pull parser that hands the body element over
+ * to XmlBeans.
+ * <p>
+ * Responses the streaming message cannot represent, namely multipart messages with attachments and SOAP faults, are
+ * created by the fallback factory, normally the SAAJ factory of the web service template. To detect faults, the
+ * beginning of every response is kept until the first body element has been seen.
+ */
+public class StreamingXRoadMessageFactory implements WebServiceMessageFactory {
+  private static final String SOAP12_ENV_NS = "http://www.w3.org/2003/05/soap-envelope";
+  private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+  static {
+    INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+  }
+
+  private final WebServiceMessageFactory fallback;
+
+  public StreamingXRoadMessageFactory(WebServiceMessageFactory fallback) {
+    this.fallback = fallback;
+  }
+
+  @Override
+  public WebServiceMessage createWebServiceMessage() {
+    return new StreamingXRoadMessage();
+  }
+
+  @Override
+  public WebServiceMessage createWebServiceMessage(InputStream inputStream) throws IOException {
+    if (isMultipart(inputStream)) {
+      return fallback.createWebServiceMessage(inputStream);
+    }
+
+    ReplayableInputStream replayable = new ReplayableInputStream(inputStream);
+    try {
+      XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(replayable);
+      if (toBodyContent(reader)) {
+        replayable.stopRecording();
+        return new StreamingXRoadMessage(reader);
+      }
+    } catch (XMLStreamException e) {
+      // The fallback factory reports malformed messages the usual way
+    }
+    return fallback.createWebServiceMessage(replayable.replay());
+  }
+
+  private static boolean isMultipart(InputStream inputStream) throws IOException {
+    if (!(inputStream instanceof TransportInputStream)) {
+      return false;
+    }
+    Iterator<String> contentTypes =
+        ((TransportInputStream) inputStream).getHeaders(TransportConstants.HEADER_CONTENT_TYPE);
+    while (contentTypes.hasNext()) {
+      if (contentTypes.next().toLowerCase().startsWith("multipart/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves the reader to the first element of the SOAP body. Returns <code>false</code> if the message is not a SOAP
+   * envelope or the body holds a fault.
+   */
+  private static boolean toBodyContent(XMLStreamReader reader) throws XMLStreamException {
+    if (nextTag(reader) != XMLStreamConstants.START_ELEMENT || !isEnvelopeElement(reader, "Envelope")) {
+      return false;
+    }
+    while (nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+      if (isEnvelopeElement(reader, "Body")) {
+        int event = nextTag(reader);
+        return event != XMLStreamConstants.START_ELEMENT || !isEnvelopeElement(reader, "Fault");
+      }
+      skipElement(reader);
+    }
+    return false;
+  }
+
+  private static boolean isEnvelopeElement(XMLStreamReader reader, String localName) {
+    String namespace = reader.getNamespaceURI();
+    return localName.equals(reader.getLocalName())
+        && (StreamingXRoadMessage.SOAP_ENV_NS.equals(namespace) || SOAP12_ENV_NS.equals(namespace));
+  }
+
+  private static int nextTag(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+        return event;
+      }
+    }
+    return XMLStreamConstants.END_DOCUMENT;
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    for (int depth = 1; depth > 0;) {
+      int event = nextTag(reader);
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else {
+        throw new XMLStreamException("Unexpected end of message");
+      }
+    }
+  }
+
+  /**
+   * Keeps the bytes read until told otherwise, so that the message can be handed to the fallback factory from the
+   * beginning. Transport headers of the original stream remain available.
+   */
+  private static class ReplayableInputStream extends FilterInputStream {
+    private ByteArrayOutputStream recorded = new ByteArrayOutputStream(4096);
+
+    ReplayableInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && recorded != null) {
+        recorded.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0 && recorded != null) {
+        recorded.write(b, off, count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      byte[] buffer = new byte[(int) Math.min(n, 4096)];
+      int count = read(buffer, 0, buffer.length);
+      return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    void stopRecording() {
+      recorded = null;
+    }
+
+    InputStream replay() {
+      final InputStream original = in;
+      final InputStream sequence = new SequenceInputStream(new ByteArrayInputStream(recorded.toByteArray()), original);
+      recorded = null;
+      return new TransportInputStream() {
+        @Override
+        protected InputStream createInputStream() {
+          return sequence;
+        }
+
+        @Override
+        public Iterator<String> getHeaderNames() throws IOException {
+          return original instanceof TransportInputStream ? ((TransportInputStream) original).getHeaderNames()
+                                                          : Collections.<String> emptySet().iterator();
+        }
+
+        @Override
+        public Iterator<String> getHeaders(String name) throws IOException {
+          return original instanceof TransportInputStream ? ((TransportInputStream) original).getHeaders(name)
+                                                          : Collections.<String> emptySet().iterator();
+        }
+      };
+    }
+  }
+}
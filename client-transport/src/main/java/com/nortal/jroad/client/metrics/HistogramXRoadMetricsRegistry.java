@@ -0,0 +1,114 @@
+package com.nortal.jroad.client.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link XRoadMetricsRegistry} keeping a set of {@link LogHistogram}s for every combination of database, method,
+ * version and outcome. Exporters can read the histograms periodically through {@link #getSeries()}.
+ */
+public class HistogramXRoadMetricsRegistry implements XRoadMetricsRegistry {
+  private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+  @Override
+  public void record(XRoadCallMetrics call) {
+    Series target = getSeries(call);
+    target.duration.record(call.getDurationNanos());
+    for (XRoadCallPhase phase : XRoadCallPhase.values()) {
+      target.phases[phase.ordinal()].record(call.getPhaseNanos(phase));
+    }
+    target.requestBytes.record(call.getRequestBytes());
+    target.responseBytes.record(call.getResponseBytes());
+    target.requestAttachments.record(call.getRequestAttachments());
+    target.responseAttachments.record(call.getResponseAttachments());
+  }
+
+  private Series getSeries(XRoadCallMetrics call) {
+    String key = call.getDatabase() + "|" + call.getMethod() + "|" + call.getVersion() + "|" + call.getOutcome();
+    Series result = series.get(key);
+    if (result == null) {
+      result = new Series(call.getDatabase(), call.getMethod(), call.getVersion(), call.getOutcome());
+      Series existing = series.putIfAbsent(key, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  public Collection<Series> getSeries() {
+    return Collections.unmodifiableCollection(series.values());
+  }
+
+  public void clear() {
+    series.clear();
+  }
+
+  /**
+   * Histograms of the calls with the same database, method, version and outcome. Times are in nanoseconds.
+   */
+  public static class Series {
+    private final String database;
+    private final String method;
+    private final String version;
+    private final XRoadCallOutcome outcome;
+    private final LogHistogram duration = new LogHistogram();
+    private final LogHistogram[] phases = new LogHistogram[XRoadCallPhase.values().length];
+    private final LogHistogram requestBytes = new LogHistogram();
+    private final LogHistogram responseBytes = new LogHistogram();
+    private final LogHistogram requestAttachments = new LogHistogram();
+    private final LogHistogram responseAttachments = new LogHistogram();
+
+    Series(String database, String method, String version, XRoadCallOutcome outcome) {
+      this.database = database;
+      this.method = method;
+      this.version = version;
+      this.outcome = outcome;
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LogHistogram();
+      }
+    }
+
+    public String getDatabase() {
+      return database;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    public XRoadCallOutcome getOutcome() {
+      return outcome;
+    }
+
+    public LogHistogram getDuration() {
+      return duration;
+    }
+
+    public LogHistogram getPhase(XRoadCallPhase phase) {
+      return phases[phase.ordinal()];
+    }
+
+    public LogHistogram getRequestBytes() {
+      return requestBytes;
+    }
+
+    public LogHistogram getResponseBytes() {
+      return responseBytes;
+    }
+
+    public LogHistogram getRequestAttachments() {
+      return requestAttachments;
+    }
+
+    public LogHistogram getResponseAttachments() {
+      return responseAttachments;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.nortal.jroad.client.metrics;
+
+import java.io.IOException;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.http.HttpEntity;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.client.core.WebServiceMessageExtractor;
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.context.TransportContext;
+import org.springframework.ws.transport.context.TransportContextHolder;
+import org.springframework.ws.transport.http.HttpComponentsConnection;
+import org.springframework.ws.transport.http.HttpUrlConnection;
+
+import com.nortal.jroad.model.XRoadMessage;
+
+/**
+ * Times the unmarshalling done by another extractor and records the message sizes known to the HTTP transport.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class MeasuringMessageExtractor implements WebServiceMessageExtractor {
+  private final WebServiceMessageExtractor delegate;
+  private final XRoadCallMetrics metrics;
+
+  public MeasuringMessageExtractor(WebServiceMessageExtractor delegate, XRoadCallMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Object extractData(WebServiceMessage message) throws IOException, TransformerException {
+    recordSizes();
+    long start = System.nanoTime();
+    Object result = delegate.extractData(message);
+    metrics.addPhase(XRoadCallPhase.UNMARSHALLING, System.nanoTime() - start);
+    if (result instanceof XRoadMessage) {
+      metrics.setResponseAttachments(((XRoadMessage) result).getAttachments().size());
+    }
+    return result;
+  }
+
+  private void recordSizes() {
+    TransportContext context = TransportContextHolder.getTransportContext();
+    WebServiceConnection connection = context == null ? null : context.getConnection();
+    if (connection instanceof HttpComponentsConnection) {
+      HttpComponentsConnection http = (HttpComponentsConnection) connection;
+      HttpEntity request = http.getHttpPost().getEntity();
+      if (request != null) {
+        metrics.setRequestBytes(request.getContentLength());
+      }
+      HttpEntity response = http.getHttpResponse() == null ? null : http.getHttpResponse().getEntity();
+      if (response != null) {
+        metrics.setResponseBytes(response.getContentLength());
+      }
+    } else if (connection instanceof HttpUrlConnection) {
+      metrics.setResponseBytes(((HttpUrlConnection) connection).getConnection().getContentLength());
+    }
+  }
+}
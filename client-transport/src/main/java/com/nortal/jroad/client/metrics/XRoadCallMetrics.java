@@ -0,0 +1,106 @@
+package com.nortal.jroad.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+
+/**
+ * Measurements of a single consumer call. Phase times are summed over all attempts of the call, so with retries or
+ * hedged requests they may add up to more than the duration of the call. Sizes and counts are <code>-1</code> when
+ * unknown, e.g. message sizes when the transport does not expose them.
+ */
+public class XRoadCallMetrics {
+  private final String database;
+  private final String method;
+  private final String version;
+  private final long start = System.nanoTime();
+  private final AtomicLongArray phases = new AtomicLongArray(XRoadCallPhase.values().length);
+
+  private volatile long duration = -1;
+  private volatile XRoadCallOutcome outcome;
+  private volatile long requestBytes = -1;
+  private volatile long responseBytes = -1;
+  private volatile int requestAttachments = -1;
+  private volatile int responseAttachments = -1;
+
+  public XRoadCallMetrics(XRoadServiceConfiguration configuration) {
+    this.database = configuration.getDatabase();
+    this.method = configuration.getMethod();
+    this.version = configuration.getVersion();
+  }
+
+  public void addPhase(XRoadCallPhase phase, long nanos) {
+    phases.addAndGet(phase.ordinal(), nanos);
+  }
+
+  /**
+   * Ends the call. The network phase is what remains of the call duration after all other phases.
+   */
+  public void finish(XRoadCallOutcome outcome) {
+    duration = System.nanoTime() - start;
+    long local = 0;
+    for (XRoadCallPhase phase : XRoadCallPhase.values()) {
+      if (phase != XRoadCallPhase.NETWORK) {
+        local += phases.get(phase.ordinal());
+      }
+    }
+    phases.set(XRoadCallPhase.NETWORK.ordinal(), Math.max(0, duration - local));
+    this.outcome = outcome;
+  }
+
+  public String getDatabase() {
+    return database;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public XRoadCallOutcome getOutcome() {
+    return outcome;
+  }
+
+  public long getDurationNanos() {
+    return duration;
+  }
+
+  public long getPhaseNanos(XRoadCallPhase phase) {
+    return phases.get(phase.ordinal());
+  }
+
+  public long getRequestBytes() {
+    return requestBytes;
+  }
+
+  public void setRequestBytes(long requestBytes) {
+    this.requestBytes = requestBytes;
+  }
+
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  public void setResponseBytes(long responseBytes) {
+    this.responseBytes = responseBytes;
+  }
+
+  public int getRequestAttachments() {
+    return requestAttachments;
+  }
+
+  public void setRequestAttachments(int requestAttachments) {
+    this.requestAttachments = requestAttachments;
+  }
+
+  public int getResponseAttachments() {
+    return responseAttachments;
+  }
+
+  public void setResponseAttachments(int responseAttachments) {
+    this.responseAttachments = responseAttachments;
+  }
+}
@@ -0,0 +1,20 @@
+package com.nortal.jroad.client.metrics;
+
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+
+/**
+ * How a consumer call ended.
+ */
+public enum XRoadCallOutcome {
+  OK, SOAP_FAULT, NON_TECHNICAL_FAULT, IO_ERROR, ERROR;
+
+  public static XRoadCallOutcome of(XRoadServiceConsumptionException e) {
+    if (e.isNonTechnicalFault()) {
+      return NON_TECHNICAL_FAULT;
+    }
+    if (e.isFault()) {
+      return SOAP_FAULT;
+    }
+    return e.isIOError() ? IO_ERROR : ERROR;
+  }
+}
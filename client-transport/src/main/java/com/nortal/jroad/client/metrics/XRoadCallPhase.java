@@ -0,0 +1,17 @@
+package com.nortal.jroad.client.metrics;
+
+/**
+ * Phases of a consumer call that are timed separately.
+ */
+public enum XRoadCallPhase {
+  /** Looking for swaRef attachments in the request */
+  ATTACHMENT_SCAN,
+  /** Writing the request body into the SOAP message */
+  MARSHALLING,
+  /** Adding X-Road headers, namespaces and attachments to the SOAP message */
+  HEADER,
+  /** Everything else: sending the request, waiting for and receiving the response */
+  NETWORK,
+  /** Reading the response from the SOAP message */
+  UNMARSHALLING;
+}
@@ -0,0 +1,13 @@
+package com.nortal.jroad.client.metrics;
+
+/**
+ * Receives the measurements of finished consumer calls, for exporting them to a monitoring system. Called once per call
+ * on the calling thread, so implementations must be thread-safe and should be quick.
+ *
+ * @see HistogramXRoadMetricsRegistry
+ */
+public interface XRoadMetricsRegistry {
+
+  void record(XRoadCallMetrics call);
+
+}
@@ -0,0 +1,145 @@
+package com.nortal.jroad.client.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that follows the capacity of a producer. Response times are tracked as a short-term and a long-term
+ * moving average: while the short-term one stays near the long-term one, the limit keeps growing by about the square
+ * root of its size per round, and as soon as responses slow down the limit shrinks in proportion
+ * (<code>limit * longRtt / shortRtt</code>). I/O errors cut the limit by a tenth. The limit only grows while at least
+ * half of it is actually in use, so that a quiet period does not leave behind a limit that was never tested.
+ * <p>
+ * Admission only reads and updates an atomic counter. Callers over the limit may wait for a short time for a slot.
+ */
+public class AdaptiveConcurrencyLimiter {
+  private static final double SMOOTHING = 0.2;
+  private static final double BACKOFF_RATIO = 0.9;
+  private static final double SHORT_RTT_WEIGHT = 0.25;
+  private static final double LONG_RTT_WEIGHT = 0.01;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long maxWaitMillis;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Object waitLock = new Object();
+  private volatile int limit;
+  private volatile int waiting;
+
+  // Guarded by this
+  private double estimatedLimit;
+  private double shortRtt;
+  private double longRtt;
+
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long maxWaitMillis) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.maxWaitMillis = maxWaitMillis;
+    this.estimatedLimit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    this.limit = (int) estimatedLimit;
+  }
+
+  /**
+   * Takes a slot, waiting at most the configured time for one. Returns <code>false</code> if no slot was obtained.
+   */
+  public boolean tryAcquire() {
+    if (tryIncrement()) {
+      return true;
+    }
+    if (maxWaitMillis <= 0) {
+      return false;
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    synchronized (waitLock) {
+      waiting++;
+      try {
+        while (!tryIncrement()) {
+          long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          if (remaining <= 0) {
+            return false;
+          }
+          waitLock.wait(remaining);
+        }
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } finally {
+        waiting--;
+      }
+    }
+  }
+
+  private boolean tryIncrement() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Gives back a slot and adjusts the limit.
+   *
+   * @param rttNanos response time of the call
+   * @param dropped whether the call failed with an I/O error
+   */
+  public void release(long rttNanos, boolean dropped) {
+    int used = inFlight.getAndDecrement();
+    update(rttNanos, dropped, used);
+    if (waiting > 0) {
+      synchronized (waitLock) {
+        waitLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Gives back a slot without adjusting the limit, for calls that failed for reasons unrelated to the producer.
+   */
+  public void release() {
+    inFlight.decrementAndGet();
+    if (waiting > 0) {
+      synchronized (waitLock) {
+        waitLock.notifyAll();
+      }
+    }
+  }
+
+  private synchronized void update(long rttNanos, boolean dropped, int used) {
+    if (dropped) {
+      estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+    } else {
+      double rtt = rttNanos;
+      shortRtt = shortRtt == 0 ? rtt : shortRtt + (rtt - shortRtt) * SHORT_RTT_WEIGHT;
+      longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) * LONG_RTT_WEIGHT;
+
+      double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+      double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+      if (target > estimatedLimit && used < estimatedLimit / 2) {
+        // Not enough load to tell whether a higher limit would still be fine
+        return;
+      }
+      estimatedLimit = estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+      estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+    }
+    limit = (int) estimatedLimit;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public int getWaiting() {
+    return waiting;
+  }
+}
@@ -0,0 +1,59 @@
+package com.nortal.jroad.client.resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrent calls. Callers over the limit wait for a free slot for a limited time, but only as
+ * long as the number of waiting callers stays within the wait queue size.
+ */
+public class Bulkhead {
+  private final Semaphore permits;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final int maxWaitQueue;
+  private final long maxWaitMillis;
+
+  public Bulkhead(int maxConcurrent, int maxWaitQueue, long maxWaitMillis) {
+    this.permits = new Semaphore(maxConcurrent);
+    this.maxWaitQueue = maxWaitQueue;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * Takes a slot, returns <code>false</code> if none could be obtained.
+   */
+  public boolean tryAcquire() {
+    if (permits.tryAcquire()) {
+      return true;
+    }
+    if (maxWaitQueue <= 0 || maxWaitMillis <= 0) {
+      return false;
+    }
+
+    if (waiting.incrementAndGet() > maxWaitQueue) {
+      waiting.decrementAndGet();
+      return false;
+    }
+    try {
+      return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  public void release() {
+    permits.release();
+  }
+
+  public int getAvailableSlots() {
+    return permits.availablePermits();
+  }
+
+  public int getWaitingCount() {
+    return waiting.get();
+  }
+}
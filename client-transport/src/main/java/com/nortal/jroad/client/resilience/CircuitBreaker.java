@@ -0,0 +1,139 @@
+package com.nortal.jroad.client.resilience;
+
+/**
+ * Count based circuit breaker. The outcomes of the last <code>windowSize</code> calls are kept, and once at least
+ * <code>minimumCalls</code> of them are known, the breaker opens if the share of failed or of slow calls reaches the
+ * configured threshold. An open breaker refuses all calls for <code>openDuration</code> milliseconds and then lets a
+ * few trial calls through, closing again if they stay below the thresholds.
+ */
+public class CircuitBreaker {
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureRateThreshold;
+  private final int slowCallRateThreshold;
+  private final long slowCallNanos;
+  private final int minimumCalls;
+  private final long openDurationMillis;
+  private final int halfOpenCalls;
+
+  private final boolean[] failures;
+  private final boolean[] slowCalls;
+  private int index;
+  private int count;
+  private int failureCount;
+  private int slowCount;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int halfOpenPermits;
+
+  /**
+   * @param failureRateThreshold failure rate in percent at which the breaker opens, 0 to ignore failures
+   * @param slowCallRateThreshold slow call rate in percent at which the breaker opens, 0 to ignore slow calls
+   * @param slowCallMillis duration from which calls are considered slow
+   * @param windowSize number of last calls to keep
+   * @param minimumCalls number of calls needed before the rates are evaluated
+   * @param openDurationMillis time to refuse calls after opening
+   * @param halfOpenCalls number of trial calls after the open period
+   */
+  public CircuitBreaker(int failureRateThreshold,
+                        int slowCallRateThreshold,
+                        long slowCallMillis,
+                        int windowSize,
+                        int minimumCalls,
+                        long openDurationMillis,
+                        int halfOpenCalls) {
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallNanos = slowCallMillis * 1000000L;
+    this.minimumCalls = Math.max(1, Math.min(minimumCalls, windowSize));
+    this.openDurationMillis = openDurationMillis;
+    this.halfOpenCalls = Math.max(1, Math.min(halfOpenCalls, windowSize));
+    this.failures = new boolean[windowSize];
+    this.slowCalls = new boolean[windowSize];
+  }
+
+  /**
+   * Tells whether a call may proceed. Every permitted call must be followed by {@link #onResult(boolean, long)} or
+   * {@link #onIgnored()}.
+   */
+  public synchronized boolean tryAcquire() {
+    if (state == State.OPEN) {
+      if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+        return false;
+      }
+      transition(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (halfOpenPermits == 0) {
+        return false;
+      }
+      halfOpenPermits--;
+    }
+    return true;
+  }
+
+  /**
+   * Records the outcome of a permitted call.
+   */
+  public synchronized void onResult(boolean failure, long durationNanos) {
+    if (state == State.OPEN) {
+      // Call started before the breaker opened
+      return;
+    }
+
+    int slot = index;
+    index = (index + 1) % failures.length;
+    if (count == failures.length) {
+      failureCount -= failures[slot] ? 1 : 0;
+      slowCount -= slowCalls[slot] ? 1 : 0;
+    } else {
+      count++;
+    }
+    failures[slot] = failure;
+    slowCalls[slot] = durationNanos >= slowCallNanos;
+    failureCount += failures[slot] ? 1 : 0;
+    slowCount += slowCalls[slot] ? 1 : 0;
+
+    if (count < (state == State.HALF_OPEN ? halfOpenCalls : minimumCalls)) {
+      return;
+    }
+    if (exceeds(failureCount, failureRateThreshold) || exceeds(slowCount, slowCallRateThreshold)) {
+      transition(State.OPEN);
+    } else if (state == State.HALF_OPEN) {
+      transition(State.CLOSED);
+    }
+  }
+
+  /**
+   * Gives back a permit without recording an outcome, for calls that failed for reasons unrelated to the producer.
+   */
+  public synchronized void onIgnored() {
+    if (state == State.HALF_OPEN) {
+      halfOpenPermits++;
+    }
+  }
+
+  private boolean exceeds(int matching, int threshold) {
+    return threshold > 0 && matching * 100 >= threshold * count;
+  }
+
+  private void transition(State target) {
+    state = target;
+    index = 0;
+    count = 0;
+    failureCount = 0;
+    slowCount = 0;
+    if (target == State.OPEN) {
+      openedAt = System.currentTimeMillis();
+    } else if (target == State.HALF_OPEN) {
+      halfOpenPermits = halfOpenCalls;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+}
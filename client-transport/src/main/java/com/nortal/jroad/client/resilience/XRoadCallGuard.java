@@ -0,0 +1,113 @@
+package com.nortal.jroad.client.resilience;
+
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.client.exception.XRoadServiceUnavailableException;
+import com.nortal.jroad.client.exception.XRoadServiceUnavailableException.Reason;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+
+/**
+ * Circuit breaker, bulkhead and adaptive concurrency limiter protecting the calls to a database, or to a single method
+ * of it. Any of them may be absent.
+ */
+public class XRoadCallGuard {
+  static final XRoadCallGuard NONE = new XRoadCallGuard(null, null, null);
+
+  private final CircuitBreaker circuitBreaker;
+  private final Bulkhead bulkhead;
+  private final AdaptiveConcurrencyLimiter limiter;
+
+  public XRoadCallGuard(CircuitBreaker circuitBreaker, Bulkhead bulkhead, AdaptiveConcurrencyLimiter limiter) {
+    this.circuitBreaker = circuitBreaker;
+    this.bulkhead = bulkhead;
+    this.limiter = limiter;
+  }
+
+  /**
+   * Admits a call, every admitted call must be followed by exactly one of {@link #onSuccess(long)},
+   * {@link #onFailure(long)} or {@link #onIgnored()}.
+   *
+   * @throws XRoadServiceUnavailableException if the call is refused
+   */
+  public void acquire(XRoadServiceConfiguration configuration) throws XRoadServiceUnavailableException {
+    // The breaker goes first, so that an open breaker fails fast instead of queueing in the bulkhead
+    if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+      throw new XRoadServiceUnavailableException(Reason.CIRCUIT_OPEN,
+                                                 configuration.getDatabase(),
+                                                 configuration.getMethod(),
+                                                 configuration.getVersion());
+    }
+    if (bulkhead != null && !bulkhead.tryAcquire()) {
+      if (circuitBreaker != null) {
+        circuitBreaker.onIgnored();
+      }
+      throw new XRoadServiceUnavailableException(Reason.BULKHEAD_FULL,
+                                                 configuration.getDatabase(),
+                                                 configuration.getMethod(),
+                                                 configuration.getVersion());
+    }
+    if (limiter != null && !limiter.tryAcquire()) {
+      if (bulkhead != null) {
+        bulkhead.release();
+      }
+      if (circuitBreaker != null) {
+        circuitBreaker.onIgnored();
+      }
+      throw new XRoadServiceUnavailableException(Reason.LIMIT_EXCEEDED,
+                                                 configuration.getDatabase(),
+                                                 configuration.getMethod(),
+                                                 configuration.getVersion());
+    }
+  }
+
+  public void onSuccess(long durationNanos) {
+    release(Boolean.FALSE, durationNanos);
+  }
+
+  public void onFailure(long durationNanos) {
+    release(Boolean.TRUE, durationNanos);
+  }
+
+  public void onIgnored() {
+    release(null, 0);
+  }
+
+  private void release(Boolean failure, long durationNanos) {
+    if (limiter != null) {
+      if (failure == null) {
+        limiter.release();
+      } else {
+        limiter.release(durationNanos, failure.booleanValue());
+      }
+    }
+    if (bulkhead != null) {
+      bulkhead.release();
+    }
+    if (circuitBreaker != null) {
+      if (failure == null) {
+        circuitBreaker.onIgnored();
+      } else {
+        circuitBreaker.onResult(failure.booleanValue(), durationNanos);
+      }
+    }
+  }
+
+  /**
+   * Tells whether an exception indicates trouble with the producer or the way to it. Client faults and non-technical
+   * faults are answers of a working producer and do not count as failures.
+   */
+  public static boolean isProducerFailure(XRoadServiceConsumptionException e) {
+    return e.isIOError() || e.isServerFault();
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public Bulkhead getBulkhead() {
+    return bulkhead;
+  }
+
+  public AdaptiveConcurrencyLimiter getLimiter() {
+    return limiter;
+  }
+}
@@ -0,0 +1,148 @@
+package com.nortal.jroad.client.resilience;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.nortal.jroad.client.util.XRoadProperties;
+
+/**
+ * Creates and holds the {@link XRoadCallGuard}s of databases according to the following settings in
+ * <code>xroad.properties</code> or <code>xroad-&lt;database&gt;.properties</code>, each prefixed with
+ * <code>&lt;database&gt;-</code> or <code>&lt;database&gt;-&lt;method&gt;-</code>:
+ * <ul>
+ * <li><code>bulkhead-max-concurrent</code> - maximum number of concurrent calls, bulkhead is disabled if not set</li>
+ * <li><code>bulkhead-max-wait-queue</code> - number of callers that may wait for a free slot (0)</li>
+ * <li><code>bulkhead-max-wait</code> - time in milliseconds to wait for a free slot (1000)</li>
+ * <li><code>circuit-breaker-failure-rate</code> - failure rate in percent opening the breaker, breaker is disabled if
+ * neither this nor the slow call rate is set</li>
+ * <li><code>circuit-breaker-slow-call-rate</code> - slow call rate in percent opening the breaker</li>
+ * <li><code>circuit-breaker-slow-call-duration</code> - duration in milliseconds from which a call is slow (10000)</li>
+ * <li><code>circuit-breaker-window-size</code> - number of last calls the rates are calculated from (20)</li>
+ * <li><code>circuit-breaker-minimum-calls</code> - number of calls needed before the rates are evaluated (10)</li>
+ * <li><code>circuit-breaker-open-duration</code> - time in milliseconds calls are refused once opened (30000)</li>
+ * <li><code>circuit-breaker-half-open-calls</code> - number of trial calls after the open period (3)</li>
+ * <li><code>adaptive-limit</code> - enables the {@link AdaptiveConcurrencyLimiter}, which is always shared by all
+ * methods of a database and so is configured on the database level only (false)</li>
+ * <li><code>adaptive-limit-initial</code>, <code>adaptive-limit-min</code>, <code>adaptive-limit-max</code> - initial,
+ * minimum and maximum concurrency limit (20, 1, 200)</li>
+ * <li><code>adaptive-limit-max-wait</code> - time in milliseconds to wait for a slot, 0 to fail right away (0)</li>
+ * </ul>
+ * Methods share the guard of their database, unless <code>&lt;database&gt;-&lt;method&gt;-isolated=true</code> is set
+ * (or <code>&lt;database&gt;-isolated=true</code> for all methods of a database).
+ */
+public class XRoadCallGuards {
+  public static final String BULKHEAD_MAX_CONCURRENT = "bulkhead-max-concurrent";
+  public static final String BULKHEAD_MAX_WAIT_QUEUE = "bulkhead-max-wait-queue";
+  public static final String BULKHEAD_MAX_WAIT = "bulkhead-max-wait";
+  public static final String FAILURE_RATE = "circuit-breaker-failure-rate";
+  public static final String SLOW_CALL_RATE = "circuit-breaker-slow-call-rate";
+  public static final String SLOW_CALL_DURATION = "circuit-breaker-slow-call-duration";
+  public static final String WINDOW_SIZE = "circuit-breaker-window-size";
+  public static final String MINIMUM_CALLS = "circuit-breaker-minimum-calls";
+  public static final String OPEN_DURATION = "circuit-breaker-open-duration";
+  public static final String HALF_OPEN_CALLS = "circuit-breaker-half-open-calls";
+  public static final String ISOLATED = "isolated";
+  public static final String ADAPTIVE_LIMIT = "adaptive-limit";
+  public static final String ADAPTIVE_LIMIT_INITIAL = "adaptive-limit-initial";
+  public static final String ADAPTIVE_LIMIT_MIN = "adaptive-limit-min";
+  public static final String ADAPTIVE_LIMIT_MAX = "adaptive-limit-max";
+  public static final String ADAPTIVE_LIMIT_MAX_WAIT = "adaptive-limit-max-wait";
+
+  private final ConcurrentMap<String, XRoadCallGuard> guards = new ConcurrentHashMap<String, XRoadCallGuard>();
+  private final ConcurrentMap<String, String> scopes = new ConcurrentHashMap<String, String>();
+  private final ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters =
+      new ConcurrentHashMap<String, AdaptiveConcurrencyLimiter>();
+  private final XRoadProperties properties;
+
+  public XRoadCallGuards(XRoadProperties properties) {
+    this.properties = properties;
+  }
+
+  public XRoadCallGuard get(String database, String method) {
+    String scope = getScope(database, method);
+    XRoadCallGuard guard = guards.get(scope);
+    if (guard == null) {
+      guard = create(database, scope.equals(database) ? null : method);
+      XRoadCallGuard existing = guards.putIfAbsent(scope, guard);
+      if (existing != null) {
+        guard = existing;
+      }
+    }
+    return guard;
+  }
+
+  private String getScope(String database, String method) {
+    String key = database + "." + method;
+    String scope = scopes.get(key);
+    if (scope == null) {
+      scope = properties.getBoolean(database, method, ISOLATED, false) ? key : database;
+      scopes.putIfAbsent(key, scope);
+    }
+    return scope;
+  }
+
+  protected XRoadCallGuard create(String database, String method) {
+    Bulkhead bulkhead = null;
+    int maxConcurrent = properties.getInt(database, method, BULKHEAD_MAX_CONCURRENT, 0);
+    if (maxConcurrent > 0) {
+      bulkhead = new Bulkhead(maxConcurrent,
+                              properties.getInt(database, method, BULKHEAD_MAX_WAIT_QUEUE, 0),
+                              properties.getLong(database, method, BULKHEAD_MAX_WAIT, 1000));
+    }
+
+    CircuitBreaker circuitBreaker = null;
+    int failureRate = properties.getInt(database, method, FAILURE_RATE, 0);
+    int slowCallRate = properties.getInt(database, method, SLOW_CALL_RATE, 0);
+    if (failureRate > 0 || slowCallRate > 0) {
+      circuitBreaker = new CircuitBreaker(failureRate,
+                                          slowCallRate,
+                                          properties.getLong(database, method, SLOW_CALL_DURATION, 10000),
+                                          properties.getInt(database, method, WINDOW_SIZE, 20),
+                                          properties.getInt(database, method, MINIMUM_CALLS, 10),
+                                          properties.getLong(database, method, OPEN_DURATION, 30000),
+                                          properties.getInt(database, method, HALF_OPEN_CALLS, 3));
+    }
+
+    AdaptiveConcurrencyLimiter limiter = getLimiter(database);
+
+    return bulkhead == null && circuitBreaker == null && limiter == null
+        ? XRoadCallGuard.NONE
+        : new XRoadCallGuard(circuitBreaker, bulkhead, limiter);
+  }
+
+  private AdaptiveConcurrencyLimiter getLimiter(String database) {
+    AdaptiveConcurrencyLimiter limiter = limiters.get(database);
+    if (limiter == null) {
+      if (!properties.getBoolean(database, null, ADAPTIVE_LIMIT, false)) {
+        return null;
+      }
+      limiter = new AdaptiveConcurrencyLimiter(properties.getInt(database, null, ADAPTIVE_LIMIT_INITIAL, 20),
+                                               properties.getInt(database, null, ADAPTIVE_LIMIT_MIN, 1),
+                                               properties.getInt(database, null, ADAPTIVE_LIMIT_MAX, 200),
+                                               properties.getLong(database, null, ADAPTIVE_LIMIT_MAX_WAIT, 0));
+      AdaptiveConcurrencyLimiter existing = limiters.putIfAbsent(database, limiter);
+      if (existing != null) {
+        limiter = existing;
+      }
+    }
+    return limiter;
+  }
+
+  /**
+   * Returns the adaptive concurrency limiters created so far, keyed by database, for monitoring their current limits.
+   */
+  public Map<String, AdaptiveConcurrencyLimiter> getLimiters() {
+    return Collections.unmodifiableMap(limiters);
+  }
+
+  /**
+   * Drops all guards, they are created again from the current settings on next use.
+   */
+  public void reset() {
+    guards.clear();
+    scopes.clear();
+    limiters.clear();
+  }
+}
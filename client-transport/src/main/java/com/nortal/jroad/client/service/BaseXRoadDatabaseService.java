@@ -5,11 +5,14 @@ import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 
+import org.springframework.util.concurrent.ListenableFuture;
+
 import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
 import com.nortal.jroad.client.service.callback.CustomCallback;
 import com.nortal.jroad.client.service.configuration.DelegatingXRoadServiceConfiguration;
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
 import com.nortal.jroad.client.service.configuration.provider.XRoadServiceConfigurationProvider;
+import com.nortal.jroad.client.service.configuration.provider.XRoadServiceConfigurationRegistry;
 import com.nortal.jroad.client.service.consumer.XRoadConsumer;
 import com.nortal.jroad.client.service.extractor.CustomExtractor;
 import com.nortal.jroad.model.XRoadMessage;
@@ -70,8 +73,20 @@ public abstract class BaseXRoadDatabaseService {
 
   protected <I, O> XRoadMessage<O> send(XRoadMessage<I> input, String method, String version, final String idCode)
       throws XRoadServiceConsumptionException {
+    XRoadServiceConfigurationProvider provider = getXRoadServiceConfigurationProvider();
+    if (provider instanceof XRoadServiceConfigurationRegistry) {
+      // Derives the configuration of the user from a shared immutable one
+      XRoadServiceConfiguration configuration =
+          ((XRoadServiceConfigurationRegistry) provider).createConfiguration(database,
+                                                                             wsdlDatabase,
+                                                                             method,
+                                                                             version,
+                                                                             idCode);
+      return getXRoadConsumer().sendRequest(input, configuration);
+    }
+
     final XRoadServiceConfiguration xroadConfiguration =
-        getXRoadServiceConfigurationProvider().createConfiguration(database, wsdlDatabase, method, version);
+        provider.createConfiguration(database, wsdlDatabase, method, version);
 
     DelegatingXRoadServiceConfiguration configuration = new DelegatingXRoadServiceConfiguration(xroadConfiguration) {
       private static final long serialVersionUID = 1L;
@@ -102,6 +117,28 @@ public abstract class BaseXRoadDatabaseService {
                                                             extractor);
   }
 
+  protected <I, O> ListenableFuture<XRoadMessage<O>> sendAsync(XRoadMessage<I> input, String method, String version) {
+    return getXRoadConsumer().sendRequestAsync(input,
+                                               getXRoadServiceConfigurationProvider().createConfiguration(database,
+                                                                                                          wsdlDatabase,
+                                                                                                          method,
+                                                                                                          version));
+  }
+
+  protected <I, O> ListenableFuture<XRoadMessage<O>> sendAsync(XRoadMessage<I> input,
+                                                               String method,
+                                                               String version,
+                                                               CustomCallback callback,
+                                                               CustomExtractor extractor) {
+    return getXRoadConsumer().sendRequestAsync(input,
+                                               getXRoadServiceConfigurationProvider().createConfiguration(database,
+                                                                                                          wsdlDatabase,
+                                                                                                          method,
+                                                                                                          version),
+                                               callback,
+                                               extractor);
+  }
+
   public void setDatabase(String database) {
     this.database = database;
   }
@@ -4,6 +4,8 @@ import java.util.Random;
 
 import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
 
@@ -28,4 +30,30 @@ public abstract class MessageCallbackNamespaceStrategy {
   public abstract void addXTeeHeaderElements(SOAPEnvelope env, XRoadServiceConfiguration serviceConfiguration)
       throws SOAPException;
 
+  /**
+   * Tells whether {@link #writeNamespaces(XMLStreamWriter)} and
+   * {@link #writeXTeeHeaderElements(XMLStreamWriter, XRoadServiceConfiguration)} are implemented, so that requests can
+   * be sent as {@link com.nortal.jroad.client.message.StreamingXRoadMessage}s. <code>false</code> by default.
+   */
+  public boolean supportsStreaming() {
+    return false;
+  }
+
+  /**
+   * Declares the namespaces of {@link #addNamespaces(SOAPEnvelope)} on the envelope element being written. Needed for
+   * {@link com.nortal.jroad.client.message.StreamingXRoadMessage}, see {@link #supportsStreaming()}.
+   */
+  public void writeNamespaces(XMLStreamWriter writer) throws XMLStreamException {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support streamed messages");
+  }
+
+  /**
+   * Writes the elements of {@link #addXTeeHeaderElements(SOAPEnvelope, XRoadServiceConfiguration)}. Needed for
+   * {@link com.nortal.jroad.client.message.StreamingXRoadMessage}, see {@link #supportsStreaming()}.
+   */
+  public void writeXTeeHeaderElements(XMLStreamWriter writer, XRoadServiceConfiguration serviceConfiguration)
+      throws XMLStreamException {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support streamed messages");
+  }
+
 }
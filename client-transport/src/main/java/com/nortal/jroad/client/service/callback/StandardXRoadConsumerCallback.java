@@ -2,19 +2,21 @@ package com.nortal.jroad.client.service.callback;
 
 import java.io.IOException;
 
-import javax.xml.namespace.QName;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMResult;
 
-import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlObject;
 import org.springframework.oxm.Marshaller;
-import org.springframework.oxm.xmlbeans.XmlBeansMarshaller;
 import org.springframework.ws.WebServiceMessage;
 import org.springframework.ws.client.core.WebServiceMessageCallback;
 import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.xml.sax.SAXException;
 
+import com.nortal.jroad.client.message.StreamingXRoadMessage;
+import com.nortal.jroad.client.metrics.XRoadCallMetrics;
+import com.nortal.jroad.client.metrics.XRoadCallPhase;
 import com.nortal.jroad.client.service.consumer.StandardXRoadConsumer;
 import com.nortal.jroad.model.XmlBeansXRoadMetadata;
 
@@ -26,6 +28,7 @@ public class StandardXRoadConsumerCallback implements WebServiceMessageCallback
   private final Object object;
   private final XRoadMessageCallback callback;
   private final XmlBeansXRoadMetadata metadata;
+  private XRoadCallMetrics metrics;
 
   public StandardXRoadConsumerCallback(Object object, XRoadMessageCallback callback, XmlBeansXRoadMetadata metadata) {
     this.object = object;
@@ -35,24 +38,59 @@ public class StandardXRoadConsumerCallback implements WebServiceMessageCallback
 
   @Override
   public void doWithMessage(WebServiceMessage request) throws IOException, TransformerException {
-    SaajSoapMessage message = (SaajSoapMessage) request;
-    SOAPMessage mes = message.getSaajMessage();
-
-    try {
-      mes.getSOAPPart().getEnvelope().addNamespaceDeclaration(StandardXRoadConsumer.ROOT_NS,
-                                                              metadata.getRequestElementNs());
-      getMarshaller().marshal(object, new DOMResult(mes.getSOAPBody()));
-    } catch (SOAPException e) {
-      throw new RuntimeException("Invalid SOAP message");
+    long start = System.nanoTime();
+    XRoadRequestMarshaller marshaller = XRoadRequestMarshaller.forMetadata(metadata);
+    Marshaller custom = getMarshaller();
+    if (request instanceof StreamingXRoadMessage) {
+      // Serialized only when the message is written to the transport
+      ((StreamingXRoadMessage) request).setBody((XmlObject) object, marshaller.getStreamOptions());
+    } else {
+      SaajSoapMessage message = (SaajSoapMessage) request;
+      SOAPMessage mes = message.getSaajMessage();
+
+      try {
+        mes.getSOAPPart().getEnvelope().addNamespaceDeclaration(StandardXRoadConsumer.ROOT_NS,
+                                                                metadata.getRequestElementNs());
+        if (object instanceof XmlObject && custom == marshaller.getMarshaller()) {
+          marshaller.marshal((XmlObject) object, mes.getSOAPBody());
+        } else {
+          custom.marshal(object, new DOMResult(mes.getSOAPBody()));
+        }
+      } catch (SOAPException e) {
+        throw new RuntimeException("Invalid SOAP message");
+      } catch (SAXException e) {
+        throw new RuntimeException(e);
+      }
     }
+    long marshalled = System.nanoTime();
     callback.doWithMessage(request);
+    if (metrics != null) {
+      metrics.addPhase(XRoadCallPhase.MARSHALLING, marshalled - start);
+      metrics.addPhase(XRoadCallPhase.HEADER, System.nanoTime() - marshalled);
+    }
+  }
+
+  /**
+   * Tells whether the request can be sent as a {@link StreamingXRoadMessage}, which takes XmlBeans content saved with
+   * the default marshaller only.
+   */
+  public boolean supportsStreaming() {
+    return object instanceof XmlObject && getMarshaller() == XRoadRequestMarshaller.forMetadata(metadata).getMarshaller()
+        && callback.supportsStreaming();
+  }
+
+  /**
+   * Sets the call measurements to add the marshalling and header building times to.
+   */
+  public void setMetrics(XRoadCallMetrics metrics) {
+    this.metrics = metrics;
   }
 
+  /**
+   * Returns the marshaller of the request body, shared by all requests of the operation. XmlBeans objects are saved
+   * straight into the SOAP body unless a subclass returns a marshaller of its own, which is then used for all contents.
+   */
   protected Marshaller getMarshaller() {
-    XmlBeansMarshaller marshaller = new XmlBeansMarshaller();
-    marshaller.setXmlOptions(new XmlOptions().setSaveSyntheticDocumentElement(new QName(metadata.getRequestElementNs(),
-                                                                                        metadata.getRequestElementName(),
-                                                                                        StandardXRoadConsumer.ROOT_NS)));
-    return marshaller;
+    return XRoadRequestMarshaller.forMetadata(metadata).getMarshaller();
   }
 }
\ No newline at end of file
@@ -14,11 +14,13 @@ import java.util.Collection;
 import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
+import javax.xml.stream.XMLStreamException;
 
 import org.springframework.ws.WebServiceMessage;
 import org.springframework.ws.client.core.WebServiceMessageCallback;
 import org.springframework.ws.soap.saaj.SaajSoapMessage;
 
+import com.nortal.jroad.client.message.StreamingXRoadMessage;
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
 import com.nortal.jroad.model.XRoadAttachment;
 
@@ -48,6 +50,18 @@ public class XRoadMessageCallback implements WebServiceMessageCallback {
   }
 
   public void doWithMessage(WebServiceMessage message) {
+    if (message instanceof StreamingXRoadMessage) {
+      if (attachments != null && !attachments.isEmpty()) {
+        throw new IllegalStateException("Streamed messages cannot carry attachments");
+      }
+      try {
+        ((StreamingXRoadMessage) message).setHeader(protocolVersionStrategy, serviceConfiguration);
+      } catch (XMLStreamException e) {
+        throw new RuntimeException(e);
+      }
+      return;
+    }
+
     SaajSoapMessage saajMessage = (SaajSoapMessage) message;
     try {
       // Add attachments
@@ -66,6 +80,13 @@ public class XRoadMessageCallback implements WebServiceMessageCallback {
     }
   }
 
+  /**
+   * Tells whether the header of the request can be written to a {@link StreamingXRoadMessage}.
+   */
+  public boolean supportsStreaming() {
+    return protocolVersionStrategy.supportsStreaming();
+  }
+
   public XRoadServiceConfiguration getServiceConfiguration() {
     return serviceConfiguration;
   }
@@ -2,18 +2,40 @@ package com.nortal.jroad.client.service.callback;
 
 import com.nortal.jroad.client.enums.XroadObjectType;
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.XRoadServiceIdentity;
 import com.nortal.jroad.enums.XRoadProtocolVersion;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * @author Aleksei Bogdanov (aleksei.bogdanov@nortal.com)
  * @author Lauri Lättemäe (lauri.lattemae@nortal.com) - protocol 4.0
  */
 public class XRoadProtocolNamespaceStrategyV4 extends MessageCallbackNamespaceStrategy {
+  private static final Logger log = Logger.getLogger(XRoadProtocolNamespaceStrategyV4.class);
+
+  private static final String IDENTIFIERS_NS = "http://x-road.eu/xsd/identifiers";
+  // Guards against unbounded growth should configurations be created with ever changing values
+  private static final int MAX_TEMPLATES = 1000;
+  private static final ConcurrentMap<XRoadServiceIdentity, HeaderTemplate> TEMPLATES =
+      new ConcurrentHashMap<XRoadServiceIdentity, HeaderTemplate>();
+  // Consecutive failures after which the template of a service is no longer used
+  private static final int MAX_TEMPLATE_FAILURES = 3;
 
   private XRoadProtocolVersion protocol = XRoadProtocolVersion.V4_0;
 
@@ -25,6 +47,72 @@ public class XRoadProtocolNamespaceStrategyV4 extends MessageCallbackNamespaceSt
     env.addNamespaceDeclaration("id", "http://x-road.eu/xsd/identifiers");
   }
 
+  @Override
+  public boolean supportsStreaming() {
+    return true;
+  }
+
+  @Override
+  public void writeNamespaces(XMLStreamWriter writer) throws XMLStreamException {
+    writer.writeNamespace("xsd", "http://www.w3.org/2001/XMLSchema");
+    writer.writeNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+    writer.writeNamespace(protocol.getNamespacePrefix(), protocol.getNamespaceUri());
+    writer.writeNamespace("id", IDENTIFIERS_NS);
+  }
+
+  @Override
+  public void writeXTeeHeaderElements(XMLStreamWriter writer, XRoadServiceConfiguration conf)
+      throws XMLStreamException {
+    String prefix = protocol.getNamespacePrefix();
+    String namespace = protocol.getNamespaceUri();
+    if (StringUtils.isNotBlank(conf.getIdCode())) {
+      writeElement(writer, prefix, namespace, "userId", conf.getIdCode());
+    }
+    writeElement(writer, prefix, namespace, "id", generateUniqueMessageId(conf));
+    if (StringUtils.isNotBlank(conf.getFile())) {
+      writeElement(writer, prefix, namespace, "issue", conf.getFile());
+    }
+    writeElement(writer, prefix, namespace, "protocolVersion", protocol.getCode());
+
+    XroadObjectType clientObjectType =
+        conf.getClientObjectType() != null ? conf.getClientObjectType() : XroadObjectType.SUBSYSTEM;
+    writer.writeStartElement(prefix, "client", namespace);
+    writer.writeAttribute("id", IDENTIFIERS_NS, "objectType", clientObjectType.name());
+    writeElement(writer, "id", IDENTIFIERS_NS, "xRoadInstance", conf.getClientXRoadInstance());
+    writeElement(writer, "id", IDENTIFIERS_NS, "memberClass", conf.getClientMemberClass());
+    writeElement(writer, "id", IDENTIFIERS_NS, "memberCode", conf.getClientMemberCode());
+    if (StringUtils.isNotBlank(conf.getClientSubsystemCode())) {
+      writeElement(writer, "id", IDENTIFIERS_NS, "subsystemCode", conf.getClientSubsystemCode());
+    }
+    writer.writeEndElement();
+
+    XroadObjectType serviceObjectType =
+        conf.getServiceObjectType() != null ? conf.getServiceObjectType() : XroadObjectType.SERVICE;
+    writer.writeStartElement(prefix, "service", namespace);
+    writer.writeAttribute("id", IDENTIFIERS_NS, "objectType", serviceObjectType.name());
+    writeElement(writer, "id", IDENTIFIERS_NS, "xRoadInstance", conf.getServiceXRoadInstance());
+    writeElement(writer, "id", IDENTIFIERS_NS, "memberClass", conf.getServiceMemberClass());
+    writeElement(writer, "id", IDENTIFIERS_NS, "memberCode", conf.getServiceMemberCode());
+    if (StringUtils.isNotBlank(conf.getServiceSubsystemCode())) {
+      writeElement(writer, "id", IDENTIFIERS_NS, "subsystemCode", conf.getServiceSubsystemCode());
+    }
+    writeElement(writer, "id", IDENTIFIERS_NS, "serviceCode", conf.getMethod());
+    if (StringUtils.isNotBlank(conf.getVersion())) {
+      writeElement(writer, "id", IDENTIFIERS_NS, "serviceVersion", conf.getVersion());
+    }
+    writer.writeEndElement();
+  }
+
+  private static void writeElement(XMLStreamWriter writer,
+                                   String prefix,
+                                   String namespace,
+                                   String localName,
+                                   String value) throws XMLStreamException {
+    writer.writeStartElement(prefix, localName, namespace);
+    writer.writeCharacters(value == null ? "" : value);
+    writer.writeEndElement();
+  }
+
   @Override
   public void addXTeeHeaderElements(SOAPEnvelope env, XRoadServiceConfiguration conf) throws SOAPException {
     SOAPHeader header = env.getHeader();
@@ -38,6 +126,19 @@ public class XRoadProtocolNamespaceStrategyV4 extends MessageCallbackNamespaceSt
       SOAPElement issue = header.addChildElement("issue", protocol.getNamespacePrefix());
       issue.addTextNode(conf.getFile());
     }
+
+    // The remaining elements are the same for every call of a service, so they are built from a prepared template
+    HeaderTemplate template = getTemplate(conf);
+    if (template != null && template.isUsable()) {
+      try {
+        template.appendTo(header);
+        return;
+      } catch (RuntimeException e) {
+        // Nothing was appended, so the elements can still be built one by one
+        template.onFailure(e);
+      }
+    }
+
     SOAPElement protocolVersion = header.addChildElement("protocolVersion", protocol.getNamespacePrefix());
     protocolVersion.addTextNode(protocol.getCode());
 
@@ -45,6 +146,66 @@ public class XRoadProtocolNamespaceStrategyV4 extends MessageCallbackNamespaceSt
     addServiceElements(env, conf, header);
   }
 
+  /**
+   * Returns the template of the service, or <code>null</code> if the cache is full and the headers are to be built
+   * element by element.
+   */
+  private HeaderTemplate getTemplate(XRoadServiceConfiguration conf) {
+    XRoadServiceIdentity identity = XRoadServiceIdentity.of(conf);
+    HeaderTemplate template = TEMPLATES.get(identity);
+    if (template == null) {
+      if (TEMPLATES.size() >= MAX_TEMPLATES) {
+        return null;
+      }
+      template = createTemplate(identity);
+      HeaderTemplate existing = TEMPLATES.putIfAbsent(identity, template);
+      if (existing != null) {
+        template = existing;
+      }
+    }
+    return template;
+  }
+
+  private HeaderTemplate createTemplate(XRoadServiceIdentity identity) {
+    String namespace = protocol.getNamespaceUri();
+    String prefix = protocol.getNamespacePrefix() + ":";
+
+    TemplateElement protocolVersion = new TemplateElement(namespace, prefix + "protocolVersion", protocol.getCode());
+
+    XroadObjectType clientObjectType =
+        identity.getClientObjectType() != null ? identity.getClientObjectType() : XroadObjectType.SUBSYSTEM;
+    List<TemplateElement> client = new ArrayList<TemplateElement>();
+    client.add(identifier("xRoadInstance", identity.getClientXRoadInstance()));
+    client.add(identifier("memberClass", identity.getClientMemberClass()));
+    client.add(identifier("memberCode", identity.getClientMemberCode()));
+    if (StringUtils.isNotBlank(identity.getClientSubsystemCode())) {
+      client.add(identifier("subsystemCode", identity.getClientSubsystemCode()));
+    }
+
+    XroadObjectType serviceObjectType =
+        identity.getServiceObjectType() != null ? identity.getServiceObjectType() : XroadObjectType.SERVICE;
+    List<TemplateElement> service = new ArrayList<TemplateElement>();
+    service.add(identifier("xRoadInstance", identity.getServiceXRoadInstance()));
+    service.add(identifier("memberClass", identity.getServiceMemberClass()));
+    service.add(identifier("memberCode", identity.getServiceMemberCode()));
+    if (StringUtils.isNotBlank(identity.getServiceSubsystemCode())) {
+      service.add(identifier("subsystemCode", identity.getServiceSubsystemCode()));
+    }
+    service.add(identifier("serviceCode", identity.getMethod()));
+    if (StringUtils.isNotBlank(identity.getVersion())) {
+      service.add(identifier("serviceVersion", identity.getVersion()));
+    }
+
+    return new HeaderTemplate(identity,
+                              protocolVersion,
+                              new TemplateElement(namespace, prefix + "client", clientObjectType.name(), client),
+                              new TemplateElement(namespace, prefix + "service", serviceObjectType.name(), service));
+  }
+
+  private static TemplateElement identifier(String localName, String value) {
+    return new TemplateElement(IDENTIFIERS_NS, "id:" + localName, value == null ? "" : value);
+  }
+
   private void addClientElements(SOAPEnvelope env, XRoadServiceConfiguration conf, SOAPHeader header)
       throws SOAPException {
     // TODO: maybe we should create headers differently according to object type?
@@ -95,4 +256,97 @@ public class XRoadProtocolNamespaceStrategyV4 extends MessageCallbackNamespaceSt
     }
 
   }
+
+  /**
+   * Header elements of a service, appended to the message of every call. Holds plain immutable values only, so a
+   * single instance serves all threads and nothing but the elements of the message itself is created per call.
+   */
+  private static class HeaderTemplate {
+    private final XRoadServiceIdentity identity;
+    private final TemplateElement[] elements;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    HeaderTemplate(XRoadServiceIdentity identity, TemplateElement... elements) {
+      this.identity = identity;
+      this.elements = elements;
+    }
+
+    boolean isUsable() {
+      return failures.get() < MAX_TEMPLATE_FAILURES;
+    }
+
+    void appendTo(SOAPHeader header) {
+      Document doc = header.getOwnerDocument();
+      // Build everything before touching the header, so that a failure leaves the header as it was
+      DocumentFragment fragment = doc.createDocumentFragment();
+      Node[] created = new Node[elements.length];
+      for (int i = 0; i < elements.length; i++) {
+        created[i] = fragment.appendChild(elements[i].create(doc));
+      }
+      try {
+        header.appendChild(fragment);
+      } catch (RuntimeException e) {
+        for (Node node : created) {
+          if (node.getParentNode() == header) {
+            header.removeChild(node);
+          }
+        }
+        throw e;
+      }
+      if (failures.get() > 0) {
+        failures.set(0);
+      }
+    }
+
+    void onFailure(RuntimeException e) {
+      if (failures.incrementAndGet() >= MAX_TEMPLATE_FAILURES) {
+        log.warn("Failed to apply header template of " + identity.getMethod() + " " + MAX_TEMPLATE_FAILURES
+            + " times in a row, building headers element by element", e);
+      } else {
+        log.debug("Failed to apply header template of " + identity.getMethod() + ", building headers element by element",
+                  e);
+      }
+    }
+  }
+
+  /**
+   * A header element with either text content or an object type attribute and child elements.
+   */
+  private static class TemplateElement {
+    private final String namespace;
+    private final String qualifiedName;
+    private final String text;
+    private final String objectType;
+    private final TemplateElement[] children;
+
+    TemplateElement(String namespace, String qualifiedName, String text) {
+      this.namespace = namespace;
+      this.qualifiedName = qualifiedName;
+      this.text = text;
+      this.objectType = null;
+      this.children = new TemplateElement[0];
+    }
+
+    TemplateElement(String namespace, String qualifiedName, String objectType, List<TemplateElement> children) {
+      this.namespace = namespace;
+      this.qualifiedName = qualifiedName;
+      this.text = null;
+      this.objectType = objectType;
+      this.children = children.toArray(new TemplateElement[children.size()]);
+    }
+
+    Element create(Document doc) {
+      Element element = doc.createElementNS(namespace, qualifiedName);
+      if (objectType != null) {
+        element.setAttributeNS(IDENTIFIERS_NS, "id:objectType", objectType);
+      }
+      if (text != null) {
+        element.appendChild(doc.createTextNode(text));
+      }
+      for (TemplateElement child : children) {
+        element.appendChild(child.create(doc));
+      }
+      return element;
+    }
+  }
 }
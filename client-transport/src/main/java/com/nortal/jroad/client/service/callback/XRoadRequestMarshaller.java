@@ -0,0 +1,180 @@
+package com.nortal.jroad.client.service.callback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.springframework.oxm.xmlbeans.XmlBeansMarshaller;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.nortal.jroad.client.service.consumer.StandardXRoadConsumer;
+import com.nortal.jroad.model.XmlBeansXRoadMetadata;
+
+/**
+ * Marshals request bodies of one operation, named after the request element of its metadata. Instances are immutable,
+ * shared by all requests of the operation and obtained with {@link #forMetadata(XmlBeansXRoadMetadata)}.
+ * <p>
+ * Bodies are written into the SOAP body element by saving the XmlBeans object as SAX events, without building a
+ * separate DOM tree to import.
+ */
+public final class XRoadRequestMarshaller {
+  private static final ConcurrentMap<QName, XRoadRequestMarshaller> MARSHALLERS =
+      new ConcurrentHashMap<QName, XRoadRequestMarshaller>();
+
+  private final XmlOptions options;
+  private final XmlOptions streamOptions;
+  private final XmlBeansMarshaller marshaller;
+
+  private XRoadRequestMarshaller(QName requestElement) {
+    options = new XmlOptions().setSaveSyntheticDocumentElement(requestElement);
+    streamOptions = new XmlOptions().setSaveSyntheticDocumentElement(requestElement)
+                                    .setSaveNoXmlDecl()
+                                    .setCharacterEncoding("UTF-8");
+    marshaller = new XmlBeansMarshaller();
+    marshaller.setXmlOptions(options);
+  }
+
+  public static XRoadRequestMarshaller forMetadata(XmlBeansXRoadMetadata metadata) {
+    QName requestElement = new QName(metadata.getRequestElementNs(),
+                                     metadata.getRequestElementName(),
+                                     StandardXRoadConsumer.ROOT_NS);
+    XRoadRequestMarshaller result = MARSHALLERS.get(requestElement);
+    if (result == null) {
+      result = new XRoadRequestMarshaller(requestElement);
+      XRoadRequestMarshaller existing = MARSHALLERS.putIfAbsent(requestElement, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Appends the given body to the given element, normally the SOAP body.
+   */
+  public void marshal(XmlObject body, Node parent) throws SAXException {
+    DomBuilder builder = new DomBuilder(parent);
+    body.save(builder, builder, options);
+  }
+
+  /**
+   * Returns the save options for writing the body into the middle of a UTF-8 encoded stream. Must not be modified.
+   */
+  public XmlOptions getStreamOptions() {
+    return streamOptions;
+  }
+
+  /**
+   * Returns the Spring OXM marshaller using the same options, for contents other than XmlBeans objects.
+   */
+  public XmlBeansMarshaller getMarshaller() {
+    return marshaller;
+  }
+
+  /**
+   * Builds DOM nodes from SAX events, using the factory methods of the document of the given parent so that SAAJ
+   * creates its own element implementations.
+   */
+  private static class DomBuilder extends DefaultHandler implements LexicalHandler {
+    private final Document document;
+    private final List<String[]> namespaces = new ArrayList<String[]>();
+    private final StringBuilder text = new StringBuilder();
+    private Node current;
+
+    DomBuilder(Node parent) {
+      this.document = parent.getOwnerDocument();
+      this.current = parent;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+      namespaces.add(new String[] { prefix, uri });
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      flushText();
+      Element element = document.createElementNS(uri.length() == 0 ? null : uri, qName);
+      for (String[] namespace : namespaces) {
+        String name = namespace[0].length() == 0 ? "xmlns" : "xmlns:" + namespace[0];
+        element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, namespace[1]);
+      }
+      namespaces.clear();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        String name = attributes.getQName(i);
+        // Declarations have been applied from the prefix mappings
+        if (!"xmlns".equals(name) && !name.startsWith("xmlns:")) {
+          String attributeUri = attributes.getURI(i);
+          element.setAttributeNS(attributeUri.length() == 0 ? null : attributeUri, name, attributes.getValue(i));
+        }
+      }
+      current.appendChild(element);
+      current = element;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      flushText();
+      current = current.getParentNode();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      text.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+      text.append(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+      flushText();
+      current.appendChild(document.createProcessingInstruction(target, data));
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+      flushText();
+      current.appendChild(document.createComment(new String(ch, start, length)));
+    }
+
+    private void flushText() {
+      if (text.length() > 0) {
+        current.appendChild(document.createTextNode(text.toString()));
+        text.setLength(0);
+      }
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {}
+
+    @Override
+    public void endDTD() {}
+
+    @Override
+    public void startEntity(String name) {}
+
+    @Override
+    public void endEntity(String name) {}
+
+    @Override
+    public void startCDATA() {}
+
+    @Override
+    public void endCDATA() {}
+  }
+}
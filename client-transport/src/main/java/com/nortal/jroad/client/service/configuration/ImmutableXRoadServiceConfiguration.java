@@ -0,0 +1,196 @@
+package com.nortal.jroad.client.service.configuration;
+
+import com.nortal.jroad.client.enums.XroadObjectType;
+import com.nortal.jroad.enums.XRoadProtocolVersion;
+
+/**
+ * Unmodifiable snapshot of a service configuration, safe to share between threads and requests. Variants for other
+ * invoking users are derived with {@link #withIdCode(String)} without consulting the configuration source again.
+ */
+public final class ImmutableXRoadServiceConfiguration implements XRoadServiceConfiguration {
+  private static final long serialVersionUID = 1L;
+
+  private final String database;
+  private final String wsdlDatabase;
+  private final String securityServer;
+  private final String idCode;
+  private final String file;
+  private final String version;
+  private final String method;
+  private final XRoadProtocolVersion protocolVersion;
+
+  private final String clientXRoadInstance;
+  private final String clientMemberClass;
+  private final String clientMemberCode;
+  private final String clientSubsystemCode;
+  private final XroadObjectType clientObjectType;
+
+  private final String serviceXRoadInstance;
+  private final String serviceMemberClass;
+  private final String serviceMemberCode;
+  private final String serviceSubsystemCode;
+  private final XroadObjectType serviceObjectType;
+
+  private final XRoadServiceIdentity identity;
+
+  private ImmutableXRoadServiceConfiguration(XRoadServiceConfiguration configuration,
+                                             String idCode,
+                                             XRoadServiceIdentity identity) {
+    database = configuration.getDatabase();
+    wsdlDatabase = configuration.getWsdlDatabase();
+    securityServer = configuration.getSecurityServer();
+    this.idCode = idCode;
+    file = configuration.getFile();
+    version = configuration.getVersion();
+    method = configuration.getMethod();
+    protocolVersion = configuration.getProtocolVersion();
+
+    clientXRoadInstance = configuration.getClientXRoadInstance();
+    clientMemberClass = configuration.getClientMemberClass();
+    clientMemberCode = configuration.getClientMemberCode();
+    clientSubsystemCode = configuration.getClientSubsystemCode();
+    clientObjectType = configuration.getClientObjectType();
+
+    serviceXRoadInstance = configuration.getServiceXRoadInstance();
+    serviceMemberClass = configuration.getServiceMemberClass();
+    serviceMemberCode = configuration.getServiceMemberCode();
+    serviceSubsystemCode = configuration.getServiceSubsystemCode();
+    serviceObjectType = configuration.getServiceObjectType();
+
+    this.identity = identity != null ? identity : XRoadServiceIdentity.of(this);
+  }
+
+  /**
+   * Returns an immutable copy of the given configuration, or the configuration itself if it already is immutable.
+   */
+  public static ImmutableXRoadServiceConfiguration copyOf(XRoadServiceConfiguration configuration) {
+    if (configuration instanceof ImmutableXRoadServiceConfiguration) {
+      return (ImmutableXRoadServiceConfiguration) configuration;
+    }
+    return new ImmutableXRoadServiceConfiguration(configuration, configuration.getIdCode(), null);
+  }
+
+  /**
+   * Returns the same configuration for another invoking user, or this configuration if the code is <code>null</code>
+   * or unchanged.
+   */
+  public ImmutableXRoadServiceConfiguration withIdCode(String idCode) {
+    if (idCode == null || idCode.equals(this.idCode)) {
+      return this;
+    }
+    // The user is not part of the identity
+    return new ImmutableXRoadServiceConfiguration(this, idCode, identity);
+  }
+
+  /**
+   * Returns the precomputed identity of the service, see {@link XRoadServiceIdentity#of(XRoadServiceConfiguration)}.
+   */
+  public XRoadServiceIdentity getIdentity() {
+    return identity;
+  }
+
+  @Override
+  public String getDatabase() {
+    return database;
+  }
+
+  @Override
+  public String getWsdlDatabase() {
+    return wsdlDatabase;
+  }
+
+  @Override
+  public String getSecurityServer() {
+    return securityServer;
+  }
+
+  @Override
+  public String getIdCode() {
+    return idCode;
+  }
+
+  @Override
+  public String getFile() {
+    return file;
+  }
+
+  @Override
+  public String getVersion() {
+    return version;
+  }
+
+  @Override
+  public String getMethod() {
+    return method;
+  }
+
+  @Override
+  public XRoadProtocolVersion getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  @Override
+  public String getClientXRoadInstance() {
+    return clientXRoadInstance;
+  }
+
+  @Override
+  public String getClientMemberClass() {
+    return clientMemberClass;
+  }
+
+  @Override
+  public String getClientMemberCode() {
+    return clientMemberCode;
+  }
+
+  @Override
+  public String getClientSubsystemCode() {
+    return clientSubsystemCode;
+  }
+
+  @Override
+  public XroadObjectType getClientObjectType() {
+    return clientObjectType;
+  }
+
+  @Override
+  public String getServiceXRoadInstance() {
+    return serviceXRoadInstance;
+  }
+
+  @Override
+  public String getServiceMemberClass() {
+    return serviceMemberClass;
+  }
+
+  @Override
+  public String getServiceMemberCode() {
+    return serviceMemberCode;
+  }
+
+  @Override
+  public String getServiceSubsystemCode() {
+    return serviceSubsystemCode;
+  }
+
+  @Override
+  public XroadObjectType getServiceObjectType() {
+    return serviceObjectType;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("ImmutableXRoadServiceConfiguration[");
+    builder.append(" database = ").append(database);
+    builder.append(" idCode = ").append(idCode);
+    builder.append(" method = ").append(method);
+    builder.append(" securityServer = ").append(securityServer);
+    builder.append(" file = ").append(file);
+    builder.append(" version = ").append(version);
+    builder.append(" protocolVersion = ").append(protocolVersion);
+    builder.append("]");
+    return builder.toString();
+  }
+}
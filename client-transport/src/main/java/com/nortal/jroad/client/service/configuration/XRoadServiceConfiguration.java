@@ -12,7 +12,8 @@ import java.io.Serializable;
 public interface XRoadServiceConfiguration extends Serializable {
   /**
    * Returns an URL of institutions security server, typically in form of
-   * <code>http://minu_turvaserver/cgi-bin/consumer_proxy</code>.
+   * <code>http://minu_turvaserver/cgi-bin/consumer_proxy</code>. May also be a comma separated list of URLs, requests
+   * are then balanced over them by {@link com.nortal.jroad.client.transport.SecurityServerBalancer}.
    */
   String getSecurityServer();
 
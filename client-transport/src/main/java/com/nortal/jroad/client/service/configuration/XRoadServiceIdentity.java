@@ -0,0 +1,159 @@
+package com.nortal.jroad.client.service.configuration;
+
+import java.io.Serializable;
+
+import com.nortal.jroad.client.enums.XroadObjectType;
+import com.nortal.jroad.enums.XRoadProtocolVersion;
+
+/**
+ * Immutable part of an {@link XRoadServiceConfiguration} that stays the same for all calls of a service by a client:
+ * the client and service identifiers, the method, the version and the protocol version. Suitable as a map key.
+ */
+public final class XRoadServiceIdentity implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final XRoadProtocolVersion protocolVersion;
+  private final String clientXRoadInstance;
+  private final String clientMemberClass;
+  private final String clientMemberCode;
+  private final String clientSubsystemCode;
+  private final XroadObjectType clientObjectType;
+  private final String serviceXRoadInstance;
+  private final String serviceMemberClass;
+  private final String serviceMemberCode;
+  private final String serviceSubsystemCode;
+  private final XroadObjectType serviceObjectType;
+  private final String method;
+  private final String version;
+  private final int hash;
+
+  private XRoadServiceIdentity(XRoadServiceConfiguration conf) {
+    protocolVersion = conf.getProtocolVersion();
+    clientXRoadInstance = conf.getClientXRoadInstance();
+    clientMemberClass = conf.getClientMemberClass();
+    clientMemberCode = conf.getClientMemberCode();
+    clientSubsystemCode = conf.getClientSubsystemCode();
+    clientObjectType = conf.getClientObjectType();
+    serviceXRoadInstance = conf.getServiceXRoadInstance();
+    serviceMemberClass = conf.getServiceMemberClass();
+    serviceMemberCode = conf.getServiceMemberCode();
+    serviceSubsystemCode = conf.getServiceSubsystemCode();
+    serviceObjectType = conf.getServiceObjectType();
+    method = conf.getMethod();
+    version = conf.getVersion();
+
+    int result = 1;
+    for (Object value : values()) {
+      // Enum hash codes differ between JVMs, names keep the hash stable for serialized instances
+      Object hashed = value instanceof Enum ? ((Enum<?>) value).name() : value;
+      result = 31 * result + (hashed == null ? 0 : hashed.hashCode());
+    }
+    hash = result;
+  }
+
+  public static XRoadServiceIdentity of(XRoadServiceConfiguration configuration) {
+    if (configuration instanceof ImmutableXRoadServiceConfiguration) {
+      XRoadServiceIdentity identity = ((ImmutableXRoadServiceConfiguration) configuration).getIdentity();
+      // Null while the configuration itself is being constructed
+      if (identity != null) {
+        return identity;
+      }
+    }
+    return new XRoadServiceIdentity(configuration);
+  }
+
+  private Object[] values() {
+    return new Object[] { protocolVersion, clientXRoadInstance, clientMemberClass, clientMemberCode,
+        clientSubsystemCode, clientObjectType, serviceXRoadInstance, serviceMemberClass, serviceMemberCode,
+        serviceSubsystemCode, serviceObjectType, method, version };
+  }
+
+  public XRoadProtocolVersion getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  public String getClientXRoadInstance() {
+    return clientXRoadInstance;
+  }
+
+  public String getClientMemberClass() {
+    return clientMemberClass;
+  }
+
+  public String getClientMemberCode() {
+    return clientMemberCode;
+  }
+
+  public String getClientSubsystemCode() {
+    return clientSubsystemCode;
+  }
+
+  public XroadObjectType getClientObjectType() {
+    return clientObjectType;
+  }
+
+  public String getServiceXRoadInstance() {
+    return serviceXRoadInstance;
+  }
+
+  public String getServiceMemberClass() {
+    return serviceMemberClass;
+  }
+
+  public String getServiceMemberCode() {
+    return serviceMemberCode;
+  }
+
+  public String getServiceSubsystemCode() {
+    return serviceSubsystemCode;
+  }
+
+  public XroadObjectType getServiceObjectType() {
+    return serviceObjectType;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof XRoadServiceIdentity)) {
+      return false;
+    }
+    XRoadServiceIdentity other = (XRoadServiceIdentity) obj;
+    return hash == other.hash && protocolVersion == other.protocolVersion && clientObjectType == other.clientObjectType
+        && serviceObjectType == other.serviceObjectType && equal(method, other.method)
+        && equal(version, other.version) && equal(serviceMemberCode, other.serviceMemberCode)
+        && equal(serviceSubsystemCode, other.serviceSubsystemCode)
+        && equal(serviceMemberClass, other.serviceMemberClass)
+        && equal(serviceXRoadInstance, other.serviceXRoadInstance)
+        && equal(clientMemberCode, other.clientMemberCode)
+        && equal(clientSubsystemCode, other.clientSubsystemCode)
+        && equal(clientMemberClass, other.clientMemberClass)
+        && equal(clientXRoadInstance, other.clientXRoadInstance);
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public String toString() {
+    return clientXRoadInstance + "/" + clientMemberClass + "/" + clientMemberCode + "/" + clientSubsystemCode + " -> "
+        + serviceXRoadInstance + "/" + serviceMemberClass + "/" + serviceMemberCode + "/" + serviceSubsystemCode + "/"
+        + method + "/" + version;
+  }
+}
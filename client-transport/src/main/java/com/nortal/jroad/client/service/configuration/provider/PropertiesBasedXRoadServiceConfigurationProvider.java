@@ -27,14 +27,53 @@ public class PropertiesBasedXRoadServiceConfigurationProvider extends AbstractXR
   public static final String CLIENT_KEY = "client";
 
   private Resource resource;
-  private Map<String, Properties> properties = new HashMap<String, Properties>();
+  // Replaced as a whole whenever a file is added, so that lookups need no locking
+  private volatile Map<String, Properties> properties = new HashMap<String, Properties>();
 
   @PostConstruct
   public void init() {
     if (resource == null) {
       resource = new ClassPathResource(XROAD_CLIENT_PROPERTIES);
     }
-    properties.put(XROAD_CLIENT_PROPERTIES, loadProperties(resource));
+    Map<String, Properties> loaded = new HashMap<String, Properties>();
+    loaded.put(XROAD_CLIENT_PROPERTIES, loadProperties(resource));
+    properties = loaded;
+  }
+
+  /**
+   * Reads all properties files read so far again. The files are replaced at once, so lookups never see a mix of old
+   * and new contents. If any of the files cannot be read, the old contents are kept.
+   */
+  public synchronized void reload() {
+    Map<String, Properties> reloaded = new HashMap<String, Properties>();
+    reloaded.put(XROAD_CLIENT_PROPERTIES, loadProperties(resource));
+    for (String target : properties.keySet()) {
+      if (!XROAD_CLIENT_PROPERTIES.equals(target)) {
+        reloaded.put(target, loadProperties(new ClassPathResource(target)));
+      }
+    }
+    properties = reloaded;
+  }
+
+  /**
+   * Returns the latest modification time of the properties files read so far, 0 if it cannot be determined.
+   */
+  public long getLastModified() {
+    long result = getLastModified(resource);
+    for (String target : properties.keySet()) {
+      if (!XROAD_CLIENT_PROPERTIES.equals(target)) {
+        result = Math.max(result, getLastModified(new ClassPathResource(target)));
+      }
+    }
+    return result;
+  }
+
+  private static long getLastModified(Resource resource) {
+    try {
+      return resource == null ? 0 : resource.lastModified();
+    } catch (IOException e) {
+      return 0;
+    }
   }
 
   @Override
@@ -94,11 +133,20 @@ public class PropertiesBasedXRoadServiceConfigurationProvider extends AbstractXR
     return loadProperties(target).getProperty(key);
   }
 
-  protected synchronized Properties loadProperties(String target) {
-    if (!properties.containsKey(target)) {
-      properties.put(target, loadProperties(new ClassPathResource(target)));
+  protected Properties loadProperties(String target) {
+    Properties result = properties.get(target);
+    if (result == null) {
+      synchronized (this) {
+        result = properties.get(target);
+        if (result == null) {
+          result = loadProperties(new ClassPathResource(target));
+          Map<String, Properties> extended = new HashMap<String, Properties>(properties);
+          extended.put(target, result);
+          properties = extended;
+        }
+      }
     }
-    return properties.get(target);
+    return result;
   }
 
   protected Properties loadProperties(Resource resource) {
@@ -0,0 +1,200 @@
+package com.nortal.jroad.client.service.configuration.provider;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.nortal.jroad.client.service.configuration.ImmutableXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.util.XRoadProperties;
+
+/**
+ * {@link XRoadServiceConfigurationProvider} keeping an {@link ImmutableXRoadServiceConfiguration} per database, method
+ * and version, so that requests neither look up properties nor allocate configurations. The configurations are created
+ * by the delegate provider on first use, variants for other invoking users are derived from them.
+ * <p>
+ * If the delegate is a {@link PropertiesBasedXRoadServiceConfigurationProvider} and a reload interval is set, a daemon
+ * thread checks the properties files for changes and reloads them. All configurations are replaced at once and lookups
+ * never wait for a reload.
+ */
+public class XRoadServiceConfigurationRegistry implements XRoadServiceConfigurationProvider, DisposableBean {
+  private static final Logger log = Logger.getLogger(XRoadServiceConfigurationRegistry.class);
+
+  private XRoadServiceConfigurationProvider delegate;
+  private XRoadProperties properties;
+  private long reloadInterval;
+  private volatile ConcurrentMap<Key, ImmutableXRoadServiceConfiguration> configurations =
+      new ConcurrentHashMap<Key, ImmutableXRoadServiceConfiguration>();
+  private ScheduledExecutorService watcher;
+  private volatile long lastModified;
+
+  @PostConstruct
+  public synchronized void init() {
+    if (delegate == null) {
+      throw new IllegalStateException("Delegate configuration provider must be set!");
+    }
+    if (reloadInterval <= 0 || watcher != null
+        || !(delegate instanceof PropertiesBasedXRoadServiceConfigurationProvider)) {
+      return;
+    }
+
+    lastModified = ((PropertiesBasedXRoadServiceConfigurationProvider) delegate).getLastModified();
+    watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "xroad-configuration-watcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    watcher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkForChanges();
+        } catch (RuntimeException e) {
+          log.warn("Reloading X-Road configuration failed", e);
+        }
+      }
+    }, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public XRoadServiceConfiguration createConfiguration(String database,
+                                                       String wsdlDatabase,
+                                                       String method,
+                                                       String version) {
+    return getConfiguration(database, wsdlDatabase, method, version);
+  }
+
+  /**
+   * Returns the configuration for the given invoking user.
+   *
+   * @param idCode code of the invoking user, <code>null</code> for the configured one
+   */
+  public XRoadServiceConfiguration createConfiguration(String database,
+                                                       String wsdlDatabase,
+                                                       String method,
+                                                       String version,
+                                                       String idCode) {
+    return getConfiguration(database, wsdlDatabase, method, version).withIdCode(idCode);
+  }
+
+  public ImmutableXRoadServiceConfiguration getConfiguration(String database,
+                                                             String wsdlDatabase,
+                                                             String method,
+                                                             String version) {
+    ConcurrentMap<Key, ImmutableXRoadServiceConfiguration> current = configurations;
+    Key key = new Key(database, wsdlDatabase, method, version);
+    ImmutableXRoadServiceConfiguration configuration = current.get(key);
+    if (configuration == null) {
+      XRoadServiceConfiguration created = delegate.createConfiguration(database, wsdlDatabase, method, version);
+      configuration = ImmutableXRoadServiceConfiguration.copyOf(created);
+      ImmutableXRoadServiceConfiguration existing = current.putIfAbsent(key, configuration);
+      if (existing != null) {
+        configuration = existing;
+      }
+    }
+    return configuration;
+  }
+
+  /**
+   * Reloads the properties of the delegate and the tuning properties, if set, and forgets all configurations.
+   */
+  public synchronized void reload() {
+    if (delegate instanceof PropertiesBasedXRoadServiceConfigurationProvider) {
+      ((PropertiesBasedXRoadServiceConfigurationProvider) delegate).reload();
+    }
+    if (properties != null) {
+      properties.reload();
+    }
+    // Swapped only after the delegate has been reloaded, so the new map never receives stale configurations
+    configurations = new ConcurrentHashMap<Key, ImmutableXRoadServiceConfiguration>();
+  }
+
+  void checkForChanges() {
+    long modified = ((PropertiesBasedXRoadServiceConfigurationProvider) delegate).getLastModified();
+    if (modified != lastModified) {
+      log.info("X-Road configuration files have changed, reloading");
+      reload();
+      lastModified = modified;
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    if (watcher != null) {
+      watcher.shutdownNow();
+      watcher = null;
+    }
+  }
+
+  public void setDelegate(XRoadServiceConfigurationProvider delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Sets tuning properties to reload together with the configurations, typically the ones given to
+   * {@link com.nortal.jroad.client.service.consumer.StandardXRoadConsumer}.
+   */
+  public void setProperties(XRoadProperties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * Sets the interval of checking the properties files for changes in milliseconds, 0 (never) by default.
+   */
+  public void setReloadInterval(long reloadInterval) {
+    this.reloadInterval = reloadInterval;
+  }
+
+  private static final class Key {
+    private final String database;
+    private final String wsdlDatabase;
+    private final String method;
+    private final String version;
+    private final int hash;
+
+    Key(String database, String wsdlDatabase, String method, String version) {
+      this.database = database;
+      this.wsdlDatabase = wsdlDatabase;
+      this.method = method;
+      this.version = version;
+      int result = hashOf(database);
+      result = 31 * result + hashOf(wsdlDatabase);
+      result = 31 * result + hashOf(method);
+      this.hash = 31 * result + hashOf(version);
+    }
+
+    private static int hashOf(String value) {
+      return value == null ? 0 : value.hashCode();
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && equal(method, other.method) && equal(database, other.database)
+          && equal(wsdlDatabase, other.wsdlDatabase) && equal(version, other.version);
+    }
+  }
+}
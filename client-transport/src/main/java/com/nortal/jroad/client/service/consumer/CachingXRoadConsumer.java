@@ -0,0 +1,166 @@
+package com.nortal.jroad.client.service.consumer;
+
+import java.util.concurrent.Callable;
+
+import org.apache.xmlbeans.XmlObject;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import com.nortal.jroad.client.cache.LruXRoadResponseCache;
+import com.nortal.jroad.client.cache.XRoadCacheKey;
+import com.nortal.jroad.client.cache.XRoadResponseCache;
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.client.service.callback.CustomCallback;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.service.extractor.CustomExtractor;
+import com.nortal.jroad.client.util.AttachmentBindingPlan;
+import com.nortal.jroad.client.util.XRoadProperties;
+import com.nortal.jroad.model.XRoadMessage;
+import com.nortal.jroad.model.XmlBeansXRoadMessage;
+
+/**
+ * {@link XRoadConsumer} decorator caching responses of idempotent queries. Caching is opt-in per database or method
+ * through the <code>cache-ttl</code> setting (in seconds) in <code>xroad.properties</code> or
+ * <code>xroad-&lt;database&gt;.properties</code>:
+ *
+ * <pre>
+ * rr-cache-ttl=300
+ * rr-RR437-cache-ttl=0
+ * </pre>
+ *
+ * Responses are cached per request body and invoking user. Requests and responses with attachments or swaRef fields
+ * and invocations with a custom callback or extractor are never cached.
+ */
+public class CachingXRoadConsumer implements XRoadConsumer {
+  public static final String CACHE_TTL = "cache-ttl";
+
+  private XRoadConsumer delegate;
+  private XRoadResponseCache cache = new LruXRoadResponseCache();
+  private XRoadProperties properties = new XRoadProperties();
+
+  @Override
+  public <I, O> XRoadMessage<O> sendRequest(XRoadMessage<I> input, XRoadServiceConfiguration xTeeServiceConfiguration)
+      throws XRoadServiceConsumptionException {
+    long ttl = getTtl(input, xTeeServiceConfiguration);
+    if (ttl <= 0) {
+      return delegate.sendRequest(input, xTeeServiceConfiguration);
+    }
+
+    XRoadCacheKey key = XRoadCacheKey.create(xTeeServiceConfiguration, (XmlObject) input.getContent());
+    XRoadMessage<O> cached = getCached(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    XRoadMessage<O> response = delegate.sendRequest(input, xTeeServiceConfiguration);
+    store(key, response, ttl);
+    return response;
+  }
+
+  @Override
+  public <I, O> XRoadMessage<O> sendRequest(XRoadMessage<I> input,
+                                            XRoadServiceConfiguration xTeeServiceConfiguration,
+                                            CustomCallback callback,
+                                            CustomExtractor extractor) throws XRoadServiceConsumptionException {
+    if (callback == null && extractor == null) {
+      return sendRequest(input, xTeeServiceConfiguration);
+    }
+    return delegate.sendRequest(input, xTeeServiceConfiguration, callback, extractor);
+  }
+
+  @Override
+  public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                                   XRoadServiceConfiguration xTeeServiceConfiguration) {
+    final long ttl = getTtl(input, xTeeServiceConfiguration);
+    if (ttl <= 0) {
+      return delegate.sendRequestAsync(input, xTeeServiceConfiguration);
+    }
+
+    final XRoadCacheKey key = XRoadCacheKey.create(xTeeServiceConfiguration, (XmlObject) input.getContent());
+    final XRoadMessage<O> cached = getCached(key);
+    if (cached != null) {
+      ListenableFutureTask<XRoadMessage<O>> result =
+          new ListenableFutureTask<XRoadMessage<O>>(new Callable<XRoadMessage<O>>() {
+            @Override
+            public XRoadMessage<O> call() {
+              return cached;
+            }
+          });
+      result.run();
+      return result;
+    }
+
+    ListenableFuture<XRoadMessage<O>> result = delegate.sendRequestAsync(input, xTeeServiceConfiguration);
+    result.addCallback(new ListenableFutureCallback<XRoadMessage<O>>() {
+      @Override
+      public void onSuccess(XRoadMessage<O> response) {
+        store(key, response, ttl);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // Failures are not cached
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                                   XRoadServiceConfiguration xTeeServiceConfiguration,
+                                                                   CustomCallback callback,
+                                                                   CustomExtractor extractor) {
+    if (callback == null && extractor == null) {
+      return sendRequestAsync(input, xTeeServiceConfiguration);
+    }
+    return delegate.sendRequestAsync(input, xTeeServiceConfiguration, callback, extractor);
+  }
+
+  private long getTtl(XRoadMessage<?> input, XRoadServiceConfiguration configuration) {
+    if (!isCacheable(input)) {
+      return 0;
+    }
+    return properties.getLong(configuration.getDatabase(), configuration.getMethod(), CACHE_TTL, 0) * 1000;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <O> XRoadMessage<O> getCached(XRoadCacheKey key) {
+    XmlObject content = cache.get(key);
+    return content == null ? null : (XRoadMessage<O>) new XmlBeansXRoadMessage<XmlObject>(content);
+  }
+
+  private void store(XRoadCacheKey key, XRoadMessage<?> response, long ttl) {
+    if (response != null && isCacheable(response)) {
+      cache.put(key, (XmlObject) response.getContent(), ttl);
+    }
+  }
+
+  private static boolean isCacheable(XRoadMessage<?> message) {
+    Object content = message.getContent();
+    // swaRef fields are bound to attachments, which are neither part of the key nor kept in the cache
+    return content instanceof XmlObject
+        && message.getAttachments().isEmpty()
+        && AttachmentBindingPlan.getPlan(content.getClass()).isEmpty();
+  }
+
+  public XRoadConsumer getDelegate() {
+    return delegate;
+  }
+
+  public void setDelegate(XRoadConsumer delegate) {
+    this.delegate = delegate;
+  }
+
+  public XRoadResponseCache getCache() {
+    return cache;
+  }
+
+  public void setCache(XRoadResponseCache cache) {
+    this.cache = cache;
+  }
+
+  public void setProperties(XRoadProperties properties) {
+    this.properties = properties;
+  }
+}
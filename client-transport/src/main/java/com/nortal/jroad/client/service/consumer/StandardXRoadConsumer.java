@@ -9,33 +9,72 @@
 
 package com.nortal.jroad.client.service.consumer;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.activation.DataHandler;
+import javax.xml.transform.TransformerException;
 
 import org.apache.commons.lang.exception.NestableRuntimeException;
 import org.apache.xmlbeans.XmlObject;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.ws.WebServiceMessage;
 import org.springframework.ws.client.WebServiceIOException;
 import org.springframework.ws.client.core.WebServiceMessageCallback;
 import org.springframework.ws.client.core.WebServiceMessageExtractor;
+import org.springframework.ws.client.core.WebServiceTemplate;
 import org.springframework.ws.client.core.support.WebServiceGatewaySupport;
 import org.springframework.ws.client.support.interceptor.ClientInterceptor;
 import org.springframework.ws.soap.client.SoapFaultClientException;
-
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.WebServiceMessageSender;
+import org.springframework.ws.transport.context.TransportContext;
+import org.springframework.ws.transport.context.TransportContextHolder;
+import org.springframework.ws.transport.http.HttpComponentsConnection;
+import org.springframework.ws.transport.http.HttpUrlConnection;
+import org.springframework.ws.transport.http.HttpUrlConnectionMessageSender;
+
+import com.nortal.jroad.client.cache.XRoadCacheKey;
+import com.nortal.jroad.client.capture.MessageCaptureInterceptor;
+import com.nortal.jroad.client.cache.XRoadRequestCoalescer;
 import com.nortal.jroad.client.exception.NonTechnicalFaultException;
 import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.client.message.StreamingXRoadMessageFactory;
+import com.nortal.jroad.client.metrics.HistogramXRoadMetricsRegistry;
+import com.nortal.jroad.client.metrics.MeasuringMessageExtractor;
+import com.nortal.jroad.client.metrics.XRoadCallMetrics;
+import com.nortal.jroad.client.metrics.XRoadCallOutcome;
+import com.nortal.jroad.client.metrics.XRoadCallPhase;
+import com.nortal.jroad.client.metrics.XRoadMetricsRegistry;
+import com.nortal.jroad.client.resilience.XRoadCallGuard;
+import com.nortal.jroad.client.resilience.XRoadCallGuards;
 import com.nortal.jroad.client.service.callback.CustomCallback;
 import com.nortal.jroad.client.service.callback.StandardXRoadConsumerCallback;
 import com.nortal.jroad.client.service.callback.XRoadMessageCallback;
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
 import com.nortal.jroad.client.service.extractor.CustomExtractor;
 import com.nortal.jroad.client.service.extractor.StandardXRoadConsumerMessageExtractor;
+import com.nortal.jroad.client.transport.PooledHttpMessageSender;
+import com.nortal.jroad.client.transport.RequestHedger;
+import com.nortal.jroad.client.transport.SecurityServerBalancer;
+import com.nortal.jroad.client.util.AttachmentBindingPlan;
+import com.nortal.jroad.client.util.PropertiesUtil;
 import com.nortal.jroad.client.util.WSConsumptionLoggingInterceptor;
-import com.nortal.jroad.client.util.XmlBeansUtil;
+import com.nortal.jroad.client.util.XRoadMetadataRegistry;
+import com.nortal.jroad.client.util.XRoadProperties;
 import com.nortal.jroad.model.XRoadAttachment;
 import com.nortal.jroad.model.XRoadMessage;
 import com.nortal.jroad.model.XmlBeansXRoadMetadata;
@@ -50,13 +89,51 @@ import com.nortal.jroad.util.AttachmentUtil;
  * @author Lauri Lättemäe (lauri.lattemae@nortal.com) - protocol 4.0
  */
 @Service("xRoadConsumer")
-public class StandardXRoadConsumer extends WebServiceGatewaySupport implements XRoadConsumer {
-  private Map<String, XmlBeansXRoadMetadata> metadata;
+public class StandardXRoadConsumer extends WebServiceGatewaySupport implements XRoadConsumer, DisposableBean {
+  private XRoadMetadataRegistry metadata;
+  private AsyncListenableTaskExecutor asyncExecutor;
+  private ThreadPoolTaskExecutor defaultAsyncExecutor;
+  private Resource transportResource = new ClassPathResource("xroad.properties");
+  private PooledHttpMessageSender pooledMessageSender;
+  private XRoadProperties properties = new XRoadProperties();
+  private final XRoadRequestCoalescer coalescer = new XRoadRequestCoalescer();
+  private boolean coalesceRequests;
+  private XRoadCallGuards callGuards;
+  private SecurityServerBalancer balancer;
+  private RequestHedger hedger;
+  private XRoadMetricsRegistry metricsRegistry;
+  private MessageCaptureInterceptor messageCaptureInterceptor;
+  private boolean streamingMessages;
+  private volatile WebServiceTemplate streamingTemplate;
   public static final String ROOT_NS = "ns5";
+  public static final String COALESCE_REQUESTS = "coalesce-requests";
+  public static final String IDEMPOTENT = "idempotent";
+  public static final String HEDGE_PERCENTILE = "hedge-percentile";
+  public static final String HEDGE_MIN_DELAY = "hedge-min-delay";
+  public static final int DEFAULT_ASYNC_POOL_SIZE = 20;
+  public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
 
   @Override
   protected void initGateway() throws Exception {
-    metadata = XmlBeansUtil.loadMetadata();
+    metadata = XRoadMetadataRegistry.load();
+    callGuards = new XRoadCallGuards(properties);
+
+    Properties transportProperties = loadTransportProperties();
+    if (isDefaultMessageSender()) {
+      pooledMessageSender = createPooledMessageSender(transportProperties);
+      if (pooledMessageSender != null) {
+        setMessageSender(pooledMessageSender);
+      }
+    }
+
+    balancer = new SecurityServerBalancer();
+    balancer.configure(transportProperties);
+
+    if (asyncExecutor == null) {
+      asyncExecutor = createAsyncExecutor();
+    }
+    hedger = new RequestHedger();
+    hedger.configure(transportProperties);
 
     Collection<ClientInterceptor> interceptors = createInterceptors();
     if (interceptors != null && !interceptors.isEmpty()) {
@@ -66,13 +143,171 @@ public class StandardXRoadConsumer extends WebServiceGatewaySupport implements X
   }
 
   protected Collection<ClientInterceptor> createInterceptors() {
+    if (messageCaptureInterceptor != null) {
+      return Arrays.asList(new ClientInterceptor[] { messageCaptureInterceptor });
+    }
     return Arrays.asList(new ClientInterceptor[] { new WSConsumptionLoggingInterceptor() });
   }
 
+  /**
+   * Sets the interceptor to capture exchanged messages with, in place of the default
+   * {@link WSConsumptionLoggingInterceptor}.
+   */
+  public void setMessageCaptureInterceptor(MessageCaptureInterceptor messageCaptureInterceptor) {
+    this.messageCaptureInterceptor = messageCaptureInterceptor;
+  }
+
   @Override
-  public <I, O> XRoadMessage<O> sendRequest(XRoadMessage<I> input, XRoadServiceConfiguration xroadServiceConfiguration)
+  public void destroy() throws Exception {
+    if (messageCaptureInterceptor != null) {
+      messageCaptureInterceptor.destroy();
+    }
+    if (balancer != null) {
+      balancer.destroy();
+    }
+    if (hedger != null) {
+      hedger.destroy();
+    }
+    if (defaultAsyncExecutor != null) {
+      defaultAsyncExecutor.shutdown();
+    }
+    if (pooledMessageSender != null) {
+      pooledMessageSender.destroy();
+    }
+  }
+
+  /**
+   * Creates the pooled keep-alive message sender, which replaces the default {@link HttpUrlConnectionMessageSender}.
+   * Returns <code>null</code> when pooling is switched off in the given properties.
+   */
+  protected PooledHttpMessageSender createPooledMessageSender(Properties properties) throws Exception {
+    if (!PooledHttpMessageSender.isEnabled(properties)) {
+      return null;
+    }
+    PooledHttpMessageSender sender = new PooledHttpMessageSender();
+    sender.configure(properties);
+    sender.afterPropertiesSet();
+    return sender;
+  }
+
+  private Properties loadTransportProperties() throws Exception {
+    return transportResource != null && transportResource.exists() ? PropertiesUtil.readProperties(transportResource)
+                                                                   : null;
+  }
+
+  private boolean isDefaultMessageSender() {
+    WebServiceMessageSender[] senders = getMessageSenders();
+    return senders != null && senders.length == 1 && senders[0].getClass().equals(HttpUrlConnectionMessageSender.class);
+  }
+
+  /**
+   * Sets the properties resource the HTTP transport settings are read from, <code>xroad.properties</code> in the
+   * classpath by default.
+   */
+  public void setTransportResource(Resource transportResource) {
+    this.transportResource = transportResource;
+  }
+
+  /**
+   * Creates the executor used by {@link #sendRequestAsync} when none has been set explicitly. The default executor is a
+   * pool of {@link #DEFAULT_ASYNC_POOL_SIZE} daemon threads, idle threads ending after a minute, with room for
+   * {@link #DEFAULT_ASYNC_QUEUE_CAPACITY} waiting requests. Requests beyond that are rejected with a
+   * {@link org.springframework.core.task.TaskRejectedException}. The executor is shut down by {@link #destroy()}.
+   */
+  protected AsyncListenableTaskExecutor createAsyncExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("xroad-consumer-");
+    executor.setDaemon(true);
+    executor.setCorePoolSize(DEFAULT_ASYNC_POOL_SIZE);
+    executor.setMaxPoolSize(DEFAULT_ASYNC_POOL_SIZE);
+    executor.setAllowCoreThreadTimeOut(true);
+    executor.setQueueCapacity(DEFAULT_ASYNC_QUEUE_CAPACITY);
+    executor.initialize();
+    defaultAsyncExecutor = executor;
+    return executor;
+  }
+
+  /**
+   * Sets the executor to run asynchronous requests on. Any {@link Executor} (a thread pool, a virtual thread per task
+   * executor etc.) can be used, plain executors are adapted automatically.
+   */
+  public void setAsyncExecutor(Executor executor) {
+    this.asyncExecutor = executor instanceof AsyncListenableTaskExecutor
+        ? (AsyncListenableTaskExecutor) executor
+        : new TaskExecutorAdapter(executor);
+  }
+
+  /**
+   * Sets the source of per database and per method settings, such as <code>coalesce-requests</code>,
+   * <code>idempotent</code> (allowing {@link SecurityServerBalancer} to retry a failed request elsewhere),
+   * <code>hedge-percentile</code> and <code>hedge-min-delay</code> (see {@link RequestHedger}, idempotent methods only)
+   * or the {@link XRoadCallGuards bulkhead and circuit breaker settings}.
+   */
+  public void setProperties(XRoadProperties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * Sets the registry to report the measurements of every call to, for example a {@link HistogramXRoadMetricsRegistry}.
+   * Nothing is measured when no registry is set.
+   */
+  public void setMetricsRegistry(XRoadMetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
+  /**
+   * Returns the circuit breakers, bulkheads and concurrency limiters in use, for monitoring.
+   */
+  public XRoadCallGuards getCallGuards() {
+    return callGuards;
+  }
+
+  /**
+   * Enables request coalescing for all databases, unless switched off with <code>coalesce-requests</code> for a
+   * database or method. Disabled by default.
+   *
+   * @see XRoadRequestCoalescer
+   */
+  public void setCoalesceRequests(boolean coalesceRequests) {
+    this.coalesceRequests = coalesceRequests;
+  }
+
+  /**
+   * Makes requests use {@link StreamingXRoadMessageFactory} instead of SAAJ, avoiding the DOM tree of both the request
+   * and the response. Requests with attachments, custom callbacks or custom extractors, as well as faults and responses
+   * with attachments, still use SAAJ. Streamed requests are marshalled while being sent, which measurements report as
+   * part of the network phase. Disabled by default.
+   */
+  public void setStreamingMessages(boolean streamingMessages) {
+    this.streamingMessages = streamingMessages;
+  }
+
+  @Override
+  public <I, O> XRoadMessage<O> sendRequest(final XRoadMessage<I> input,
+                                            final XRoadServiceConfiguration xroadServiceConfiguration)
       throws XRoadServiceConsumptionException {
-    return sendRealRequest(input, xroadServiceConfiguration, null, null);
+    if (!isCoalesced(input, xroadServiceConfiguration)) {
+      return sendRealRequest(input, xroadServiceConfiguration, null, null);
+    }
+    return coalescer.execute(XRoadCacheKey.create(xroadServiceConfiguration, (XmlObject) input.getContent()),
+                             new XRoadRequestCoalescer.Exchange<O>() {
+                               @Override
+                               public XRoadMessage<O> send() throws XRoadServiceConsumptionException {
+                                 return sendRealRequest(input, xroadServiceConfiguration, null, null);
+                               }
+                             });
+  }
+
+  private boolean isCoalesced(XRoadMessage<?> input, XRoadServiceConfiguration xroadServiceConfiguration) {
+    Object content = input.getContent();
+    // Requests carrying attachments are never identical in a cheaply comparable way
+    return content instanceof XmlObject
+        && input.getAttachments().isEmpty()
+        && AttachmentBindingPlan.getPlan(content.getClass()).isEmpty()
+        && properties.getBoolean(xroadServiceConfiguration.getDatabase(),
+                                 xroadServiceConfiguration.getMethod(),
+                                 COALESCE_REQUESTS,
+                                 coalesceRequests);
   }
 
   @Override
@@ -84,41 +319,107 @@ public class StandardXRoadConsumer extends WebServiceGatewaySupport implements X
     return sendRealRequest(input, xroadServiceConfiguration, callback, extractor);
   }
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                                   XRoadServiceConfiguration xroadServiceConfiguration) {
+    return sendRequestAsync(input, xroadServiceConfiguration, null, null);
+  }
+
+  @Override
+  public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(final XRoadMessage<I> input,
+                                                                   final XRoadServiceConfiguration xroadServiceConfiguration,
+                                                                   final CustomCallback callback,
+                                                                   final CustomExtractor extractor) {
+    if (asyncExecutor == null) {
+      throw new IllegalStateException("Asynchronous executor is not initialized");
+    }
+    // Delegate to sendRequest, so that subclasses overriding it behave the same way in both modes
+    return asyncExecutor.submitListenable(new Callable<XRoadMessage<O>>() {
+      @Override
+      public XRoadMessage<O> call() throws Exception {
+        return callback == null && extractor == null
+            ? StandardXRoadConsumer.this.<I, O> sendRequest(input, xroadServiceConfiguration)
+            : StandardXRoadConsumer.this.<I, O> sendRequest(input, xroadServiceConfiguration, callback, extractor);
+      }
+    });
+  }
+
   private <I, O> XRoadMessage<O> sendRealRequest(XRoadMessage<I> input,
                                                  XRoadServiceConfiguration xroadServiceConfiguration,
                                                  CustomCallback callback,
                                                  CustomExtractor extractor)
       throws XRoadServiceConsumptionException {
+    XRoadCallGuard guard = callGuards.get(xroadServiceConfiguration.getDatabase(),
+                                          xroadServiceConfiguration.getMethod());
+    guard.acquire(xroadServiceConfiguration);
+
+    XRoadCallMetrics metrics = metricsRegistry == null ? null : new XRoadCallMetrics(xroadServiceConfiguration);
+    XRoadCallOutcome outcome = XRoadCallOutcome.ERROR;
+    long start = System.nanoTime();
+    boolean released = false;
     try {
-      // Add any swaref attachments...
-      // First find all Objects.
-      for (XmlObject attachmentObj : XmlBeansUtil.getAllObjects((XmlObject) input.getContent())) {
-
-        // Introspect all methods, and find the ones that were generated during instrumentation
-        for (Method method : XmlBeansUtil.getSwaRefGetters(attachmentObj)) {
-          // Get the datahandler for the attachment
-          DataHandler handler = (DataHandler) method.invoke(attachmentObj);
-
-          if (handler != null) {
-            String field = XmlBeansUtil.getFieldName(method);
-            // Check whether the user has set a custom CID, if not, generate a random one and set it
-            String cid = XmlBeansUtil.getCid(attachmentObj, field);
-            if (cid == null) {
-              cid = AttachmentUtil.getUniqueCid();
-            } else {
-              cid = cid.startsWith("cid:") ? cid.substring(4) : cid;
-            }
-            XmlBeansUtil.setCid(attachmentObj, field, "cid:" + cid);
-
-            // Add a new attachment to the list
-            input.getAttachments().add(new XRoadAttachment(cid, handler));
+      XRoadMessage<O> result = exchange(input, xroadServiceConfiguration, callback, extractor, metrics);
+      released = true;
+      outcome = XRoadCallOutcome.OK;
+      guard.onSuccess(System.nanoTime() - start);
+      return result;
+    } catch (XRoadServiceConsumptionException e) {
+      released = true;
+      outcome = XRoadCallOutcome.of(e);
+      if (XRoadCallGuard.isProducerFailure(e)) {
+        guard.onFailure(System.nanoTime() - start);
+      } else {
+        guard.onSuccess(System.nanoTime() - start);
+      }
+      throw e;
+    } finally {
+      if (!released) {
+        guard.onIgnored();
+      }
+      if (metrics != null) {
+        metrics.finish(outcome);
+        metricsRegistry.record(metrics);
+      }
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private <I, O> XRoadMessage<O> exchange(XRoadMessage<I> input,
+                                          XRoadServiceConfiguration xroadServiceConfiguration,
+                                          CustomCallback callback,
+                                          CustomExtractor extractor,
+                                          XRoadCallMetrics metrics)
+      throws XRoadServiceConsumptionException {
+    try {
+      long scanStart = System.nanoTime();
+      // Add any swaref attachments, visiting only the parts of the message that can hold them
+      for (AttachmentBindingPlan.Field field : AttachmentBindingPlan.collect((XmlObject) input.getContent())) {
+        // Get the datahandler for the attachment
+        DataHandler handler = field.getHandler();
+
+        if (handler != null) {
+          // Check whether the user has set a custom CID, if not, generate a random one and set it
+          String cid = field.getCid();
+          if (cid == null) {
+            cid = AttachmentUtil.getUniqueCid();
+          } else {
+            cid = cid.startsWith("cid:") ? cid.substring(4) : cid;
           }
+          field.setCid("cid:" + cid);
+
+          // Add a new attachment to the list
+          input.getAttachments().add(new XRoadAttachment(cid, handler));
         }
       }
 
-      XmlBeansXRoadMetadata curdata = metadata.get(xroadServiceConfiguration.getWsdlDatabase().toLowerCase()
-          + xroadServiceConfiguration.getMethod().toLowerCase());
+      if (metrics != null) {
+        metrics.addPhase(XRoadCallPhase.ATTACHMENT_SCAN, System.nanoTime() - scanStart);
+        metrics.setRequestAttachments(input.getAttachments().size());
+      }
+
+      XmlBeansXRoadMetadata curdata = metadata.find(xroadServiceConfiguration.getWsdlDatabase(),
+                                                    xroadServiceConfiguration.getMethod(),
+                                                    xroadServiceConfiguration.getVersion());
 
       if (curdata == null) {
         throw new IllegalStateException(String.format("Could not find metadata for %s.%s! Most likely the method name has been specified incorrectly.",
@@ -126,24 +427,66 @@ public class StandardXRoadConsumer extends WebServiceGatewaySupport implements X
                                                       xroadServiceConfiguration.getMethod().toLowerCase()));
       }
 
-      WebServiceMessageCallback originalCallback = getNewConsumerCallback(input, xroadServiceConfiguration, curdata);
+      StandardXRoadConsumerCallback originalCallback =
+          getNewConsumerCallback(input, xroadServiceConfiguration, curdata);
+      if (metrics != null) {
+        originalCallback.setMetrics(metrics);
+      }
       WebServiceMessageExtractor originalExtractor = new StandardXRoadConsumerMessageExtractor(curdata);
 
       if (callback != null) {
         callback.setOriginalCallback(originalCallback);
       }
 
-      WebServiceMessageCallback finalCallback = callback == null ? originalCallback : callback;
+      final WebServiceMessageCallback finalCallback = callback == null ? originalCallback : callback;
 
       if (extractor != null) {
         extractor.setOriginalExtractor(originalExtractor);
       }
 
-      WebServiceMessageExtractor finalExtractor = extractor == null ? originalExtractor : extractor;
+      WebServiceMessageExtractor selectedExtractor = extractor == null ? originalExtractor : extractor;
+      final WebServiceMessageExtractor finalExtractor =
+          metrics == null ? selectedExtractor : new MeasuringMessageExtractor(selectedExtractor, metrics);
+
+      final WebServiceTemplate template =
+          getTemplate(callback == null && extractor == null && input.getAttachments().isEmpty()
+              && originalCallback.supportsStreaming());
+      final String securityServer = xroadServiceConfiguration.getSecurityServer();
+      String database = xroadServiceConfiguration.getDatabase();
+      String method = xroadServiceConfiguration.getMethod();
+      final boolean idempotent = properties.getBoolean(database, method, IDEMPOTENT, false);
+      int hedgePercentile = properties.getInt(database, method, HEDGE_PERCENTILE, 0);
+
+      if (!idempotent || hedgePercentile <= 0 || !input.getAttachments().isEmpty()) {
+        return (XRoadMessage<O>) send(template, securityServer, idempotent, null, finalCallback, finalExtractor, null);
+      }
 
-      return (XRoadMessage<O>) getWebServiceTemplate().sendAndReceive(xroadServiceConfiguration.getSecurityServer(),
-                                                                      finalCallback,
-                                                                      finalExtractor);
+      // The hedge prefers a security server other than the one the original request went to
+      final AtomicReference<String> originalServer = new AtomicReference<String>();
+      final AbortableCallback originalCopy = new AbortableCallback(finalCallback);
+      final AbortableCallback hedgeCopy = new AbortableCallback(finalCallback);
+      return (XRoadMessage<O>) hedger.execute(database + "." + method,
+                                              hedgePercentile,
+                                              properties.getLong(database, method, HEDGE_MIN_DELAY, 10),
+                                              new RequestHedger.Attempt<Object>() {
+                                                @Override
+                                                public Object send(boolean hedge) {
+                                                  return StandardXRoadConsumer.this.send(template,
+                                                                                         securityServer,
+                                                                                         idempotent,
+                                                                                         hedge ? originalServer.get()
+                                                                                               : null,
+                                                                                         hedge ? hedgeCopy
+                                                                                               : originalCopy,
+                                                                                         finalExtractor,
+                                                                                         hedge ? null : originalServer);
+                                                }
+
+                                                @Override
+                                                public void abort(boolean hedge) {
+                                                  (hedge ? hedgeCopy : originalCopy).abort();
+                                                }
+                                              });
     } catch (Exception e) {
       XRoadServiceConsumptionException consumptionException = resolveException(e, xroadServiceConfiguration);
 
@@ -155,6 +498,120 @@ public class StandardXRoadConsumer extends WebServiceGatewaySupport implements X
 
   }
 
+  private WebServiceTemplate getTemplate(boolean streamable) {
+    if (!streamable || !streamingMessages) {
+      return getWebServiceTemplate();
+    }
+    WebServiceTemplate template = streamingTemplate;
+    if (template == null) {
+      synchronized (this) {
+        template = streamingTemplate;
+        if (template == null) {
+          // Created on first use, so that message senders replaced after initialization are picked up
+          template = createStreamingTemplate();
+          streamingTemplate = template;
+        }
+      }
+    }
+    return template;
+  }
+
+  /**
+   * Creates the template for streamed messages, sharing the message senders, interceptors and fault handling of the
+   * standard template. SAAJ messages are created by the message factory of the standard template.
+   */
+  protected WebServiceTemplate createStreamingTemplate() {
+    WebServiceTemplate standard = getWebServiceTemplate();
+    WebServiceTemplate template =
+        new WebServiceTemplate(new StreamingXRoadMessageFactory(standard.getMessageFactory()));
+    template.setMessageSenders(standard.getMessageSenders());
+    template.setInterceptors(standard.getInterceptors());
+    template.setFaultMessageResolver(standard.getFaultMessageResolver());
+    template.setCheckConnectionForFault(false);
+    return template;
+  }
+
+  private Object send(final WebServiceTemplate template,
+                      String securityServer,
+                      boolean idempotent,
+                      String avoid,
+                      final WebServiceMessageCallback callback,
+                      final WebServiceMessageExtractor<?> extractor,
+                      final AtomicReference<String> usedServer) {
+    if (!SecurityServerBalancer.isGroup(securityServer)) {
+      return sendAndReceive(template, securityServer, callback, extractor);
+    }
+    return balancer.execute(securityServer, idempotent, avoid, new SecurityServerBalancer.Exchange<Object>() {
+      @Override
+      public Object send(String uri) {
+        if (usedServer != null) {
+          usedServer.set(uri);
+        }
+        return sendAndReceive(template, uri, callback, extractor);
+      }
+    });
+  }
+
+  private static Object sendAndReceive(WebServiceTemplate template,
+                                       String uri,
+                                       WebServiceMessageCallback callback,
+                                       WebServiceMessageExtractor<?> extractor) {
+    try {
+      return template.sendAndReceive(uri, callback, extractor);
+    } catch (WebServiceIOException e) {
+      if (callback instanceof AbortableCallback && ((AbortableCallback) callback).isAborted()) {
+        // Not a failure of the security server, so it must be neither retried nor counted against it
+        CancellationException cancelled = new CancellationException("Aborted after the other copy was answered");
+        cancelled.initCause(e);
+        throw cancelled;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Remembers the connection a copy of a hedged request is sent over, so that the copy can be aborted from another
+   * thread by closing its connection once the other copy has been answered.
+   */
+  private static class AbortableCallback implements WebServiceMessageCallback {
+    private final WebServiceMessageCallback callback;
+    private WebServiceConnection connection;
+    private boolean aborted;
+
+    AbortableCallback(WebServiceMessageCallback callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public void doWithMessage(WebServiceMessage message) throws IOException, TransformerException {
+      TransportContext context = TransportContextHolder.getTransportContext();
+      synchronized (this) {
+        if (aborted) {
+          throw new CancellationException("Aborted after the other copy was answered");
+        }
+        connection = context == null ? null : context.getConnection();
+      }
+      callback.doWithMessage(message);
+    }
+
+    synchronized boolean isAborted() {
+      return aborted;
+    }
+
+    void abort() {
+      WebServiceConnection current;
+      synchronized (this) {
+        aborted = true;
+        current = connection;
+      }
+      if (current instanceof HttpComponentsConnection) {
+        ((HttpComponentsConnection) current).getHttpPost().abort();
+      } else if (current instanceof HttpUrlConnection) {
+        ((HttpUrlConnection) current).getConnection().disconnect();
+      }
+    }
+  }
+
   protected <I> StandardXRoadConsumerCallback getNewConsumerCallback(XRoadMessage<I> input,
                                                                      XRoadServiceConfiguration xteeServiceConfiguration,
                                                                      XmlBeansXRoadMetadata curdata) {
@@ -1,5 +1,7 @@
 package com.nortal.jroad.client.service.consumer;
 
+import org.springframework.util.concurrent.ListenableFuture;
+
 import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
 import com.nortal.jroad.client.service.callback.CustomCallback;
 import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
@@ -41,4 +43,35 @@ public interface XRoadConsumer {
                                      CustomCallback callback,
                                      CustomExtractor extractor) throws XRoadServiceConsumptionException;
 
+  /**
+   * Performs an asynchronous invocation of some X-tee service. Failures are reported through the returned future: the
+   * cause of the resulting <code>ExecutionException</code> is the same {@link XRoadServiceConsumptionException} that
+   * {@link #sendRequest(XRoadMessage, XRoadServiceConfiguration)} would have thrown.
+   *
+   * @param <I> input object type
+   * @param <O> output object type
+   * @param input Java object representing the request
+   * @param xTeeServiceConfiguration service configuration data
+   * @return future holding the Java object representing the response
+   */
+  <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                            XRoadServiceConfiguration xTeeServiceConfiguration);
+
+  /**
+   * Performs an asynchronous invocation of some X-tee service.
+   *
+   * @param <I> input object type
+   * @param <O> output object type
+   * @param input Java object representing the request
+   * @param xTeeServiceConfiguration service configuration data
+   * @param callback Custom callback to invoke for sending the message
+   * @param extractor Custom extractor to invoke for extracting the message
+   * @return future holding the Java object representing the response
+   * @see #sendRequestAsync(XRoadMessage, XRoadServiceConfiguration)
+   */
+  <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                            XRoadServiceConfiguration xTeeServiceConfiguration,
+                                                            CustomCallback callback,
+                                                            CustomExtractor extractor);
+
 }
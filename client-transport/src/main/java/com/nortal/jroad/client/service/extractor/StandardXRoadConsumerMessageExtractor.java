@@ -1,8 +1,6 @@
 package com.nortal.jroad.client.service.extractor;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -10,28 +8,29 @@ import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.soap.AttachmentPart;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.SchemaTypeLoader;
 import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.springframework.ws.WebServiceMessage;
 import org.springframework.ws.client.core.WebServiceMessageExtractor;
 import org.springframework.ws.soap.saaj.SaajSoapMessage;
-import org.springframework.xml.transform.StringResult;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.nortal.jroad.client.exception.NonTechnicalFaultException;
+import com.nortal.jroad.client.message.StreamingXRoadMessage;
+import com.nortal.jroad.client.util.AttachmentBindingPlan;
 import com.nortal.jroad.client.util.XmlBeansUtil;
 import com.nortal.jroad.model.XRoadAttachment;
 import com.nortal.jroad.model.XRoadMessage;
@@ -51,6 +50,10 @@ public class StandardXRoadConsumerMessageExtractor implements WebServiceMessageE
   }
 
   public XRoadMessage<XmlObject> extractData(WebServiceMessage response) throws IOException {
+    if (response instanceof StreamingXRoadMessage) {
+      return extractData(((StreamingXRoadMessage) response).getBodyReader());
+    }
+
     Node kehaNode;
     try {
       SaajSoapMessage message = (SaajSoapMessage) response;
@@ -83,26 +86,16 @@ public class StandardXRoadConsumerMessageExtractor implements WebServiceMessageE
       SchemaType type = loader.findType(responseElement);
       XmlObject responseObj;
 
-      if (StringUtils.isBlank(responseElement.getNamespaceURI())
-          && !StringUtils.equalsIgnoreCase(kehaNode.getNamespaceURI(), responseElement.getNamespaceURI())) {
-        DOMSource src = new DOMSource(kehaNode);
-        StringResult result = new StringResult();
-        TransformerFactory.newInstance().newTransformer().transform(src, result);
-
-        DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-        fac.setNamespaceAware(false);
-        ByteArrayInputStream stream = new ByteArrayInputStream(result.toString().getBytes("UTF-8"));
-        kehaNode = SOAPUtil.getFirstNonTextChild(fac.newDocumentBuilder().parse(stream));
-      }
+      // Namespace-less responses are read as a namespace unaware parser would see them
+      boolean stripNamespaces = StringUtils.isBlank(responseElement.getNamespaceURI())
+          && !StringUtils.equalsIgnoreCase(kehaNode.getNamespaceURI(), responseElement.getNamespaceURI());
 
       if (type != null) {
-        options.setDocumentType(type);
         options.setLoadReplaceDocumentElement(new QName("xml-fragment"));
-        responseObj = XmlObject.Factory.parse(XmlObject.Factory.parse(kehaNode, options).toString(),
-                                              new XmlOptions().setDocumentType(type));
+        responseObj = XmlBeansUtil.parse(kehaNode, type, options, stripNamespaces);
       } else {
         options.setLoadReplaceDocumentElement(responseElement);
-        responseObj = XmlBeansUtil.getResponseObject(XmlObject.Factory.parse(kehaNode, options));
+        responseObj = XmlBeansUtil.getResponseObject(XmlBeansUtil.parse(kehaNode, null, options, stripNamespaces));
       }
 
       Map<String, XRoadAttachment> attachments = new HashMap<String, XRoadAttachment>();
@@ -118,17 +111,14 @@ public class StandardXRoadConsumerMessageExtractor implements WebServiceMessageE
         }
       }
       if (!attachments.isEmpty()) {
-        for (XmlObject obj : XmlBeansUtil.getAllObjects(responseObj)) {
-          for (Method method : XmlBeansUtil.getSwaRefSetters(obj)) {
-            String field = XmlBeansUtil.getFieldName(method);
-            String cid = XmlBeansUtil.getCid(obj, field);
-            cid = cid.startsWith("cid:") ? cid.substring(4) : cid;
-
-            XRoadAttachment attachment = attachments.get(cid);
-            if (attachment != null) {
-              attachments.remove(cid);
-              method.invoke(obj, attachment.getDataHandler());
-            }
+        for (AttachmentBindingPlan.Field field : AttachmentBindingPlan.collect(responseObj)) {
+          String cid = field.getCid();
+          cid = cid.startsWith("cid:") ? cid.substring(4) : cid;
+
+          XRoadAttachment attachment = attachments.get(cid);
+          if (attachment != null) {
+            attachments.remove(cid);
+            field.setHandler(attachment.getDataHandler());
           }
         }
       }
@@ -140,6 +130,36 @@ public class StandardXRoadConsumerMessageExtractor implements WebServiceMessageE
 
   }
 
+  private XRoadMessage<XmlObject> extractData(XMLStreamReader reader) throws IOException {
+    if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+      throw new IllegalStateException("Response body is empty");
+    }
+
+    XmlObject responseObj;
+    try {
+      XmlOptions options = new XmlOptions();
+      QName responseElement = new QName(metadata.getResponseElementNs(), metadata.getResponseElementName());
+      SchemaType type = XmlBeans.getContextTypeLoader().findType(responseElement);
+
+      boolean stripNamespaces = StringUtils.isBlank(responseElement.getNamespaceURI())
+          && !StringUtils.equalsIgnoreCase(reader.getNamespaceURI(), responseElement.getNamespaceURI());
+
+      if (type != null) {
+        options.setLoadReplaceDocumentElement(new QName("xml-fragment"));
+        responseObj = XmlBeansUtil.parse(reader, type, options, stripNamespaces);
+      } else {
+        options.setLoadReplaceDocumentElement(responseElement);
+        responseObj = XmlBeansUtil.getResponseObject(XmlBeansUtil.parse(reader, null, options, stripNamespaces));
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+
+    // Streamed responses never have attachments, those are read by SAAJ
+    checkForNonTechnicalFault(responseObj);
+    return new XmlBeansXRoadMessage<XmlObject>(responseObj, new ArrayList<XRoadAttachment>());
+  }
+
   private Node getKehaNode(NodeList kehaNodes, int nextIndex) {
     Node kehaNode = kehaNodes.item(nextIndex);
     if (kehaNode instanceof javax.xml.soap.Text) {
@@ -167,4 +187,27 @@ public class StandardXRoadConsumerMessageExtractor implements WebServiceMessageE
     }
   }
 
+  private void checkForNonTechnicalFault(XmlObject keha) throws NonTechnicalFaultException {
+    String nonTechnicalFaultCode = null;
+    String nonTechnicalFaultString = null;
+
+    XmlCursor cursor = keha.newCursor();
+    try {
+      for (boolean found = cursor.toFirstChild(); found; found = cursor.toNextSibling()) {
+        String localName = cursor.getName().getLocalPart();
+        if ("faultCode".equalsIgnoreCase(localName)) {
+          nonTechnicalFaultCode = cursor.getTextValue();
+        } else if ("faultString".equalsIgnoreCase(localName)) {
+          nonTechnicalFaultString = cursor.getTextValue();
+        }
+      }
+    } finally {
+      cursor.dispose();
+    }
+
+    if (nonTechnicalFaultCode != null || nonTechnicalFaultString != null) {
+      throw new NonTechnicalFaultException(nonTechnicalFaultCode, nonTechnicalFaultString);
+    }
+  }
+
 }
\ No newline at end of file
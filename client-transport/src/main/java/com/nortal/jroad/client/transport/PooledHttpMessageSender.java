@@ -0,0 +1,269 @@
+package com.nortal.jroad.client.transport;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.log4j.Logger;
+import org.springframework.ws.transport.http.HttpComponentsMessageSender;
+
+/**
+ * {@link HttpComponentsMessageSender} which keeps a bounded pool of keep-alive connections for every security server
+ * (HTTP route) it talks to. Connections idle for too long are evicted by a background daemon thread, TLS sessions are
+ * cached so that new connections to the same security server can use an abbreviated handshake.
+ * <p>
+ * Like the {@link java.net.HttpURLConnection} based senders it replaces, it honours the JVM wide networking setup: the
+ * proxy system properties, the default {@link HttpsURLConnection} socket factory and hostname verifier, and the
+ * <code>https.protocols</code> and <code>https.cipherSuites</code> properties.
+ * <p>
+ * Settings can be given through setters or read from <code>xroad.properties</code> using
+ * {@link #configure(Properties)}. All timeouts are in milliseconds, 0 meaning no limit. By default a connection is
+ * waited for at most 10 seconds when the pool of a security server is exhausted, and an answer at most 60 seconds, the
+ * same as the connect timeout, so that a stuck security server cannot block every other caller indefinitely.
+ */
+public class PooledHttpMessageSender extends HttpComponentsMessageSender {
+  private static final Logger log = Logger.getLogger(PooledHttpMessageSender.class);
+
+  public static final String ENABLED_KEY = "http-pool-enabled";
+  public static final String MAX_TOTAL_KEY = "http-pool-max-total";
+  public static final String MAX_PER_ROUTE_KEY = "http-pool-max-per-route";
+  public static final String IDLE_TIMEOUT_KEY = "http-pool-idle-timeout";
+  public static final String ACQUIRE_TIMEOUT_KEY = "http-pool-acquire-timeout";
+  public static final String CONNECT_TIMEOUT_KEY = "http-connect-timeout";
+  public static final String READ_TIMEOUT_KEY = "http-read-timeout";
+  public static final String TLS_SESSION_CACHE_SIZE_KEY = "http-tls-session-cache-size";
+  public static final String TLS_SESSION_TIMEOUT_KEY = "http-tls-session-timeout";
+
+  private static final AtomicInteger EVICTOR_COUNT = new AtomicInteger();
+
+  private int maxTotal = 100;
+  private int maxPerRoute = 20;
+  private int idleTimeout = 30000;
+  private int acquireTimeout = 10000;
+  private int connectTimeout = 60000;
+  private int readTimeout = 60000;
+  private int tlsSessionCacheSize = -1;
+  private int tlsSessionTimeout = -1;
+
+  private PoolingHttpClientConnectionManager connectionManager;
+  private ScheduledExecutorService evictor;
+
+  /**
+   * Tells whether pooling has not been switched off with the <code>http-pool-enabled</code> property.
+   */
+  public static boolean isEnabled(Properties properties) {
+    return properties == null || !"false".equalsIgnoreCase(StringUtils.trim(properties.getProperty(ENABLED_KEY)));
+  }
+
+  /**
+   * Applies all settings present in the given properties, leaving the others at their current values.
+   */
+  public void configure(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    maxTotal = getInt(properties, MAX_TOTAL_KEY, maxTotal);
+    maxPerRoute = getInt(properties, MAX_PER_ROUTE_KEY, maxPerRoute);
+    idleTimeout = getInt(properties, IDLE_TIMEOUT_KEY, idleTimeout);
+    acquireTimeout = getInt(properties, ACQUIRE_TIMEOUT_KEY, acquireTimeout);
+    connectTimeout = getInt(properties, CONNECT_TIMEOUT_KEY, connectTimeout);
+    readTimeout = getInt(properties, READ_TIMEOUT_KEY, readTimeout);
+    tlsSessionCacheSize = getInt(properties, TLS_SESSION_CACHE_SIZE_KEY, tlsSessionCacheSize);
+    tlsSessionTimeout = getInt(properties, TLS_SESSION_TIMEOUT_KEY, tlsSessionTimeout);
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    connectionManager = new PoolingHttpClientConnectionManager(createSocketFactoryRegistry());
+    connectionManager.setMaxTotal(maxTotal);
+    connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+                                               .setConnectTimeout(connectTimeout)
+                                               .setSocketTimeout(readTimeout)
+                                               .setConnectionRequestTimeout(acquireTimeout)
+                                               .build();
+
+    // Connection state is disabled, as otherwise connections authenticated with a client certificate would never be
+    // leased out again
+    setHttpClient(HttpClients.custom()
+                             .useSystemProperties()
+                             .setConnectionManager(connectionManager)
+                             .setDefaultRequestConfig(requestConfig)
+                             .disableConnectionState()
+                             .addInterceptorFirst(new RemoveSoapHeadersInterceptor())
+                             .build());
+
+    if (idleTimeout > 0) {
+      evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "xroad-connection-evictor-" + EVICTOR_COUNT.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      long period = Math.max(idleTimeout / 2, 1000);
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+          } catch (RuntimeException e) {
+            log.warn("Evicting idle connections failed", e);
+          }
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    super.afterPropertiesSet();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    if (connectionManager != null) {
+      connectionManager.shutdown();
+    }
+  }
+
+  protected Registry<ConnectionSocketFactory> createSocketFactoryRegistry() throws NoSuchAlgorithmException {
+    if (tlsSessionCacheSize >= 0 || tlsSessionTimeout >= 0) {
+      // Sessions of the default socket factory are kept by the default context, unless the application replaced it
+      SSLSessionContext sessionContext = SSLContext.getDefault().getClientSessionContext();
+      if (sessionContext != null && tlsSessionCacheSize >= 0) {
+        sessionContext.setSessionCacheSize(tlsSessionCacheSize);
+      }
+      if (sessionContext != null && tlsSessionTimeout >= 0) {
+        sessionContext.setSessionTimeout(tlsSessionTimeout);
+      }
+    }
+
+    SSLConnectionSocketFactory sslSocketFactory =
+        new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(),
+                                       split(System.getProperty("https.protocols")),
+                                       split(System.getProperty("https.cipherSuites")),
+                                       new DefaultHostnameVerifier());
+    return RegistryBuilder.<ConnectionSocketFactory> create()
+                          .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                          .register("https", sslSocketFactory)
+                          .build();
+  }
+
+  private static String[] split(String value) {
+    return StringUtils.isBlank(value) ? null : StringUtils.split(value, " ,");
+  }
+
+  private static int getInt(Properties properties, String key, int defaultValue) {
+    String value = StringUtils.trim(properties.getProperty(key));
+    if (StringUtils.isEmpty(value)) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Invalid value of " + key + ": " + value);
+    }
+  }
+
+  public PoolingHttpClientConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  public void setMaxTotal(int maxTotal) {
+    this.maxTotal = maxTotal;
+  }
+
+  public void setMaxPerRoute(int maxPerRoute) {
+    this.maxPerRoute = maxPerRoute;
+  }
+
+  public void setIdleTimeout(int idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Sets the time to wait for a free connection when all connections to a security server are in use.
+   */
+  public void setAcquireTimeout(int acquireTimeout) {
+    this.acquireTimeout = acquireTimeout;
+  }
+
+  @Override
+  public void setConnectionTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  @Override
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+    this.tlsSessionCacheSize = tlsSessionCacheSize;
+  }
+
+  public void setTlsSessionTimeout(int tlsSessionTimeout) {
+    this.tlsSessionTimeout = tlsSessionTimeout;
+  }
+
+  /**
+   * Checks the host name the way {@link HttpsURLConnection} does: a name matching the certificate is accepted, any other
+   * is left to the default {@link javax.net.ssl.HostnameVerifier}, which the application may have replaced.
+   */
+  private static class DefaultHostnameVerifier implements X509HostnameVerifier {
+    private static final X509HostnameVerifier MATCHING = SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+
+    @Override
+    public boolean verify(String host, SSLSession session) {
+      return MATCHING.verify(host, session) || HttpsURLConnection.getDefaultHostnameVerifier().verify(host, session);
+    }
+
+    @Override
+    public void verify(String host, SSLSocket ssl) throws IOException {
+      try {
+        MATCHING.verify(host, ssl);
+      } catch (SSLException e) {
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, ssl.getSession())) {
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void verify(String host, X509Certificate cert) throws SSLException {
+      MATCHING.verify(host, cert);
+    }
+
+    @Override
+    public void verify(String host, String[] cns, String[] subjectAlts) throws SSLException {
+      MATCHING.verify(host, cns, subjectAlts);
+    }
+  }
+}
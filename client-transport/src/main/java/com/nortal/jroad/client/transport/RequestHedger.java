@@ -0,0 +1,302 @@
+package com.nortal.jroad.client.transport;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.NestableRuntimeException;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Sends a second copy of a request when the first one has not been answered within a high percentile of the recent
+ * response times of the same operation, and returns whichever answer comes first. This trades a little extra load for
+ * a much shorter tail of response times. Only idempotent requests must be hedged.
+ * <p>
+ * The extra load is capped by a budget: every request earns a fraction of a hedge (<code>hedge-budget</code> percent in
+ * <code>xroad.properties</code>, 5 by default) and every hedge spends a whole one. Until
+ * <code>hedge-min-samples</code> (100) response times of an operation are known, its requests are not hedged.
+ * <p>
+ * The original request runs on the calling thread. Hedges run on a pool of at most <code>hedge-max-threads</code> (10)
+ * daemon threads, created when the first hedge is scheduled. When one copy answers, the other one is
+ * {@link Attempt#abort(boolean) aborted}.
+ */
+public class RequestHedger implements DisposableBean {
+  public static final String BUDGET_KEY = "hedge-budget";
+  public static final String MIN_SAMPLES_KEY = "hedge-min-samples";
+  public static final String MAX_THREADS_KEY = "hedge-max-threads";
+
+  // Budget is kept in thousandths of a hedge
+  private static final long HEDGE_COST = 1000;
+  private static final long MAX_BUDGET = 100 * HEDGE_COST;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final ConcurrentMap<String, LatencyTracker> trackers = new ConcurrentHashMap<String, LatencyTracker>();
+  private final AtomicLong budget = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private long budgetPerRequest = 50;
+  private int minSamples = 100;
+  private int maxThreads = 10;
+  private ScheduledExecutorService executor;
+
+  /**
+   * A copy of the request.
+   */
+  public interface Attempt<T> {
+    /**
+     * @param hedge <code>false</code> for the original request, <code>true</code> for the hedge
+     */
+    T send(boolean hedge);
+
+    /**
+     * Called from another thread once the other copy has answered. Should make the given copy fail soon, for example
+     * by closing its connection. May be called before the copy has been sent or after it has completed.
+     */
+    void abort(boolean hedge);
+  }
+
+  /**
+   * Applies all settings present in the given properties, leaving the others at their current values.
+   */
+  public void configure(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    String value = StringUtils.trimToNull(properties.getProperty(BUDGET_KEY));
+    if (value != null) {
+      budgetPerRequest = Math.round(Double.parseDouble(value) * HEDGE_COST / 100);
+    }
+    value = StringUtils.trimToNull(properties.getProperty(MIN_SAMPLES_KEY));
+    if (value != null) {
+      minSamples = Integer.parseInt(value);
+    }
+    value = StringUtils.trimToNull(properties.getProperty(MAX_THREADS_KEY));
+    if (value != null) {
+      maxThreads = Integer.parseInt(value);
+    }
+  }
+
+  /**
+   * Performs the request, hedging it if necessary.
+   *
+   * @param operation identifies the operation whose response times are used
+   * @param percentile the percentile of response times to wait for before hedging, for example 95
+   * @param minDelay the minimum time to wait before hedging in milliseconds
+   */
+  public <T> T execute(String operation, int percentile, long minDelay, Attempt<T> attempt) {
+    LatencyTracker tracker = getTracker(operation);
+    deposit();
+
+    long delay = tracker.getPercentileMillis(percentile, minSamples);
+    if (delay < 0) {
+      return send(attempt, false, tracker);
+    }
+
+    Race<T> race = new Race<T>(attempt, tracker);
+    ScheduledFuture<?> scheduled = getExecutor().schedule(race, Math.max(delay, minDelay), TimeUnit.MILLISECONDS);
+    T result;
+    try {
+      result = send(attempt, false, tracker);
+    } catch (RuntimeException e) {
+      // The hedge may still succeed
+      return race.awaitHedge(e);
+    } finally {
+      scheduled.cancel(false);
+    }
+    race.onPrimaryAnswered();
+    return result;
+  }
+
+  private static <T> T send(Attempt<T> attempt, boolean hedge, LatencyTracker tracker) {
+    long start = System.nanoTime();
+    T result = attempt.send(hedge);
+    tracker.record(System.nanoTime() - start);
+    return result;
+  }
+
+  private synchronized ScheduledExecutorService getExecutor() {
+    if (executor == null) {
+      executor = new ScheduledThreadPoolExecutor(maxThreads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "xroad-hedge-" + THREAD_COUNT.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  @Override
+  public synchronized void destroy() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void deposit() {
+    long current;
+    do {
+      current = budget.get();
+      if (current >= MAX_BUDGET) {
+        return;
+      }
+    } while (!budget.compareAndSet(current, Math.min(current + budgetPerRequest, MAX_BUDGET)));
+  }
+
+  private boolean withdraw() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < HEDGE_COST) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - HEDGE_COST));
+    return true;
+  }
+
+  private LatencyTracker getTracker(String operation) {
+    LatencyTracker tracker = trackers.get(operation);
+    if (tracker == null) {
+      tracker = new LatencyTracker();
+      LatencyTracker existing = trackers.putIfAbsent(operation, tracker);
+      if (existing != null) {
+        tracker = existing;
+      }
+    }
+    return tracker;
+  }
+
+  /**
+   * Returns the number of hedges sent so far.
+   */
+  public long getHedgeCount() {
+    return hedges.get();
+  }
+
+  /**
+   * State shared by the original request, running on the calling thread, and its hedge, running on the pool.
+   */
+  private class Race<T> implements Runnable {
+    private final Attempt<T> attempt;
+    private final LatencyTracker tracker;
+    private boolean primaryFinished;
+    private boolean hedgeStarted;
+    private boolean hedgeFinished;
+    private T hedgeResult;
+    private RuntimeException hedgeFailure;
+
+    Race(Attempt<T> attempt, LatencyTracker tracker) {
+      this.attempt = attempt;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (primaryFinished || !withdraw()) {
+          return;
+        }
+        hedgeStarted = true;
+      }
+      hedges.incrementAndGet();
+      T result = null;
+      RuntimeException failure = null;
+      try {
+        result = send(attempt, true, tracker);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+      boolean won;
+      synchronized (this) {
+        hedgeResult = result;
+        hedgeFailure = failure;
+        hedgeFinished = true;
+        won = failure == null && !primaryFinished;
+        notifyAll();
+      }
+      if (won) {
+        attempt.abort(false);
+      }
+    }
+
+    void onPrimaryAnswered() {
+      boolean hedgeRunning;
+      synchronized (this) {
+        primaryFinished = true;
+        hedgeRunning = hedgeStarted && !hedgeFinished;
+      }
+      if (hedgeRunning) {
+        attempt.abort(true);
+      }
+    }
+
+    /**
+     * Returns the answer of the hedge if one was sent and succeeded, otherwise throws the failure of the original.
+     */
+    synchronized T awaitHedge(RuntimeException primaryFailure) {
+      primaryFinished = true;
+      if (!hedgeStarted) {
+        throw primaryFailure;
+      }
+      try {
+        while (!hedgeFinished) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new NestableRuntimeException(e);
+      }
+      if (hedgeFailure != null) {
+        throw primaryFailure;
+      }
+      return hedgeResult;
+    }
+  }
+
+  /**
+   * Response times of the last requests of an operation. Percentiles are recalculated every
+   * {@link #RECALCULATE_INTERVAL} samples rather than on every lookup.
+   */
+  private static class LatencyTracker {
+    private static final int SIZE = 1024;
+    private static final int RECALCULATE_INTERVAL = 64;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile long[] sorted;
+
+    void record(long durationNanos) {
+      int n = count.getAndIncrement();
+      samples.set((n & Integer.MAX_VALUE) % SIZE, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+      if ((n + 1) % RECALCULATE_INTERVAL == 0) {
+        int size = Math.min(n + 1, SIZE);
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++) {
+          copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        sorted = copy;
+      }
+    }
+
+    long getPercentileMillis(int percentile, int minSamples) {
+      long[] current = sorted;
+      if (percentile <= 0 || current == null || current.length < minSamples) {
+        return -1;
+      }
+      return current[Math.min(current.length - 1, current.length * percentile / 100)];
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package com.nortal.jroad.client.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ws.client.WebServiceIOException;
+
+import com.nortal.jroad.client.exception.NonTechnicalFaultException;
+
+/**
+ * Spreads requests over a group of security servers, given as a comma separated list in the
+ * <code>security-server</code> property. Every request goes to the server with the lowest expected cost, i.e. average
+ * latency multiplied by the number of requests already outstanding there, so slow or overloaded servers receive less
+ * traffic. Selection only reads atomic counters and takes no locks.
+ * <p>
+ * Servers failing with an I/O error several times in a row are ejected from their group. A background daemon thread
+ * periodically probes ejected servers with a plain TCP connect and returns them to the group once they accept
+ * connections again. Failed requests are retried on another server of the group if they could not have reached the
+ * producer (the connection was refused) or the caller declares them idempotent.
+ * <p>
+ * Settings read from <code>xroad.properties</code> using {@link #configure(Properties)}:
+ * <code>security-server-eject-after</code> (consecutive failures, 2), <code>security-server-probe-interval</code> (ms,
+ * 5000) and <code>security-server-probe-timeout</code> (ms, 2000).
+ */
+public class SecurityServerBalancer implements DisposableBean {
+  private static final Logger log = Logger.getLogger(SecurityServerBalancer.class);
+
+  public static final String EJECT_AFTER_KEY = "security-server-eject-after";
+  public static final String PROBE_INTERVAL_KEY = "security-server-probe-interval";
+  public static final String PROBE_TIMEOUT_KEY = "security-server-probe-timeout";
+
+  private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
+  private final ConcurrentMap<String, SecurityServerNode[]> groups =
+      new ConcurrentHashMap<String, SecurityServerNode[]>();
+  private int ejectAfter = 2;
+  private int probeInterval = 5000;
+  private int probeTimeout = 2000;
+  private ScheduledExecutorService prober;
+
+  /**
+   * A single attempt of a request against the given security server.
+   */
+  public interface Exchange<T> {
+    T send(String securityServer);
+  }
+
+  /**
+   * Tells whether the given <code>security-server</code> value lists more than one server.
+   */
+  public static boolean isGroup(String securityServer) {
+    return securityServer != null && securityServer.indexOf(',') >= 0;
+  }
+
+  /**
+   * Applies all settings present in the given properties, leaving the others at their current values.
+   */
+  public void configure(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    ejectAfter = getInt(properties, EJECT_AFTER_KEY, ejectAfter);
+    probeInterval = getInt(properties, PROBE_INTERVAL_KEY, probeInterval);
+    probeTimeout = getInt(properties, PROBE_TIMEOUT_KEY, probeTimeout);
+  }
+
+  /**
+   * Performs the exchange against the servers of the given group.
+   *
+   * @param securityServers comma separated list of security server URLs
+   * @param idempotent whether the request may be repeated on another server after an I/O error
+   */
+  public <T> T execute(String securityServers, boolean idempotent, Exchange<T> exchange) {
+    return execute(securityServers, idempotent, null, exchange);
+  }
+
+  /**
+   * Performs the exchange against the servers of the given group, preferring servers other than the given one. Used
+   * for sending a second copy of a request that is already being processed by some server.
+   *
+   * @param avoid URL of the server to use only if no other server is available, may be <code>null</code>
+   */
+  public <T> T execute(String securityServers, boolean idempotent, String avoid, Exchange<T> exchange) {
+    SecurityServerNode[] group = getGroup(securityServers);
+    List<SecurityServerNode> tried = new ArrayList<SecurityServerNode>(group.length);
+
+    while (true) {
+      SecurityServerNode node = select(group, tried, avoid);
+      node.onStart();
+      boolean settled = false;
+      long start = System.nanoTime();
+      try {
+        T result = exchange.send(node.getUri());
+        settled = true;
+        node.onSuccess(System.nanoTime() - start);
+        return result;
+      } catch (WebServiceIOException e) {
+        settled = true;
+        if (e.getCause() instanceof NonTechnicalFaultException) {
+          // A business fault returned by the producer, the server itself is working
+          node.onSuccess(System.nanoTime() - start);
+          throw e;
+        }
+        if (node.onFailure() >= ejectAfter && !node.isEjected()) {
+          log.warn("Ejecting security server " + node + " after repeated failures: " + e.getMessage());
+          node.eject();
+        }
+        tried.add(node);
+        if (tried.size() >= group.length || !(idempotent || isConnectFailure(e))) {
+          throw e;
+        }
+        log.debug("Retrying request failed at security server " + node + " on another server");
+      } catch (RuntimeException e) {
+        settled = true;
+        // The server did answer, e.g. with a SOAP fault
+        node.onSuccess(System.nanoTime() - start);
+        throw e;
+      } finally {
+        if (!settled) {
+          // An Error escaped the exchange, release the request without judging the server
+          node.onAbandon();
+        }
+      }
+    }
+  }
+
+  private SecurityServerNode select(SecurityServerNode[] group, List<SecurityServerNode> tried, String avoid) {
+    SecurityServerNode best = null;
+    SecurityServerNode fallback = null;
+    int offset = RANDOM.get().nextInt(group.length);
+    // Start at a random position, so that equally good servers share the load
+    for (int i = 0; i < group.length; i++) {
+      SecurityServerNode node = group[(offset + i) % group.length];
+      if (tried.contains(node)) {
+        continue;
+      }
+      if (node.isEjected() || node.getUri().equals(avoid)) {
+        if (fallback == null) {
+          fallback = node;
+        }
+      } else if (best == null || node.getCost() < best.getCost()) {
+        best = node;
+      }
+    }
+    // With every remaining server ejected or avoided, trying one is still better than failing right away
+    return best != null ? best : fallback;
+  }
+
+  SecurityServerNode[] getGroup(String securityServers) {
+    SecurityServerNode[] group = groups.get(securityServers);
+    if (group == null) {
+      List<SecurityServerNode> nodes = new ArrayList<SecurityServerNode>();
+      for (String uri : StringUtils.split(securityServers, ',')) {
+        if (StringUtils.isNotBlank(uri)) {
+          nodes.add(new SecurityServerNode(uri.trim()));
+        }
+      }
+      if (nodes.isEmpty()) {
+        throw new IllegalArgumentException("No security servers in '" + securityServers + "'");
+      }
+      group = nodes.toArray(new SecurityServerNode[nodes.size()]);
+      SecurityServerNode[] existing = groups.putIfAbsent(securityServers, group);
+      if (existing != null) {
+        group = existing;
+      } else {
+        startProber();
+      }
+    }
+    return group;
+  }
+
+  private synchronized void startProber() {
+    if (prober != null || probeInterval <= 0) {
+      return;
+    }
+    prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "xroad-security-server-prober");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    prober.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          probe();
+        } catch (RuntimeException e) {
+          log.warn("Probing security servers failed", e);
+        }
+      }
+    }, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+  }
+
+  void probe() {
+    for (SecurityServerNode[] group : groups.values()) {
+      for (SecurityServerNode node : group) {
+        if (node.isEjected() && isReachable(node.getUri())) {
+          log.info("Security server " + node + " is reachable again");
+          node.reinstate();
+        }
+      }
+    }
+  }
+
+  protected boolean isReachable(String uri) {
+    Socket socket = new Socket();
+    try {
+      URL url = new URL(uri);
+      int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+      socket.connect(new InetSocketAddress(url.getHost(), port), probeTimeout);
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  private static boolean isConnectFailure(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+          || cause instanceof UnknownHostException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int getInt(Properties properties, String key, int defaultValue) {
+    String value = StringUtils.trimToNull(properties.getProperty(key));
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  @Override
+  public synchronized void destroy() {
+    if (prober != null) {
+      prober.shutdownNow();
+      prober = null;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.nortal.jroad.client.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single security server of a {@link SecurityServerBalancer} group. Tracks the number of outstanding requests and an
+ * exponentially weighted moving average of response times without locking.
+ */
+public class SecurityServerNode {
+  private final String uri;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final AtomicLong latency = new AtomicLong();
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private volatile boolean ejected;
+
+  SecurityServerNode(String uri) {
+    this.uri = uri;
+  }
+
+  public String getUri() {
+    return uri;
+  }
+
+  /**
+   * Expected cost of sending one more request here: the average latency scaled by the queue in front of it. Nodes
+   * without any completed requests yet are the cheapest, so that new nodes get probed by real traffic quickly.
+   */
+  long getCost() {
+    return Math.max(latency.get(), 1) * (outstanding.get() + 1);
+  }
+
+  void onStart() {
+    outstanding.incrementAndGet();
+  }
+
+  void onSuccess(long durationNanos) {
+    outstanding.decrementAndGet();
+    consecutiveFailures.set(0);
+    long current;
+    long updated;
+    do {
+      current = latency.get();
+      // Weight 1/4 for the new sample
+      updated = current == 0 ? durationNanos : current + (durationNanos - current) / 4;
+    } while (!latency.compareAndSet(current, updated));
+  }
+
+  /**
+   * @return number of consecutive failures including this one
+   */
+  int onFailure() {
+    outstanding.decrementAndGet();
+    return consecutiveFailures.incrementAndGet();
+  }
+
+  void onAbandon() {
+    outstanding.decrementAndGet();
+  }
+
+  void eject() {
+    ejected = true;
+  }
+
+  void reinstate() {
+    consecutiveFailures.set(0);
+    // Start over, the old measurements describe a server that was not working properly
+    latency.set(0);
+    ejected = false;
+  }
+
+  public boolean isEjected() {
+    return ejected;
+  }
+
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  public long getLatencyNanos() {
+    return latency.get();
+  }
+
+  @Override
+  public String toString() {
+    return uri;
+  }
+}
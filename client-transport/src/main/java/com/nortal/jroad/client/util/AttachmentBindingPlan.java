@@ -0,0 +1,224 @@
+package com.nortal.jroad.client.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.activation.DataHandler;
+
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Cached description of where swaRef attachment fields (the <code>get/set*Handler</code> methods added by the typegen
+ * attachment postprocessor) can be found below objects of a given XmlBeans implementation class. Plans are built once
+ * per class, so that messages without any swaRef fields are not walked at all and the other messages are walked only
+ * along the paths that can actually lead to a swaRef field.
+ * <p>
+ * Paths are pruned using the declared types of the child getters, so swaRef fields that can only be reached through
+ * an <code>xsi:type</code> substitution of an unrelated declared type are not found.
+ */
+public class AttachmentBindingPlan {
+  private static final ConcurrentMap<Class<?>, AttachmentBindingPlan> PLANS =
+      new ConcurrentHashMap<Class<?>, AttachmentBindingPlan>();
+  private static final ConcurrentMap<Class<?>, Boolean> REACHABILITY = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private final List<Binding> bindings;
+  private final List<Method> childGetters;
+
+  private AttachmentBindingPlan(List<Binding> bindings, List<Method> childGetters) {
+    this.bindings = bindings;
+    this.childGetters = childGetters;
+  }
+
+  public static AttachmentBindingPlan getPlan(Class<?> type) {
+    AttachmentBindingPlan plan = PLANS.get(type);
+    if (plan == null) {
+      plan = createPlan(type);
+      AttachmentBindingPlan existing = PLANS.putIfAbsent(type, plan);
+      if (existing != null) {
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Tells whether no swaRef field can be reached from objects of this plan's class.
+   */
+  public boolean isEmpty() {
+    return bindings.isEmpty() && childGetters.isEmpty();
+  }
+
+  public List<Binding> getBindings() {
+    return bindings;
+  }
+
+  /**
+   * Collects all swaRef fields reachable from the given object.
+   */
+  public static List<Field> collect(XmlObject root) {
+    if (root == null || getPlan(root.getClass()).isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Field> fields = new ArrayList<Field>();
+    collect(root, fields, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    return fields;
+  }
+
+  private static void collect(XmlObject obj, List<Field> fields, Set<Object> visited) {
+    if (!visited.add(obj)) {
+      return;
+    }
+    AttachmentBindingPlan plan = getPlan(obj.getClass());
+    for (Binding binding : plan.bindings) {
+      fields.add(new Field(obj, binding));
+    }
+    for (Method getter : plan.childGetters) {
+      XmlObject child = (XmlObject) invoke(getter, obj);
+      if (child != null) {
+        collect(child, fields, visited);
+      }
+    }
+  }
+
+  private static AttachmentBindingPlan createPlan(Class<?> type) {
+    List<Binding> bindings = new ArrayList<Binding>();
+    List<Method> childGetters = new ArrayList<Method>();
+
+    for (Method method : type.getDeclaredMethods()) {
+      if (isSwaRefGetter(method)) {
+        String field = XmlBeansUtil.getFieldName(method);
+        try {
+          bindings.add(new Binding(field,
+                                   method,
+                                   type.getMethod("set" + field + "Handler", DataHandler.class),
+                                   type.getMethod("get" + field),
+                                   type.getMethod("set" + field, String.class)));
+        } catch (NoSuchMethodException e) {
+          throw new IllegalStateException("Incomplete swaRef accessors for " + field + " in " + type.getName(), e);
+        }
+      } else if (isChildGetter(method) && mayContainSwaRef(method.getReturnType())) {
+        method.setAccessible(true);
+        childGetters.add(method);
+      }
+    }
+
+    return new AttachmentBindingPlan(Collections.unmodifiableList(bindings),
+                                     Collections.unmodifiableList(childGetters));
+  }
+
+  private static boolean mayContainSwaRef(Class<?> type) {
+    Boolean result = REACHABILITY.get(type);
+    if (result == null) {
+      result = Boolean.valueOf(mayContainSwaRef(type, new HashSet<Class<?>>()));
+      REACHABILITY.putIfAbsent(type, result);
+    }
+    return result.booleanValue();
+  }
+
+  private static boolean mayContainSwaRef(Class<?> type, Set<Class<?>> visited) {
+    if (XmlObject.class.equals(type)) {
+      // xs:anyType, the actual content is known only at runtime
+      return true;
+    }
+    if (type.getName().startsWith("org.apache.xmlbeans.") || !visited.add(type)) {
+      return false;
+    }
+    for (Method method : type.getDeclaredMethods()) {
+      if (isSwaRefGetter(method)) {
+        return true;
+      }
+      if (isChildGetter(method) && mayContainSwaRef(method.getReturnType(), visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean isSwaRefGetter(Method method) {
+    return DataHandler.class.equals(method.getReturnType()) && method.getName().startsWith("get")
+        && method.getName().endsWith("Handler") && method.getParameterTypes().length == 0;
+  }
+
+  static boolean isChildGetter(Method method) {
+    return XmlObject.class.isAssignableFrom(method.getReturnType()) && method.getName().startsWith("get")
+        && method.getParameterTypes().length == 0;
+  }
+
+  private static Object invoke(Method method, Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to invoke " + method, e);
+    }
+  }
+
+  /**
+   * Accessors of a single swaRef field of some XmlBeans class.
+   */
+  public static class Binding {
+    private final String fieldName;
+    private final Method handlerGetter;
+    private final Method handlerSetter;
+    private final Method cidGetter;
+    private final Method cidSetter;
+
+    Binding(String fieldName, Method handlerGetter, Method handlerSetter, Method cidGetter, Method cidSetter) {
+      this.fieldName = fieldName;
+      this.handlerGetter = handlerGetter;
+      this.handlerSetter = handlerSetter;
+      this.cidGetter = cidGetter;
+      this.cidSetter = cidSetter;
+      for (Method method : new Method[] { handlerGetter, handlerSetter, cidGetter, cidSetter }) {
+        method.setAccessible(true);
+      }
+    }
+
+    public String getFieldName() {
+      return fieldName;
+    }
+  }
+
+  /**
+   * swaRef field bound to a concrete object.
+   */
+  public static class Field {
+    private final XmlObject owner;
+    private final Binding binding;
+
+    Field(XmlObject owner, Binding binding) {
+      this.owner = owner;
+      this.binding = binding;
+    }
+
+    public XmlObject getOwner() {
+      return owner;
+    }
+
+    public String getFieldName() {
+      return binding.fieldName;
+    }
+
+    public DataHandler getHandler() {
+      return (DataHandler) invoke(binding.handlerGetter, owner);
+    }
+
+    public void setHandler(DataHandler handler) {
+      invoke(binding.handlerSetter, owner, handler);
+    }
+
+    public String getCid() {
+      return (String) invoke(binding.cidGetter, owner);
+    }
+
+    public void setCid(String cid) {
+      invoke(binding.cidSetter, owner, cid);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.nortal.jroad.client.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.nortal.jroad.model.XmlBeansXRoadMetadata;
+
+/**
+ * Compact binary format of the <code>xroad.metadata</code> files written by typegen. The file starts with a directory
+ * of the databases it contains, so that the operations of a single database can be read without reading the rest of
+ * the file:
+ *
+ * <pre>
+ * int     magic ("XRMD")
+ * short   format version
+ * int     directory length in bytes
+ * ---     directory: int database count, then for every database: UTF name, int offset, int length
+ * ---     sections: for every database: int operation count, then the operations
+ * </pre>
+ *
+ * Section offsets are relative to the end of the directory. Files written with Java serialization by older typegen
+ * versions can be told apart by their first two bytes, see {@link #isCompact(byte[])}.
+ */
+public class XRoadMetadataFormat {
+  public static final int MAGIC = 0x58524D44;
+  public static final short VERSION = 1;
+  static final int HEADER_LENGTH = 10;
+
+  /**
+   * Writes metadata of the given databases. Database names are stored in lower case.
+   */
+  public static void write(Map<String, ? extends Collection<XmlBeansXRoadMetadata>> databases, OutputStream out)
+      throws IOException {
+    ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    ByteArrayOutputStream directory = new ByteArrayOutputStream();
+    DataOutputStream dir = new DataOutputStream(directory);
+    dir.writeInt(databases.size());
+
+    for (Map.Entry<String, ? extends Collection<XmlBeansXRoadMetadata>> database : databases.entrySet()) {
+      int offset = sections.size();
+      DataOutputStream section = new DataOutputStream(sections);
+      section.writeInt(database.getValue().size());
+      for (XmlBeansXRoadMetadata operation : database.getValue()) {
+        writeString(section, operation.getOperationName());
+        writeString(section, operation.getOperationNs());
+        writeString(section, operation.getRequestElementName());
+        writeString(section, operation.getRequestElementNs());
+        writeString(section, operation.getResponseElementName());
+        writeString(section, operation.getResponseElementNs());
+        writeString(section, operation.getVersion());
+      }
+      section.flush();
+
+      dir.writeUTF(database.getKey().toLowerCase());
+      dir.writeInt(offset);
+      dir.writeInt(sections.size() - offset);
+    }
+    dir.flush();
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeShort(VERSION);
+    data.writeInt(directory.size());
+    directory.writeTo(data);
+    sections.writeTo(data);
+    data.flush();
+  }
+
+  /**
+   * Tells whether the given leading bytes of a metadata file belong to this format rather than to a Java serialized
+   * map.
+   */
+  public static boolean isCompact(byte[] head) {
+    return head.length >= 4 && ((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8
+        | (head[3] & 0xFF)) == MAGIC;
+  }
+
+  /**
+   * Reads the database directory, the stream must be positioned at the start of the file.
+   *
+   * @return section locations keyed by database name, offsets are relative to the start of the file
+   */
+  static Map<String, int[]> readDirectory(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not an X-Road metadata file");
+    }
+    short version = data.readShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported X-Road metadata format version " + version);
+    }
+    byte[] directory = new byte[data.readInt()];
+    data.readFully(directory);
+    int sectionsStart = HEADER_LENGTH + directory.length;
+
+    DataInputStream dir = new DataInputStream(new ByteArrayInputStream(directory));
+    int count = dir.readInt();
+    Map<String, int[]> result = new LinkedHashMap<String, int[]>(count * 2);
+    for (int i = 0; i < count; i++) {
+      String database = dir.readUTF();
+      int offset = dir.readInt();
+      int length = dir.readInt();
+      result.put(database, new int[] { sectionsStart + offset, length });
+    }
+    return result;
+  }
+
+  /**
+   * Reads the operations of a single database section.
+   */
+  static List<XmlBeansXRoadMetadata> readSection(byte[] section) throws IOException {
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(section));
+    int count = data.readInt();
+    List<XmlBeansXRoadMetadata> result = new ArrayList<XmlBeansXRoadMetadata>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(new XmlBeansXRoadMetadata(readString(data),
+                                           readString(data),
+                                           readString(data),
+                                           readString(data),
+                                           readString(data),
+                                           readString(data),
+                                           readString(data)));
+    }
+    return result;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF().intern() : null;
+  }
+}
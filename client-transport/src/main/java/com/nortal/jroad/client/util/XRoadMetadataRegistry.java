@@ -0,0 +1,265 @@
+package com.nortal.jroad.client.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.nortal.jroad.model.XmlBeansXRoadMetadata;
+
+/**
+ * Index of all <code>xroad.metadata</code> files found in the classpath. Only the database directories of the files
+ * are read up front, the operations of a database are loaded when it is looked up for the first time. Java serialized
+ * metadata files written by older typegen versions are still supported, these are read completely at startup.
+ * <p>
+ * Lookups are case insensitive, but the database and method names used by callers are remembered as given, so that
+ * repeated lookups with the same names do not allocate.
+ */
+public class XRoadMetadataRegistry {
+  public static final String METADATA_RESOURCE = "xroad.metadata";
+
+  private final Map<String, DatabaseMetadata> databases;
+  private final ConcurrentMap<String, DatabaseMetadata> databaseAliases =
+      new ConcurrentHashMap<String, DatabaseMetadata>();
+
+  private XRoadMetadataRegistry(Map<String, DatabaseMetadata> databases) {
+    this.databases = databases;
+  }
+
+  /**
+   * Indexes metadata files visible to the context class loader.
+   */
+  public static XRoadMetadataRegistry load() throws IOException, ClassNotFoundException {
+    Map<String, DatabaseMetadata> databases = new HashMap<String, DatabaseMetadata>();
+
+    for (Enumeration<URL> metaUrls =
+        Thread.currentThread().getContextClassLoader().getResources(METADATA_RESOURCE); metaUrls.hasMoreElements();) {
+      URL metaUrl = metaUrls.nextElement();
+      InputStream is = new BufferedInputStream(metaUrl.openStream());
+      try {
+        is.mark(4);
+        byte[] head = new byte[4];
+        int read = is.read(head);
+        is.reset();
+
+        if (read == head.length && XRoadMetadataFormat.isCompact(head)) {
+          for (Map.Entry<String, int[]> entry : XRoadMetadataFormat.readDirectory(is).entrySet()) {
+            getDatabase(databases, entry.getKey()).add(new Section(metaUrl, entry.getValue()[0], entry.getValue()[1]));
+          }
+        } else {
+          addSerialized(databases, is);
+        }
+      } finally {
+        is.close();
+      }
+    }
+
+    return new XRoadMetadataRegistry(databases);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void addSerialized(Map<String, DatabaseMetadata> databases, InputStream is)
+      throws IOException, ClassNotFoundException {
+    ObjectInputStream ois = new ObjectInputStream(is);
+    Map<String, XmlBeansXRoadMetadata> serialized = (Map<String, XmlBeansXRoadMetadata>) ois.readObject();
+
+    Map<String, List<XmlBeansXRoadMetadata>> grouped = new LinkedHashMap<String, List<XmlBeansXRoadMetadata>>();
+    for (Map.Entry<String, XmlBeansXRoadMetadata> entry : serialized.entrySet()) {
+      // Keys are database name + operation name in lower case
+      String key = entry.getKey();
+      String database = key.substring(0, key.lastIndexOf(entry.getValue().getOperationName().toLowerCase()));
+      List<XmlBeansXRoadMetadata> operations = grouped.get(database);
+      if (operations == null) {
+        operations = new ArrayList<XmlBeansXRoadMetadata>();
+        grouped.put(database, operations);
+      }
+      operations.add(entry.getValue());
+    }
+    for (Map.Entry<String, List<XmlBeansXRoadMetadata>> entry : grouped.entrySet()) {
+      getDatabase(databases, entry.getKey()).add(new Section(entry.getValue()));
+    }
+  }
+
+  private static DatabaseMetadata getDatabase(Map<String, DatabaseMetadata> databases, String name) {
+    DatabaseMetadata database = databases.get(name);
+    if (database == null) {
+      database = new DatabaseMetadata();
+      databases.put(name, database);
+    }
+    return database;
+  }
+
+  /**
+   * Finds operation metadata.
+   *
+   * @param database database name as specified in the WSDL
+   * @param method operation name
+   * @param version operation version, if there is no metadata for this exact version (or it is <code>null</code>),
+   *          the last loaded version of the operation is returned
+   * @return metadata or <code>null</code> when the operation is not known
+   */
+  public XmlBeansXRoadMetadata find(String database, String method, String version) throws IOException {
+    DatabaseMetadata db = databaseAliases.get(database);
+    if (db == null) {
+      db = databases.get(database.toLowerCase());
+      if (db == null) {
+        return null;
+      }
+      databaseAliases.putIfAbsent(database, db);
+    }
+    OperationMetadata operation = db.getOperation(method);
+    return operation == null ? null : operation.get(version);
+  }
+
+  /**
+   * Returns the last loaded version of every operation, keyed by database name + operation name in lower case, the
+   * same way as the keys of Java serialized metadata files. Loads all databases.
+   */
+  public Map<String, XmlBeansXRoadMetadata> asMap() throws IOException {
+    Map<String, XmlBeansXRoadMetadata> result = new HashMap<String, XmlBeansXRoadMetadata>();
+    for (Map.Entry<String, DatabaseMetadata> database : databases.entrySet()) {
+      for (Map.Entry<String, OperationMetadata> operation : database.getValue().getOperations().entrySet()) {
+        result.put(database.getKey() + operation.getKey(), operation.getValue().get(null));
+      }
+    }
+    return result;
+  }
+
+  private static class DatabaseMetadata {
+    private final List<Section> sections = new ArrayList<Section>();
+    private final ConcurrentMap<String, OperationMetadata> operationAliases =
+        new ConcurrentHashMap<String, OperationMetadata>();
+    private volatile Map<String, OperationMetadata> operations;
+
+    void add(Section section) {
+      sections.add(section);
+    }
+
+    OperationMetadata getOperation(String method) throws IOException {
+      OperationMetadata operation = operationAliases.get(method);
+      if (operation == null) {
+        operation = getOperations().get(method.toLowerCase());
+        if (operation != null) {
+          operationAliases.putIfAbsent(method, operation);
+        }
+      }
+      return operation;
+    }
+
+    Map<String, OperationMetadata> getOperations() throws IOException {
+      Map<String, OperationMetadata> result = operations;
+      if (result == null) {
+        synchronized (this) {
+          result = operations;
+          if (result == null) {
+            result = new HashMap<String, OperationMetadata>();
+            // Sections are in classpath order, later ones take precedence as they did with the serialized maps
+            for (Section section : sections) {
+              for (XmlBeansXRoadMetadata metadata : section.load()) {
+                String name = metadata.getOperationName().toLowerCase();
+                OperationMetadata operation = result.get(name);
+                result.put(name, operation == null ? new OperationMetadata(metadata) : operation.add(metadata));
+              }
+            }
+            operations = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  private static class OperationMetadata {
+    private final XmlBeansXRoadMetadata latest;
+    private final XmlBeansXRoadMetadata[] versions;
+
+    OperationMetadata(XmlBeansXRoadMetadata metadata) {
+      this(metadata, new XmlBeansXRoadMetadata[] { metadata });
+    }
+
+    private OperationMetadata(XmlBeansXRoadMetadata latest, XmlBeansXRoadMetadata[] versions) {
+      this.latest = latest;
+      this.versions = versions;
+    }
+
+    OperationMetadata add(XmlBeansXRoadMetadata metadata) {
+      List<XmlBeansXRoadMetadata> result = new ArrayList<XmlBeansXRoadMetadata>(versions.length + 1);
+      for (XmlBeansXRoadMetadata version : versions) {
+        if (!equal(version.getVersion(), metadata.getVersion())) {
+          result.add(version);
+        }
+      }
+      result.add(metadata);
+      return new OperationMetadata(metadata, result.toArray(new XmlBeansXRoadMetadata[result.size()]));
+    }
+
+    XmlBeansXRoadMetadata get(String version) {
+      if (version != null) {
+        for (XmlBeansXRoadMetadata metadata : versions) {
+          if (version.equals(metadata.getVersion())) {
+            return metadata;
+          }
+        }
+      }
+      return latest;
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  private static class Section {
+    private final URL url;
+    private final int offset;
+    private final int length;
+    private final List<XmlBeansXRoadMetadata> loaded;
+
+    Section(URL url, int offset, int length) {
+      this.url = url;
+      this.offset = offset;
+      this.length = length;
+      this.loaded = null;
+    }
+
+    Section(List<XmlBeansXRoadMetadata> loaded) {
+      this.url = null;
+      this.offset = 0;
+      this.length = 0;
+      this.loaded = Collections.unmodifiableList(loaded);
+    }
+
+    List<XmlBeansXRoadMetadata> load() throws IOException {
+      if (loaded != null) {
+        return loaded;
+      }
+      DataInputStream is = new DataInputStream(new BufferedInputStream(url.openStream()));
+      try {
+        long skip = offset;
+        while (skip > 0) {
+          long skipped = is.skip(skip);
+          if (skipped <= 0) {
+            throw new IOException("Truncated X-Road metadata file " + url);
+          }
+          skip -= skipped;
+        }
+        byte[] section = new byte[length];
+        is.readFully(section);
+        return XRoadMetadataFormat.readSection(section);
+      } finally {
+        is.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.nortal.jroad.client.util;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import com.nortal.jroad.client.service.configuration.provider.PropertiesBasedXRoadServiceConfigurationProvider;
+
+/**
+ * Read access to the client side tuning settings kept in <code>xroad.properties</code> and
+ * <code>xroad-&lt;database&gt;.properties</code>. As with the service configuration, a value in
+ * <code>xroad.properties</code> takes precedence over the database specific file. Missing files are treated as empty.
+ * <p>
+ * Settings can be given per database (<code>&lt;database&gt;-&lt;name&gt;</code>) and per method (
+ * <code>&lt;database&gt;-&lt;method&gt;-&lt;name&gt;</code>), the latter taking precedence. Resolved settings are cached
+ * per database and method until {@link #reload()}.
+ */
+public class XRoadProperties {
+  private static final String UNSET = new String();
+
+  private final ConcurrentMap<String, Properties> properties = new ConcurrentHashMap<String, Properties>();
+  private volatile ConcurrentMap<MethodKey, ConcurrentMap<String, String>> settings =
+      new ConcurrentHashMap<MethodKey, ConcurrentMap<String, String>>();
+
+  /**
+   * Returns the value of a method level setting, falling back to the database level one.
+   */
+  public String getProperty(String database, String method, String name) {
+    // Read the field once, so that values resolved from files loaded before reload() are not put to the new cache
+    ConcurrentMap<MethodKey, ConcurrentMap<String, String>> settings = this.settings;
+    MethodKey key = new MethodKey(database, method);
+    ConcurrentMap<String, String> methodSettings = settings.get(key);
+    if (methodSettings == null) {
+      methodSettings = new ConcurrentHashMap<String, String>();
+      ConcurrentMap<String, String> existing = settings.putIfAbsent(key, methodSettings);
+      if (existing != null) {
+        methodSettings = existing;
+      }
+    }
+    String value = methodSettings.get(name);
+    if (value == null) {
+      value = resolve(database, method, name);
+      methodSettings.put(name, value == null ? UNSET : value);
+    }
+    return value == UNSET ? null : value;
+  }
+
+  private String resolve(String database, String method, String name) {
+    String value = method == null ? null : getProperty(database, database + "-" + method + "-" + name);
+    return value != null ? value : getProperty(database, database + "-" + name);
+  }
+
+  public long getLong(String database, String method, String name, long defaultValue) {
+    String value = getProperty(database, method, name);
+    return value == null ? defaultValue : parseLong(name, value);
+  }
+
+  public int getInt(String database, String method, String name, int defaultValue) {
+    return (int) getLong(database, method, name, defaultValue);
+  }
+
+  public boolean getBoolean(String database, String method, String name, boolean defaultValue) {
+    String value = getProperty(database, method, name);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Returns the value of the given key from <code>xroad.properties</code> or, if not present there, from the properties
+   * file of the given database.
+   */
+  public String getProperty(String database, String key) {
+    String result = StringUtils.trimToNull(load(PropertiesBasedXRoadServiceConfigurationProvider.XROAD_CLIENT_PROPERTIES).getProperty(key));
+    if (result != null || database == null) {
+      return result;
+    }
+    return StringUtils.trimToNull(load(String.format(PropertiesBasedXRoadServiceConfigurationProvider.XROAD_DATABASE_PROPERTIES_FORMAT,
+                                                     database)).getProperty(key));
+  }
+
+  /**
+   * Forgets all loaded files, so that they are read again on next access.
+   */
+  public void reload() {
+    properties.clear();
+    settings = new ConcurrentHashMap<MethodKey, ConcurrentMap<String, String>>();
+  }
+
+  protected Properties load(String target) {
+    Properties result = properties.get(target);
+    if (result == null) {
+      result = read(new ClassPathResource(target));
+      Properties existing = properties.putIfAbsent(target, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  protected Properties read(Resource resource) {
+    if (!resource.exists()) {
+      return new Properties();
+    }
+    try {
+      return PropertiesUtil.readProperties(resource);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to resolve configuration properties: " + resource.getFilename());
+    }
+  }
+
+  private static long parseLong(String name, String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Invalid value of " + name + ": " + value);
+    }
+  }
+
+  private static final class MethodKey {
+    private final String database;
+    private final String method;
+
+    MethodKey(String database, String method) {
+      this.database = database;
+      this.method = method;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof MethodKey)) {
+        return false;
+      }
+      MethodKey other = (MethodKey) obj;
+      return StringUtils.equals(database, other.database) && StringUtils.equals(method, other.method);
+    }
+
+    @Override
+    public int hashCode() {
+      return (database == null ? 0 : database.hashCode()) * 31 + (method == null ? 0 : method.hashCode());
+    }
+  }
+}
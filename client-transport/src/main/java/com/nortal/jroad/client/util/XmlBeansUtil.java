@@ -1,13 +1,9 @@
 package com.nortal.jroad.client.util;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -15,10 +11,26 @@ import java.util.Set;
 
 import javax.activation.DataHandler;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.XmlBeans;
 import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlSaxHandler;
 import org.apache.xmlbeans.XmlString;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
 
 import com.nortal.jroad.model.XmlBeansXRoadMetadata;
 
@@ -52,21 +64,178 @@ public class XmlBeansUtil {
     return xmlString;
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Loads all operation metadata in the classpath eagerly, see {@link XRoadMetadataRegistry} for lazy lookups.
+   */
   public static HashMap<String, XmlBeansXRoadMetadata> loadMetadata() throws IOException, ClassNotFoundException {
-    HashMap<String, XmlBeansXRoadMetadata> metaMap = new HashMap<String, XmlBeansXRoadMetadata>();
-
-    for (Enumeration<URL> metaUrls =
-        Thread.currentThread().getContextClassLoader().getResources("xroad.metadata"); metaUrls.hasMoreElements();) {
-      URL metaUrl = metaUrls.nextElement();
-      InputStream is = metaUrl.openStream();
-      ObjectInputStream ois = new ObjectInputStream(is);
-      metaMap.putAll((HashMap<String, XmlBeansXRoadMetadata>) ois.readObject());
-      ois.close();
-      is.close();
+    return new HashMap<String, XmlBeansXRoadMetadata>(XRoadMetadataRegistry.load().asMap());
+  }
+
+  /**
+   * Loads the given DOM element into an XmlBeans object in a single pass, streaming the DOM tree straight into the
+   * XmlBeans store without any intermediate serialization. Load options such as
+   * {@link XmlOptions#setLoadReplaceDocumentElement(QName)} are applied while streaming.
+   *
+   * @param node element to load
+   * @param type type of the resulting object, <code>null</code> to determine it from the content
+   * @param options load options
+   * @param stripNamespaces whether to move all elements and attributes into the empty namespace, the same way a
+   *          namespace unaware parser would see them
+   * @return loaded object
+   */
+  public static XmlObject parse(Node node, SchemaType type, XmlOptions options, boolean stripNamespaces)
+      throws XmlException {
+    XmlSaxHandler handler = XmlBeans.getContextTypeLoader().newXmlSaxHandler(type, options);
+    ContentHandler contentHandler = handler.getContentHandler();
+    try {
+      contentHandler.startDocument();
+      stream(node, contentHandler, handler.getLexicalHandler(), stripNamespaces);
+      contentHandler.endDocument();
+    } catch (SAXException e) {
+      throw new XmlException(e.getMessage(), e);
+    }
+    return handler.getObject();
+  }
+
+  private static void stream(Node node,
+                             ContentHandler contentHandler,
+                             LexicalHandler lexicalHandler,
+                             boolean stripNamespaces) throws SAXException {
+    switch (node.getNodeType()) {
+    case Node.ELEMENT_NODE:
+      AttributesImpl atts = new AttributesImpl();
+      NamedNodeMap attributes = node.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Attr attr = (Attr) attributes.item(i);
+        String qName = attr.getNodeName();
+        String uri = stripNamespaces || attr.getNamespaceURI() == null ? "" : attr.getNamespaceURI();
+        atts.addAttribute(uri, getLocalName(attr), qName, "CDATA", attr.getValue());
+      }
+
+      String localName = getLocalName(node);
+      String uri = stripNamespaces || node.getNamespaceURI() == null ? "" : node.getNamespaceURI();
+      String qName = stripNamespaces ? localName : node.getNodeName();
+      contentHandler.startElement(uri, localName, qName, atts);
+      for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        stream(child, contentHandler, lexicalHandler, stripNamespaces);
+      }
+      contentHandler.endElement(uri, localName, qName);
+      break;
+    case Node.TEXT_NODE:
+    case Node.CDATA_SECTION_NODE:
+      char[] text = node.getNodeValue().toCharArray();
+      contentHandler.characters(text, 0, text.length);
+      break;
+    case Node.COMMENT_NODE:
+      char[] comment = node.getNodeValue().toCharArray();
+      lexicalHandler.comment(comment, 0, comment.length);
+      break;
+    case Node.PROCESSING_INSTRUCTION_NODE:
+      contentHandler.processingInstruction(node.getNodeName(), node.getNodeValue());
+      break;
+    default:
+      for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        stream(child, contentHandler, lexicalHandler, stripNamespaces);
+      }
+    }
+  }
+
+  /**
+   * Loads the element the given pull parser is positioned at into an XmlBeans object, the same way as
+   * {@link #parse(Node, SchemaType, XmlOptions, boolean)} does for DOM elements. The parser is left at the end of the
+   * element.
+   */
+  public static XmlObject parse(XMLStreamReader reader, SchemaType type, XmlOptions options, boolean stripNamespaces)
+      throws XmlException {
+    if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+      throw new XmlException("Parser is not positioned at the start of an element");
+    }
+    XmlSaxHandler handler = XmlBeans.getContextTypeLoader().newXmlSaxHandler(type, options);
+    ContentHandler contentHandler = handler.getContentHandler();
+    try {
+      contentHandler.startDocument();
+      stream(reader, contentHandler, handler.getLexicalHandler(), stripNamespaces);
+      contentHandler.endDocument();
+    } catch (SAXException e) {
+      throw new XmlException(e.getMessage(), e);
+    } catch (XMLStreamException e) {
+      throw new XmlException(e.getMessage(), e);
     }
+    return handler.getObject();
+  }
 
-    return metaMap;
+  private static void stream(XMLStreamReader reader,
+                             ContentHandler contentHandler,
+                             LexicalHandler lexicalHandler,
+                             boolean stripNamespaces) throws SAXException, XMLStreamException {
+    int depth = 0;
+    while (true) {
+      switch (reader.getEventType()) {
+      case XMLStreamConstants.START_ELEMENT:
+        depth++;
+        AttributesImpl atts = new AttributesImpl();
+        // Namespace declarations are passed on as attributes, as they appear in DOM
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+          String prefix = reader.getNamespacePrefix(i);
+          String qName = StringUtils.isEmpty(prefix) ? "xmlns" : "xmlns:" + prefix;
+          atts.addAttribute("", StringUtils.defaultString(prefix), qName, "CDATA",
+                            StringUtils.defaultString(reader.getNamespaceURI(i)));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          String localName = reader.getAttributeLocalName(i);
+          String uri = stripNamespaces ? "" : StringUtils.defaultString(reader.getAttributeNamespace(i));
+          atts.addAttribute(uri,
+                            localName,
+                            getQName(reader.getAttributePrefix(i), localName, stripNamespaces),
+                            "CDATA",
+                            reader.getAttributeValue(i));
+        }
+        contentHandler.startElement(stripNamespaces ? "" : StringUtils.defaultString(reader.getNamespaceURI()),
+                                    reader.getLocalName(),
+                                    getQName(reader.getPrefix(), reader.getLocalName(), stripNamespaces),
+                                    atts);
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        depth--;
+        contentHandler.endElement(stripNamespaces ? "" : StringUtils.defaultString(reader.getNamespaceURI()),
+                                  reader.getLocalName(),
+                                  getQName(reader.getPrefix(), reader.getLocalName(), stripNamespaces));
+        if (depth == 0) {
+          return;
+        }
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        contentHandler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        break;
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        char[] text = reader.getText().toCharArray();
+        contentHandler.characters(text, 0, text.length);
+        break;
+      case XMLStreamConstants.COMMENT:
+        lexicalHandler.comment(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        contentHandler.processingInstruction(reader.getPITarget(), reader.getPIData());
+        break;
+      default:
+        break;
+      }
+      reader.next();
+    }
+  }
+
+  private static String getQName(String prefix, String localName, boolean stripNamespaces) {
+    return stripNamespaces || StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
+  }
+
+  private static String getLocalName(Node node) {
+    if (node.getLocalName() != null) {
+      return node.getLocalName();
+    }
+    String name = node.getNodeName();
+    return name.substring(name.indexOf(':') + 1);
   }
 
   public static XmlObject getResponseObject(XmlObject obj)
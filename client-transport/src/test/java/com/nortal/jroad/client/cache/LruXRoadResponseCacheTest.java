@@ -0,0 +1,123 @@
+package com.nortal.jroad.client.cache;
+
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LruXRoadResponseCacheTest {
+    private final LruXRoadResponseCache cache = new LruXRoadResponseCache();
+
+    @Test
+    public void testHitReturnsOwnCopy() throws Exception {
+        XmlObject response = xml("<person><name>Mari</name></person>");
+        cache.put(key("a"), response, 60000);
+
+        XmlObject first = cache.get(key("a"));
+        assertNotSame(response, first);
+        assertEquals(response.xmlText(), first.xmlText());
+
+        XmlCursor cursor = first.newCursor();
+        cursor.toFirstChild();
+        cursor.setTextValue("changed");
+        cursor.dispose();
+        assertEquals(response.xmlText(), cache.get(key("a")).xmlText());
+
+        XRoadCacheStatistics statistics = cache.getStatistics();
+        assertEquals(2L, statistics.getHits());
+        assertEquals(0L, statistics.getMisses());
+        assertEquals(1L, statistics.getEntries());
+    }
+
+    @Test
+    public void testEntryExpiresAfterTtl() throws Exception {
+        cache.put(key("a"), xml("<a/>"), 50);
+        cache.put(key("b"), xml("<b/>"), 0);
+        assertTrue(cache.get(key("a")) != null);
+        assertNull("not cached without ttl", cache.get(key("b")));
+
+        Thread.sleep(100);
+        assertNull(cache.get(key("a")));
+        XRoadCacheStatistics statistics = cache.getStatistics();
+        assertEquals(1L, statistics.getExpirations());
+        assertEquals(2L, statistics.getMisses());
+        assertEquals(0L, statistics.getEntries());
+        assertEquals(0L, statistics.getBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        cache.put(key("a"), xml("<value>1</value>"), 60000);
+        long entrySize = cache.getStatistics().getBytes();
+        cache.setMaxBytes(entrySize * 2 + entrySize / 2);
+        cache.put(key("b"), xml("<value>2</value>"), 60000);
+        assertTrue(cache.get(key("a")) != null);
+
+        cache.put(key("c"), xml("<value>3</value>"), 60000);
+        assertNull("least recently used", cache.get(key("b")));
+        assertTrue(cache.get(key("a")) != null);
+        assertTrue(cache.get(key("c")) != null);
+        assertEquals(1L, cache.getStatistics().getEvictions());
+        assertEquals(2L, cache.getStatistics().getEntries());
+
+        cache.put(key("d"), xml("<value>" + new String(new char[(int) entrySize * 3]).replace('\0', 'x') + "</value>"), 60000);
+        assertNull("larger than the whole cache", cache.get(key("d")));
+        assertEquals(2L, cache.getStatistics().getEntries());
+    }
+
+    @Test
+    public void testReplacedEntryIsCountedOnce() throws Exception {
+        cache.put(key("a"), xml("<value>1</value>"), 60000);
+        long entrySize = cache.getStatistics().getBytes();
+        cache.put(key("a"), xml("<value>2</value>"), 60000);
+        assertEquals(entrySize, cache.getStatistics().getBytes());
+        assertEquals("<value>2</value>", cache.get(key("a")).xmlText());
+
+        cache.clear();
+        assertEquals(0L, cache.getStatistics().getEntries());
+        assertEquals(0L, cache.getStatistics().getBytes());
+    }
+
+    @Test
+    public void testLargeResponsesAreKeptOffHeap() throws Exception {
+        cache.setOffHeapThreshold(10);
+        XmlObject response = xml("<list><item>first</item><item>second</item></list>");
+        cache.put(key("a"), response, 60000);
+        assertEquals(response.xmlText(), cache.get(key("a")).xmlText());
+        assertEquals("read again from the start", response.xmlText(), cache.get(key("a")).xmlText());
+    }
+
+    @Test
+    public void testKeyIdentifiesServiceBodyAndUser() throws Exception {
+        SimpleXRoadServiceConfiguration configuration = new SimpleXRoadServiceConfiguration();
+        configuration.setDatabase("registry");
+        configuration.setMethod("findPerson");
+        configuration.setVersion("v1");
+        configuration.setIdCode("EE1");
+        XRoadCacheKey key = XRoadCacheKey.create(configuration, xml("<code>1</code>"));
+
+        assertEquals(key, XRoadCacheKey.create(configuration, xml("<code>1</code>")));
+        assertEquals(key.hashCode(), XRoadCacheKey.create(configuration, xml("<code>1</code>")).hashCode());
+        assertFalse(key.equals(XRoadCacheKey.create(configuration, xml("<code>2</code>"))));
+        configuration.setIdCode("EE2");
+        assertFalse("per user", key.equals(XRoadCacheKey.create(configuration, xml("<code>1</code>"))));
+        configuration.setIdCode("EE1");
+        configuration.setVersion("v2");
+        assertFalse(key.equals(XRoadCacheKey.create(configuration, xml("<code>1</code>"))));
+        assertEquals(key, new XRoadCacheKey("registry", "findPerson", "v1", key.getBody(), "EE1"));
+    }
+
+    private static XRoadCacheKey key(String body) {
+        return new XRoadCacheKey("registry", "findPerson", "v1", body, "EE1");
+    }
+
+    private static XmlObject xml(String text) throws Exception {
+        return XmlObject.Factory.parse(text);
+    }
+}
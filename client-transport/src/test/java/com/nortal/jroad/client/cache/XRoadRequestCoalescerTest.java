@@ -0,0 +1,184 @@
+package com.nortal.jroad.client.cache;
+
+import com.nortal.jroad.client.exception.NonTechnicalFaultException;
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.model.XRoadAttachment;
+import com.nortal.jroad.model.XRoadMessage;
+import com.nortal.jroad.model.XmlBeansXRoadMessage;
+import org.apache.xmlbeans.XmlObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class XRoadRequestCoalescerTest {
+    private static final XRoadCacheKey KEY = new XRoadCacheKey("registry", "findPerson", "v1", "<code>1</code>", "EE1");
+    private static final int CALLERS = 5;
+
+    private final XRoadRequestCoalescer coalescer = new XRoadRequestCoalescer();
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r);
+            threads.add(thread);
+            return thread;
+        }
+    });
+
+    @Test
+    public void testConcurrentCallersShareOneExchange() throws Exception {
+        BlockingExchange exchange = new BlockingExchange(null);
+        List<Future<XRoadMessage<XmlObject>>> results = startCallers(exchange);
+
+        List<XmlObject> contents = new ArrayList<XmlObject>();
+        for (Future<XRoadMessage<XmlObject>> result : results) {
+            XmlObject content = result.get().getContent();
+            assertEquals("<person>Mari</person>", content.xmlText());
+            for (XmlObject other : contents) {
+                assertNotSame("every caller gets its own copy", other, content);
+            }
+            contents.add(content);
+        }
+        assertEquals(1, exchange.count.get());
+        assertEquals(0, coalescer.getInFlightCount());
+
+        coalescer.execute(KEY, exchange);
+        assertEquals("nothing is kept after the exchange", 2, exchange.count.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWaitingCallersReceiveSameFailure() throws Exception {
+        XRoadServiceConsumptionException failure =
+                new XRoadServiceConsumptionException(new NonTechnicalFaultException("code", "text"), "registry",
+                                                     "findPerson", "v1");
+        BlockingExchange exchange = new BlockingExchange(failure);
+        for (Future<XRoadMessage<XmlObject>> result : startCallers(exchange)) {
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, exchange.count.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testResponsesWithAttachmentsAreNotShared() throws Exception {
+        BlockingExchange exchange = new BlockingExchange(null) {
+            @Override
+            XRoadMessage<XmlObject> response() throws Exception {
+                count.incrementAndGet();
+                List<XRoadAttachment> attachments = new ArrayList<XRoadAttachment>();
+                attachments.add(new XRoadAttachment("cid", "text/plain", new byte[] { 1 }));
+                return new XmlBeansXRoadMessage<XmlObject>(XmlObject.Factory.parse("<file/>"), attachments);
+            }
+        };
+        for (Future<XRoadMessage<XmlObject>> result : startCallers(exchange)) {
+            assertEquals(1, result.get().getAttachments().size());
+        }
+        assertEquals("waiting callers send their own requests", CALLERS, exchange.count.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testDifferentKeysAreNotCoalesced() throws Exception {
+        XRoadCacheKey other = new XRoadCacheKey("registry", "findPerson", "v1", "<code>1</code>", "EE2");
+        BlockingExchange exchange = new BlockingExchange(null);
+        exchange.release.countDown();
+        coalescer.execute(KEY, exchange);
+        coalescer.execute(other, exchange);
+        assertEquals(2, exchange.count.get());
+        executor.shutdown();
+    }
+
+    /**
+     * Starts the callers and lets the exchange finish once all of them are waiting, either for the exchange or for the
+     * first caller.
+     */
+    private List<Future<XRoadMessage<XmlObject>>> startCallers(final BlockingExchange exchange) throws Exception {
+        List<Future<XRoadMessage<XmlObject>>> results = new ArrayList<Future<XRoadMessage<XmlObject>>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(new Callable<XRoadMessage<XmlObject>>() {
+                @Override
+                public XRoadMessage<XmlObject> call() throws Exception {
+                    return coalescer.execute(KEY, exchange);
+                }
+            }));
+        }
+        assertTrue(exchange.entered.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!allWaiting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(allWaiting());
+        exchange.release.countDown();
+        return results;
+    }
+
+    private boolean allWaiting() {
+        synchronized (threads) {
+            if (threads.size() < CALLERS) {
+                return false;
+            }
+            for (Thread thread : threads) {
+                if (thread.getState() != Thread.State.WAITING) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class BlockingExchange implements XRoadRequestCoalescer.Exchange<XmlObject> {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final XRoadServiceConsumptionException failure;
+
+        BlockingExchange(XRoadServiceConsumptionException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public XRoadMessage<XmlObject> send() throws XRoadServiceConsumptionException {
+            entered.countDown();
+            try {
+                release.await();
+                if (failure != null) {
+                    count.incrementAndGet();
+                    throw failure;
+                }
+                return response();
+            } catch (XRoadServiceConsumptionException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        XRoadMessage<XmlObject> response() throws Exception {
+            count.incrementAndGet();
+            return new XmlBeansXRoadMessage<XmlObject>(XmlObject.Factory.parse("<person>Mari</person>"));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.nortal.jroad.client.capture;
+
+import com.nortal.jroad.client.util.XRoadProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.context.DefaultMessageContext;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCaptureInterceptorTest {
+    private static final String DATABASE = "registry";
+
+    private final Map<String, String> settings = new HashMap<String, String>();
+    private final RecordingAppender appender = new RecordingAppender();
+    private MessageCaptureInterceptor interceptor;
+    private SaajSoapMessageFactory messageFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        messageFactory = new SaajSoapMessageFactory(MessageFactory.newInstance());
+        interceptor = new MessageCaptureInterceptor();
+        interceptor.setAppender(appender);
+        interceptor.setProperties(new XRoadProperties() {
+            @Override
+            public String getProperty(String database, String method, String name) {
+                return settings.get(database + "-" + name);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        appender.release.countDown();
+        interceptor.destroy();
+    }
+
+    @Test
+    public void testRequestAndResponseAreCaptured() throws Exception {
+        MessageContext context = exchange("<ping/>");
+        interceptor.handleRequest(context);
+        context.getResponse();
+        interceptor.handleResponse(context);
+
+        CapturedMessage request = appender.next();
+        assertEquals(CapturedMessage.Type.REQUEST, request.getType());
+        assertEquals(DATABASE, request.getDatabase());
+        assertTrue(request.getContentAsString().contains("<ping"));
+        assertFalse(request.isTruncated());
+        assertEquals(CapturedMessage.Type.RESPONSE, appender.next().getType());
+    }
+
+    @Test
+    public void testDatabaseSampleRateOverridesDefault() throws Exception {
+        settings.put(DATABASE + "-" + MessageCaptureInterceptor.SAMPLE_RATE, "0");
+        MessageContext context = exchange("<ping/>");
+        interceptor.handleRequest(context);
+        context.getResponse();
+        interceptor.handleResponse(context);
+
+        interceptor.destroy();
+        assertNull(appender.messages.poll());
+        assertEquals(0L, interceptor.getDroppedCount());
+    }
+
+    @Test
+    public void testMalformedSampleRateFallsBackToDefault() throws Exception {
+        settings.put(DATABASE + "-" + MessageCaptureInterceptor.SAMPLE_RATE, "often");
+        interceptor.setSampleRate(1);
+        interceptor.handleRequest(exchange("<ping/>"));
+        interceptor.handleRequest(exchange("<ping/>"));
+
+        assertEquals(CapturedMessage.Type.REQUEST, appender.next().getType());
+        assertEquals(CapturedMessage.Type.REQUEST, appender.next().getType());
+    }
+
+    @Test
+    public void testLongMessageIsTruncated() throws Exception {
+        interceptor.setMaxBytes(100);
+        StringBuilder body = new StringBuilder("<list>");
+        for (int i = 0; i < 100; i++) {
+            body.append("<item>").append(i).append("</item>");
+        }
+        interceptor.handleRequest(exchange(body.append("</list>").toString()));
+
+        CapturedMessage message = appender.next();
+        assertTrue(message.isTruncated());
+        assertEquals(100, message.getContent().length);
+    }
+
+    @Test
+    public void testMessagesAreDroppedWhenQueueIsFull() throws Exception {
+        appender.blocked = true;
+        interceptor.setBufferSize(1);
+        interceptor.handleRequest(exchange("<first/>"));
+        assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 4; i++) {
+            interceptor.handleRequest(exchange("<next/>"));
+        }
+        assertEquals("one waits in the queue", 3L, interceptor.getDroppedCount());
+
+        appender.release.countDown();
+        assertTrue(appender.next().getContentAsString().contains("<first"));
+        assertTrue(appender.next().getContentAsString().contains("<next"));
+    }
+
+    @Test
+    public void testMessagesAfterDestroyAreDropped() throws Exception {
+        interceptor.handleRequest(exchange("<before/>"));
+        appender.next();
+        interceptor.destroy();
+
+        interceptor.handleRequest(exchange("<after/>"));
+        assertEquals(1L, interceptor.getDroppedCount());
+        assertNull(appender.messages.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private MessageContext exchange(String body) throws Exception {
+        SaajSoapMessage request = messageFactory.createWebServiceMessage();
+        SOAPMessage saaj = request.getSaajMessage();
+        SOAPElement service = saaj.getSOAPHeader().addChildElement("service", "xrd", "http://x-road.eu/xsd/xroad.xsd");
+        service.addChildElement("memberCode", "id", "http://x-road.eu/xsd/identifiers").addTextNode("70000000");
+        service.addChildElement("subsystemCode", "id", "http://x-road.eu/xsd/identifiers").addTextNode(DATABASE);
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.transform(new StreamSource(new StringReader(body)), request.getPayloadResult());
+        return new DefaultMessageContext(request, messageFactory);
+    }
+
+    private static class RecordingAppender implements MessageCaptureAppender {
+        final BlockingQueue<CapturedMessage> messages = new LinkedBlockingQueue<CapturedMessage>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean blocked;
+
+        @Override
+        public void append(CapturedMessage message) {
+            entered.countDown();
+            if (blocked) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(message);
+        }
+
+        CapturedMessage next() throws InterruptedException {
+            CapturedMessage message = messages.poll(5, TimeUnit.SECONDS);
+            assertTrue("no message captured", message != null);
+            return message;
+        }
+    }
+}
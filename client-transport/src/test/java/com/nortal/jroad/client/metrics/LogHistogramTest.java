@@ -0,0 +1,81 @@
+package com.nortal.jroad.client.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        assertEquals(0L, histogram.getValueAtPercentile(0));
+        assertEquals(15L, histogram.getValueAtPercentile(50));
+        assertEquals(31L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketsCoverTheWholeRange() {
+        for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = LogHistogram.indexOf(value);
+            assertTrue("lower bound of " + value, LogHistogram.lowestValueAt(index) <= value);
+            if (value < Long.MAX_VALUE) {
+                assertTrue("upper bound of " + value,
+                           LogHistogram.indexOf(value + 1) == index || LogHistogram.lowestValueAt(index + 1) == value + 1);
+            }
+        }
+        for (int index = 1; index < LogHistogram.indexOf(Long.MAX_VALUE); index++) {
+            assertEquals(index, LogHistogram.indexOf(LogHistogram.lowestValueAt(index)));
+            assertEquals(index - 1, LogHistogram.indexOf(LogHistogram.lowestValueAt(index) - 1));
+        }
+    }
+
+    @Test
+    public void testPercentilesAreWithinPrecision() {
+        LogHistogram histogram = new LogHistogram();
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // Latencies between 1 ms and 1 s in nanoseconds
+            values[i] = 1000000L + (long) (random.nextDouble() * 999000000L);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact, Math.abs(estimate - exact) <= exact * 0.032);
+        }
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSummaryAndReset() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(99));
+        histogram.record(10);
+        histogram.record(30);
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals("negative values mean unknown", 3L, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2 + 40, histogram.getSum());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getMax());
+        assertEquals(0.0, histogram.getMean(), 0);
+        histogram.record(4);
+        assertEquals(4.0, histogram.getMean(), 0);
+        assertEquals(4L, histogram.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,107 @@
+package com.nortal.jroad.client.metrics;
+
+import com.nortal.jroad.client.exception.NonTechnicalFaultException;
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import org.junit.Test;
+import org.springframework.ws.client.WebServiceIOException;
+import org.springframework.ws.soap.client.SoapFaultClientException;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+
+import javax.xml.soap.MessageFactory;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class XRoadCallMetricsTest {
+
+    @Test
+    public void testNetworkIsWhatRemainsOfDuration() throws Exception {
+        XRoadCallMetrics metrics = new XRoadCallMetrics(configuration());
+        assertEquals(-1L, metrics.getDurationNanos());
+        assertEquals(-1L, metrics.getRequestBytes());
+        assertEquals(-1, metrics.getResponseAttachments());
+        assertNull(metrics.getOutcome());
+
+        metrics.addPhase(XRoadCallPhase.MARSHALLING, 1000);
+        metrics.addPhase(XRoadCallPhase.MARSHALLING, 500);
+        metrics.addPhase(XRoadCallPhase.UNMARSHALLING, 2000);
+        Thread.sleep(5);
+        metrics.finish(XRoadCallOutcome.OK);
+
+        assertSame(XRoadCallOutcome.OK, metrics.getOutcome());
+        assertEquals(1500L, metrics.getPhaseNanos(XRoadCallPhase.MARSHALLING));
+        assertTrue(metrics.getDurationNanos() >= 5000000L);
+        assertEquals(metrics.getDurationNanos() - 3500, metrics.getPhaseNanos(XRoadCallPhase.NETWORK));
+    }
+
+    @Test
+    public void testNetworkIsNotNegative() {
+        XRoadCallMetrics metrics = new XRoadCallMetrics(configuration());
+        // Summed over hedged attempts, phases may exceed the call duration
+        metrics.addPhase(XRoadCallPhase.HEADER, Long.MAX_VALUE / 2);
+        metrics.finish(XRoadCallOutcome.IO_ERROR);
+        assertEquals(0L, metrics.getPhaseNanos(XRoadCallPhase.NETWORK));
+    }
+
+    @Test
+    public void testOutcomeOfException() throws Exception {
+        assertSame(XRoadCallOutcome.NON_TECHNICAL_FAULT,
+                   XRoadCallOutcome.of(new XRoadServiceConsumptionException(new NonTechnicalFaultException("code", "text"),
+                                                                            "db", "method", "v1")));
+        assertSame(XRoadCallOutcome.IO_ERROR,
+                   XRoadCallOutcome.of(new XRoadServiceConsumptionException(new WebServiceIOException("reset"),
+                                                                            "db", "method", "v1")));
+
+        SaajSoapMessage fault = new SaajSoapMessageFactory(MessageFactory.newInstance()).createWebServiceMessage();
+        fault.getSoapBody().addServerOrReceiverFault("Failed", Locale.ENGLISH);
+        assertSame(XRoadCallOutcome.SOAP_FAULT,
+                   XRoadCallOutcome.of(new XRoadServiceConsumptionException(new SoapFaultClientException(fault),
+                                                                            "db", "method", "v1")));
+
+        assertSame(XRoadCallOutcome.ERROR, XRoadCallOutcome.of(new XRoadServiceConsumptionException("Invalid response",
+                                                                                                     "db", "method", "v1") {
+        }));
+    }
+
+    @Test
+    public void testRegistryKeepsSeriesPerServiceAndOutcome() {
+        HistogramXRoadMetricsRegistry registry = new HistogramXRoadMetricsRegistry();
+        for (int i = 0; i < 3; i++) {
+            XRoadCallMetrics metrics = new XRoadCallMetrics(configuration());
+            metrics.setRequestBytes(100 * (i + 1));
+            metrics.finish(XRoadCallOutcome.OK);
+            registry.record(metrics);
+        }
+        XRoadCallMetrics failed = new XRoadCallMetrics(configuration());
+        failed.finish(XRoadCallOutcome.IO_ERROR);
+        registry.record(failed);
+
+        assertEquals(2, registry.getSeries().size());
+        for (HistogramXRoadMetricsRegistry.Series series : registry.getSeries()) {
+            assertEquals("registry", series.getDatabase());
+            assertEquals("findPerson", series.getMethod());
+            if (series.getOutcome() == XRoadCallOutcome.OK) {
+                assertEquals(3L, series.getDuration().getCount());
+                assertEquals(600L, series.getRequestBytes().getSum());
+            } else {
+                assertEquals(1L, series.getDuration().getCount());
+                assertEquals("unknown sizes are left out", 0L, series.getRequestBytes().getCount());
+            }
+        }
+        registry.clear();
+        assertTrue(registry.getSeries().isEmpty());
+    }
+
+    private static SimpleXRoadServiceConfiguration configuration() {
+        SimpleXRoadServiceConfiguration configuration = new SimpleXRoadServiceConfiguration();
+        configuration.setDatabase("registry");
+        configuration.setMethod("findPerson");
+        configuration.setVersion("v1");
+        return configuration;
+    }
+}
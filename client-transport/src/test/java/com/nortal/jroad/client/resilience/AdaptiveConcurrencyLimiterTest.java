@@ -0,0 +1,104 @@
+package com.nortal.jroad.client.resilience;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long RTT = 10 * 1000000L;
+
+    @Test
+    public void testRefusesCallsOverLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 100, 0);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release();
+        assertEquals(2, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testGrowsUnderLoadWhileResponseTimesAreSteady() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 50, 0);
+        for (int i = 0; i < 100; i++) {
+            saturate(limiter, RTT);
+        }
+        assertEquals(50, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testDoesNotGrowWithoutLoad() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 50, 0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(RTT, false);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksWhenResponsesSlowDown() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 50, 0);
+        for (int i = 0; i < 5; i++) {
+            saturate(limiter, RTT);
+        }
+        int limit = limiter.getLimit();
+        for (int i = 0; i < 5; i++) {
+            saturate(limiter, 10 * RTT);
+        }
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testBacksOffOnDroppedCalls() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 5, 50, 0);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(RTT, true);
+        assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(RTT, true);
+        }
+        assertEquals("never below the minimum", 5, limiter.getLimit());
+    }
+
+    @Test
+    public void testWaitsForReleasedSlot() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 5000);
+        assertTrue(limiter.tryAcquire());
+        Thread releaser = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limiter.release();
+            }
+        });
+        releaser.start();
+        assertTrue(limiter.tryAcquire());
+        releaser.join();
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    /**
+     * Takes every slot and gives them back with the given response time.
+     */
+    private static void saturate(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        int taken = 0;
+        while (limiter.tryAcquire()) {
+            taken++;
+        }
+        for (int i = 0; i < taken; i++) {
+            limiter.release(rttNanos, false);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.nortal.jroad.client.resilience;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadTest {
+
+    @Test
+    public void testRefusesCallsOverLimit() {
+        Bulkhead bulkhead = new Bulkhead(2, 0, 0);
+        assertTrue(bulkhead.tryAcquire());
+        assertTrue(bulkhead.tryAcquire());
+        assertFalse(bulkhead.tryAcquire());
+        assertEquals(0, bulkhead.getAvailableSlots());
+
+        bulkhead.release();
+        assertTrue(bulkhead.tryAcquire());
+    }
+
+    @Test
+    public void testWaitsForReleasedSlot() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead(1, 1, 5000);
+        assertTrue(bulkhead.tryAcquire());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                if (bulkhead.tryAcquire()) {
+                    acquired.countDown();
+                }
+            }
+        });
+        waiter.start();
+        awaitWaiting(bulkhead, 1);
+        assertFalse("wait queue is full", bulkhead.tryAcquire());
+
+        bulkhead.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(0, bulkhead.getWaitingCount());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxWait() {
+        Bulkhead bulkhead = new Bulkhead(1, 1, 50);
+        assertTrue(bulkhead.tryAcquire());
+        long start = System.nanoTime();
+        assertFalse(bulkhead.tryAcquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(0, bulkhead.getWaitingCount());
+    }
+
+    private static void awaitWaiting(Bulkhead bulkhead, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bulkhead.getWaitingCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.nortal.jroad.client.resilience;
+
+import com.nortal.jroad.client.resilience.CircuitBreaker.State;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final long FAST = 1000000L;
+    private static final long SLOW = 2000 * 1000000L;
+
+    @Test
+    public void testOpensWhenFailureRateIsReached() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 0, 1000, 10, 4, 60000, 2);
+        record(breaker, false, FAST);
+        record(breaker, true, FAST);
+        record(breaker, true, FAST);
+        assertEquals("too few calls to evaluate", State.CLOSED, breaker.getState());
+
+        record(breaker, false, FAST);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testStaysClosedBelowThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 0, 1000, 10, 4, 60000, 2);
+        for (int i = 0; i < 20; i++) {
+            record(breaker, i % 3 == 2, FAST);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensWhenSlowCallRateIsReached() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 75, 1000, 4, 4, 60000, 2);
+        record(breaker, true, FAST);
+        record(breaker, false, SLOW);
+        record(breaker, false, SLOW);
+        record(breaker, false, SLOW);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOnlyLastCallsAreKept() {
+        CircuitBreaker breaker = new CircuitBreaker(50, 0, 1000, 4, 4, 60000, 2);
+        record(breaker, true, FAST);
+        for (int i = 0; i < 10; i++) {
+            record(breaker, false, FAST);
+        }
+        record(breaker, true, FAST);
+        assertEquals(State.CLOSED, breaker.getState());
+        record(breaker, true, FAST);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterSuccessfulTrialCalls() {
+        CircuitBreaker breaker = open(new CircuitBreaker(50, 0, 1000, 10, 2, 0, 2));
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse("only the trial calls are let through", breaker.tryAcquire());
+
+        breaker.onResult(false, FAST);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onResult(false, FAST);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testHalfOpenReopensAfterFailedTrialCalls() {
+        CircuitBreaker breaker = open(new CircuitBreaker(50, 0, 1000, 10, 2, 0, 2));
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(true, FAST);
+        breaker.onResult(false, FAST);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testIgnoredCallGivesBackTrialPermit() {
+        CircuitBreaker breaker = open(new CircuitBreaker(50, 0, 1000, 10, 2, 0, 1));
+
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker open(CircuitBreaker breaker) {
+        record(breaker, true, FAST);
+        record(breaker, true, FAST);
+        assertEquals(State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void record(CircuitBreaker breaker, boolean failure, long durationNanos) {
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(failure, durationNanos);
+    }
+}
@@ -0,0 +1,120 @@
+package com.nortal.jroad.client.service.callback;
+
+import com.nortal.jroad.client.enums.XroadObjectType;
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import org.junit.Test;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPEnvelope;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class XRoadProtocolNamespaceStrategyV4Test {
+    private final XRoadProtocolNamespaceStrategyV4 strategy = new XRoadProtocolNamespaceStrategyV4() {
+        @Override
+        protected String generateUniqueMessageId(XRoadServiceConfiguration serviceConfiguration) {
+            return "42";
+        }
+    };
+
+    @Test
+    public void testHeaderIsBuiltFromTemplate() throws Exception {
+        SimpleXRoadServiceConfiguration conf = configuration("templated");
+        conf.setIdCode("EE30101010007");
+        conf.setFile("case-1");
+        conf.setVersion("v2");
+        conf.setClientSubsystemCode("client-system");
+        conf.setServiceSubsystemCode("service-system");
+        conf.setServiceObjectType(XroadObjectType.CENTRALSERVICE);
+
+        String expected = "<SOAP-ENV:Header>"
+                + "<xrd:userId>EE30101010007</xrd:userId>"
+                + "<xrd:id>42</xrd:id>"
+                + "<xrd:issue>case-1</xrd:issue>"
+                + "<xrd:protocolVersion>4.0</xrd:protocolVersion>"
+                + "<xrd:client id:objectType=\"SUBSYSTEM\">"
+                + "<id:xRoadInstance>EE</id:xRoadInstance>"
+                + "<id:memberClass>GOV</id:memberClass>"
+                + "<id:memberCode>70000000</id:memberCode>"
+                + "<id:subsystemCode>client-system</id:subsystemCode>"
+                + "</xrd:client>"
+                + "<xrd:service id:objectType=\"CENTRALSERVICE\">"
+                + "<id:xRoadInstance>EE</id:xRoadInstance>"
+                + "<id:memberClass>COM</id:memberClass>"
+                + "<id:memberCode>10000000</id:memberCode>"
+                + "<id:subsystemCode>service-system</id:subsystemCode>"
+                + "<id:serviceCode>templated</id:serviceCode>"
+                + "<id:serviceVersion>v2</id:serviceVersion>"
+                + "</xrd:service>"
+                + "</SOAP-ENV:Header>";
+        // Built from a new template, then from the cached one
+        assertEquals(expected, header(conf));
+        assertEquals(expected, header(conf));
+    }
+
+    @Test
+    public void testTemplateIsSharedByThreads() throws Exception {
+        final SimpleXRoadServiceConfiguration conf = configuration("shared");
+        final String expected = header(conf);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return header(conf);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHeaderIsBuiltElementByElementWhenTemplatesAreFull() throws Exception {
+        String templated = header(configuration("beforeFull"));
+        for (int i = 0; i < 1000; i++) {
+            header(configuration("filler" + i));
+        }
+        String built = header(configuration("afterFull"));
+
+        assertEquals(templated.replace("beforeFull", "afterFull"), built);
+    }
+
+    private static SimpleXRoadServiceConfiguration configuration(String method) {
+        SimpleXRoadServiceConfiguration conf = new SimpleXRoadServiceConfiguration();
+        conf.setMethod(method);
+        conf.setClientXRoadInstance("EE");
+        conf.setClientMemberClass("GOV");
+        conf.setClientMemberCode("70000000");
+        conf.setServiceXRoadInstance("EE");
+        conf.setServiceMemberClass("COM");
+        conf.setServiceMemberCode("10000000");
+        return conf;
+    }
+
+    private String header(XRoadServiceConfiguration conf) throws Exception {
+        SOAPMessage message = MessageFactory.newInstance().createMessage();
+        SOAPEnvelope env = message.getSOAPPart().getEnvelope();
+        strategy.addNamespaces(env);
+        strategy.addXTeeHeaderElements(env, conf);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        String xml = out.toString("UTF-8");
+        return xml.substring(xml.indexOf("<SOAP-ENV:Header>"), xml.indexOf("</SOAP-ENV:Header>") + 18);
+    }
+}
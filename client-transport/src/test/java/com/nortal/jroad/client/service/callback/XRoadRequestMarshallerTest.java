@@ -0,0 +1,147 @@
+package com.nortal.jroad.client.service.callback;
+
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.consumer.StandardXRoadConsumer;
+import com.nortal.jroad.enums.XRoadProtocolVersion;
+import com.nortal.jroad.model.XmlBeansXRoadMetadata;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.junit.Test;
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.xmlbeans.XmlBeansMarshaller;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPBody;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.transform.dom.DOMResult;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class XRoadRequestMarshallerTest {
+    private static final String NS = "http://producer.x-road.eu";
+    private static final XmlBeansXRoadMetadata METADATA =
+            new XmlBeansXRoadMetadata("operation", NS, "request", NS, "response", NS, "v1");
+
+    private static final String CONTENT = "<wrapper xmlns=\"urn:content\" xmlns:a=\"urn:attr\" plain=\"1\" a:qualified=\"2\">"
+            + "<item>one &amp; two</item>"
+            + "<!-- remark -->"
+            + "<other:item xmlns:other=\"urn:other\">three</other:item>"
+            + "<unqualified xmlns=\"\"><nested>four</nested></unqualified>"
+            + "</wrapper>";
+
+    @Test
+    public void testMarshallerIsSharedPerRequestElement() {
+        assertSame(XRoadRequestMarshaller.forMetadata(METADATA),
+                   XRoadRequestMarshaller.forMetadata(new XmlBeansXRoadMetadata("operation", NS, "request", NS,
+                                                                                "response", NS, "v2")));
+    }
+
+    @Test
+    public void testBodyIsBuiltFromSaxEvents() throws Exception {
+        SOAPMessage message = MessageFactory.newInstance().createMessage();
+        SOAPBody body = message.getSOAPBody();
+        XRoadRequestMarshaller.forMetadata(METADATA).marshal(content(), body);
+
+        Element request = firstElement(body);
+        assertEquals(NS, request.getNamespaceURI());
+        assertEquals("request", request.getLocalName());
+        assertEquals(StandardXRoadConsumer.ROOT_NS, request.getPrefix());
+        assertEquals("1", request.getAttributeNS(null, "plain"));
+        assertEquals("2", request.getAttributeNS("urn:attr", "qualified"));
+
+        Element item = firstElement(request);
+        assertEquals("urn:content", item.getNamespaceURI());
+        assertEquals("one & two", item.getTextContent());
+
+        Node comment = item.getNextSibling();
+        assertTrue(comment instanceof Comment);
+        assertEquals(" remark ", comment.getNodeValue());
+
+        Element other = (Element) comment.getNextSibling();
+        assertEquals("urn:other", other.getNamespaceURI());
+        assertEquals("three", other.getTextContent());
+
+        Element unqualified = (Element) other.getNextSibling();
+        assertNull(unqualified.getNamespaceURI());
+        assertNull(firstElement(unqualified).getNamespaceURI());
+        assertEquals("four", unqualified.getTextContent());
+        assertNull(unqualified.getNextSibling());
+    }
+
+    @Test
+    public void testBodyEqualsMarshallerOutput() throws Exception {
+        SOAPMessage built = MessageFactory.newInstance().createMessage();
+        XRoadRequestMarshaller.forMetadata(METADATA).marshal(content(), built.getSOAPBody());
+
+        SOAPMessage marshalled = MessageFactory.newInstance().createMessage();
+        XmlBeansMarshaller marshaller = new XmlBeansMarshaller();
+        marshaller.setXmlOptions(new XmlOptions().setSaveSyntheticDocumentElement(new QName(NS, "request",
+                StandardXRoadConsumer.ROOT_NS)));
+        marshaller.marshal(content(), new DOMResult(marshalled.getSOAPBody()));
+
+        assertEquals(toString(marshalled), toString(built));
+    }
+
+    @Test
+    public void testMarshallerOverrideIsUsedForXmlBeansContent() throws Exception {
+        final XmlBeansMarshaller custom = new XmlBeansMarshaller();
+        custom.setXmlOptions(new XmlOptions().setSaveSyntheticDocumentElement(new QName(NS, "custom", "c")));
+        SimpleXRoadServiceConfiguration configuration = new SimpleXRoadServiceConfiguration();
+        configuration.setProtocolVersion(XRoadProtocolVersion.V4_0);
+        XRoadMessageCallback headerCallback = new XRoadMessageCallback(configuration, null) {
+            @Override
+            public void doWithMessage(WebServiceMessage message) {
+                // No header needed
+            }
+        };
+
+        StandardXRoadConsumerCallback callback = new StandardXRoadConsumerCallback(content(), headerCallback, METADATA) {
+            @Override
+            protected Marshaller getMarshaller() {
+                return custom;
+            }
+        };
+        assertFalse("custom marshallers cannot stream", callback.supportsStreaming());
+
+        SaajSoapMessage message = new SaajSoapMessage(MessageFactory.newInstance().createMessage());
+        callback.doWithMessage(message);
+        assertEquals("custom", firstElement(message.getSaajMessage().getSOAPBody()).getLocalName());
+    }
+
+    private static XmlObject content() throws Exception {
+        XmlCursor cursor = XmlObject.Factory.parse(CONTENT).newCursor();
+        try {
+            cursor.toFirstChild();
+            return cursor.getObject();
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    private static Element firstElement(Node parent) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static String toString(SOAPMessage message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,98 @@
+package com.nortal.jroad.client.service.configuration.provider;
+
+import com.nortal.jroad.client.enums.XroadObjectType;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.enums.XRoadProtocolVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PropertiesBasedXRoadServiceConfigurationProviderTest {
+    private File file;
+    private PropertiesBasedXRoadServiceConfigurationProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("xroad", ".properties");
+        write(file, "http://first");
+        provider = new PropertiesBasedXRoadServiceConfigurationProvider();
+        provider.setResource(new FileSystemResource(file));
+        provider.init();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testConfigurationIsFilledFromProperties() {
+        XRoadServiceConfiguration configuration = provider.createConfiguration("registry", "wsdl", "findPerson", "v2");
+        assertEquals("registry", configuration.getDatabase());
+        assertEquals("wsdl", configuration.getWsdlDatabase());
+        assertEquals("findPerson", configuration.getMethod());
+        assertEquals("v2", configuration.getVersion());
+        assertEquals("http://first", configuration.getSecurityServer());
+        assertEquals("70000000", configuration.getClientMemberCode());
+        assertEquals("10000000", configuration.getServiceMemberCode());
+        assertSame(XRoadProtocolVersion.V4_0, configuration.getProtocolVersion());
+        assertSame(XroadObjectType.SUBSYSTEM, configuration.getServiceObjectType());
+    }
+
+    @Test
+    public void testReloadReplacesContents() throws Exception {
+        write(file, "http://second");
+        assertEquals("read once", "http://first", securityServer());
+
+        provider.reload();
+        assertEquals("http://second", securityServer());
+    }
+
+    @Test
+    public void testFailedReloadKeepsOldContents() {
+        file.delete();
+        try {
+            provider.reload();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("http://first", securityServer());
+    }
+
+    private String securityServer() {
+        return provider.createConfiguration("registry", "wsdl", "findPerson", "v2").getSecurityServer();
+    }
+
+    static void write(File file, String securityServer) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("security-server", securityServer);
+        properties.setProperty("client-xroad-instance", "EE");
+        properties.setProperty("client-member-class", "GOV");
+        properties.setProperty("client-member-code", "70000000");
+        properties.setProperty("client-subsystem-code", "client");
+        properties.setProperty("registry-protocol-version", "4.0");
+        properties.setProperty("registry-xroad-instance", "EE");
+        properties.setProperty("registry-member-class", "COM");
+        properties.setProperty("registry-member-code", "10000000");
+        properties.setProperty("registry-subsystem-code", "registry");
+        properties.setProperty("registry-object-type", "SUBSYSTEM");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+}
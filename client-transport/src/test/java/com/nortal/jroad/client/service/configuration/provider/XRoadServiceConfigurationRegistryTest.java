@@ -0,0 +1,145 @@
+package com.nortal.jroad.client.service.configuration.provider;
+
+import com.nortal.jroad.client.service.configuration.ImmutableXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.util.XRoadProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class XRoadServiceConfigurationRegistryTest {
+    private XRoadServiceConfigurationRegistry registry;
+    private CountingProvider delegate;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingProvider();
+        registry = new XRoadServiceConfigurationRegistry();
+        registry.setDelegate(delegate);
+        registry.init();
+    }
+
+    @After
+    public void tearDown() {
+        registry.destroy();
+    }
+
+    @Test
+    public void testConfigurationIsCreatedOncePerKey() {
+        ImmutableXRoadServiceConfiguration first = registry.getConfiguration("registry", "wsdl", "findPerson", "v1");
+        assertSame(first, registry.getConfiguration("registry", "wsdl", "findPerson", "v1"));
+        assertSame(first, registry.createConfiguration("registry", "wsdl", "findPerson", "v1"));
+        assertEquals(1, delegate.count);
+
+        assertNotSame(first, registry.getConfiguration("registry", "wsdl", "findPerson", "v2"));
+        assertNotSame(first, registry.getConfiguration("registry", "wsdl", "findCompany", "v1"));
+        assertNotSame(first, registry.getConfiguration("registry", null, "findPerson", "v1"));
+        assertEquals(4, delegate.count);
+        assertEquals("findPerson", first.getMethod());
+        assertEquals("v1", first.getVersion());
+    }
+
+    @Test
+    public void testInvokingUserIsDerivedWithoutDelegate() {
+        ImmutableXRoadServiceConfiguration configured = registry.getConfiguration("registry", "wsdl", "findPerson", "v1");
+        XRoadServiceConfiguration user = registry.createConfiguration("registry", "wsdl", "findPerson", "v1", "EE123");
+
+        assertEquals("EE123", user.getIdCode());
+        assertEquals("EE000", configured.getIdCode());
+        assertEquals(configured.getIdentity(), ((ImmutableXRoadServiceConfiguration) user).getIdentity());
+        assertEquals(configured.getSecurityServer(), user.getSecurityServer());
+        assertSame(configured, registry.createConfiguration("registry", "wsdl", "findPerson", "v1", null));
+        assertSame(configured, registry.createConfiguration("registry", "wsdl", "findPerson", "v1", "EE000"));
+        assertEquals(1, delegate.count);
+    }
+
+    @Test
+    public void testReloadReplacesAllConfigurations() throws Exception {
+        File file = File.createTempFile("xroad", ".properties");
+        try {
+            PropertiesBasedXRoadServiceConfigurationProviderTest.write(file, "http://first");
+            PropertiesBasedXRoadServiceConfigurationProvider provider = new PropertiesBasedXRoadServiceConfigurationProvider();
+            provider.setResource(new FileSystemResource(file));
+            provider.init();
+            final boolean[] propertiesReloaded = new boolean[1];
+            registry.setDelegate(provider);
+            registry.setProperties(new XRoadProperties() {
+                @Override
+                public void reload() {
+                    propertiesReloaded[0] = true;
+                }
+            });
+
+            ImmutableXRoadServiceConfiguration before = registry.getConfiguration("registry", "wsdl", "findPerson", "v1");
+            PropertiesBasedXRoadServiceConfigurationProviderTest.write(file, "http://second");
+            assertSame("cached until reloaded", before, registry.getConfiguration("registry", "wsdl", "findPerson", "v1"));
+
+            registry.reload();
+            ImmutableXRoadServiceConfiguration after = registry.getConfiguration("registry", "wsdl", "findPerson", "v1");
+            assertEquals("http://first", before.getSecurityServer());
+            assertEquals("http://second", after.getSecurityServer());
+            assertTrue(propertiesReloaded[0]);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChangedFilesAreReloaded() throws Exception {
+        File file = File.createTempFile("xroad", ".properties");
+        try {
+            PropertiesBasedXRoadServiceConfigurationProviderTest.write(file, "http://first");
+            file.setLastModified(1000000L);
+            PropertiesBasedXRoadServiceConfigurationProvider provider = new PropertiesBasedXRoadServiceConfigurationProvider();
+            provider.setResource(new FileSystemResource(file));
+            provider.init();
+            registry = new XRoadServiceConfigurationRegistry();
+            registry.setDelegate(provider);
+            registry.setReloadInterval(60000);
+            registry.init();
+            assertEquals("http://first", registry.getConfiguration("registry", null, "findPerson", null).getSecurityServer());
+
+            registry.checkForChanges();
+            PropertiesBasedXRoadServiceConfigurationProviderTest.write(file, "http://second");
+            file.setLastModified(1000000L);
+            registry.checkForChanges();
+            assertEquals("unchanged time", "http://first",
+                         registry.getConfiguration("registry", null, "findPerson", null).getSecurityServer());
+
+            file.setLastModified(2000000L);
+            registry.checkForChanges();
+            assertEquals("http://second", registry.getConfiguration("registry", null, "findPerson", null).getSecurityServer());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static class CountingProvider implements XRoadServiceConfigurationProvider {
+        int count;
+
+        @Override
+        public XRoadServiceConfiguration createConfiguration(String database,
+                                                             String wsdlDatabase,
+                                                             String method,
+                                                             String version) {
+            count++;
+            SimpleXRoadServiceConfiguration configuration = new SimpleXRoadServiceConfiguration();
+            configuration.setDatabase(database);
+            configuration.setWsdlDatabase(wsdlDatabase);
+            configuration.setMethod(method);
+            configuration.setVersion(version);
+            configuration.setIdCode("EE000");
+            configuration.setSecurityServer("http://localhost");
+            return configuration;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.nortal.jroad.client.service.consumer;
+
+import com.nortal.jroad.client.exception.XRoadServiceConsumptionException;
+import com.nortal.jroad.client.service.callback.CustomCallback;
+import com.nortal.jroad.client.service.configuration.SimpleXRoadServiceConfiguration;
+import com.nortal.jroad.client.service.configuration.XRoadServiceConfiguration;
+import com.nortal.jroad.client.service.extractor.CustomExtractor;
+import com.nortal.jroad.client.util.XRoadProperties;
+import com.nortal.jroad.model.XRoadAttachment;
+import com.nortal.jroad.model.XRoadMessage;
+import com.nortal.jroad.model.XmlBeansXRoadMessage;
+import org.apache.xmlbeans.XmlObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+import org.springframework.ws.WebServiceMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class CachingXRoadConsumerTest {
+    private final Map<String, String> settings = new HashMap<String, String>();
+    private final CountingConsumer delegate = new CountingConsumer();
+    private CachingXRoadConsumer consumer;
+
+    @Before
+    public void setUp() {
+        settings.put("registry-" + CachingXRoadConsumer.CACHE_TTL, "60");
+        consumer = new CachingXRoadConsumer();
+        consumer.setDelegate(delegate);
+        consumer.setProperties(new XRoadProperties() {
+            @Override
+            public String getProperty(String database, String method, String name) {
+                String value = settings.get(database + "-" + method + "-" + name);
+                return value != null ? value : settings.get(database + "-" + name);
+            }
+        });
+    }
+
+    @Test
+    public void testRepeatedQueryIsAnsweredFromCache() throws Exception {
+        XRoadMessage<XmlObject> first = consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+        XRoadMessage<XmlObject> second = consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+
+        assertEquals(1, delegate.count);
+        assertEquals(first.getContent().xmlText(), second.getContent().xmlText());
+        assertNotSame(first.getContent(), second.getContent());
+        assertEquals(1L, consumer.getCache().getStatistics().getHits());
+    }
+
+    @Test
+    public void testOtherBodyOrUserIsNotAnsweredFromCache() throws Exception {
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+        consumer.sendRequest(request("<code>2</code>"), configuration("EE1"));
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE2"));
+        assertEquals(3, delegate.count);
+    }
+
+    @Test
+    public void testCachingIsOptIn() throws Exception {
+        settings.put("registry-findPerson-" + CachingXRoadConsumer.CACHE_TTL, "0");
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+        assertEquals(2, delegate.count);
+    }
+
+    @Test
+    public void testCustomCallbacksAndAttachmentsBypassCache() throws Exception {
+        CustomCallback callback = new CustomCallback() {
+            @Override
+            public void doWithMessage(WebServiceMessage message) {
+            }
+        };
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"), callback, null);
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"), callback, null);
+        assertEquals(2, delegate.count);
+
+        delegate.attachments = true;
+        consumer.sendRequest(request("<code>2</code>"), configuration("EE1"));
+        consumer.sendRequest(request("<code>2</code>"), configuration("EE1"));
+        assertEquals("responses with attachments are not cached", 4, delegate.count);
+    }
+
+    @Test
+    public void testAsyncResponseIsCached() throws Exception {
+        XRoadMessage<XmlObject> first =
+                consumer.<XmlObject, XmlObject> sendRequestAsync(request("<code>1</code>"), configuration("EE1")).get();
+        XRoadMessage<XmlObject> second =
+                consumer.<XmlObject, XmlObject> sendRequestAsync(request("<code>1</code>"), configuration("EE1")).get();
+        consumer.sendRequest(request("<code>1</code>"), configuration("EE1"));
+
+        assertEquals(1, delegate.count);
+        assertEquals(first.getContent().xmlText(), second.getContent().xmlText());
+    }
+
+    private static XRoadMessage<XmlObject> request(String body) throws Exception {
+        return new XmlBeansXRoadMessage<XmlObject>(XmlObject.Factory.parse(body));
+    }
+
+    private static XRoadServiceConfiguration configuration(String idCode) {
+        SimpleXRoadServiceConfiguration configuration = new SimpleXRoadServiceConfiguration();
+        configuration.setDatabase("registry");
+        configuration.setMethod("findPerson");
+        configuration.setVersion("v1");
+        configuration.setIdCode(idCode);
+        return configuration;
+    }
+
+    private static class CountingConsumer implements XRoadConsumer {
+        int count;
+        boolean attachments;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <I, O> XRoadMessage<O> sendRequest(XRoadMessage<I> input, XRoadServiceConfiguration configuration)
+                throws XRoadServiceConsumptionException {
+            count++;
+            try {
+                XmlObject content = XmlObject.Factory.parse("<person><name>Mari</name><call>" + count + "</call></person>");
+                List<XRoadAttachment> list = new ArrayList<XRoadAttachment>();
+                if (attachments) {
+                    list.add(new XRoadAttachment("cid", "text/plain", new byte[] { 1 }));
+                }
+                return (XRoadMessage<O>) new XmlBeansXRoadMessage<XmlObject>(content, list);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public <I, O> XRoadMessage<O> sendRequest(XRoadMessage<I> input,
+                                                  XRoadServiceConfiguration configuration,
+                                                  CustomCallback callback,
+                                                  CustomExtractor extractor) throws XRoadServiceConsumptionException {
+            return sendRequest(input, configuration);
+        }
+
+        @Override
+        public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(final XRoadMessage<I> input,
+                                                                         final XRoadServiceConfiguration configuration) {
+            ListenableFutureTask<XRoadMessage<O>> task =
+                    new ListenableFutureTask<XRoadMessage<O>>(new Callable<XRoadMessage<O>>() {
+                        @Override
+                        public XRoadMessage<O> call() throws Exception {
+                            return sendRequest(input, configuration);
+                        }
+                    });
+            task.run();
+            return task;
+        }
+
+        @Override
+        public <I, O> ListenableFuture<XRoadMessage<O>> sendRequestAsync(XRoadMessage<I> input,
+                                                                         XRoadServiceConfiguration configuration,
+                                                                         CustomCallback callback,
+                                                                         CustomExtractor extractor) {
+            return sendRequestAsync(input, configuration);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.nortal.jroad.client.transport;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledHttpMessageSenderTest {
+    private PooledHttpMessageSender sender;
+    private ServerSocket server;
+    private final List<Socket> accepted = new ArrayList<Socket>();
+
+    @Before
+    public void setUp() throws Exception {
+        sender = new PooledHttpMessageSender();
+        // Accepts connections but never answers
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                    }
+                } catch (Exception e) {
+                    // Closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.destroy();
+        server.close();
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPoolIsConfiguredFromProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(PooledHttpMessageSender.MAX_TOTAL_KEY, "7");
+        properties.setProperty(PooledHttpMessageSender.MAX_PER_ROUTE_KEY, " 3 ");
+        sender.configure(properties);
+        sender.afterPropertiesSet();
+
+        assertEquals(7, sender.getConnectionManager().getMaxTotal());
+        assertEquals(3, sender.getConnectionManager().getDefaultMaxPerRoute());
+    }
+
+    @Test
+    public void testInvalidSettingIsRejected() {
+        Properties properties = new Properties();
+        properties.setProperty(PooledHttpMessageSender.READ_TIMEOUT_KEY, "1s");
+        try {
+            sender.configure(properties);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(PooledHttpMessageSender.READ_TIMEOUT_KEY));
+        }
+    }
+
+    @Test
+    public void testPoolingCanBeSwitchedOff() {
+        Properties properties = new Properties();
+        assertTrue(PooledHttpMessageSender.isEnabled(properties));
+        properties.setProperty(PooledHttpMessageSender.ENABLED_KEY, "false");
+        assertFalse(PooledHttpMessageSender.isEnabled(properties));
+    }
+
+    @Test
+    public void testSilentServerIsAbandonedAfterReadTimeout() throws Exception {
+        sender.setReadTimeout(200);
+        sender.afterPropertiesSet();
+
+        long start = System.nanoTime();
+        try {
+            sender.getHttpClient().execute(new HttpGet("http://localhost:" + server.getLocalPort() + "/"));
+            fail();
+        } catch (SocketTimeoutException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10000);
+        }
+    }
+
+    @Test
+    public void testExhaustedPoolIsWaitedForAtMostAcquireTimeout() throws Exception {
+        sender.setMaxPerRoute(1);
+        sender.setAcquireTimeout(200);
+        sender.afterPropertiesSet();
+
+        // Hold the only connection of the route
+        HttpRoute route = new HttpRoute(new HttpHost("localhost", server.getLocalPort(), "http"));
+        ConnectionRequest request = sender.getConnectionManager().requestConnection(route, null);
+        request.get(1, TimeUnit.SECONDS);
+
+        try {
+            sender.getHttpClient().execute(new HttpGet("http://localhost:" + server.getLocalPort() + "/"));
+            fail();
+        } catch (ConnectionPoolTimeoutException e) {
+            assertEquals(1, sender.getConnectionManager().getStats(route).getLeased());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.nortal.jroad.client.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestHedgerTest {
+    private static final String OPERATION = "db.method";
+
+    private RequestHedger hedger;
+
+    @Before
+    public void setUp() {
+        hedger = new RequestHedger();
+        configure(RequestHedger.MIN_SAMPLES_KEY, "1");
+        // No budget is earned while response times are collected
+        configure(RequestHedger.BUDGET_KEY, "0");
+        for (int i = 0; i < 64; i++) {
+            assertEquals("original", hedger.execute(OPERATION, 50, 10, new TestAttempt(0)));
+        }
+        assertEquals(0L, hedger.getHedgeCount());
+    }
+
+    @After
+    public void tearDown() {
+        hedger.destroy();
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() {
+        configure(RequestHedger.BUDGET_KEY, "100");
+        TestAttempt attempt = new TestAttempt(0);
+        assertEquals("original", hedger.execute(OPERATION, 50, 200, attempt));
+        assertEquals(0L, hedger.getHedgeCount());
+        assertFalse(attempt.hedgeSent);
+    }
+
+    @Test
+    public void testHedgeAnswersFirstAndAbortsOriginal() throws InterruptedException {
+        configure(RequestHedger.BUDGET_KEY, "100");
+        TestAttempt attempt = new TestAttempt(5000);
+        assertEquals("hedge", hedger.execute(OPERATION, 50, 10, attempt));
+        assertEquals(1L, hedger.getHedgeCount());
+        assertTrue(attempt.originalAborted.await(5, TimeUnit.SECONDS));
+        assertFalse(attempt.hedgeAborted);
+    }
+
+    @Test
+    public void testHedgeIsSentOnlyWithEnoughBudget() {
+        // Half a hedge per request
+        configure(RequestHedger.BUDGET_KEY, "50");
+        assertEquals("original", hedger.execute(OPERATION, 50, 10, new TestAttempt(200)));
+        assertEquals(0L, hedger.getHedgeCount());
+
+        assertEquals("hedge", hedger.execute(OPERATION, 50, 10, new TestAttempt(5000)));
+        assertEquals(1L, hedger.getHedgeCount());
+
+        // The budget was spent
+        assertEquals("original", hedger.execute(OPERATION, 50, 10, new TestAttempt(200)));
+        assertEquals(1L, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void testOriginalFailureIsThrownIfHedgeFailsToo() {
+        configure(RequestHedger.BUDGET_KEY, "100");
+        TestAttempt attempt = new TestAttempt(5000);
+        attempt.hedgeFailure = new IllegalStateException("hedge failed");
+        try {
+            hedger.execute(OPERATION, 50, 10, attempt);
+        } catch (IllegalStateException e) {
+            assertEquals("original aborted", e.getMessage());
+            return;
+        }
+        throw new AssertionError("failure should be passed on");
+    }
+
+    private void configure(String key, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(key, value);
+        hedger.configure(properties);
+    }
+
+    /**
+     * The original copy answers after the given time unless aborted earlier, the hedge answers right away.
+     */
+    private static class TestAttempt implements RequestHedger.Attempt<String> {
+        final CountDownLatch originalAborted = new CountDownLatch(1);
+        final long originalMillis;
+        volatile boolean hedgeSent;
+        volatile boolean hedgeAborted;
+        volatile RuntimeException hedgeFailure;
+
+        TestAttempt(long originalMillis) {
+            this.originalMillis = originalMillis;
+        }
+
+        @Override
+        public String send(boolean hedge) {
+            if (hedge) {
+                hedgeSent = true;
+                if (hedgeFailure != null) {
+                    // Lets the original fail as well
+                    originalAborted.countDown();
+                    throw hedgeFailure;
+                }
+                return "hedge";
+            }
+            try {
+                if (originalMillis > 0 && originalAborted.await(originalMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("original aborted");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "original";
+        }
+
+        @Override
+        public void abort(boolean hedge) {
+            if (hedge) {
+                hedgeAborted = true;
+            } else {
+                originalAborted.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.nortal.jroad.client.transport;
+
+import com.nortal.jroad.client.exception.NonTechnicalFaultException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.client.WebServiceIOException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SecurityServerBalancerTest {
+    private static final String SERVERS = "http://a, http://b";
+
+    private TestBalancer balancer;
+
+    @Before
+    public void setUp() {
+        balancer = new TestBalancer();
+        Properties properties = new Properties();
+        // Probed by the tests themselves
+        properties.setProperty(SecurityServerBalancer.PROBE_INTERVAL_KEY, "0");
+        balancer.configure(properties);
+    }
+
+    @After
+    public void tearDown() {
+        balancer.destroy();
+    }
+
+    @Test
+    public void testFailingServerIsEjectedAndReinstatedWhenReachable() {
+        RecordingExchange exchange = new RecordingExchange("http://a", new IOException("Connection reset"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("http://b", balancer.execute(SERVERS, true, exchange));
+        }
+        SecurityServerNode a = balancer.getGroup(SERVERS)[0];
+        assertTrue(a.isEjected());
+        assertEquals("ejected server is no longer tried", 2, exchange.count("http://a"));
+        assertEquals(0, a.getOutstanding());
+
+        balancer.probe();
+        assertTrue("not reachable yet", a.isEjected());
+
+        balancer.reachable = true;
+        balancer.probe();
+        assertFalse(a.isEjected());
+        assertEquals(0L, a.getLatencyNanos());
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotRetried() {
+        RecordingExchange exchange = new RecordingExchange(null, new IOException("Read timed out"));
+        try {
+            balancer.execute(SERVERS, false, exchange);
+            fail("failure should be passed on");
+        } catch (WebServiceIOException e) {
+            assertEquals(1, exchange.sent.size());
+        }
+    }
+
+    @Test
+    public void testIdempotentRequestIsRetriedOnEveryServer() {
+        RecordingExchange exchange = new RecordingExchange(null, new IOException("Read timed out"));
+        try {
+            balancer.execute(SERVERS, true, exchange);
+            fail("failure should be passed on");
+        } catch (WebServiceIOException e) {
+            assertEquals(2, exchange.sent.size());
+            assertFalse(exchange.sent.get(0).equals(exchange.sent.get(1)));
+        }
+    }
+
+    @Test
+    public void testRefusedConnectionIsRetriedEvenIfNotIdempotent() {
+        RecordingExchange exchange = new RecordingExchange("http://a", new ConnectException("Connection refused"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("http://b", balancer.execute(SERVERS, false, exchange));
+        }
+    }
+
+    @Test
+    public void testBusinessFaultDoesNotCountAsFailure() {
+        RecordingExchange exchange =
+                new RecordingExchange("http://a", new NonTechnicalFaultException("Server.Business", "No such person"));
+        for (int i = 0; i < 5; i++) {
+            try {
+                balancer.execute("http://a,http://a2", true, exchange);
+            } catch (WebServiceIOException e) {
+                assertTrue(e.getCause() instanceof NonTechnicalFaultException);
+            }
+        }
+        assertFalse(balancer.getGroup("http://a,http://a2")[0].isEjected());
+        assertEquals("faults are not retried", 5, exchange.sent.size());
+    }
+
+    @Test
+    public void testAvoidedServerIsUsedOnlyAsLastResort() {
+        RecordingExchange exchange = new RecordingExchange(null, null);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("http://b", balancer.execute(SERVERS, true, "http://a", exchange));
+        }
+        assertEquals("http://a", balancer.execute("http://a", true, "http://a", exchange));
+    }
+
+    @Test
+    public void testErrorReleasesOutstandingRequest() {
+        try {
+            balancer.execute("http://a", true, new SecurityServerBalancer.Exchange<String>() {
+                @Override
+                public String send(String securityServer) {
+                    throw new AssertionError("boom");
+                }
+            });
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("boom", e.getMessage());
+        }
+        SecurityServerNode a = balancer.getGroup("http://a")[0];
+        assertEquals(0, a.getOutstanding());
+        assertFalse(a.isEjected());
+    }
+
+    @Test
+    public void testGroupIsParsedOnce() {
+        SecurityServerNode[] group = balancer.getGroup(SERVERS);
+        assertEquals(2, group.length);
+        assertEquals("http://a", group[0].getUri());
+        assertEquals("http://b", group[1].getUri());
+        assertSame(group, balancer.getGroup(SERVERS));
+        assertTrue(SecurityServerBalancer.isGroup(SERVERS));
+        assertFalse(SecurityServerBalancer.isGroup("http://a"));
+    }
+
+    private static class TestBalancer extends SecurityServerBalancer {
+        volatile boolean reachable;
+
+        @Override
+        protected boolean isReachable(String uri) {
+            return reachable;
+        }
+    }
+
+    /**
+     * Fails with the given exception at the given server, or at all servers if none is given.
+     */
+    private static class RecordingExchange implements SecurityServerBalancer.Exchange<String> {
+        final List<String> sent = new ArrayList<String>();
+        private final String failingServer;
+        private final IOException failure;
+
+        RecordingExchange(String failingServer, IOException failure) {
+            this.failingServer = failingServer;
+            this.failure = failure;
+        }
+
+        @Override
+        public String send(String securityServer) {
+            sent.add(securityServer);
+            if (failure != null && (failingServer == null || failingServer.equals(securityServer))) {
+                throw new WebServiceIOException(failure.getMessage(), failure);
+            }
+            return securityServer;
+        }
+
+        int count(String securityServer) {
+            int count = 0;
+            for (String server : sent) {
+                count += server.equals(securityServer) ? 1 : 0;
+            }
+            return count;
+        }
+    }
+}
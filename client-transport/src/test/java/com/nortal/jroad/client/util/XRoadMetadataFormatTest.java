@@ -0,0 +1,64 @@
+package com.nortal.jroad.client.util;
+
+import com.nortal.jroad.model.XmlBeansXRoadMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class XRoadMetadataFormatTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, Collection<XmlBeansXRoadMetadata>> databases =
+                new LinkedHashMap<String, Collection<XmlBeansXRoadMetadata>>();
+        databases.put("RR", Arrays.asList(
+                new XmlBeansXRoadMetadata("RR40isikTaielik", "http://rr.x-road.eu/producer", "RR40isikTaielik",
+                        "http://rr.x-road.eu/producer", "RR40isikTaielikResponse", "http://rr.x-road.eu/producer", "v1"),
+                new XmlBeansXRoadMetadata("RR41", "http://rr.x-road.eu/producer", "RR41", "", "RR41Response", "",
+                        null)));
+        databases.put("arireg", Arrays.asList(
+                new XmlBeansXRoadMetadata("detailandmed_v5", "http://arireg.x-road.eu/producer", "detailandmed_v5",
+                        "http://arireg.x-road.eu/producer", "detailandmed_v5Response",
+                        "http://arireg.x-road.eu/producer", "v1")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XRoadMetadataFormat.write(databases, out);
+        byte[] data = out.toByteArray();
+
+        assertTrue(XRoadMetadataFormat.isCompact(data));
+        assertFalse(XRoadMetadataFormat.isCompact(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 }));
+
+        Map<String, int[]> directory = XRoadMetadataFormat.readDirectory(new ByteArrayInputStream(data));
+        assertEquals(Arrays.asList("rr", "arireg"), Arrays.asList(directory.keySet().toArray()));
+
+        List<XmlBeansXRoadMetadata> rr = readSection(data, directory.get("rr"));
+        assertEquals(2, rr.size());
+        assertEquals("RR40isikTaielik", rr.get(0).getOperationName());
+        assertEquals("RR40isikTaielikResponse", rr.get(0).getResponseElementName());
+        assertEquals("v1", rr.get(0).getVersion());
+        assertEquals("", rr.get(1).getRequestElementNs());
+        assertNull(rr.get(1).getVersion());
+
+        List<XmlBeansXRoadMetadata> arireg = readSection(data, directory.get("arireg"));
+        assertEquals(1, arireg.size());
+        assertEquals("detailandmed_v5", arireg.get(0).getOperationName());
+    }
+
+    private List<XmlBeansXRoadMetadata> readSection(byte[] data, int[] location) throws IOException {
+        byte[] section = new byte[location[1]];
+        System.arraycopy(data, location[0], section, 0, location[1]);
+        return XRoadMetadataFormat.readSection(section);
+    }
+}
@@ -36,4 +36,11 @@ public class ByteArrayDataSource implements DataSource {
   public String getName() {
     return "ByteArrayDataSource";
   }
+
+  /**
+   * @return the wrapped array itself, not a copy
+   */
+  public byte[] getData() {
+    return data;
+  }
 }
\ No newline at end of file
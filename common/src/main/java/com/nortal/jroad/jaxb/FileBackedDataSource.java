@@ -0,0 +1,47 @@
+package com.nortal.jroad.jaxb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+/**
+ * A {@link DataSource} implementation, that reads content from a file each time a stream is requested, so the content
+ * is never kept in memory.
+ */
+public class FileBackedDataSource implements DataSource {
+  private File file;
+  private String contentType;
+
+  public FileBackedDataSource(String contentType, File file) {
+    this.contentType = contentType;
+    this.file = file;
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return new FileInputStream(file);
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getName() {
+    return file.getName();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getSize() {
+    return file.length();
+  }
+}
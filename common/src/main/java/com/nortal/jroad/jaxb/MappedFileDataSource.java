@@ -0,0 +1,130 @@
+package com.nortal.jroad.jaxb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.activation.DataSource;
+
+/**
+ * A {@link DataSource} implementation for large read-only files, that maps the file into memory once and reads content
+ * directly from the mapping. Content is paged in by the operating system and does not take up heap space, each stream
+ * reads its own view of the same mapping. The file must not be modified or truncated while it is mapped.
+ */
+public class MappedFileDataSource implements DataSource {
+  private File file;
+  private String contentType;
+  private MappedByteBuffer buffer;
+
+  public MappedFileDataSource(String contentType, File file) {
+    this.contentType = contentType;
+    this.file = file;
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return new ByteBufferInputStream(getBuffer().duplicate());
+  }
+
+  private synchronized ByteBuffer getBuffer() throws IOException {
+    if (buffer == null) {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("File " + file + " is too large to be mapped: " + channel.size() + " bytes");
+        }
+        // mapping stays valid after the channel is closed
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        raf.close();
+      }
+    }
+    return buffer;
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getName() {
+    return file.getName();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getSize() {
+    return file.length();
+  }
+
+  /**
+   * Reads the remaining content of a buffer without copying it first.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      try {
+        buffer.reset();
+      } catch (InvalidMarkException e) {
+        throw new IOException("Resetting to invalid mark");
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.nortal.jroad.jaxb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * A {@link DataSource} implementation, that keeps content written to {@link #getOutputStream()} in memory up to the
+ * given threshold and moves it to a temporary file when the threshold is exceeded. Content can be read after the output
+ * stream has been closed; the temporary file is deleted by {@link #dispose()}.
+ */
+public class SpillOverDataSource implements DataSource {
+  private static final Log log = LogFactory.getLog(SpillOverDataSource.class);
+
+  private String contentType;
+  private int threshold;
+  private ExposedByteArrayOutputStream memory;
+  private File file;
+  private boolean writing;
+  private boolean written;
+
+  public SpillOverDataSource(String contentType, int threshold) {
+    this.contentType = contentType;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Creates a data source with the whole content of the given stream, which is closed afterwards.
+   */
+  public static SpillOverDataSource of(String contentType, InputStream in, int threshold) throws IOException {
+    SpillOverDataSource dataSource = new SpillOverDataSource(contentType, threshold);
+    try {
+      FileCopyUtils.copy(in, dataSource.getOutputStream());
+    } catch (IOException e) {
+      dataSource.dispose();
+      throw e;
+    }
+    return dataSource;
+  }
+
+  public synchronized InputStream getInputStream() throws IOException {
+    if (!written) {
+      throw new IllegalStateException("Content has not been written yet");
+    }
+    if (file != null) {
+      return new FileInputStream(file);
+    }
+    if (memory == null) {
+      throw new IllegalStateException("Content has been disposed");
+    }
+    return memory.toInputStream();
+  }
+
+  public synchronized OutputStream getOutputStream() throws IOException {
+    if (writing || written) {
+      throw new IllegalStateException("Content can be written only once");
+    }
+    writing = true;
+    memory = new ExposedByteArrayOutputStream();
+    return new SpillingOutputStream();
+  }
+
+  public synchronized boolean isInMemory() {
+    return file == null;
+  }
+
+  public synchronized long getSize() {
+    return file != null ? file.length() : memory == null ? 0 : memory.size();
+  }
+
+  /**
+   * Releases the content, deleting the temporary file if one was created.
+   */
+  public synchronized void dispose() {
+    memory = null;
+    if (file != null) {
+      if (!file.delete()) {
+        log.warn("Failed to delete temporary file " + file.getAbsolutePath());
+      }
+      file = null;
+    }
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getName() {
+    return "SpillOverDataSource";
+  }
+
+  private synchronized void written() {
+    writing = false;
+    written = true;
+  }
+
+  /**
+   * Writes to memory until the threshold is exceeded, then to a temporary file.
+   */
+  private class SpillingOutputStream extends OutputStream {
+    private OutputStream out = memory;
+    private boolean closed;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Stream is closed");
+      }
+      if (file == null && memory.size() + len > threshold) {
+        spill();
+      }
+      out.write(b, off, len);
+    }
+
+    private void spill() throws IOException {
+      synchronized (SpillOverDataSource.this) {
+        file = File.createTempFile("xroad", ".att");
+        out = new FileOutputStream(file);
+        memory.writeTo(out);
+        memory = null;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        out.close();
+      } finally {
+        written();
+      }
+    }
+  }
+
+  /**
+   * Gives access to the written bytes without copying them.
+   */
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    synchronized InputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+}
@@ -9,6 +9,7 @@
 
 package com.nortal.jroad.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -18,6 +19,9 @@ import org.springframework.core.io.InputStreamSource;
 import org.springframework.util.FileCopyUtils;
 
 import com.nortal.jroad.jaxb.ByteArrayDataSource;
+import com.nortal.jroad.jaxb.FileBackedDataSource;
+import com.nortal.jroad.jaxb.MappedFileDataSource;
+import com.nortal.jroad.jaxb.SpillOverDataSource;
 
 /**
  * XTee messages are sometimes allowed to contain MIME attachments, which this class encapsulates. Each attachment has
@@ -42,6 +46,31 @@ public class XRoadAttachment implements InputStreamSource {
     this.dataHandler = dataHandler;
   }
 
+  /**
+   * Creates an attachment, whose content is read from the file only when it is needed.
+   */
+  public static XRoadAttachment fromFile(String cid, String contentType, File file) {
+    return new XRoadAttachment(cid, new DataHandler(new FileBackedDataSource(contentType, file)));
+  }
+
+  /**
+   * Creates an attachment, whose content is read from a memory mapping of the file. Suitable for large files that are
+   * not modified while the attachment is used.
+   */
+  public static XRoadAttachment fromMappedFile(String cid, String contentType, File file) {
+    return new XRoadAttachment(cid, new DataHandler(new MappedFileDataSource(contentType, file)));
+  }
+
+  /**
+   * Creates an attachment with the content of the given stream, which is kept in memory if it is not larger than
+   * <code>threshold</code> bytes and in a temporary file otherwise (see {@link SpillOverDataSource#dispose()}). The
+   * stream is closed afterwards.
+   */
+  public static XRoadAttachment fromStream(String cid, String contentType, InputStream in, int threshold)
+      throws IOException {
+    return new XRoadAttachment(cid, new DataHandler(SpillOverDataSource.of(contentType, in, threshold)));
+  }
+
   public InputStream getInputStream() throws IOException {
     return dataHandler.getInputStream();
   }
@@ -59,6 +88,17 @@ public class XRoadAttachment implements InputStreamSource {
     return FileCopyUtils.copyToByteArray(dataHandler.getInputStream());
   }
 
+  /**
+   * Like {@link #getData()}, but returns the array itself if the attachment was created from an array, so changes to
+   * the returned array change the attachment.
+   */
+  public byte[] getSharedData() throws IOException {
+    if (dataHandler.getDataSource() instanceof ByteArrayDataSource) {
+      return ((ByteArrayDataSource) dataHandler.getDataSource()).getData();
+    }
+    return getData();
+  }
+
   public String getContentType() {
     return dataHandler.getContentType();
   }
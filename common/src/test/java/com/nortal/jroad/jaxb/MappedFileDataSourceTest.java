@@ -0,0 +1,64 @@
+package com.nortal.jroad.jaxb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedFileDataSourceTest {
+    private File file;
+    private MappedFileDataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", ".dat");
+        FileCopyUtils.copy("0123456789".getBytes("US-ASCII"), file);
+        dataSource = new MappedFileDataSource("text/plain", file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testStreamsReadIndependently() throws Exception {
+        InputStream first = dataSource.getInputStream();
+        assertEquals((int) '0', first.read());
+        assertEquals(3L, first.skip(3));
+        InputStream second = dataSource.getInputStream();
+        assertEquals("0123456789", new String(FileCopyUtils.copyToByteArray(second), "US-ASCII"));
+        assertEquals((int) '4', first.read());
+        assertEquals(5, first.available());
+    }
+
+    @Test
+    public void testResetReturnsToMark() throws Exception {
+        InputStream in = dataSource.getInputStream();
+        assertTrue(in.markSupported());
+        in.skip(2);
+        in.mark(10);
+        assertEquals((int) '2', in.read());
+        in.reset();
+        assertEquals((int) '2', in.read());
+    }
+
+    @Test
+    public void testResetWithoutMarkFails() throws Exception {
+        InputStream in = dataSource.getInputStream();
+        try {
+            in.reset();
+            fail();
+        } catch (IOException e) {
+            // Expected, as with other streams
+        }
+    }
+}
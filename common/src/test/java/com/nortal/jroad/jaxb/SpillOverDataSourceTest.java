@@ -0,0 +1,113 @@
+package com.nortal.jroad.jaxb;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillOverDataSourceTest {
+    private SpillOverDataSource dataSource;
+
+    @After
+    public void tearDown() {
+        if (dataSource != null) {
+            dataSource.dispose();
+        }
+    }
+
+    @Test
+    public void testContentUpToThresholdStaysInMemory() throws Exception {
+        byte[] content = content(100);
+        dataSource = SpillOverDataSource.of("application/octet-stream", new ByteArrayInputStream(content), 100);
+
+        assertTrue(dataSource.isInMemory());
+        assertEquals(100L, dataSource.getSize());
+        assertTrue(Arrays.equals(content, read(dataSource)));
+        assertTrue("content can be read again", Arrays.equals(content, read(dataSource)));
+    }
+
+    @Test
+    public void testContentOverThresholdIsMovedToFile() throws Exception {
+        byte[] content = content(101);
+        dataSource = new SpillOverDataSource("application/octet-stream", 100);
+        OutputStream out = dataSource.getOutputStream();
+        out.write(content, 0, 60);
+        assertTrue(dataSource.isInMemory());
+        out.write(content, 60, 40);
+        assertTrue(dataSource.isInMemory());
+        out.write(content[100]);
+        assertFalse("threshold exceeded", dataSource.isInMemory());
+        out.close();
+
+        File file = getFile(dataSource);
+        assertTrue(file.exists());
+        assertEquals(101L, dataSource.getSize());
+        assertTrue(Arrays.equals(content, read(dataSource)));
+
+        dataSource.dispose();
+        assertFalse("temporary file is deleted", file.exists());
+    }
+
+    @Test
+    public void testDisposedContentCannotBeRead() throws Exception {
+        dataSource = SpillOverDataSource.of("text/plain", new ByteArrayInputStream(content(10)), 100);
+        dataSource.dispose();
+        try {
+            dataSource.getInputStream();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testContentIsReadableOnlyAfterWriting() throws Exception {
+        dataSource = new SpillOverDataSource("text/plain", 100);
+        OutputStream out = dataSource.getOutputStream();
+        try {
+            dataSource.getInputStream();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            dataSource.getOutputStream();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        out.close();
+        assertEquals(0, read(dataSource).length);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static byte[] read(SpillOverDataSource dataSource) throws IOException {
+        InputStream in = dataSource.getInputStream();
+        return FileCopyUtils.copyToByteArray(in);
+    }
+
+    private static File getFile(SpillOverDataSource dataSource) throws Exception {
+        Field field = SpillOverDataSource.class.getDeclaredField("file");
+        field.setAccessible(true);
+        return (File) field.get(dataSource);
+    }
+}
@@ -9,6 +9,7 @@
 
 package com.nortal.jroad.endpoint;
 
+import com.nortal.jroad.endpoint.helper.AttachmentPartDataSource;
 import com.nortal.jroad.enums.XRoadProtocolVersion;
 import com.nortal.jroad.model.BeanXRoadMessage;
 import com.nortal.jroad.model.XRoadAttachment;
@@ -20,6 +21,8 @@ import com.nortal.jroad.wsdl.XTeeWsdlDefinition;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.soap.AttachmentPart;
 import javax.xml.soap.SOAPElement;
@@ -46,6 +49,7 @@ import org.w3c.dom.NodeList;
 public abstract class AbstractXTeeBaseEndpoint implements MessageEndpoint {
   protected boolean metaService = false;
   protected XRoadProtocolVersion version;
+  private int attachmentSpillThreshold = -1;
 
   public final void invoke(MessageContext messageContext) throws Exception {
     SOAPMessage paringMessage = SOAPUtil.extractSoapMessage(messageContext.getRequest());
@@ -100,9 +104,13 @@ public abstract class AbstractXTeeBaseEndpoint implements MessageEndpoint {
 
     // Build request message
     List<XRoadAttachment> attachments = new ArrayList<XRoadAttachment>();
+    List<AttachmentPartDataSource> attachmentSources = new ArrayList<AttachmentPartDataSource>();
     for (Iterator<AttachmentPart> i = requestMessage.getAttachments(); i.hasNext();) {
       AttachmentPart a = i.next();
-      attachments.add(new XRoadAttachment(a.getContentId(), a.getContentType(), a.getRawContentBytes()));
+      // content is read from the request only when the endpoint asks for it
+      AttachmentPartDataSource source = new AttachmentPartDataSource(a, attachmentSpillThreshold);
+      attachmentSources.add(source);
+      attachments.add(new XRoadAttachment(a.getContentId(), new DataHandler(source)));
     }
     XRoadMessage<Document> request = new BeanXRoadMessage<Document>(header, query, attachments);
 
@@ -118,17 +126,40 @@ public abstract class AbstractXTeeBaseEndpoint implements MessageEndpoint {
     XRoadMessage<Element> response =
         new BeanXRoadMessage<Element>(header, teenusElement, new ArrayList<XRoadAttachment>());
 
-    // Run logic
-    invokeInternalEx(request, response, requestMessage, responseMessage);
+    boolean completed = false;
+    try {
+      // Run logic
+      invokeInternalEx(request, response, requestMessage, responseMessage);
 
-    // Add any attachments
-    for (XRoadAttachment a : response.getAttachments()) {
-      AttachmentPart attachment = responseMessage.createAttachmentPart(a.getDataHandler());
-      attachment.setContentId("<" + a.getCid() + ">");
-      responseMessage.addAttachmentPart(attachment);
+      // Add any attachments, content is streamed from the data handlers when the response is written
+      for (XRoadAttachment a : response.getAttachments()) {
+        AttachmentPart attachment = responseMessage.createAttachmentPart(a.getDataHandler());
+        attachment.setContentId("<" + a.getCid() + ">");
+        responseMessage.addAttachmentPart(attachment);
+      }
+      completed = true;
+    } finally {
+      for (XRoadAttachment a : response.getAttachments()) {
+        DataSource source = a.getDataHandler().getDataSource();
+        if (completed && attachmentSources.remove(source)) {
+          // Still needed for writing the response, disposed when it has been written
+          ((AttachmentPartDataSource) source).setDisposeOnClose(true);
+        }
+      }
+      for (AttachmentPartDataSource source : attachmentSources) {
+        source.dispose();
+      }
     }
   }
 
+  /**
+   * @param attachmentSpillThreshold size in bytes above which content of a request attachment is copied to a temporary
+   *          file when it is first read, negative (default) to always read it from the request message
+   */
+  public void setAttachmentSpillThreshold(int attachmentSpillThreshold) {
+    this.attachmentSpillThreshold = attachmentSpillThreshold;
+  }
+
   protected Document parseQuery(SOAPMessage queryMsg) throws Exception {
     Node bodyNode = SOAPUtil.getFirstNonTextChild(queryMsg.getSOAPBody());
     if (XRoadProtocolVersion.V2_0 == version) {
@@ -0,0 +1,107 @@
+package com.nortal.jroad.endpoint.helper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.SOAPException;
+
+import com.nortal.jroad.jaxb.SpillOverDataSource;
+
+/**
+ * A {@link DataSource} reading the content of a request attachment part from the SAAJ implementation only when it is
+ * needed, without copying it into a new array. Content larger than the spill threshold is copied to a temporary file
+ * when it is read for the first time and read from there afterwards, so that it is taken from the MIME parser once.
+ */
+public class AttachmentPartDataSource implements DataSource {
+  private final AttachmentPart part;
+  private final int spillThreshold;
+  private SpillOverDataSource spilled;
+  private boolean disposeOnClose;
+
+  /**
+   * @param spillThreshold size in bytes above which the content is copied to a temporary file, negative to always read
+   *          the content from the attachment part
+   */
+  public AttachmentPartDataSource(AttachmentPart part, int spillThreshold) {
+    this.part = part;
+    this.spillThreshold = spillThreshold;
+  }
+
+  public synchronized InputStream getInputStream() throws IOException {
+    if (spilled != null) {
+      return disposeOnClose ? new DisposingInputStream(spilled.getInputStream()) : spilled.getInputStream();
+    }
+    InputStream content = getRawContent();
+    if (spillThreshold < 0 || disposeOnClose || !isLarge()) {
+      return content;
+    }
+    spilled = SpillOverDataSource.of(getContentType(), content, spillThreshold);
+    return spilled.getInputStream();
+  }
+
+  private boolean isLarge() throws IOException {
+    try {
+      int size = part.getSize();
+      return size < 0 || size > spillThreshold;
+    } catch (SOAPException e) {
+      throw new IOException("Failed to get size of attachment " + part.getContentId() + ": " + e.getMessage());
+    }
+  }
+
+  private InputStream getRawContent() throws IOException {
+    try {
+      return part.getRawContent();
+    } catch (SOAPException e) {
+      throw new IOException("Failed to get content of attachment " + part.getContentId() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes the temporary file, if content was copied to one.
+   */
+  public synchronized void dispose() {
+    if (spilled != null) {
+      spilled.dispose();
+      spilled = null;
+    }
+  }
+
+  /**
+   * Makes the temporary file be deleted when a stream reading it is closed, for content passed on to the response,
+   * which is read after the endpoint has returned. Content is read from the attachment part afterwards.
+   */
+  public synchronized void setDisposeOnClose(boolean disposeOnClose) {
+    this.disposeOnClose = disposeOnClose;
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public String getContentType() {
+    return part.getContentType();
+  }
+
+  public String getName() {
+    return part.getContentId();
+  }
+
+  private class DisposingInputStream extends FilterInputStream {
+    DisposingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        dispose();
+      }
+    }
+  }
+}
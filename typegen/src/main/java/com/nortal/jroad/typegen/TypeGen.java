@@ -1,16 +1,17 @@
 package com.nortal.jroad.typegen;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.URISyntaxException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -30,6 +31,8 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.nortal.jroad.client.util.XRoadMetadataFormat;
+import com.nortal.jroad.client.util.XRoadMetadataRegistry;
 import com.nortal.jroad.enums.XRoadProtocolVersion;
 import com.nortal.jroad.model.XmlBeansXRoadMetadata;
 import com.nortal.jroad.typegen.database.DatabaseClasses;
@@ -127,20 +130,35 @@ public class TypeGen {
   }
 
   /**
-   * Serializes metadata to specified directory.
+   * Writes metadata to specified directory in the compact format read by {@link XRoadMetadataRegistry}.
    *
    * @param dir
    */
   private static void saveMetadata(String dir) throws Exception {
-    File metafile = new File(dir, "xroad.metadata");
+    Map<String, List<XmlBeansXRoadMetadata>> databases = new LinkedHashMap<String, List<XmlBeansXRoadMetadata>>();
+    for (Map.Entry<String, XmlBeansXRoadMetadata> entry : metadata.entrySet()) {
+      String database = getDatabase(entry.getKey(), entry.getValue());
+      List<XmlBeansXRoadMetadata> operations = databases.get(database);
+      if (operations == null) {
+        operations = new ArrayList<XmlBeansXRoadMetadata>();
+        databases.put(database, operations);
+      }
+      operations.add(entry.getValue());
+    }
+
+    File metafile = new File(dir, XRoadMetadataRegistry.METADATA_RESOURCE);
     metafile.createNewFile();
     FileOutputStream fos = new FileOutputStream(metafile);
-    ObjectOutputStream stream = new ObjectOutputStream(fos);
-    stream.writeObject(metadata);
+    BufferedOutputStream stream = new BufferedOutputStream(fos);
+    XRoadMetadataFormat.write(databases, stream);
     stream.close();
     fos.close();
   }
 
+  private static String getDatabase(String key, XmlBeansXRoadMetadata serviceMetadata) {
+    return key.substring(0, key.lastIndexOf(serviceMetadata.getOperationName().toLowerCase()));
+  }
+
   /**
    * Generates the XMLBeans source files.
    *
@@ -483,8 +501,7 @@ public class TypeGen {
     for (Map.Entry<String, XmlBeansXRoadMetadata> entry : metadata.entrySet()) {
       XmlBeansXRoadMetadata serviceMetadata = entry.getValue();
 
-      String key = entry.getKey();
-      String database = key.substring(0, key.lastIndexOf(serviceMetadata.getOperationName().toLowerCase()));
+      String database = getDatabase(entry.getKey(), serviceMetadata);
 
       classes.add(database, serviceMetadata);
     }